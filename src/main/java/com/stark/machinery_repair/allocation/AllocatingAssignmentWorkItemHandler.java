@@ -0,0 +1,371 @@
+package com.stark.machinery_repair.allocation;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.LongPredicate;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.stark.machinery_repair.rest.ChainedRestHandler;
+import com.stark.machinery_repair.rest.HttpRestClient;
+import com.stark.machinery_repair.rest.RestChain;
+import com.stark.machinery_repair.rest.RestClient;
+import com.stark.machinery_repair.rest.RestRequest;
+import com.stark.machinery_repair.rest.RestResponse;
+import com.stark.machinery_repair.util.BatchAccumulator;
+import com.stark.machinery_repair.util.DaemonThreadFactory;
+import com.stark.machinery_repair.util.SessionTransactions;
+import org.kie.api.runtime.Environment;
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.process.WorkItem;
+import org.kie.api.runtime.process.WorkItemHandler;
+import org.kie.api.runtime.process.WorkItemManager;
+import org.kie.internal.runtime.Closeable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@code Rest} handler that holds "Assign parts to Repair Request" calls for a short window and allocates the
+ * stock of every branch to the whole batch at once with the {@link PartsAllocator}, instead of letting the
+ * instances race for it one call at a time.
+ * <p>
+ * For each batch the stock URL receives a JSON array of {@code {"partCode":...}} lookups and must answer with a
+ * JSON array of {@code {"partCode":..., "branchCode":..., "availableQuantity":...}} lots, one per branch holding
+ * the part. Then:
+ * <ul>
+ * <li>requests the solver serves go to the delegate handler, so the call to their assignment URL keeps its
+ * concurrency limit, circuit breaker and metrics; when the parts come from another branch the request body also
+ * carries that branch as {@code sourceBranchCode},</li>
+ * <li>requests it cannot serve complete with {@code {"responseCode":"NOK"}}, without a call, and take the retry and
+ * purchase order path,</li>
+ * <li>requests for parts the stock answer does not mention, and the whole batch when the stock lookup fails, go
+ * to the delegate handler.</li>
+ * </ul>
+ * Batches are solved one after another, so two batches never allocate the same snapshot; the NOK completions run
+ * on separate threads, so the next batch does not wait for the instances of the last one to move on.
+ * A request only joins a batch once the transaction that created its work item has committed. The window is
+ * {@code machinery-repair.allocation.window-ms} (200 ms by default) or {@code machinery-repair.allocation.batch-size}
+ * requests (50 by default), whichever fills first. All other {@code Rest} work items, and assignments while no
+ * {@code machinery-repair.allocation.stock-url} is configured, go to the delegate handler.
+ */
+public class AllocatingAssignmentWorkItemHandler implements ChainedRestHandler, Closeable {
+    private static Logger logger = LoggerFactory.getLogger(AllocatingAssignmentWorkItemHandler.class);
+
+    public static final String STOCK_URL_PROPERTY = "machinery-repair.allocation.stock-url";
+    public static final String BATCH_SIZE_PROPERTY = "machinery-repair.allocation.batch-size";
+    public static final String WINDOW_PROPERTY = "machinery-repair.allocation.window-ms";
+
+    static final String NOK_RESULT = "{\"responseCode\":\"NOK\"}";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final KieSession ksession;
+    private final WorkItemHandler delegate;
+    private final RestClient restClient;
+    private final PartsAllocator allocator;
+    private final String stockUrl;
+    private final BatchAccumulator<String, PendingAssignment> accumulator;
+    private final ExecutorService completions;
+    // assignments waiting for or in a batch, until they are completed or handed on
+    private final Set<Long> held = ConcurrentHashMap.newKeySet();
+    private volatile Environment environment;
+
+    private final AtomicLong allocated = new AtomicLong();
+    private final AtomicLong remote = new AtomicLong();
+    private final AtomicLong unserved = new AtomicLong();
+    private final AtomicLong delegated = new AtomicLong();
+
+    public AllocatingAssignmentWorkItemHandler(KieSession ksession, WorkItemHandler delegate) {
+        this(ksession, delegate, new HttpRestClient(), new PartsAllocator(), System.getProperty(STOCK_URL_PROPERTY),
+                Integer.getInteger(BATCH_SIZE_PROPERTY, 50), Long.getLong(WINDOW_PROPERTY, 200L));
+    }
+
+    public AllocatingAssignmentWorkItemHandler(KieSession ksession, WorkItemHandler delegate, RestClient restClient,
+            PartsAllocator allocator, String stockUrl, int maxBatchSize, long windowMillis) {
+        this.ksession = ksession;
+        this.delegate = delegate;
+        this.restClient = restClient;
+        this.allocator = allocator;
+        this.stockUrl = stockUrl;
+        this.accumulator = stockUrl == null ? null
+                : new BatchAccumulator<>("parts-allocation", maxBatchSize, windowMillis, 1, this::allocate);
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(2, 2, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                new DaemonThreadFactory("parts-allocation-completion"));
+        pool.allowCoreThreadTimeOut(true);
+        this.completions = pool;
+        addHolder(held::contains);
+    }
+
+    @Override
+    public void executeWorkItem(WorkItem workItem, WorkItemManager manager) {
+        ObjectNode request = accumulator == null ? null : assignmentRequest(workItem);
+        if (request == null) {
+            delegate.executeWorkItem(workItem, manager);
+            return;
+        }
+        if (!held.add(workItem.getId())) {
+            logger.debug("Assignment work item {} is already waiting for a batch", workItem.getId());
+            return;
+        }
+        String url = (String) workItem.getParameter("Url");
+        PendingAssignment pending = new PendingAssignment(workItem, request);
+        SessionTransactions.afterCompletion(environment(), () -> accumulator.add(url, pending), () -> held.remove(workItem.getId()));
+    }
+
+    @Override
+    public void abortWorkItem(WorkItem workItem, WorkItemManager manager) {
+        ObjectNode request = accumulator == null ? null : assignmentRequest(workItem);
+        if (request != null && held.remove(workItem.getId())) {
+            accumulator.remove((String) workItem.getParameter("Url"), new PendingAssignment(workItem, request));
+            return;
+        }
+        delegate.abortWorkItem(workItem, manager);
+    }
+
+    @Override
+    public void call(WorkItem workItem, Consumer<Map<String, Object>> onResults) {
+        RestChain.call(delegate, restClient, workItem, onResults);
+    }
+
+    @Override
+    public void addHolder(LongPredicate holder) {
+        RestChain.addHolder(delegate, holder);
+    }
+
+    public int getPendingAssignments() {
+        return accumulator == null ? 0 : accumulator.pendingCount();
+    }
+
+    public long getAllocated() {
+        return allocated.get();
+    }
+
+    public long getRemoteAllocated() {
+        return remote.get();
+    }
+
+    public long getUnserved() {
+        return unserved.get();
+    }
+
+    public long getDelegated() {
+        return delegated.get();
+    }
+
+    /**
+     * "Assign parts to Repair Request" is the only {@code POST} in the process that carries a
+     * {@code repairRequestId}, see {@code PartsStorageUtil.jsonQueryRequestForRepairRequest}.
+     */
+    static ObjectNode assignmentRequest(WorkItem workItem) {
+        if (!"POST".equalsIgnoreCase((String) workItem.getParameter("Method"))) {
+            return null;
+        }
+        Object content = workItem.getParameter("ContentData");
+        if (content == null) {
+            return null;
+        }
+        try {
+            JsonNode request = MAPPER.readTree(content.toString());
+            if (request == null || !request.isObject() || !request.hasNonNull("repairRequestId") || !request.hasNonNull("partCode")
+                    || !request.hasNonNull("branchCode") || !request.path("quantity").canConvertToInt()) {
+                return null;
+            }
+            return (ObjectNode) request;
+        } catch (IOException e) {
+            logger.warn("Request of work item {} is not valid JSON, not allocating it", workItem.getId());
+            return null;
+        }
+    }
+
+    private void allocate(String url, List<PendingAssignment> batch) {
+        Map<String, List<StockLot>> lotsByPartCode = queryStock(batch);
+        if (lotsByPartCode == null) {
+            delegateAll(batch);
+            return;
+        }
+        List<PartAllocation> requests = new ArrayList<>();
+        List<PendingAssignment> unknown = new ArrayList<>();
+        Map<Long, PendingAssignment> byWorkItemId = new HashMap<>();
+        for (PendingAssignment pending : batch) {
+            if (lotsByPartCode.containsKey(pending.partCode())) {
+                requests.add(pending.toAllocation());
+                byWorkItemId.put(pending.workItem.getId(), pending);
+            } else {
+                unknown.add(pending);
+            }
+        }
+        delegateAll(unknown);
+        if (requests.isEmpty()) {
+            return;
+        }
+
+        List<StockLot> lots = new ArrayList<>();
+        lotsByPartCode.values().forEach(lots::addAll);
+        PartsAllocationSolution solution = allocator.allocate(lots, requests);
+        Map<StockLot, Integer> left = new IdentityHashMap<>();
+        for (StockLot lot : lots) {
+            left.put(lot, lot.getAvailableQuantity());
+        }
+        for (PartAllocation allocation : solution.getAllocations()) {
+            PendingAssignment pending = byWorkItemId.get(allocation.getWorkItemId());
+            StockLot lot = allocation.getLot();
+            // guards against an infeasible best solution when solving was cut short
+            if (lot != null && left.merge(lot, -allocation.getQuantity(), Integer::sum) < 0) {
+                left.merge(lot, allocation.getQuantity(), Integer::sum);
+                lot = null;
+            }
+            if (lot == null) {
+                unserved.incrementAndGet();
+                long workItemId = pending.workItem.getId();
+                completions.execute(() -> {
+                    complete(workItemId, new RestResponse(200, "OK", NOK_RESULT).toResults());
+                    held.remove(workItemId);
+                });
+            } else {
+                reserve(pending, lot);
+            }
+        }
+    }
+
+    private Map<String, List<StockLot>> queryStock(List<PendingAssignment> batch) {
+        Set<String> partCodes = new LinkedHashSet<>();
+        ArrayNode query = MAPPER.createArrayNode();
+        for (PendingAssignment pending : batch) {
+            if (partCodes.add(pending.partCode())) {
+                query.addObject().put("partCode", pending.partCode());
+            }
+        }
+        try {
+            RestResponse response = restClient.execute(RestRequest.post(stockUrl, MAPPER.writeValueAsString(query)));
+            if (!response.isSuccessful() || response.getBody() == null) {
+                logger.error("Stock query to {} answered {} {}", stockUrl, response.getStatus(), response.getStatusMessage());
+                return null;
+            }
+            Map<String, List<StockLot>> lotsByPartCode = new HashMap<>();
+            for (JsonNode lot : MAPPER.readTree(response.getBody())) {
+                String partCode = lot.path("partCode").asText(null);
+                String branchCode = lot.path("branchCode").asText(null);
+                if (partCode == null || branchCode == null || !partCodes.contains(partCode)) {
+                    continue;
+                }
+                lotsByPartCode.computeIfAbsent(partCode, code -> new ArrayList<>())
+                        .add(new StockLot(branchCode, partCode, lot.path("availableQuantity").asInt(0)));
+            }
+            return lotsByPartCode;
+        } catch (IOException e) {
+            logger.error("Stock query to {} failed", stockUrl, e);
+            return null;
+        }
+    }
+
+    private void reserve(PendingAssignment pending, StockLot lot) {
+        ObjectNode request = pending.request.deepCopy();
+        if (!lot.getBranchCode().equals(pending.branchCode())) {
+            request.put("sourceBranchCode", lot.getBranchCode());
+            remote.incrementAndGet();
+        }
+        allocated.incrementAndGet();
+        WorkItem workItem;
+        try {
+            workItem = RestChain.copy(pending.workItem, Collections.singletonMap("ContentData", MAPPER.writeValueAsString(request)));
+        } catch (IOException e) {
+            logger.error("Could not write the assignment of {}, sending it unchanged", pending.request.get("repairRequestId").asText(), e);
+            workItem = pending.workItem;
+        }
+        delegate(workItem);
+    }
+
+    private void delegateAll(List<PendingAssignment> batch) {
+        for (PendingAssignment pending : batch) {
+            delegated.incrementAndGet();
+            delegate(pending.workItem);
+        }
+    }
+
+    private void delegate(WorkItem workItem) {
+        try {
+            delegate.executeWorkItem(workItem, ksession.getWorkItemManager());
+        } catch (RuntimeException e) {
+            logger.warn("Could not hand assignment work item {} to the delegate", workItem.getId(), e);
+        } finally {
+            held.remove(workItem.getId());
+        }
+    }
+
+    private Environment environment() {
+        if (environment == null) {
+            environment = ksession.getEnvironment();
+        }
+        return environment;
+    }
+
+    private void complete(long workItemId, Map<String, Object> results) {
+        try {
+            ksession.getWorkItemManager().completeWorkItem(workItemId, new HashMap<>(results));
+        } catch (RuntimeException e) {
+            // the instance may have been aborted while the batch was allocated
+            logger.warn("Could not complete assignment work item {}", workItemId, e);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (accumulator != null) {
+            accumulator.close();
+        }
+        // lets the NOK completions of the last batch run
+        completions.shutdown();
+        if (delegate instanceof Closeable) {
+            ((Closeable) delegate).close();
+        }
+    }
+
+    private static final class PendingAssignment {
+        private final WorkItem workItem;
+        private final ObjectNode request;
+
+        private PendingAssignment(WorkItem workItem, ObjectNode request) {
+            this.workItem = workItem;
+            this.request = request;
+        }
+
+        private String partCode() {
+            return request.get("partCode").asText();
+        }
+
+        private String branchCode() {
+            return request.get("branchCode").asText();
+        }
+
+        private PartAllocation toAllocation() {
+            return new PartAllocation(workItem.getId(), request.get("repairRequestId").asText(), partCode(), branchCode(),
+                    request.get("quantity").asInt());
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof PendingAssignment && ((PendingAssignment) other).workItem.getId() == workItem.getId();
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(workItem.getId());
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.stark.machinery_repair.allocation;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.optaplanner.core.api.domain.entity.PlanningEntity;
+import org.optaplanner.core.api.domain.valuerange.ValueRangeProvider;
+import org.optaplanner.core.api.domain.variable.PlanningVariable;
+
+/**
+ * One pending "Assign parts to Repair Request" call and the {@link StockLot} the solver serves it from. A request
+ * is served whole from a single lot of its part; {@code null} means it is left for the NOK and purchase order path.
+ */
+@PlanningEntity
+public class PartAllocation {
+
+    private long workItemId;
+    private String repairRequestId;
+    private String partCode;
+    private String branchCode;
+    private int quantity;
+
+    @ValueRangeProvider(id = "candidateLots")
+    private List<StockLot> candidateLots = Collections.emptyList();
+
+    @PlanningVariable(valueRangeProviderRefs = "candidateLots", nullable = true)
+    private StockLot lot;
+
+    PartAllocation() {
+        // for solution cloning
+    }
+
+    public PartAllocation(long workItemId, String repairRequestId, String partCode, String branchCode, int quantity) {
+        this.workItemId = workItemId;
+        this.repairRequestId = repairRequestId;
+        this.partCode = partCode;
+        this.branchCode = branchCode;
+        this.quantity = quantity;
+    }
+
+    public long getWorkItemId() {
+        return workItemId;
+    }
+
+    public String getRepairRequestId() {
+        return repairRequestId;
+    }
+
+    public String getPartCode() {
+        return partCode;
+    }
+
+    public String getBranchCode() {
+        return branchCode;
+    }
+
+    public int getQuantity() {
+        return quantity;
+    }
+
+    public List<StockLot> getCandidateLots() {
+        return candidateLots;
+    }
+
+    void setCandidateLots(List<StockLot> candidateLots) {
+        this.candidateLots = candidateLots;
+    }
+
+    public StockLot getLot() {
+        return lot;
+    }
+
+    public void setLot(StockLot lot) {
+        this.lot = lot;
+    }
+
+    /**
+     * @return {@code true} if the request is served from another branch's stock
+     */
+    public boolean isRemote() {
+        return lot != null && !lot.getBranchCode().equals(branchCode);
+    }
+
+    @Override
+    public String toString() {
+        return repairRequestId + ": " + quantity + " x " + partCode + " for " + branchCode + " from " + lot;
+    }
+}
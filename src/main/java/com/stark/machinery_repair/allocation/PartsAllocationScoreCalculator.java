@@ -0,0 +1,41 @@
+package com.stark.machinery_repair.allocation;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.optaplanner.core.api.score.buildin.hardmediumsoft.HardMediumSoftScore;
+import org.optaplanner.core.api.score.calculator.EasyScoreCalculator;
+
+/**
+ * Scores an allocation:
+ * <ul>
+ * <li>hard: parts booked beyond what a lot holds,</li>
+ * <li>medium: requests left unserved, each of which ends up as a purchase order,</li>
+ * <li>soft: requests served from another branch's stock.</li>
+ * </ul>
+ */
+public class PartsAllocationScoreCalculator implements EasyScoreCalculator<PartsAllocationSolution, HardMediumSoftScore> {
+
+    @Override
+    public HardMediumSoftScore calculateScore(PartsAllocationSolution solution) {
+        Map<StockLot, Integer> booked = new IdentityHashMap<>();
+        int unserved = 0;
+        int remote = 0;
+        for (PartAllocation allocation : solution.getAllocations()) {
+            StockLot lot = allocation.getLot();
+            if (lot == null) {
+                unserved++;
+                continue;
+            }
+            booked.merge(lot, allocation.getQuantity(), Integer::sum);
+            if (allocation.isRemote()) {
+                remote++;
+            }
+        }
+        int overbooked = 0;
+        for (Map.Entry<StockLot, Integer> entry : booked.entrySet()) {
+            overbooked += Math.max(entry.getValue() - entry.getKey().getAvailableQuantity(), 0);
+        }
+        return HardMediumSoftScore.of(-overbooked, -unserved, -remote);
+    }
+}
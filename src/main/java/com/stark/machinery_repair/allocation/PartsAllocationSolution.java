@@ -0,0 +1,50 @@
+package com.stark.machinery_repair.allocation;
+
+import java.util.List;
+
+import org.optaplanner.core.api.domain.solution.PlanningEntityCollectionProperty;
+import org.optaplanner.core.api.domain.solution.PlanningScore;
+import org.optaplanner.core.api.domain.solution.PlanningSolution;
+import org.optaplanner.core.api.domain.solution.ProblemFactCollectionProperty;
+import org.optaplanner.core.api.score.buildin.hardmediumsoft.HardMediumSoftScore;
+
+/**
+ * One batch of assignment requests and the stock snapshot they are allocated from.
+ */
+@PlanningSolution
+public class PartsAllocationSolution {
+
+    @ProblemFactCollectionProperty
+    private List<StockLot> lots;
+
+    @PlanningEntityCollectionProperty
+    private List<PartAllocation> allocations;
+
+    @PlanningScore
+    private HardMediumSoftScore score;
+
+    PartsAllocationSolution() {
+        // for solution cloning
+    }
+
+    public PartsAllocationSolution(List<StockLot> lots, List<PartAllocation> allocations) {
+        this.lots = lots;
+        this.allocations = allocations;
+    }
+
+    public List<StockLot> getLots() {
+        return lots;
+    }
+
+    public List<PartAllocation> getAllocations() {
+        return allocations;
+    }
+
+    public HardMediumSoftScore getScore() {
+        return score;
+    }
+
+    public void setScore(HardMediumSoftScore score) {
+        this.score = score;
+    }
+}
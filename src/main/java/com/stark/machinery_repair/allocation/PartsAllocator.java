@@ -0,0 +1,83 @@
+package com.stark.machinery_repair.allocation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.optaplanner.core.api.solver.SolverFactory;
+import org.optaplanner.core.config.score.director.ScoreDirectorFactoryConfig;
+import org.optaplanner.core.config.solver.SolverConfig;
+import org.optaplanner.core.config.solver.termination.TerminationConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Solves which {@link StockLot} serves each request of a batch, see {@link PartsAllocationScoreCalculator} for
+ * what makes one allocation better than another.
+ * <p>
+ * Solving stops once every request is served locally, after {@code machinery-repair.allocation.solve-ms}
+ * (200 ms by default), or after a quarter of that without improvement, whichever comes first. Thread safe; every
+ * call builds its own solver.
+ */
+public class PartsAllocator {
+    private static Logger logger = LoggerFactory.getLogger(PartsAllocator.class);
+
+    public static final String SOLVE_MILLIS_PROPERTY = "machinery-repair.allocation.solve-ms";
+
+    private final SolverFactory<PartsAllocationSolution> solverFactory;
+
+    public PartsAllocator() {
+        this(Long.getLong(SOLVE_MILLIS_PROPERTY, 200L));
+    }
+
+    public PartsAllocator(long solveMillis) {
+        SolverConfig config = new SolverConfig(PartsAllocator.class.getClassLoader())
+                .withSolutionClass(PartsAllocationSolution.class)
+                .withEntityClasses(PartAllocation.class)
+                .withScoreDirectorFactory(new ScoreDirectorFactoryConfig()
+                        .withEasyScoreCalculatorClass(PartsAllocationScoreCalculator.class))
+                .withTerminationConfig(new TerminationConfig()
+                        .withBestScoreLimit("0hard/0medium/0soft")
+                        .withMillisecondsSpentLimit(solveMillis)
+                        .withUnimprovedMillisecondsSpentLimit(Math.max(solveMillis / 4, 1L)));
+        this.solverFactory = SolverFactory.create(config);
+    }
+
+    /**
+     * Allocates the lots to the requests. The requests themselves are left untouched; the returned solution holds
+     * allocated copies, in the same order. Requests for parts none of the lots hold come back unserved.
+     */
+    public PartsAllocationSolution allocate(List<StockLot> lots, List<PartAllocation> requests) {
+        Map<String, List<StockLot>> lotsByPartCode = new HashMap<>();
+        for (StockLot lot : lots) {
+            lotsByPartCode.computeIfAbsent(lot.getPartCode(), partCode -> new ArrayList<>()).add(lot);
+        }
+        List<PartAllocation> allocations = new ArrayList<>(requests.size());
+        boolean anyCandidate = false;
+        for (PartAllocation request : requests) {
+            PartAllocation allocation = new PartAllocation(request.getWorkItemId(), request.getRepairRequestId(),
+                    request.getPartCode(), request.getBranchCode(), request.getQuantity());
+            List<StockLot> candidates = new ArrayList<>();
+            for (StockLot lot : lotsByPartCode.getOrDefault(request.getPartCode(), new ArrayList<>())) {
+                // a lot that cannot hold the request on its own is never worth trying
+                if (lot.getAvailableQuantity() >= request.getQuantity()) {
+                    candidates.add(lot);
+                }
+            }
+            allocation.setCandidateLots(candidates);
+            anyCandidate |= !candidates.isEmpty();
+            allocations.add(allocation);
+        }
+        PartsAllocationSolution problem = new PartsAllocationSolution(lots, allocations);
+        if (!anyCandidate) {
+            problem.setScore(new PartsAllocationScoreCalculator().calculateScore(problem));
+            return problem;
+        }
+        long start = System.currentTimeMillis();
+        PartsAllocationSolution solution = solverFactory.buildSolver().solve(problem);
+        logger.debug("Allocated {} requests from {} lots in {} ms, score {}", requests.size(), lots.size(),
+                System.currentTimeMillis() - start, solution.getScore());
+        return solution;
+    }
+}
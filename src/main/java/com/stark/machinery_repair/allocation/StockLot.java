@@ -0,0 +1,35 @@
+package com.stark.machinery_repair.allocation;
+
+/**
+ * Quantity of one part a branch has in stock when a batch is allocated. A lot is a problem fact, the solver never
+ * changes it.
+ */
+public final class StockLot {
+
+    private final String branchCode;
+    private final String partCode;
+    private final int availableQuantity;
+
+    public StockLot(String branchCode, String partCode, int availableQuantity) {
+        this.branchCode = branchCode;
+        this.partCode = partCode;
+        this.availableQuantity = availableQuantity;
+    }
+
+    public String getBranchCode() {
+        return branchCode;
+    }
+
+    public String getPartCode() {
+        return partCode;
+    }
+
+    public int getAvailableQuantity() {
+        return availableQuantity;
+    }
+
+    @Override
+    public String toString() {
+        return availableQuantity + " x " + partCode + " at " + branchCode;
+    }
+}
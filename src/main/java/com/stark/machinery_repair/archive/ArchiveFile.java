@@ -0,0 +1,201 @@
+package com.stark.machinery_repair.archive;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Reads and writes one archive file: the audit rows of a chunk of process instances, gzipped.
+ * <p>
+ * Tables are stored column by column rather than row by row, so the repetitive values of a column (process id,
+ * node names, statuses) sit next to each other and compress well. Number and date columns are stored as the
+ * zigzag varint of the difference to the previous value, which makes ids and timestamps that grow row by row
+ * take a byte or two. The file name carries the range of process instance ids in it, see {@link #nameOf}.
+ */
+final class ArchiveFile {
+
+    static final String SUFFIX = ".archive.gz";
+
+    private static final int MAGIC = 0x4D524131;
+    private static final Pattern NAME = Pattern.compile("procurement-(\\d+)-(\\d+)" + Pattern.quote(SUFFIX));
+
+    private static final byte LONG = 1;
+    private static final byte DATE = 2;
+    private static final byte STRING = 3;
+
+    private ArchiveFile() {
+    }
+
+    static String nameOf(long firstProcessInstanceId, long lastProcessInstanceId) {
+        return "procurement-" + firstProcessInstanceId + "-" + lastProcessInstanceId + SUFFIX;
+    }
+
+    /**
+     * @return the first and last process instance id of an archive file, or {@code null} if it is not one
+     */
+    static long[] rangeOf(Path path) {
+        Matcher matcher = NAME.matcher(path.getFileName().toString());
+        return matcher.matches() ? new long[] { Long.parseLong(matcher.group(1)), Long.parseLong(matcher.group(2)) } : null;
+    }
+
+    /**
+     * Writes the tables and forces them to disk before returning.
+     */
+    static void write(Path path, Collection<ArchiveTable> tables) throws IOException {
+        try (FileOutputStream file = new FileOutputStream(path.toFile())) {
+            GZIPOutputStream gzip = new GZIPOutputStream(file, 65536);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(gzip, 65536));
+            out.writeInt(MAGIC);
+            out.writeInt(tables.size());
+            for (ArchiveTable table : tables) {
+                writeTable(out, table);
+            }
+            out.flush();
+            gzip.finish();
+            file.getFD().sync();
+            out.close();
+        }
+    }
+
+    private static void writeTable(DataOutputStream out, ArchiveTable table) throws IOException {
+        out.writeUTF(table.getName());
+        out.writeInt(table.getColumns().size());
+        for (String column : table.getColumns()) {
+            out.writeUTF(column);
+        }
+        List<Object[]> rows = table.getRows();
+        out.writeInt(rows.size());
+        for (int column = 0; column < table.getColumns().size(); column++) {
+            byte type = typeOf(rows, column);
+            out.writeByte(type);
+            long previous = 0;
+            for (Object[] row : rows) {
+                Object value = row[column];
+                if (type == STRING) {
+                    writeString(out, value == null ? null : value instanceof Enum ? ((Enum<?>) value).name() : value.toString());
+                    continue;
+                }
+                out.writeBoolean(value != null);
+                if (value != null) {
+                    long current = type == DATE ? ((Date) value).getTime() : ((Number) value).longValue();
+                    writeVarLong(out, current - previous);
+                    previous = current;
+                }
+            }
+        }
+    }
+
+    private static byte typeOf(List<Object[]> rows, int column) {
+        boolean numbers = true;
+        boolean dates = true;
+        for (Object[] row : rows) {
+            Object value = row[column];
+            if (value == null) {
+                continue;
+            }
+            numbers &= value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte;
+            dates &= value instanceof Date;
+        }
+        return numbers ? LONG : dates ? DATE : STRING;
+    }
+
+    static Map<String, ArchiveTable> read(Path path) throws IOException {
+        try (InputStream file = Files.newInputStream(path)) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(file, 65536), 65536));
+            if (in.readInt() != MAGIC) {
+                throw new IOException(path + " is not an archive file");
+            }
+            int tableCount = in.readInt();
+            Map<String, ArchiveTable> tables = new LinkedHashMap<>();
+            for (int i = 0; i < tableCount; i++) {
+                ArchiveTable table = readTable(in);
+                tables.put(table.getName(), table);
+            }
+            return tables;
+        }
+    }
+
+    private static ArchiveTable readTable(DataInputStream in) throws IOException {
+        String name = in.readUTF();
+        List<String> columns = new ArrayList<>();
+        for (int i = in.readInt(); i > 0; i--) {
+            columns.add(in.readUTF());
+        }
+        int rowCount = in.readInt();
+        List<Object[]> rows = new ArrayList<>(rowCount);
+        for (int i = 0; i < rowCount; i++) {
+            rows.add(new Object[columns.size()]);
+        }
+        for (int column = 0; column < columns.size(); column++) {
+            byte type = in.readByte();
+            long previous = 0;
+            for (Object[] row : rows) {
+                if (type == STRING) {
+                    row[column] = readString(in);
+                } else if (in.readBoolean()) {
+                    previous += readVarLong(in);
+                    row[column] = type == DATE ? new Date(previous) : (Object) previous;
+                }
+            }
+        }
+        return new ArchiveTable(name, columns, rows);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            writeVarLong(out, -1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        long length = readVarLong(in);
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[(int) length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        long zigzag = (value << 1) ^ (value >> 63);
+        while ((zigzag & ~0x7FL) != 0) {
+            out.writeByte((int) ((zigzag & 0x7F) | 0x80));
+            zigzag >>>= 7;
+        }
+        out.writeByte((int) zigzag);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long zigzag = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.readUnsignedByte();
+            zigzag |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+}
@@ -0,0 +1,71 @@
+package com.stark.machinery_repair.archive;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The rows of one {@link ArchivedLog} table in an archive file. Values come back as {@link Long}, {@link java.util.Date}
+ * or {@link String}: whole numbers of any width are read as {@code Long} and enums as their name.
+ */
+public final class ArchiveTable {
+
+    private final String name;
+    private final List<String> columns;
+    private final List<Object[]> rows;
+
+    public ArchiveTable(String name, List<String> columns, List<Object[]> rows) {
+        this.name = name;
+        this.columns = Collections.unmodifiableList(new ArrayList<>(columns));
+        this.rows = Collections.unmodifiableList(rows);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<String> getColumns() {
+        return columns;
+    }
+
+    public List<Object[]> getRows() {
+        return rows;
+    }
+
+    /**
+     * @return the index of the column, or -1 if the table does not have it
+     */
+    public int columnIndex(String column) {
+        return columns.indexOf(column);
+    }
+
+    /**
+     * The rows whose column holds the given value, as maps from column name to value. Numbers are compared by
+     * their {@code long} value.
+     */
+    public List<Map<String, Object>> rowsWhere(String column, Object value) {
+        int index = columnIndex(column);
+        if (index < 0) {
+            return Collections.emptyList();
+        }
+        Object wanted = value instanceof Number ? (Object) ((Number) value).longValue() : value;
+        List<Map<String, Object>> matches = new ArrayList<>();
+        for (Object[] row : rows) {
+            if (Objects.equals(row[index], wanted)) {
+                matches.add(toMap(row));
+            }
+        }
+        return matches;
+    }
+
+    public Map<String, Object> toMap(Object[] row) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        for (int i = 0; i < columns.size(); i++) {
+            map.put(columns.get(i), row[i]);
+        }
+        return map;
+    }
+}
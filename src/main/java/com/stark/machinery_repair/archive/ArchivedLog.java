@@ -0,0 +1,64 @@
+package com.stark.machinery_repair.archive;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The audit tables {@link ProcurementArchiver} moves into the archive, with the columns it keeps of each. Every
+ * one of them is keyed by {@code processInstanceId}, which is always the first column.
+ * <p>
+ * The task logs are addressed by entity name only, so the kjar does not need the task audit classes on its
+ * classpath.
+ */
+public enum ArchivedLog {
+
+    PROCESS_INSTANCES("ProcessInstanceLog", "processInstanceId",
+            "processInstanceId", "processId", "processName", "processVersion", "status", "start", "end", "duration",
+            "identity", "outcome", "parentProcessInstanceId", "correlationKey", "externalId", "processInstanceDescription"),
+    NODE_INSTANCES("NodeInstanceLog", "id",
+            "processInstanceId", "nodeInstanceId", "nodeId", "nodeName", "nodeType", "type", "date", "workItemId",
+            "connection", "referenceId"),
+    VARIABLES("VariableInstanceLog", "id",
+            "processInstanceId", "variableInstanceId", "variableId", "value", "oldValue", "date"),
+    TASKS("AuditTaskImpl", "id",
+            "processInstanceId", "taskId", "name", "status", "actualOwner", "createdBy", "createdOn", "activationTime",
+            "dueDate", "lastModificationDate", "workItemId"),
+    TASK_EVENTS("TaskEventImpl", "id",
+            "processInstanceId", "taskId", "type", "userId", "message", "logTime"),
+    TASK_VARIABLES("TaskVariableImpl", "id",
+            "processInstanceId", "taskId", "name", "value", "type", "modificationDate"),
+    TASK_SUMMARIES("BAMTaskSummaryImpl", "pk",
+            "processInstanceId", "taskId", "taskName", "status", "userId", "createdDate", "startDate", "endDate", "duration");
+
+    private final String entity;
+    private final String orderBy;
+    private final List<String> columns;
+
+    ArchivedLog(String entity, String orderBy, String... columns) {
+        this.entity = entity;
+        this.orderBy = orderBy;
+        this.columns = Collections.unmodifiableList(Arrays.asList(columns));
+    }
+
+    public String getEntity() {
+        return entity;
+    }
+
+    public List<String> getColumns() {
+        return columns;
+    }
+
+    String selectQuery() {
+        StringBuilder query = new StringBuilder("select ");
+        for (int i = 0; i < columns.size(); i++) {
+            query.append(i == 0 ? "" : ", ").append("l.").append(columns.get(i));
+        }
+        return query.append(" from ").append(entity).append(" l where l.processInstanceId in (:ids) order by l.")
+                .append(orderBy).toString();
+    }
+
+    String deleteQuery() {
+        return "delete from " + entity + " l where l.processInstanceId in (:ids)";
+    }
+}
@@ -0,0 +1,45 @@
+package com.stark.machinery_repair.archive;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Everything the archive holds of one parts-procurement instance, by {@link ArchivedLog} table. Rows are maps
+ * from column name to value, see {@link ArchiveTable} for the value types.
+ */
+public final class ArchivedProcurement {
+
+    private final long processInstanceId;
+    private final Map<ArchivedLog, List<Map<String, Object>>> rows = new EnumMap<>(ArchivedLog.class);
+
+    ArchivedProcurement(long processInstanceId, Map<String, ArchiveTable> tables) {
+        this.processInstanceId = processInstanceId;
+        for (ArchivedLog log : ArchivedLog.values()) {
+            ArchiveTable table = tables.get(log.name());
+            rows.put(log, table == null ? Collections.emptyList() : table.rowsWhere("processInstanceId", processInstanceId));
+        }
+    }
+
+    public long getProcessInstanceId() {
+        return processInstanceId;
+    }
+
+    /**
+     * @return the process instance log row
+     */
+    public Map<String, Object> getProcessInstance() {
+        List<Map<String, Object>> processInstances = rows.get(ArchivedLog.PROCESS_INSTANCES);
+        return processInstances.isEmpty() ? Collections.emptyMap() : processInstances.get(0);
+    }
+
+    public List<Map<String, Object>> getRows(ArchivedLog log) {
+        return rows.get(log);
+    }
+
+    @Override
+    public String toString() {
+        return "ArchivedProcurement[" + processInstanceId + "]";
+    }
+}
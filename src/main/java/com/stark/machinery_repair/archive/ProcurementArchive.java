@@ -0,0 +1,107 @@
+package com.stark.machinery_repair.archive;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Read-only queries over the archive files a {@link ProcurementArchiver} wrote, for historical lookups of instances
+ * that are no longer in the audit tables.
+ * <p>
+ * Nothing is cached: every query reads the files it needs. A lookup by process instance id reads only the file
+ * whose id range holds the instance; the other queries read every file, oldest instances first.
+ */
+public class ProcurementArchive {
+
+    private final Path directory;
+
+    public ProcurementArchive(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @return the archived instance, or {@code null} if it is not in the archive
+     */
+    public ArchivedProcurement find(long processInstanceId) throws IOException {
+        for (Path file : files()) {
+            long[] range = ArchiveFile.rangeOf(file);
+            if (processInstanceId < range[0] || processInstanceId > range[1]) {
+                continue;
+            }
+            Map<String, ArchiveTable> tables = ArchiveFile.read(file);
+            ArchiveTable processInstances = tables.get(ArchivedLog.PROCESS_INSTANCES.name());
+            if (processInstances != null && !processInstances.rowsWhere("processInstanceId", processInstanceId).isEmpty()) {
+                return new ArchivedProcurement(processInstanceId, tables);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the archived instances whose process variable held the given value at some point
+     */
+    public Set<Long> findByVariable(String variableId, String value) throws IOException {
+        Set<Long> processInstanceIds = new LinkedHashSet<>();
+        for (Path file : files()) {
+            ArchiveTable variables = ArchiveFile.read(file).get(ArchivedLog.VARIABLES.name());
+            if (variables == null) {
+                continue;
+            }
+            int processInstanceId = variables.columnIndex("processInstanceId");
+            int variable = variables.columnIndex("variableId");
+            int variableValue = variables.columnIndex("value");
+            for (Object[] row : variables.getRows()) {
+                if (variableId.equals(row[variable]) && Objects.equals(value, row[variableValue])) {
+                    processInstanceIds.add((Long) row[processInstanceId]);
+                }
+            }
+        }
+        return processInstanceIds;
+    }
+
+    /**
+     * @return the process instance log rows of the archived instances that ended in {@code [from, to)}
+     */
+    public List<Map<String, Object>> findEnded(Date from, Date to) throws IOException {
+        List<Map<String, Object>> ended = new ArrayList<>();
+        for (Path file : files()) {
+            ArchiveTable processInstances = ArchiveFile.read(file).get(ArchivedLog.PROCESS_INSTANCES.name());
+            if (processInstances == null) {
+                continue;
+            }
+            int end = processInstances.columnIndex("end");
+            for (Object[] row : processInstances.getRows()) {
+                Date date = (Date) row[end];
+                if (date != null && !date.before(from) && date.before(to)) {
+                    ended.add(processInstances.toMap(row));
+                }
+            }
+        }
+        return ended;
+    }
+
+    private List<Path> files() throws IOException {
+        List<Path> files = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return files;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + ArchiveFile.SUFFIX)) {
+            for (Path file : stream) {
+                if (ArchiveFile.rangeOf(file) != null) {
+                    files.add(file);
+                }
+            }
+        }
+        files.sort(Comparator.comparingLong(file -> ArchiveFile.rangeOf(file)[0]));
+        return files;
+    }
+}
@@ -0,0 +1,345 @@
+package com.stark.machinery_repair.archive;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.metamodel.EntityType;
+
+import com.stark.machinery_repair.util.DaemonThreadFactory;
+import com.stark.machinery_repair.util.JpaTransactions;
+import org.kie.api.runtime.process.ProcessInstance;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Background job that moves ended parts-procurement instances out of the audit tables into archive files.
+ * <p>
+ * Every run takes the instances of {@code parts-procurement_v2_0} that completed or were aborted more than
+ * {@code retention-days} ago, in chunks of {@code chunk-size} instances in process instance id order. Each chunk
+ * runs in a transaction of its own: it reads the process, node, variable and task log rows of the chunk (see
+ * {@link ArchivedLog}), writes them to an {@link ArchiveFile} that is forced to disk, deletes the rows and commits.
+ * The file is written under a temporary name and only gets its final name after the commit; a temporary file left
+ * by a crash is kept if its rows are gone from the database and dropped otherwise. The task runtime tables are
+ * left alone.
+ * <p>
+ * The job throttles itself to a duty cycle of {@code max-duty-percent}: after a chunk that took {@code t} it
+ * pauses long enough that it works at most that share of the time, so chunks slowed down by a busy database are
+ * followed by longer pauses. The archive can be queried with {@link ProcurementArchive}.
+ * <p>
+ * All settings are read from {@code machinery-repair.archive.*} system properties.
+ */
+public class ProcurementArchiver implements ProcurementArchiverMBean, AutoCloseable {
+    private static Logger logger = LoggerFactory.getLogger(ProcurementArchiver.class);
+
+    public static final String PROCESS_ID = "machinery-repair.parts-procurement_v2_0";
+
+    public static final String DIR_PROPERTY = "machinery-repair.archive.dir";
+    public static final String RETENTION_DAYS_PROPERTY = "machinery-repair.archive.retention-days";
+    public static final String CHUNK_SIZE_PROPERTY = "machinery-repair.archive.chunk-size";
+    public static final String MAX_DUTY_PERCENT_PROPERTY = "machinery-repair.archive.max-duty-percent";
+    public static final String INTERVAL_PROPERTY = "machinery-repair.archive.interval-ms";
+    public static final String OBJECT_NAME = "com.stark.machinery_repair:type=ProcurementArchiver,name=";
+
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    private static final List<Integer> ENDED = Arrays.asList(ProcessInstance.STATE_COMPLETED, ProcessInstance.STATE_ABORTED);
+
+    private static final Map<EntityManagerFactory, ProcurementArchiver> ARCHIVERS = new ConcurrentHashMap<>();
+
+    private final EntityManagerFactory emf;
+    private final Path directory;
+    private final long retentionMillis;
+    private final int chunkSize;
+    private final int maxDutyPercent;
+    private final List<ArchivedLog> logs;
+    private ScheduledExecutorService scheduler;
+    private ObjectName objectName;
+    private volatile boolean closed;
+
+    private final LongAdder archivedInstances = new LongAdder();
+    private final LongAdder archiveFiles = new LongAdder();
+    private final LongAdder failedChunks = new LongAdder();
+    private final LongAdder pausedMillis = new LongAdder();
+
+    /**
+     * The running archiver of the persistence unit, started on first use.
+     */
+    public static ProcurementArchiver forFactory(EntityManagerFactory emf) {
+        return ARCHIVERS.computeIfAbsent(emf, factory -> {
+            String unit = String.valueOf(factory.getProperties().getOrDefault("hibernate.ejb.persistenceUnitName", "audit"));
+            Path dir = Paths.get(System.getProperty(DIR_PROPERTY, Paths.get(System.getProperty("jboss.server.data.dir",
+                    System.getProperty("java.io.tmpdir")), "machinery-repair-archive").toString()));
+            ProcurementArchiver archiver = new ProcurementArchiver(factory, dir.resolve(unit),
+                    TimeUnit.DAYS.toMillis(Long.getLong(RETENTION_DAYS_PROPERTY, 90)),
+                    Integer.getInteger(CHUNK_SIZE_PROPERTY, 100),
+                    Integer.getInteger(MAX_DUTY_PERCENT_PROPERTY, 20));
+            archiver.start(Long.getLong(INTERVAL_PROPERTY, TimeUnit.HOURS.toMillis(1)), unit);
+            return archiver;
+        });
+    }
+
+    /**
+     * @param retentionMillis how long ended instances stay in the audit tables
+     * @param chunkSize instances archived per transaction
+     * @param maxDutyPercent share of the time the job may spend archiving, 100 for no pauses
+     */
+    public ProcurementArchiver(EntityManagerFactory emf, Path directory, long retentionMillis, int chunkSize, int maxDutyPercent) {
+        this.emf = emf;
+        this.directory = directory;
+        this.retentionMillis = retentionMillis;
+        this.chunkSize = Math.max(chunkSize, 1);
+        this.maxDutyPercent = Math.min(Math.max(maxDutyPercent, 1), 100);
+        Set<String> entities = emf.getMetamodel().getEntities().stream().map(EntityType::getName).collect(Collectors.toSet());
+        this.logs = Arrays.stream(ArchivedLog.values()).filter(log -> entities.contains(log.getEntity())).collect(Collectors.toList());
+        if (logs.size() < ArchivedLog.values().length) {
+            logger.info("Persistence unit does not map every audit log, archiving {} only", logs);
+        }
+    }
+
+    /**
+     * Runs the job every {@code intervalMillis}, the first time after one interval.
+     */
+    public void start(long intervalMillis, String name) {
+        scheduler = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("procurement-archiver"));
+        scheduler.scheduleWithFixedDelay(this::archiveNow, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        register(name);
+    }
+
+    public ProcurementArchive getArchive() {
+        return new ProcurementArchive(directory);
+    }
+
+    @Override
+    public int archiveNow() {
+        return archive(new Date(System.currentTimeMillis() - retentionMillis));
+    }
+
+    /**
+     * Archives the instances that ended before the cutoff, until none are left or a chunk fails.
+     *
+     * @return the number of instances archived
+     */
+    public synchronized int archive(Date cutoff) {
+        try {
+            Files.createDirectories(directory);
+            recover();
+        } catch (Exception e) {
+            logger.warn("Could not prepare archive directory {}", directory, e);
+            return 0;
+        }
+        int archived = 0;
+        long after = -1;
+        while (!closed) {
+            long start = System.nanoTime();
+            List<Long> chunk;
+            try {
+                chunk = archiveChunk(cutoff, after);
+            } catch (Exception e) {
+                failedChunks.increment();
+                logger.warn("Could not archive instances after {}, trying again on the next run", after, e);
+                break;
+            }
+            if (chunk.isEmpty()) {
+                break;
+            }
+            archived += chunk.size();
+            after = chunk.get(chunk.size() - 1);
+            if (chunk.size() < chunkSize || !pause(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start))) {
+                break;
+            }
+        }
+        if (archived > 0) {
+            logger.info("Archived {} instances that ended before {} to {}", archived, cutoff, directory);
+        }
+        return archived;
+    }
+
+    private List<Long> archiveChunk(Date cutoff, long after) throws Exception {
+        Path[] temporary = new Path[1];
+        List<Long> chunk;
+        try {
+            chunk = JpaTransactions.execute(emf, em -> {
+                List<Long> ids = em.createQuery("select l.processInstanceId from ProcessInstanceLog l where l.processId = :processId"
+                        + " and l.status in (:ended) and l.end < :cutoff and l.processInstanceId > :after order by l.processInstanceId", Long.class)
+                        .setParameter("processId", PROCESS_ID)
+                        .setParameter("ended", ENDED)
+                        .setParameter("cutoff", cutoff)
+                        .setParameter("after", after)
+                        .setMaxResults(chunkSize)
+                        .getResultList();
+                if (ids.isEmpty()) {
+                    return ids;
+                }
+                temporary[0] = directory.resolve(ArchiveFile.nameOf(ids.get(0), ids.get(ids.size() - 1)) + TEMPORARY_SUFFIX);
+                ArchiveFile.write(temporary[0], read(em, ids));
+                delete(em, ids);
+                return ids;
+            });
+        } catch (Exception e) {
+            if (temporary[0] != null) {
+                Files.deleteIfExists(temporary[0]);
+            }
+            throw e;
+        }
+        if (temporary[0] != null) {
+            publish(temporary[0]);
+            archivedInstances.add(chunk.size());
+        }
+        return chunk;
+    }
+
+    private List<ArchiveTable> read(EntityManager em, List<Long> ids) {
+        List<ArchiveTable> tables = new ArrayList<>();
+        for (ArchivedLog log : logs) {
+            List<Object[]> rows = em.createQuery(log.selectQuery(), Object[].class).setParameter("ids", ids).getResultList();
+            tables.add(new ArchiveTable(log.name(), log.getColumns(), rows));
+        }
+        return tables;
+    }
+
+    private void delete(EntityManager em, List<Long> ids) {
+        for (ArchivedLog log : logs) {
+            int deleted = em.createQuery(log.deleteQuery()).setParameter("ids", ids).executeUpdate();
+            if (log == ArchivedLog.PROCESS_INSTANCES && deleted != ids.size()) {
+                // another node archived some of them in the meantime
+                throw new IllegalStateException("Deleted " + deleted + " of " + ids.size() + " process instance logs");
+            }
+        }
+    }
+
+    private void publish(Path temporary) throws IOException {
+        String name = temporary.getFileName().toString();
+        Files.move(temporary, temporary.resolveSibling(name.substring(0, name.length() - TEMPORARY_SUFFIX.length())),
+                StandardCopyOption.ATOMIC_MOVE);
+        archiveFiles.increment();
+    }
+
+    /**
+     * Settles the temporary files of chunks a crash interrupted: if the first instance of the chunk is still in
+     * the audit tables the chunk was rolled back and its file is dropped, otherwise it committed and its file is kept.
+     */
+    private void recover() throws Exception {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + ArchiveFile.SUFFIX + TEMPORARY_SUFFIX)) {
+            for (Path temporary : files) {
+                String name = temporary.getFileName().toString();
+                long[] range = ArchiveFile.rangeOf(temporary.resolveSibling(name.substring(0, name.length() - TEMPORARY_SUFFIX.length())));
+                if (range == null) {
+                    continue;
+                }
+                long live = JpaTransactions.execute(emf, em -> em.createQuery(
+                        "select count(l) from ProcessInstanceLog l where l.processInstanceId = :id", Long.class)
+                        .setParameter("id", range[0]).getSingleResult());
+                if (live > 0) {
+                    logger.info("Dropping {}, its chunk was rolled back", temporary);
+                    Files.delete(temporary);
+                } else {
+                    logger.info("Keeping {}, its chunk was committed", temporary);
+                    publish(temporary);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return {@code false} if the archiver was closed while pausing
+     */
+    private boolean pause(long workedMillis) {
+        long pause = workedMillis * (100 - maxDutyPercent) / maxDutyPercent;
+        if (pause <= 0) {
+            return !closed;
+        }
+        try {
+            Thread.sleep(pause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        pausedMillis.add(pause);
+        return !closed;
+    }
+
+    @Override
+    public String getDirectory() {
+        return directory.toString();
+    }
+
+    @Override
+    public long getRetentionDays() {
+        return TimeUnit.MILLISECONDS.toDays(retentionMillis);
+    }
+
+    @Override
+    public long getArchivedInstances() {
+        return archivedInstances.sum();
+    }
+
+    @Override
+    public long getArchiveFiles() {
+        return archiveFiles.sum();
+    }
+
+    @Override
+    public long getFailedChunks() {
+        return failedChunks.sum();
+    }
+
+    @Override
+    public long getPausedMillis() {
+        return pausedMillis.sum();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        ARCHIVERS.remove(emf, this);
+        unregister();
+    }
+
+    private void register(String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(OBJECT_NAME + ObjectName.quote(name));
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(this, objectName);
+                this.objectName = objectName;
+            }
+        } catch (JMException | RuntimeException e) {
+            logger.warn("Could not register procurement archiver MBean", e);
+        }
+    }
+
+    private void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException | RuntimeException e) {
+            logger.debug("Could not unregister {}", objectName, e);
+        }
+    }
+}
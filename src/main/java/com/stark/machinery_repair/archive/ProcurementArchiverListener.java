@@ -0,0 +1,26 @@
+package com.stark.machinery_repair.archive;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.kie.api.event.process.DefaultProcessEventListener;
+import org.kie.api.runtime.EnvironmentName;
+import org.kie.api.runtime.KieSession;
+
+/**
+ * Starts the {@link ProcurementArchiver} of the session's persistence unit when the deployment starts; it has
+ * nothing to listen to afterwards.
+ * <p>
+ * Archival deletes audit rows, so it is not part of the default deployment descriptor. To turn it on, register:
+ * <pre>
+ * &lt;event-listener&gt;
+ *     &lt;resolver&gt;mvel&lt;/resolver&gt;
+ *     &lt;identifier&gt;new com.stark.machinery_repair.archive.ProcurementArchiverListener(ksession)&lt;/identifier&gt;
+ * &lt;/event-listener&gt;
+ * </pre>
+ */
+public class ProcurementArchiverListener extends DefaultProcessEventListener {
+
+    public ProcurementArchiverListener(KieSession ksession) {
+        ProcurementArchiver.forFactory((EntityManagerFactory) ksession.getEnvironment().get(EnvironmentName.ENTITY_MANAGER_FACTORY));
+    }
+}
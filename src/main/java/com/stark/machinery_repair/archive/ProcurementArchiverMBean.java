@@ -0,0 +1,29 @@
+package com.stark.machinery_repair.archive;
+
+/**
+ * JMX view of a {@link ProcurementArchiver}.
+ */
+public interface ProcurementArchiverMBean {
+
+    String getDirectory();
+
+    long getRetentionDays();
+
+    long getArchivedInstances();
+
+    long getArchiveFiles();
+
+    long getFailedChunks();
+
+    /**
+     * @return time spent pausing between chunks to leave the database to live traffic
+     */
+    long getPausedMillis();
+
+    /**
+     * Archives everything past the retention period now.
+     *
+     * @return the number of instances archived
+     */
+    int archiveNow();
+}
@@ -0,0 +1,181 @@
+package com.stark.machinery_repair.audit;
+
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import com.stark.machinery_repair.state.TransientVariables;
+import org.jbpm.process.audit.AbstractAuditLoggerAdapter;
+import org.jbpm.process.audit.JPAWorkingMemoryDbLogger;
+import org.jbpm.process.audit.NodeInstanceLog;
+import org.jbpm.workflow.instance.node.SubProcessNodeInstance;
+import org.jbpm.workflow.instance.node.WorkItemNodeInstance;
+import org.kie.api.event.process.ProcessCompletedEvent;
+import org.kie.api.event.process.ProcessNodeLeftEvent;
+import org.kie.api.event.process.ProcessNodeTriggeredEvent;
+import org.kie.api.event.process.ProcessStartedEvent;
+import org.kie.api.event.process.ProcessVariableChangedEvent;
+import org.kie.api.event.process.SLAViolatedEvent;
+import org.kie.api.runtime.Environment;
+import org.kie.api.runtime.EnvironmentName;
+import org.kie.api.runtime.KieSession;
+
+/**
+ * Audit logger that hands node logs to an {@link AsyncAuditWriter} instead of inserting them in the engine's
+ * transaction.
+ * <p>
+ * Process instance logs and variable logs are still written in the engine's transaction, by a
+ * {@link JPAWorkingMemoryDbLogger}. Restarts rebuild state from them: the recovery of
+ * {@code AsyncRestWorkItemHandler}, the shard lookup of {@code ShardedRuntimeManager}, the received materials
+ * and fix task indexes and the idempotent starter all read them, and would miss or misplace instances if those
+ * rows could be late, rolled back separately or lost. Only node logs, and the work item and SLA details filled
+ * in on them afterwards, are queued. They reach the audit tables shortly after the transaction that produced them, are
+ * not rolled back with it, and the ones still queued when the JVM dies are lost, see {@link AsyncAuditWriter}.
+ * Nothing may rebuild state from node logs while this logger is in use.
+ * <p>
+ * To use it, turn off the built in logger and register this one in the deployment descriptor:
+ * <pre>
+ * &lt;audit-mode&gt;NONE&lt;/audit-mode&gt;
+ * ...
+ * &lt;event-listener&gt;
+ *     &lt;resolver&gt;mvel&lt;/resolver&gt;
+ *     &lt;identifier&gt;new com.stark.machinery_repair.audit.AsyncAuditLogger(ksession)&lt;/identifier&gt;
+ * &lt;/event-listener&gt;
+ * </pre>
+ */
+public class AsyncAuditLogger extends AbstractAuditLoggerAdapter {
+
+    private final AsyncAuditWriter writer;
+    private final JPAWorkingMemoryDbLogger syncLogger;
+
+    public AsyncAuditLogger(KieSession ksession) {
+        this(AsyncAuditWriter.forFactory((EntityManagerFactory) ksession.getEnvironment().get(EnvironmentName.ENTITY_MANAGER_FACTORY)),
+                ksession.getEnvironment());
+    }
+
+    public AsyncAuditLogger(AsyncAuditWriter writer, Environment environment) {
+        this.writer = writer;
+        this.syncLogger = new JPAWorkingMemoryDbLogger(environment);
+    }
+
+    @Override
+    protected void processStarted(ProcessStartedEvent event) {
+        syncLogger.beforeProcessStarted(event);
+    }
+
+    @Override
+    protected void processCompleted(ProcessCompletedEvent event) {
+        syncLogger.afterProcessCompleted(event);
+    }
+
+    @Override
+    protected void nodeEnter(ProcessNodeTriggeredEvent event) {
+        writer.write(builder.buildEvent(event));
+    }
+
+    /**
+     * The work item or sub process of a node only exists once the node has been triggered, after its log was
+     * queued, so it is filled in by an update rather than on the queued log.
+     */
+    @Override
+    public void afterNodeTriggered(ProcessNodeTriggeredEvent event) {
+        Long workItemId = null;
+        Long referenceId = null;
+        if (event.getNodeInstance() instanceof WorkItemNodeInstance) {
+            WorkItemNodeInstance nodeInstance = (WorkItemNodeInstance) event.getNodeInstance();
+            if (nodeInstance.getWorkItem() != null) {
+                workItemId = nodeInstance.getWorkItem().getId();
+            }
+        } else if (event.getNodeInstance() instanceof SubProcessNodeInstance) {
+            referenceId = ((SubProcessNodeInstance) event.getNodeInstance()).getProcessInstanceId();
+        }
+        if (workItemId != null || referenceId != null) {
+            writer.write(new NodeInstanceReference(event.getNodeInstance().getId(), event.getProcessInstance().getId(),
+                    workItemId, referenceId));
+        }
+    }
+
+    @Override
+    protected void nodeLeft(ProcessNodeLeftEvent event) {
+        writer.write(builder.buildEvent(event, null));
+    }
+
+    /**
+     * Leaves out the {@link TransientVariables} here as well, as the indexer that does so is not found by jBPM
+     * on a KIE Server.
+     */
+    @Override
+    protected void variableChanged(ProcessVariableChangedEvent event) {
+        if (!TransientVariables.isTransient(event.getVariableId())) {
+            syncLogger.afterVariableChanged(event);
+        }
+    }
+
+    @Override
+    protected void slaNodeInstanceViolated(SLAViolatedEvent event) {
+        org.jbpm.workflow.instance.NodeInstance nodeInstance = (org.jbpm.workflow.instance.NodeInstance) event.getNodeInstance();
+        writer.write(new NodeInstanceSla(nodeInstance.getId(), event.getProcessInstance().getId(), nodeInstance.getSlaCompliance()));
+    }
+
+    @Override
+    protected void slaProcessInstanceViolated(SLAViolatedEvent event) {
+        syncLogger.afterSLAViolated(event);
+    }
+
+    private static NodeInstanceLog findEnterLog(EntityManager em, long nodeInstanceId, long processInstanceId) {
+        List<?> logs = em.createQuery("from NodeInstanceLog as log where log.nodeInstanceId = :niId "
+                + "and log.processInstanceId = :piId and log.type = 0")
+                .setParameter("niId", Long.toString(nodeInstanceId))
+                .setParameter("piId", processInstanceId)
+                .getResultList();
+        return logs.isEmpty() ? null : (NodeInstanceLog) logs.get(logs.size() - 1);
+    }
+
+    private static final class NodeInstanceReference implements AuditUpdate {
+        private static final long serialVersionUID = 1L;
+
+        private final long nodeInstanceId;
+        private final long processInstanceId;
+        private final Long workItemId;
+        private final Long referenceId;
+
+        NodeInstanceReference(long nodeInstanceId, long processInstanceId, Long workItemId, Long referenceId) {
+            this.nodeInstanceId = nodeInstanceId;
+            this.processInstanceId = processInstanceId;
+            this.workItemId = workItemId;
+            this.referenceId = referenceId;
+        }
+
+        @Override
+        public void apply(EntityManager em) {
+            NodeInstanceLog log = findEnterLog(em, nodeInstanceId, processInstanceId);
+            if (log != null) {
+                log.setWorkItemId(workItemId);
+                log.setReferenceId(referenceId);
+            }
+        }
+    }
+
+    private static final class NodeInstanceSla implements AuditUpdate {
+        private static final long serialVersionUID = 1L;
+
+        private final long nodeInstanceId;
+        private final long processInstanceId;
+        private final int slaCompliance;
+
+        NodeInstanceSla(long nodeInstanceId, long processInstanceId, int slaCompliance) {
+            this.nodeInstanceId = nodeInstanceId;
+            this.processInstanceId = processInstanceId;
+            this.slaCompliance = slaCompliance;
+        }
+
+        @Override
+        public void apply(EntityManager em) {
+            NodeInstanceLog log = findEnterLog(em, nodeInstanceId, processInstanceId);
+            if (log != null) {
+                log.setSlaCompliance(slaCompliance);
+            }
+        }
+    }
+}
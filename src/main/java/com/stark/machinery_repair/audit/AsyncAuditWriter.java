@@ -0,0 +1,374 @@
+package com.stark.machinery_repair.audit;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.persistence.EntityManagerFactory;
+
+import com.stark.machinery_repair.util.DaemonThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes audit records on a background thread, in batches of up to {@code batch-size} records, instead of inside
+ * the transaction that produced them.
+ * <p>
+ * Producers never wait for the database. Records go to a queue of {@code queue-capacity} records; when it is
+ * full, or while the database cannot be reached, they are appended to an {@link AuditSpillFile} instead. Once
+ * anything has been spilled all later records are spilled too, until the writer has replayed the file, so the
+ * records of an instance always reach the database in the order they happened. A spill file left by a crash is
+ * replayed when the writer for the same persistence unit starts again. Records are written at least once: a
+ * crash between a batch commit and the bookkeeping that follows it replays that batch.
+ * <p>
+ * Records still in the queue when the JVM dies are lost, at most {@code queue-capacity} of them. On an orderly
+ * {@link #close()} they are written, or spilled if the database is down.
+ * <p>
+ * All settings are read from {@code machinery-repair.audit.*} system properties.
+ */
+public class AsyncAuditWriter implements AsyncAuditWriterMBean, AutoCloseable {
+    private static Logger logger = LoggerFactory.getLogger(AsyncAuditWriter.class);
+
+    public static final String QUEUE_CAPACITY_PROPERTY = "machinery-repair.audit.queue-capacity";
+    public static final String BATCH_SIZE_PROPERTY = "machinery-repair.audit.batch-size";
+    public static final String FLUSH_INTERVAL_PROPERTY = "machinery-repair.audit.flush-interval-ms";
+    public static final String SPILL_DIR_PROPERTY = "machinery-repair.audit.spill-dir";
+    public static final String OBJECT_NAME = "com.stark.machinery_repair:type=AsyncAuditWriter,name=";
+
+    private static final long MAX_RETRY_DELAY = 30000L;
+    private static final long CLOSE_TIMEOUT = 30000L;
+
+    private static final Map<EntityManagerFactory, AsyncAuditWriter> WRITERS = new ConcurrentHashMap<>();
+
+    private final AuditSink sink;
+    private final AuditSpillFile spill;
+    private final BlockingQueue<Object> queue;
+    private final int capacity;
+    private final int batchSize;
+    private final long flushIntervalMillis;
+    private final Thread thread;
+    private ObjectName objectName;
+
+    private final Object spillLock = new Object();
+    private volatile boolean spilling;
+    private long replayOffset;
+    private volatile boolean running = true;
+    private List<Object> unwritten = Collections.emptyList();
+
+    private final LongAdder enqueued = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder spilled = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder failedBatches = new LongAdder();
+    private final AtomicInteger highWatermark = new AtomicInteger();
+    // records queued or spilled but not yet written
+    private final AtomicLong outstanding = new AtomicLong();
+    private volatile long lastBatchMillis;
+
+    public AsyncAuditWriter(AuditSink sink, Path spillFile, int capacity, int batchSize, long flushIntervalMillis) {
+        this.sink = sink;
+        this.spill = new AuditSpillFile(spillFile);
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        try {
+            long left = spill.recover();
+            if (left > 0) {
+                logger.info("Replaying {} audit records left in {}", left, spillFile);
+                spilling = true;
+                outstanding.set(left);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read audit spill file " + spillFile, e);
+        }
+        this.thread = new DaemonThreadFactory("audit-writer").newThread(this::run);
+        thread.start();
+    }
+
+    /**
+     * The writer of the given persistence unit, started on first use and shared by every session using it.
+     */
+    public static AsyncAuditWriter forFactory(EntityManagerFactory emf) {
+        return WRITERS.computeIfAbsent(emf, factory -> {
+            String unit = String.valueOf(factory.getProperties().getOrDefault("hibernate.ejb.persistenceUnitName", "audit"));
+            Path dir = Paths.get(System.getProperty(SPILL_DIR_PROPERTY,
+                    Paths.get(System.getProperty("java.io.tmpdir"), "machinery-repair-audit").toString()));
+            AsyncAuditWriter writer = new AsyncAuditWriter(new JpaAuditSink(factory), dir.resolve(unit + ".spill"),
+                    Integer.getInteger(QUEUE_CAPACITY_PROPERTY, 10000),
+                    Integer.getInteger(BATCH_SIZE_PROPERTY, 500),
+                    Long.getLong(FLUSH_INTERVAL_PROPERTY, 200L));
+            writer.register(unit);
+            return writer;
+        });
+    }
+
+    /**
+     * Queues a record, or spills it if the queue is full. Never blocks on the database.
+     */
+    public void write(Object record) {
+        enqueued.increment();
+        outstanding.incrementAndGet();
+        synchronized (spillLock) {
+            // checked and offered together, so no record is queued behind one that was already spilled
+            if (!spilling && queue.offer(record)) {
+                highWatermark.accumulateAndGet(queue.size(), Math::max);
+                return;
+            }
+            if (!spilling) {
+                logger.warn("Audit queue is full with {} records, spilling to {}", capacity, spill.getPath());
+                spilling = true;
+            }
+            try {
+                spill.append(Collections.singletonList(record));
+                spilled.increment();
+            } catch (IOException e) {
+                dropped.increment();
+                outstanding.decrementAndGet();
+                logger.error("Could not spill audit record {}, dropping it", record, e);
+            }
+        }
+    }
+
+    /**
+     * Waits until everything written so far has reached the database.
+     *
+     * @return whether it did within the timeout
+     */
+    public boolean awaitWritten(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (outstanding.get() > 0 || spilling) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    private void run() {
+        List<Object> batch = new ArrayList<>(batchSize);
+        try {
+            while (running || !queue.isEmpty()) {
+                Object first = queue.poll(flushIntervalMillis, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, batchSize - 1);
+                    if (!writeUntilDone(batch)) {
+                        unwritten = new ArrayList<>(batch);
+                        return;
+                    }
+                    batch.clear();
+                } else if (spilling && running) {
+                    replaySpill();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void replaySpill() throws InterruptedException {
+        AuditSpillFile.Chunk chunk;
+        synchronized (spillLock) {
+            try {
+                chunk = spill.read(replayOffset, batchSize);
+                if (chunk.records.isEmpty()) {
+                    long length = spill.length();
+                    if (chunk.nextOffset < length) {
+                        outstanding.set(queue.size());
+                        logger.error("Audit spill file {} is unreadable from offset {}, dropping {} bytes", spill.getPath(),
+                                chunk.nextOffset, length - chunk.nextOffset);
+                    }
+                    spill.clear();
+                    replayOffset = 0;
+                    spilling = false;
+                    logger.info("Audit spill file {} replayed", spill.getPath());
+                    return;
+                }
+            } catch (IOException e) {
+                logger.warn("Could not read audit spill file {}", spill.getPath(), e);
+                Thread.sleep(flushIntervalMillis);
+                return;
+            }
+        }
+        if (writeUntilDone(chunk.records)) {
+            synchronized (spillLock) {
+                replayOffset = chunk.nextOffset;
+            }
+        }
+    }
+
+    /**
+     * Retries a failed batch with growing delays, so nothing written later overtakes it.
+     *
+     * @return false if the writer was closed before the batch could be written
+     */
+    private boolean writeUntilDone(List<Object> batch) throws InterruptedException {
+        long delay = flushIntervalMillis;
+        while (true) {
+            long start = System.nanoTime();
+            try {
+                sink.write(batch);
+                lastBatchMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                written.add(batch.size());
+                outstanding.addAndGet(-batch.size());
+                batches.increment();
+                return true;
+            } catch (Exception e) {
+                failedBatches.increment();
+                logger.warn("Writing {} audit records failed, retrying in {} ms", batch.size(), delay, e);
+            }
+            long until = System.currentTimeMillis() + delay;
+            while (running && System.currentTimeMillis() < until) {
+                // short naps so close() does not wait out a long delay
+                Thread.sleep(Math.min(flushIntervalMillis, until - System.currentTimeMillis() + 1));
+            }
+            if (!running) {
+                return false;
+            }
+            delay = Math.min(MAX_RETRY_DELAY, delay * 2);
+        }
+    }
+
+    /**
+     * Writes what is queued and stops. Whatever cannot be written is put in front of the spill file.
+     */
+    @Override
+    public void close() {
+        synchronized (spillLock) {
+            // from now on producers spill, the queue only shrinks
+            spilling = true;
+        }
+        running = false;
+        try {
+            thread.join(CLOSE_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (spillLock) {
+            List<Object> leftovers = new ArrayList<>(unwritten);
+            queue.drainTo(leftovers);
+            try {
+                if (!leftovers.isEmpty() || replayOffset > 0) {
+                    spill.prepend(leftovers, replayOffset);
+                    spilled.add(leftovers.size());
+                    replayOffset = 0;
+                }
+                if (spill.length() == 0) {
+                    spill.clear();
+                }
+                spill.close();
+            } catch (IOException e) {
+                dropped.add(leftovers.size());
+                logger.error("Could not spill {} audit records on shutdown", leftovers.size(), e);
+            }
+        }
+        WRITERS.values().remove(this);
+        unregister();
+    }
+
+    private void register(String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(OBJECT_NAME + ObjectName.quote(name));
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(this, objectName);
+                this.objectName = objectName;
+            }
+        } catch (JMException | RuntimeException e) {
+            logger.warn("Could not register {}{} with JMX", OBJECT_NAME, name, e);
+        }
+    }
+
+    private void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException | RuntimeException e) {
+            logger.debug("Could not unregister {}", objectName, e);
+        }
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    @Override
+    public int getQueueCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public int getQueueHighWatermark() {
+        return highWatermark.get();
+    }
+
+    @Override
+    public long getEnqueued() {
+        return enqueued.sum();
+    }
+
+    @Override
+    public long getWritten() {
+        return written.sum();
+    }
+
+    @Override
+    public long getSpilled() {
+        return spilled.sum();
+    }
+
+    @Override
+    public long getSpillBytes() {
+        try {
+            return spill.length();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public boolean isSpilling() {
+        return spilling;
+    }
+
+    @Override
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    @Override
+    public long getFailedBatches() {
+        return failedBatches.sum();
+    }
+
+    @Override
+    public long getLastBatchMillis() {
+        return lastBatchMillis;
+    }
+
+    @Override
+    public long getDropped() {
+        return dropped.sum();
+    }
+}
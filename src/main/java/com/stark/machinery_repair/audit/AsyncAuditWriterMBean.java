@@ -0,0 +1,33 @@
+package com.stark.machinery_repair.audit;
+
+/**
+ * JMX view of {@link AsyncAuditWriter}, used to watch how far the audit log lags behind the processes and
+ * whether the queue is sized for the load.
+ */
+public interface AsyncAuditWriterMBean {
+
+    int getQueueDepth();
+
+    int getQueueCapacity();
+
+    int getQueueHighWatermark();
+
+    long getEnqueued();
+
+    long getWritten();
+
+    long getSpilled();
+
+    long getSpillBytes();
+
+    boolean isSpilling();
+
+    long getBatches();
+
+    long getFailedBatches();
+
+    long getLastBatchMillis();
+
+    long getDropped();
+
+}
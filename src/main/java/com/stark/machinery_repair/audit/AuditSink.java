@@ -0,0 +1,15 @@
+package com.stark.machinery_repair.audit;
+
+import java.util.List;
+
+/**
+ * Where {@link AsyncAuditWriter} writes its batches. A batch is written completely or not at all.
+ */
+public interface AuditSink {
+
+    /**
+     * @param records jBPM audit entities to insert and {@link AuditUpdate}s to apply, in the order they happened
+     */
+    void write(List<Object> records) throws Exception;
+
+}
@@ -0,0 +1,223 @@
+package com.stark.machinery_repair.audit;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only file of serialized audit records, written when {@link AsyncAuditWriter} cannot keep them in
+ * memory or cannot reach the database.
+ * <p>
+ * Each record is stored as its length, the CRC32 of its bytes and the bytes of its Java serialization, and
+ * every append is forced to disk before it returns. A record cut short by a crash fails its length or CRC check;
+ * {@link #recover()} truncates the file to the last complete record before anything new is appended.
+ * <p>
+ * Not thread safe, {@link AsyncAuditWriter} serializes all access.
+ */
+class AuditSpillFile {
+    private static Logger logger = LoggerFactory.getLogger(AuditSpillFile.class);
+
+    private static final int HEADER_BYTES = Integer.BYTES + Long.BYTES;
+
+    private final Path path;
+    private FileChannel appendChannel;
+
+    AuditSpillFile(Path path) {
+        this.path = path;
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    long length() throws IOException {
+        return Files.exists(path) ? Files.size(path) : 0L;
+    }
+
+    void append(List<?> records) throws IOException {
+        if (records.isEmpty()) {
+            return;
+        }
+        if (appendChannel == null) {
+            Files.createDirectories(path.toAbsolutePath().getParent());
+            appendChannel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        for (Object record : records) {
+            appendChannel.write(frame(record));
+        }
+        appendChannel.force(false);
+    }
+
+    /**
+     * Writes {@code records} in front of what is left of this file from {@code offset} on. Used on shutdown
+     * for records that are older than everything already spilled.
+     */
+    void prepend(List<?> records, long offset) throws IOException {
+        close();
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        Path next = path.resolveSibling(path.getFileName() + ".next");
+        try (FileChannel channel = FileChannel.open(next, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (Object record : records) {
+                channel.write(frame(record));
+            }
+            if (Files.exists(path)) {
+                try (FileChannel current = FileChannel.open(path, StandardOpenOption.READ)) {
+                    long position = offset;
+                    long size = current.size();
+                    while (position < size) {
+                        position += current.transferTo(position, size - position, channel);
+                    }
+                }
+            }
+            channel.force(false);
+        }
+        Files.move(next, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads up to {@code max} complete records starting at {@code offset}.
+     */
+    Chunk read(long offset, int max) throws IOException {
+        if (!Files.exists(path)) {
+            return new Chunk(Collections.emptyList(), offset);
+        }
+        List<Object> records = new ArrayList<>();
+        long position = offset;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (records.size() < max) {
+                header.clear();
+                if (channel.read(header, position) < HEADER_BYTES) {
+                    break;
+                }
+                header.flip();
+                int length = header.getInt();
+                long crc = header.getLong();
+                if (length <= 0 || position + HEADER_BYTES + length > channel.size()) {
+                    break;
+                }
+                ByteBuffer data = ByteBuffer.allocate(length);
+                channel.read(data, position + HEADER_BYTES);
+                if (checksum(data.array()) != crc) {
+                    break;
+                }
+                records.add(deserialize(data.array()));
+                position += HEADER_BYTES + length;
+            }
+        }
+        return new Chunk(records, position);
+    }
+
+    /**
+     * Drops a torn record left at the end of the file by a crash.
+     *
+     * @return the number of complete records in the file
+     */
+    long recover() throws IOException {
+        long count = 0;
+        long offset = 0;
+        while (true) {
+            Chunk chunk = read(offset, 1000);
+            if (chunk.records.isEmpty()) {
+                break;
+            }
+            count += chunk.records.size();
+            offset = chunk.nextOffset;
+        }
+        long length = length();
+        if (offset < length) {
+            logger.warn("Truncating {} from {} to {} bytes, dropping a torn record", path, length, offset);
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                channel.truncate(offset);
+                channel.force(false);
+            }
+        }
+        return count;
+    }
+
+    void clear() throws IOException {
+        close();
+        Files.deleteIfExists(path);
+    }
+
+    void close() throws IOException {
+        if (appendChannel != null) {
+            appendChannel.close();
+            appendChannel = null;
+        }
+    }
+
+    private static ByteBuffer frame(Object record) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(record);
+        }
+        byte[] data = bytes.toByteArray();
+        ByteBuffer frame = ByteBuffer.allocate(HEADER_BYTES + data.length);
+        frame.putInt(data.length).putLong(checksum(data)).put(data);
+        frame.flip();
+        return frame;
+    }
+
+    private static long checksum(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        return crc.getValue();
+    }
+
+    private static Object deserialize(byte[] data) throws IOException {
+        try (ObjectInputStream in = new ClassLoaderObjectInputStream(new ByteArrayInputStream(data))) {
+            return in.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Spilled audit record of unknown type", e);
+        }
+    }
+
+    static final class Chunk {
+        final List<Object> records;
+        final long nextOffset;
+
+        Chunk(List<Object> records, long nextOffset) {
+            this.records = records;
+            this.nextOffset = nextOffset;
+        }
+    }
+
+    /**
+     * Resolves the jBPM audit entities and this project's updates with the kjar's class loader, which the
+     * writer thread does not have as its context class loader.
+     */
+    private static final class ClassLoaderObjectInputStream extends ObjectInputStream {
+
+        ClassLoaderObjectInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            try {
+                return Class.forName(desc.getName(), false, AuditSpillFile.class.getClassLoader());
+            } catch (ClassNotFoundException e) {
+                return super.resolveClass(desc);
+            }
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.stark.machinery_repair.audit;
+
+import java.io.Serializable;
+
+import javax.persistence.EntityManager;
+
+/**
+ * A change to an audit row written earlier, such as the end of a process instance. It is queued and spilled
+ * like the inserts, so it is always applied after the row it changes.
+ */
+public interface AuditUpdate extends Serializable {
+
+    void apply(EntityManager em);
+
+}
@@ -0,0 +1,59 @@
+package com.stark.machinery_repair.audit;
+
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import com.stark.machinery_repair.util.JpaTransactions;
+import org.jbpm.process.audit.NodeInstanceLog;
+import org.jbpm.process.audit.ProcessInstanceLog;
+import org.jbpm.process.audit.VariableInstanceLog;
+
+/**
+ * Writes a batch of audit records in one transaction of its own, see {@link JpaTransactions}.
+ * <p>
+ * The inserts of a batch become JDBC batches when the persistence unit sets {@code hibernate.jdbc.batch_size}
+ * (together with {@code hibernate.order_inserts}); without it they still share one transaction and one flush.
+ */
+public class JpaAuditSink implements AuditSink {
+    private final EntityManagerFactory emf;
+
+    public JpaAuditSink(EntityManagerFactory emf) {
+        this.emf = emf;
+    }
+
+    @Override
+    public void write(List<Object> records) throws Exception {
+        JpaTransactions.execute(emf, em -> {
+            apply(em, records);
+            return null;
+        });
+    }
+
+    private static void apply(EntityManager em, List<Object> records) {
+        for (Object record : records) {
+            if (record instanceof AuditUpdate) {
+                // the query of an update flushes the inserts before it
+                ((AuditUpdate) record).apply(em);
+            } else {
+                resetId(record);
+                em.persist(record);
+            }
+        }
+    }
+
+    /**
+     * A rolled back batch leaves the generated ids on its entities, which would make them look detached when
+     * the batch is tried again.
+     */
+    private static void resetId(Object record) {
+        if (record instanceof NodeInstanceLog) {
+            ((NodeInstanceLog) record).setId(0);
+        } else if (record instanceof VariableInstanceLog) {
+            ((VariableInstanceLog) record).setId(0);
+        } else if (record instanceof ProcessInstanceLog) {
+            ((ProcessInstanceLog) record).setId(0);
+        }
+    }
+}
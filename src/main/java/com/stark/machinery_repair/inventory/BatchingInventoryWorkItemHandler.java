@@ -0,0 +1,308 @@
+package com.stark.machinery_repair.inventory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.LongPredicate;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.stark.machinery_repair.rest.ChainedRestHandler;
+import com.stark.machinery_repair.rest.HttpRestClient;
+import com.stark.machinery_repair.rest.RestChain;
+import com.stark.machinery_repair.rest.RestClient;
+import com.stark.machinery_repair.rest.RestResponse;
+import com.stark.machinery_repair.util.BatchAccumulator;
+import com.stark.machinery_repair.util.SessionTransactions;
+import org.kie.api.runtime.Environment;
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.process.WorkItem;
+import org.kie.api.runtime.process.WorkItemHandler;
+import org.kie.api.runtime.process.WorkItemManager;
+import org.kie.internal.runtime.Closeable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@code Rest} handler that coalesces "Request Inventory Availability" lookups from many process instances
+ * into one multi-part query and fans the answers back out to each work item.
+ * <p>
+ * The batch endpoint receives a JSON array of the single-part request bodies built by
+ * {@code PartsStorageUtil.assignJsonQueryRequest} and must answer with a JSON array of the single-part
+ * responses, each carrying its {@code partCode}. Every work item is completed with its own element as
+ * {@code Result}, so {@code PartsStorageUtil.getInventoryAvailable} sees exactly what a single call returns.
+ * Lookups for parts the answer leaves out, and all lookups of a batch whose call fails or is not answered with an
+ * array, go to the delegate handler as single calls instead. The batch query itself goes through the delegate
+ * handler too, so it keeps the endpoint limits, circuit breaker and metrics of the
+ * {@link com.stark.machinery_repair.rest.AsyncRestWorkItemHandler}.
+ * <p>
+ * A lookup only joins a batch once the transaction that created its work item has committed, as the flush
+ * thread could not complete it before.
+ * <p>
+ * Lookups answered by the {@link InventoryAvailabilityCache} complete straight away without any call; the
+ * cache itself is filled by {@link InventoryCacheInvalidationListener}. All other {@code Rest} work items, and
+ * inventory lookups while no batch URL is configured, go to the delegate handler.
+ */
+public class BatchingInventoryWorkItemHandler implements ChainedRestHandler, Closeable {
+    private static Logger logger = LoggerFactory.getLogger(BatchingInventoryWorkItemHandler.class);
+
+    public static final String BATCH_URL_PROPERTY = "machinery-repair.inventory.batch-url";
+    public static final String BATCH_SIZE_PROPERTY = "machinery-repair.inventory.batch-size";
+    public static final String BATCH_WINDOW_PROPERTY = "machinery-repair.inventory.batch-window-ms";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final KieSession ksession;
+    private final WorkItemHandler delegate;
+    private final RestClient restClient;
+    private final InventoryAvailabilityCache cache;
+    private final String batchUrl;
+    private final BatchAccumulator<String, PendingLookup> accumulator;
+    // lookups waiting for or in a batch, until they are completed or handed on
+    private final Set<Long> held = ConcurrentHashMap.newKeySet();
+    private volatile Environment environment;
+
+    public BatchingInventoryWorkItemHandler(KieSession ksession, WorkItemHandler delegate) {
+        this(ksession, delegate, new HttpRestClient(), InventoryAvailabilityCache.shared(), System.getProperty(BATCH_URL_PROPERTY),
+                Integer.getInteger(BATCH_SIZE_PROPERTY, 50), Long.getLong(BATCH_WINDOW_PROPERTY, 100L));
+    }
+
+    public BatchingInventoryWorkItemHandler(KieSession ksession, WorkItemHandler delegate, RestClient restClient,
+            InventoryAvailabilityCache cache, String batchUrl, int maxBatchSize, long maxWaitMillis) {
+        this.ksession = ksession;
+        this.delegate = delegate;
+        this.restClient = restClient;
+        this.cache = cache;
+        this.batchUrl = batchUrl;
+        this.accumulator = batchUrl == null ? null
+                : new BatchAccumulator<>("inventory-batch", maxBatchSize, maxWaitMillis, 2, this::sendBatch);
+        addHolder(held::contains);
+    }
+
+    @Override
+    public void executeWorkItem(WorkItem workItem, WorkItemManager manager) {
+        String partCode = inventoryPartCode(workItem);
+        if (partCode == null) {
+            delegate.executeWorkItem(workItem, manager);
+            return;
+        }
+        String branchCode = (String) workItem.getParameter("branchCode");
+        String cached = cache.get(branchCode, partCode);
+        if (cached != null) {
+            manager.completeWorkItem(workItem.getId(), new RestResponse(200, "OK", cached).toResults());
+        } else if (accumulator != null) {
+            if (!held.add(workItem.getId())) {
+                logger.debug("Inventory work item {} is already waiting for a batch", workItem.getId());
+                return;
+            }
+            PendingLookup lookup = new PendingLookup(workItem, partCode);
+            SessionTransactions.afterCompletion(environment(), () -> accumulator.add(batchUrl, lookup),
+                    () -> held.remove(workItem.getId()));
+        } else {
+            delegate.executeWorkItem(workItem, manager);
+        }
+    }
+
+    @Override
+    public void abortWorkItem(WorkItem workItem, WorkItemManager manager) {
+        String partCode = accumulator == null ? null : inventoryPartCode(workItem);
+        if (partCode != null && held.remove(workItem.getId())) {
+            accumulator.remove(batchUrl, new PendingLookup(workItem, partCode));
+            return;
+        }
+        delegate.abortWorkItem(workItem, manager);
+    }
+
+    @Override
+    public void call(WorkItem workItem, Consumer<Map<String, Object>> onResults) {
+        RestChain.call(delegate, restClient, workItem, onResults);
+    }
+
+    @Override
+    public void addHolder(LongPredicate holder) {
+        RestChain.addHolder(delegate, holder);
+    }
+
+    /**
+     * "Request Inventory Availability" is the only {@code GET} in the process and the only call whose body is a
+     * bare {@code {"partCode":...}} lookup.
+     */
+    static String inventoryPartCode(WorkItem workItem) {
+        if (!"GET".equalsIgnoreCase((String) workItem.getParameter("Method"))) {
+            return null;
+        }
+        Object content = workItem.getParameter("ContentData");
+        if (content == null) {
+            return null;
+        }
+        try {
+            JsonNode partCode = MAPPER.readTree(content.toString()).get("partCode");
+            return partCode == null || partCode.isNull() ? null : partCode.asText();
+        } catch (IOException e) {
+            logger.warn("Inventory request of work item {} is not valid JSON, not batching it", workItem.getId());
+            return null;
+        }
+    }
+
+    private void sendBatch(String url, List<PendingLookup> batch) {
+        Map<String, List<PendingLookup>> byPartCode = new LinkedHashMap<>();
+        ArrayNode query = MAPPER.createArrayNode();
+        for (PendingLookup lookup : batch) {
+            List<PendingLookup> waiting = byPartCode.get(lookup.partCode);
+            if (waiting == null) {
+                waiting = new ArrayList<>();
+                byPartCode.put(lookup.partCode, waiting);
+                query.add(readOrWrap(lookup));
+            }
+            waiting.add(lookup);
+        }
+        logger.debug("Querying inventory for {} parts on behalf of {} work items", byPartCode.size(), batch.size());
+
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("Url", url);
+        parameters.put("Method", "POST");
+        parameters.put("ContentType", "application/json");
+        try {
+            parameters.put("ContentData", MAPPER.writeValueAsString(query));
+        } catch (IOException e) {
+            logger.error("Could not write the batched inventory query to {}", url, e);
+            answer(url, byPartCode, Collections.emptyMap(), null);
+            return;
+        }
+        call(RestChain.copy(batch.get(0).workItem, parameters),
+                results -> answer(url, byPartCode, resultsByPartCode(url, results), results));
+    }
+
+    /**
+     * @return the answer of each part, empty if the whole batch failed
+     */
+    private static Map<String, String> resultsByPartCode(String url, Map<String, Object> results) {
+        Object status = results.get("Status");
+        Object body = results.get("Result");
+        if (!(status instanceof Integer) || (Integer) status < 200 || (Integer) status >= 300 || body == null) {
+            logger.error("Batched inventory query to {} answered {} {}", url, status, results.get("StatusMsg"));
+            return Collections.emptyMap();
+        }
+        Map<String, String> resultsByPartCode = new HashMap<>();
+        try {
+            JsonNode answer = MAPPER.readTree(body.toString());
+            if (answer == null || !answer.isArray()) {
+                logger.error("Batched inventory query to {} did not answer with an array, failing the batch: {}", url, body);
+                return Collections.emptyMap();
+            }
+            for (JsonNode part : answer) {
+                JsonNode partCode = part.get("partCode");
+                if (partCode != null) {
+                    resultsByPartCode.put(partCode.asText(), MAPPER.writeValueAsString(part));
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Batched inventory query to {} answered with invalid JSON, failing the batch", url, e);
+            return Collections.emptyMap();
+        }
+        return resultsByPartCode;
+    }
+
+    private void answer(String url, Map<String, List<PendingLookup>> byPartCode, Map<String, String> resultsByPartCode,
+            Map<String, Object> response) {
+        int delegated = 0;
+        int lookups = 0;
+        for (Map.Entry<String, List<PendingLookup>> entry : byPartCode.entrySet()) {
+            lookups += entry.getValue().size();
+            String result = resultsByPartCode.get(entry.getKey());
+            if (result == null) {
+                for (PendingLookup lookup : entry.getValue()) {
+                    delegate(lookup);
+                    delegated++;
+                }
+                continue;
+            }
+            Map<String, Object> results = new HashMap<>();
+            results.put("Result", result);
+            results.put("Status", response.get("Status"));
+            results.put("StatusMsg", response.get("StatusMsg"));
+            for (PendingLookup lookup : entry.getValue()) {
+                complete(lookup.workItem.getId(), results);
+                held.remove(lookup.workItem.getId());
+            }
+        }
+        if (delegated > 0) {
+            logger.warn("Batched inventory query to {} left {} of {} lookups unanswered, sent them as single calls",
+                    url, delegated, lookups);
+        }
+    }
+
+    private void delegate(PendingLookup lookup) {
+        try {
+            delegate.executeWorkItem(lookup.workItem, ksession.getWorkItemManager());
+        } catch (RuntimeException e) {
+            logger.warn("Could not hand inventory work item {} to the delegate", lookup.workItem.getId(), e);
+        } finally {
+            held.remove(lookup.workItem.getId());
+        }
+    }
+
+    private JsonNode readOrWrap(PendingLookup lookup) {
+        try {
+            return MAPPER.readTree(lookup.request);
+        } catch (IOException e) {
+            return MAPPER.createObjectNode().put("partCode", lookup.partCode);
+        }
+    }
+
+    private Environment environment() {
+        if (environment == null) {
+            environment = ksession.getEnvironment();
+        }
+        return environment;
+    }
+
+    private void complete(long workItemId, Map<String, Object> results) {
+        try {
+            ksession.getWorkItemManager().completeWorkItem(workItemId, new HashMap<>(results));
+        } catch (RuntimeException e) {
+            // the instance may have been aborted while the batch was in flight
+            logger.warn("Could not complete inventory work item {}", workItemId, e);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (accumulator != null) {
+            accumulator.close();
+        }
+        if (delegate instanceof Closeable) {
+            ((Closeable) delegate).close();
+        }
+    }
+
+    private static final class PendingLookup {
+        private final WorkItem workItem;
+        private final String partCode;
+        private final String request;
+
+        private PendingLookup(WorkItem workItem, String partCode) {
+            this.workItem = workItem;
+            this.partCode = partCode;
+            this.request = (String) workItem.getParameter("ContentData");
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof PendingLookup && ((PendingLookup) other).workItem.getId() == workItem.getId();
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(workItem.getId());
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package com.stark.machinery_repair.inventory;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-JVM cache of "Request Inventory Availability" responses keyed by (branchCode, partCode).
+ * <p>
+ * Entries expire after a fixed TTL and the least recently used entry is dropped once the cache is full.
+ * Assignments and material receipts change stock, so {@link InventoryCacheInvalidationListener} updates or
+ * drops the affected entry when either happens. A TTL of zero disables the cache.
+ */
+public class InventoryAvailabilityCache implements InventoryAvailabilityCacheMBean {
+    private static Logger logger = LoggerFactory.getLogger(InventoryAvailabilityCache.class);
+
+    public static final String TTL_PROPERTY = "machinery-repair.inventory.cache-ttl-ms";
+    public static final String MAX_ENTRIES_PROPERTY = "machinery-repair.inventory.cache-max-entries";
+    public static final String OBJECT_NAME = "com.stark.machinery_repair:type=InventoryAvailabilityCache";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final InventoryAvailabilityCache SHARED = register(new InventoryAvailabilityCache(
+            Long.getLong(TTL_PROPERTY, 5000L), Integer.getInteger(MAX_ENTRIES_PROPERTY, 10000)));
+
+    private final long ttlMillis;
+    private final int maxEntries;
+    private final LongSupplier clock;
+    private final Map<Key, Entry> entries;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private final LongAdder updates = new LongAdder();
+
+    public InventoryAvailabilityCache(long ttlMillis, int maxEntries) {
+        this(ttlMillis, maxEntries, System::currentTimeMillis);
+    }
+
+    InventoryAvailabilityCache(long ttlMillis, int maxEntries, LongSupplier clock) {
+        this.ttlMillis = ttlMillis;
+        this.maxEntries = maxEntries;
+        this.clock = clock;
+        this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                if (size() > InventoryAvailabilityCache.this.maxEntries) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * The cache shared by the handlers and listeners of every deployment in this JVM.
+     */
+    public static InventoryAvailabilityCache shared() {
+        return SHARED;
+    }
+
+    public boolean isEnabled() {
+        return ttlMillis > 0 && maxEntries > 0;
+    }
+
+    /**
+     * @return the cached inventory response, or {@code null} on a miss
+     */
+    public String get(String branchCode, String partCode) {
+        if (!isEnabled()) {
+            return null;
+        }
+        Key key = new Key(branchCode, partCode);
+        long now = clock.getAsLong();
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.expiresAt > now) {
+                hits.increment();
+                return entry.result;
+            }
+            if (entry != null) {
+                entries.remove(key);
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Caches a successful inventory response unless a live entry already exists, so answers served from the
+     * cache never extend their own lifetime. Responses without an {@code availableQuantity} are failures and
+     * are never cached.
+     */
+    public void putIfAbsent(String branchCode, String partCode, String result) {
+        if (!isEnabled() || readAvailableQuantity(result) == null) {
+            return;
+        }
+        Key key = new Key(branchCode, partCode);
+        long now = clock.getAsLong();
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry == null || entry.expiresAt <= now) {
+                entries.put(key, new Entry(result, now + ttlMillis));
+            }
+        }
+    }
+
+    /**
+     * Rewrites the cached {@code availableQuantity} after an assignment reported what is left. The entry keeps
+     * its original expiry.
+     */
+    public void updateAvailableQuantity(String branchCode, String partCode, int remainingParts) {
+        if (!isEnabled()) {
+            return;
+        }
+        Key key = new Key(branchCode, partCode);
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                return;
+            }
+            String updated = withAvailableQuantity(entry.result, remainingParts);
+            if (updated == null) {
+                entries.remove(key);
+                invalidations.increment();
+            } else {
+                entries.put(key, new Entry(updated, entry.expiresAt));
+                updates.increment();
+            }
+        }
+    }
+
+    public void invalidate(String branchCode, String partCode) {
+        if (!isEnabled()) {
+            return;
+        }
+        synchronized (entries) {
+            if (entries.remove(new Key(branchCode, partCode)) != null) {
+                invalidations.increment();
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    @Override
+    public long getHits() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public double getHitRatio() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? 0.0 : (double) hitCount / total;
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public long getInvalidations() {
+        return invalidations.sum();
+    }
+
+    @Override
+    public long getUpdates() {
+        return updates.sum();
+    }
+
+    @Override
+    public int getSize() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    @Override
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    @Override
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    private static Integer readAvailableQuantity(String result) {
+        if (result == null) {
+            return null;
+        }
+        try {
+            JsonNode quantity = MAPPER.readTree(result).get("availableQuantity");
+            return quantity == null || !quantity.canConvertToInt() ? null : quantity.asInt();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static String withAvailableQuantity(String result, int availableQuantity) {
+        try {
+            JsonNode node = MAPPER.readTree(result);
+            if (!(node instanceof ObjectNode)) {
+                return null;
+            }
+            ((ObjectNode) node).put("availableQuantity", availableQuantity);
+            return MAPPER.writeValueAsString(node);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static InventoryAvailabilityCache register(InventoryAvailabilityCache cache) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(cache, name);
+            }
+        } catch (JMException | RuntimeException e) {
+            logger.warn("Could not register {} with JMX", OBJECT_NAME, e);
+        }
+        return cache;
+    }
+
+    private static final class Key {
+        private final String branchCode;
+        private final String partCode;
+
+        private Key(String branchCode, String partCode) {
+            this.branchCode = branchCode;
+            this.partCode = partCode;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return Objects.equals(branchCode, key.branchCode) && Objects.equals(partCode, key.partCode);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(branchCode, partCode);
+        }
+    }
+
+    private static final class Entry {
+        private final String result;
+        private final long expiresAt;
+
+        private Entry(String result, long expiresAt) {
+            this.result = result;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.stark.machinery_repair.inventory;
+
+/**
+ * JMX view of {@link InventoryAvailabilityCache}, used to size the cache from its hit ratio.
+ */
+public interface InventoryAvailabilityCacheMBean {
+
+    long getHits();
+
+    long getMisses();
+
+    double getHitRatio();
+
+    long getEvictions();
+
+    long getInvalidations();
+
+    long getUpdates();
+
+    int getSize();
+
+    int getMaxEntries();
+
+    long getTtlMillis();
+
+    void clear();
+
+}
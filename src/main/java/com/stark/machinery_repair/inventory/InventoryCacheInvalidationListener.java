@@ -0,0 +1,75 @@
+package com.stark.machinery_repair.inventory;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.kie.api.event.process.DefaultProcessEventListener;
+import org.kie.api.event.process.ProcessNodeLeftEvent;
+import org.kie.api.runtime.process.WorkflowProcessInstance;
+
+/**
+ * Fills {@link InventoryAvailabilityCache} from "Request Inventory Availability" answers and keeps it in step
+ * with stock changes made by the process itself.
+ * <p>
+ * Filling the cache here rather than in a work item handler works the same whether the answer came from a
+ * synchronous, asynchronous or batched call. A successful "Assign parts to Repair Request" rewrites the cached
+ * quantity with the {@code remainingParts} the service reported. A NOK or failed assignment, or a "Received
+ * Materials" signal, drops the entry so the next lookup goes to the inventory service. This runs before the node
+ * is left, so the lookup that follows a {@code restart} link already sees the change.
+ */
+public class InventoryCacheInvalidationListener extends DefaultProcessEventListener {
+
+    public static final String INVENTORY_NODE = "Request Inventory Availability";
+    public static final String ASSIGN_PARTS_NODE = "Assign parts to Repair Request";
+    public static final String RECEIVED_MATERIALS_NODE = "Received Materials";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final InventoryAvailabilityCache cache;
+
+    public InventoryCacheInvalidationListener() {
+        this(InventoryAvailabilityCache.shared());
+    }
+
+    public InventoryCacheInvalidationListener(InventoryAvailabilityCache cache) {
+        this.cache = cache;
+    }
+
+    @Override
+    public void beforeNodeLeft(ProcessNodeLeftEvent event) {
+        if (!cache.isEnabled() || !(event.getProcessInstance() instanceof WorkflowProcessInstance)) {
+            return;
+        }
+        String nodeName = event.getNodeInstance().getNodeName();
+        WorkflowProcessInstance processInstance = (WorkflowProcessInstance) event.getProcessInstance();
+        String branchCode = (String) processInstance.getVariable("branchCode");
+        String partCode = (String) processInstance.getVariable("partCode");
+
+        if (INVENTORY_NODE.equals(nodeName)) {
+            cache.putIfAbsent(branchCode, partCode, (String) processInstance.getVariable("wsJsonResponse"));
+        } else if (ASSIGN_PARTS_NODE.equals(nodeName)) {
+            Integer remainingParts = Boolean.TRUE.equals(processInstance.getVariable("partsAssigned"))
+                    ? remainingParts((String) processInstance.getVariable("wsJsonResponse")) : null;
+            if (remainingParts != null) {
+                cache.updateAvailableQuantity(branchCode, partCode, remainingParts);
+            } else {
+                cache.invalidate(branchCode, partCode);
+            }
+        } else if (RECEIVED_MATERIALS_NODE.equals(nodeName)) {
+            cache.invalidate(branchCode, partCode);
+        }
+    }
+
+    private static Integer remainingParts(String response) {
+        if (response == null) {
+            return null;
+        }
+        try {
+            JsonNode remaining = MAPPER.readTree(response).get("remainingParts");
+            return remaining == null || !remaining.canConvertToInt() ? null : remaining.asInt();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.stark.machinery_repair.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency and outcome of the REST calls to one endpoint (URL without query string).
+ * <p>
+ * Calls that got an answer count in {@link #getCalls()} and their latency, and among those anything but a 2xx
+ * answer or an I/O failure counts as an error. Calls that never went out because they waited too long for a
+ * free connection count as rejected, and those held back by an open circuit count as short-circuited.
+ */
+public class EndpointMetrics implements EndpointMetricsMBean {
+
+    private final String endpoint;
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder shortCircuited = new LongAdder();
+    private final Histogram latency = new Histogram();
+
+    EndpointMetrics(String endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    public void recordCall(long nanos, boolean successful) {
+        calls.increment();
+        if (!successful) {
+            errors.increment();
+        }
+        latency.record(nanos / 1000);
+    }
+
+    public void recordRejected() {
+        rejected.increment();
+    }
+
+    public void recordShortCircuited() {
+        shortCircuited.increment();
+    }
+
+    @Override
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    @Override
+    public long getCalls() {
+        return calls.sum();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    @Override
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    @Override
+    public long getShortCircuited() {
+        return shortCircuited.sum();
+    }
+
+    @Override
+    public double getLatencyMeanMillis() {
+        return latency.getMeanMillis();
+    }
+
+    @Override
+    public double getLatency50thPercentileMillis() {
+        return latency.getPercentileMillis(50);
+    }
+
+    @Override
+    public double getLatency95thPercentileMillis() {
+        return latency.getPercentileMillis(95);
+    }
+
+    @Override
+    public double getLatency99thPercentileMillis() {
+        return latency.getPercentileMillis(99);
+    }
+
+    @Override
+    public double getLatencyMaxMillis() {
+        return latency.getMaxMillis();
+    }
+}
@@ -0,0 +1,28 @@
+package com.stark.machinery_repair.metrics;
+
+/**
+ * JMX view of {@link EndpointMetrics}, used to tell a slow or failing service from a slow process.
+ */
+public interface EndpointMetricsMBean {
+
+    String getEndpoint();
+
+    long getCalls();
+
+    long getErrors();
+
+    long getRejected();
+
+    long getShortCircuited();
+
+    double getLatencyMeanMillis();
+
+    double getLatency50thPercentileMillis();
+
+    double getLatency95thPercentileMillis();
+
+    double getLatency99thPercentileMillis();
+
+    double getLatencyMaxMillis();
+
+}
@@ -0,0 +1,67 @@
+package com.stark.machinery_repair.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram in constant memory. The buckets grow by 5% from 0.1 ms to about 77 days, so a percentile
+ * is off by at most that much. Recording is a few atomic increments and allocates nothing.
+ */
+public final class Histogram {
+
+    private static final double MIN_MICROS = 100;
+    private static final double GROWTH = 1.05;
+    private static final double LOG_GROWTH = Math.log(GROWTH);
+    private static final int BUCKETS = 512;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalMicros = new LongAdder();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    public void record(long micros) {
+        long value = Math.max(micros, 0);
+        int bucket = value <= MIN_MICROS ? 0 : 1 + (int) (Math.log(value / MIN_MICROS) / LOG_GROWTH);
+        counts.incrementAndGet(Math.min(bucket, BUCKETS - 1));
+        count.increment();
+        totalMicros.add(value);
+        if (value > maxMicros.get()) {
+            maxMicros.accumulateAndGet(value, Math::max);
+        }
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public double getMeanMillis() {
+        long recorded = count.sum();
+        return recorded == 0 ? 0 : totalMicros.sum() / 1000.0 / recorded;
+    }
+
+    public double getMaxMillis() {
+        return maxMicros.get() / 1000.0;
+    }
+
+    /**
+     * @return the upper bound in milliseconds of the bucket holding the given percentile, 0 when empty
+     */
+    public double getPercentileMillis(double percentile) {
+        long[] copy = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+            total += copy[i];
+        }
+        long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += copy[i];
+            if (seen >= rank && seen > 0) {
+                return MIN_MICROS * Math.pow(GROWTH, i) / 1000;
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,69 @@
+package com.stark.machinery_repair.metrics;
+
+import org.jbpm.workflow.instance.impl.NodeInstanceImpl;
+import org.kie.api.event.process.DefaultProcessEventListener;
+import org.kie.api.event.process.ProcessCompletedEvent;
+import org.kie.api.event.process.ProcessNodeLeftEvent;
+import org.kie.api.event.process.ProcessNodeTriggeredEvent;
+import org.kie.api.runtime.process.NodeInstance;
+
+/**
+ * Feeds {@link ProcessMetrics} from the engine: node entries, occupancy and dwell time of the watched nodes, and
+ * the loops back to "Request Inventory Availability" after a retry, a fixed request or a material receipt.
+ * <p>
+ * Nodes left because their instance was aborted still free their slot but are not timed.
+ */
+public class MetricsProcessEventListener extends DefaultProcessEventListener {
+
+    public static final String PROCESS_ID = "machinery-repair.parts-procurement_v2_0";
+    public static final String RESTART_NODE = "Restart";
+    public static final String FIX_NODE = "Fix Procurement Details";
+    public static final String RECEIVED_MATERIALS_NODE = "Received Materials";
+
+    private final ProcessMetrics metrics;
+
+    public MetricsProcessEventListener() {
+        this(ProcessMetrics.shared());
+    }
+
+    public MetricsProcessEventListener(ProcessMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void beforeNodeTriggered(ProcessNodeTriggeredEvent event) {
+        NodeMetrics node = metrics.node(event.getNodeInstance().getNodeName());
+        if (node != null) {
+            node.entered(event.getProcessInstance().getId(), event.getNodeInstance().getId());
+        }
+    }
+
+    @Override
+    public void beforeNodeLeft(ProcessNodeLeftEvent event) {
+        NodeInstance nodeInstance = event.getNodeInstance();
+        String nodeName = nodeInstance.getNodeName();
+        boolean cancelled = nodeInstance instanceof NodeInstanceImpl && ((NodeInstanceImpl) nodeInstance).getCancelType() != null;
+        long processInstanceId = event.getProcessInstance().getId();
+        NodeMetrics node = metrics.node(nodeName);
+        if (node != null) {
+            node.left(processInstanceId, nodeInstance.getId(), !cancelled);
+        }
+        if (cancelled) {
+            return;
+        }
+        if (RESTART_NODE.equals(nodeName)) {
+            metrics.retryLoop(processInstanceId);
+        } else if (FIX_NODE.equals(nodeName)) {
+            metrics.fixLoop(processInstanceId);
+        } else if (RECEIVED_MATERIALS_NODE.equals(nodeName)) {
+            metrics.receiptLoop(processInstanceId);
+        }
+    }
+
+    @Override
+    public void afterProcessCompleted(ProcessCompletedEvent event) {
+        if (PROCESS_ID.equals(event.getProcessInstance().getProcessId())) {
+            metrics.completed(event.getProcessInstance().getId());
+        }
+    }
+}
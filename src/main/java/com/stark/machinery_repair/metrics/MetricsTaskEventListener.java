@@ -0,0 +1,45 @@
+package com.stark.machinery_repair.metrics;
+
+import java.util.Date;
+
+import org.jbpm.services.task.events.DefaultTaskEventListener;
+import org.kie.api.task.TaskEvent;
+import org.kie.api.task.model.Status;
+import org.kie.api.task.model.Task;
+
+/**
+ * Records in {@link ProcessMetrics} how long human tasks sat in the group queue: the time from creation until
+ * someone claims the task, or starts it straight from the queue.
+ */
+public class MetricsTaskEventListener extends DefaultTaskEventListener {
+
+    private final ProcessMetrics metrics;
+
+    public MetricsTaskEventListener() {
+        this(ProcessMetrics.shared());
+    }
+
+    public MetricsTaskEventListener(ProcessMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void beforeTaskClaimedEvent(TaskEvent event) {
+        recordQueueAge(event.getTask());
+    }
+
+    @Override
+    public void beforeTaskStartedEvent(TaskEvent event) {
+        recordQueueAge(event.getTask());
+    }
+
+    private void recordQueueAge(Task task) {
+        if (task == null || task.getTaskData() == null || task.getTaskData().getStatus() != Status.Ready) {
+            return;
+        }
+        Date createdOn = task.getTaskData().getCreatedOn();
+        if (createdOn != null) {
+            metrics.recordTaskQueueAge(System.currentTimeMillis() - createdOn.getTime());
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.stark.machinery_repair.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Throughput, occupancy and dwell time of one process node, fed by {@link MetricsProcessEventListener}.
+ * <p>
+ * The engine does not persist when a node instance was triggered, so the entry times are held here until the
+ * node is left. They are in memory only: instances that were already waiting when the server started count
+ * neither as active nor in the dwell time.
+ */
+public class NodeMetrics implements NodeMetricsMBean {
+
+    private final String nodeName;
+    private final LongAdder entered = new LongAdder();
+    private final Map<NodeInstanceKey, Long> enteredAt = new ConcurrentHashMap<>();
+    private final Histogram dwell = new Histogram();
+
+    NodeMetrics(String nodeName) {
+        this.nodeName = nodeName;
+    }
+
+    void entered(long processInstanceId, long nodeInstanceId) {
+        entered.increment();
+        enteredAt.put(new NodeInstanceKey(processInstanceId, nodeInstanceId), System.currentTimeMillis());
+    }
+
+    /**
+     * @param timed whether the stay counts towards the dwell time, which it does not for cancelled nodes
+     */
+    void left(long processInstanceId, long nodeInstanceId, boolean timed) {
+        Long since = enteredAt.remove(new NodeInstanceKey(processInstanceId, nodeInstanceId));
+        if (since != null && timed) {
+            dwell.record((System.currentTimeMillis() - since) * 1000);
+        }
+    }
+
+    @Override
+    public String getNodeName() {
+        return nodeName;
+    }
+
+    @Override
+    public long getEntered() {
+        return entered.sum();
+    }
+
+    @Override
+    public long getActive() {
+        return enteredAt.size();
+    }
+
+    @Override
+    public long getDwellCount() {
+        return dwell.getCount();
+    }
+
+    @Override
+    public double getDwellMeanMillis() {
+        return dwell.getMeanMillis();
+    }
+
+    @Override
+    public double getDwell50thPercentileMillis() {
+        return dwell.getPercentileMillis(50);
+    }
+
+    @Override
+    public double getDwell95thPercentileMillis() {
+        return dwell.getPercentileMillis(95);
+    }
+
+    @Override
+    public double getDwell99thPercentileMillis() {
+        return dwell.getPercentileMillis(99);
+    }
+
+    @Override
+    public double getDwellMaxMillis() {
+        return dwell.getMaxMillis();
+    }
+
+    private static final class NodeInstanceKey {
+        private final long processInstanceId;
+        private final long nodeInstanceId;
+
+        private NodeInstanceKey(long processInstanceId, long nodeInstanceId) {
+            this.processInstanceId = processInstanceId;
+            this.nodeInstanceId = nodeInstanceId;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof NodeInstanceKey)) {
+                return false;
+            }
+            NodeInstanceKey key = (NodeInstanceKey) other;
+            return processInstanceId == key.processInstanceId && nodeInstanceId == key.nodeInstanceId;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Long.hashCode(processInstanceId) + Long.hashCode(nodeInstanceId);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.stark.machinery_repair.metrics;
+
+/**
+ * JMX view of {@link NodeMetrics}: how many instances pass through a node, how many wait in it now and for how
+ * long they stay.
+ */
+public interface NodeMetricsMBean {
+
+    String getNodeName();
+
+    long getEntered();
+
+    long getActive();
+
+    long getDwellCount();
+
+    double getDwellMeanMillis();
+
+    double getDwell50thPercentileMillis();
+
+    double getDwell95thPercentileMillis();
+
+    double getDwell99thPercentileMillis();
+
+    double getDwellMaxMillis();
+
+}
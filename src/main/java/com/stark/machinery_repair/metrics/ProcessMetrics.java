@@ -0,0 +1,194 @@
+package com.stark.machinery_repair.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Operational metrics of parts procurement: per-node throughput and dwell time ({@link NodeMetrics}), per-endpoint
+ * REST latency and errors ({@link EndpointMetrics}), loop iterations and human-task queue age.
+ * <p>
+ * The node meters are created up front for the nodes worth watching, so recording is a map lookup, a few
+ * lock-free increments and one entry time per node instance. Endpoint meters are created along with the
+ * endpoint by {@code AsyncRestWorkItemHandler}. The shared instance publishes everything under the
+ * {@code com.stark.machinery_repair} JMX domain, where a JMX exporter can scrape it.
+ */
+public class ProcessMetrics implements ProcessMetricsMBean {
+    private static Logger logger = LoggerFactory.getLogger(ProcessMetrics.class);
+
+    public static final String OBJECT_NAME = "com.stark.machinery_repair:type=ProcessMetrics";
+    public static final String NODE_OBJECT_NAME = "com.stark.machinery_repair:type=NodeMetrics,name=";
+    public static final String ENDPOINT_OBJECT_NAME = "com.stark.machinery_repair:type=EndpointMetrics,name=";
+
+    public static final List<String> NODES = Collections.unmodifiableList(Arrays.asList("Request Inventory Availability",
+            "Assign parts to Repair Request", "Purchase Order", "Received Materials", "Fix Procurement Details"));
+
+    private static final int MAX_LOOP_ITERATIONS = 10;
+
+    private static final ProcessMetrics SHARED = new ProcessMetrics(NODES).register();
+
+    private final Map<String, NodeMetrics> nodes;
+    private final Map<String, EndpointMetrics> endpoints = new ConcurrentHashMap<>();
+    private volatile boolean registered;
+
+    private final LongAdder retryLoops = new LongAdder();
+    private final LongAdder fixLoops = new LongAdder();
+    private final LongAdder receiptLoops = new LongAdder();
+    // instances that looped at least once, cleared when they complete
+    private final Map<Long, AtomicInteger> loopsByInstance = new ConcurrentHashMap<>();
+    private final AtomicLongArray loopIterations = new AtomicLongArray(MAX_LOOP_ITERATIONS + 1);
+    private final Histogram taskQueueAge = new Histogram();
+
+    public ProcessMetrics(Collection<String> nodeNames) {
+        Map<String, NodeMetrics> meters = new HashMap<>();
+        for (String nodeName : nodeNames) {
+            meters.put(nodeName, new NodeMetrics(nodeName));
+        }
+        this.nodes = Collections.unmodifiableMap(meters);
+    }
+
+    /**
+     * The metrics shared by the listeners and handlers of every deployment in this JVM.
+     */
+    public static ProcessMetrics shared() {
+        return SHARED;
+    }
+
+    /**
+     * @return the meter of the given node, or {@code null} if the node is not watched
+     */
+    public NodeMetrics node(String nodeName) {
+        return nodeName == null ? null : nodes.get(nodeName);
+    }
+
+    /**
+     * @return the meter of the given endpoint, created and published on first use
+     */
+    public EndpointMetrics endpoint(String endpoint) {
+        return endpoints.computeIfAbsent(endpoint, key -> {
+            EndpointMetrics metrics = new EndpointMetrics(key);
+            if (registered) {
+                register(metrics, ENDPOINT_OBJECT_NAME + ObjectName.quote(key));
+            }
+            return metrics;
+        });
+    }
+
+    void retryLoop(long processInstanceId) {
+        retryLoops.increment();
+        loop(processInstanceId);
+    }
+
+    void fixLoop(long processInstanceId) {
+        fixLoops.increment();
+        loop(processInstanceId);
+    }
+
+    void receiptLoop(long processInstanceId) {
+        receiptLoops.increment();
+        loop(processInstanceId);
+    }
+
+    private void loop(long processInstanceId) {
+        loopsByInstance.computeIfAbsent(processInstanceId, id -> new AtomicInteger()).incrementAndGet();
+    }
+
+    void completed(long processInstanceId) {
+        AtomicInteger loops = loopsByInstance.remove(processInstanceId);
+        loopIterations.incrementAndGet(loops == null ? 0 : Math.min(loops.get(), MAX_LOOP_ITERATIONS));
+    }
+
+    void recordTaskQueueAge(long millis) {
+        taskQueueAge.record(millis * 1000);
+    }
+
+    private ProcessMetrics register() {
+        register(this, OBJECT_NAME);
+        for (NodeMetrics node : nodes.values()) {
+            register(node, NODE_OBJECT_NAME + ObjectName.quote(node.getNodeName()));
+        }
+        registered = true;
+        return this;
+    }
+
+    private static void register(Object mbean, String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(name);
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(mbean, objectName);
+            }
+        } catch (JMException | RuntimeException e) {
+            logger.warn("Could not register {} with JMX", name, e);
+        }
+    }
+
+    @Override
+    public long getRetryLoops() {
+        return retryLoops.sum();
+    }
+
+    @Override
+    public long getFixLoops() {
+        return fixLoops.sum();
+    }
+
+    @Override
+    public long getReceiptLoops() {
+        return receiptLoops.sum();
+    }
+
+    @Override
+    public long[] getLoopIterations() {
+        long[] iterations = new long[loopIterations.length()];
+        for (int i = 0; i < iterations.length; i++) {
+            iterations[i] = loopIterations.get(i);
+        }
+        return iterations;
+    }
+
+    @Override
+    public long getTaskQueueAgeCount() {
+        return taskQueueAge.getCount();
+    }
+
+    @Override
+    public double getTaskQueueAgeMeanMillis() {
+        return taskQueueAge.getMeanMillis();
+    }
+
+    @Override
+    public double getTaskQueueAge50thPercentileMillis() {
+        return taskQueueAge.getPercentileMillis(50);
+    }
+
+    @Override
+    public double getTaskQueueAge95thPercentileMillis() {
+        return taskQueueAge.getPercentileMillis(95);
+    }
+
+    @Override
+    public double getTaskQueueAge99thPercentileMillis() {
+        return taskQueueAge.getPercentileMillis(99);
+    }
+
+    @Override
+    public double getTaskQueueAgeMaxMillis() {
+        return taskQueueAge.getMaxMillis();
+    }
+}
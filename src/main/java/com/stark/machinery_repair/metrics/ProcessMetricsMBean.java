@@ -0,0 +1,33 @@
+package com.stark.machinery_repair.metrics;
+
+/**
+ * JMX view of {@link ProcessMetrics}: how often instances loop back to "Request Inventory Availability" and
+ * how long "Fix Procurement Details" tasks wait for someone to pick them up.
+ */
+public interface ProcessMetricsMBean {
+
+    long getRetryLoops();
+
+    long getFixLoops();
+
+    long getReceiptLoops();
+
+    /**
+     * @return the number of completed instances by how many loops they went through, the last entry counting
+     *         those with that many or more
+     */
+    long[] getLoopIterations();
+
+    long getTaskQueueAgeCount();
+
+    double getTaskQueueAgeMeanMillis();
+
+    double getTaskQueueAge50thPercentileMillis();
+
+    double getTaskQueueAge95thPercentileMillis();
+
+    double getTaskQueueAge99thPercentileMillis();
+
+    double getTaskQueueAgeMaxMillis();
+
+}
@@ -0,0 +1,239 @@
+package com.stark.machinery_repair.multiline;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.stark.machinery_repair.inventory.InventoryAvailabilityCache;
+import org.kie.api.runtime.process.ProcessContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Scripts of the multi-line parts-procurement process.
+ * <p>
+ * All lines are checked with one call to {@code inventoryBatchUrl} and the lines in stock are reserved with one
+ * call to {@code assignPartsBatchUrl}. The inventory batch takes a JSON array of the single-part requests and
+ * answers with the single-part responses, each with its {@code partCode}, like the batch endpoint of
+ * {@code BatchingInventoryWorkItemHandler}. The assignment batch takes a JSON array of the single-line
+ * assignment requests and answers with the single-line responses in the same order. Every line that either
+ * call does not settle, or every line when the batch URLs are not set, is handed to a parts-procurement
+ * instance of its own, which runs the purchase order, retry and fix task paths for it.
+ */
+public final class MultiLineProcurement {
+    private static Logger logger = LoggerFactory.getLogger(MultiLineProcurement.class);
+
+    public static final String LINES = "lines";
+    public static final String FALLBACK_LINES = "fallbackLines";
+    public static final String LINE = "line";
+    public static final String LINE_RESERVATION_ID = "lineReservationId";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private MultiLineProcurement() {
+    }
+
+    /**
+     * "Prepare Lines" script: numbers the lines, gives those without a branch the request's {@code branchCode},
+     * and hands all of them to the fallback when bulk calls are not configured.
+     */
+    public static void prepareLines(ProcessContext kcontext) {
+        List<ProcurementLine> lines = lines(kcontext);
+        if (lines.isEmpty()) {
+            throw new IllegalArgumentException("Repair request " + kcontext.getVariable("repairRequestId") + " has no lines");
+        }
+        String branchCode = (String) kcontext.getVariable("branchCode");
+        boolean bulk = isSet(kcontext.getVariable("inventoryBatchUrl")) && isSet(kcontext.getVariable("assignPartsBatchUrl"));
+        int number = 0;
+        for (ProcurementLine line : lines) {
+            line.setLineNumber(++number);
+            if (line.getBranchCode() == null) {
+                line.setBranchCode(branchCode);
+            }
+            line.setStatus(bulk ? ProcurementLine.Status.PENDING : ProcurementLine.Status.FALLBACK);
+        }
+        update(kcontext, lines);
+    }
+
+    /**
+     * Entry script of the bulk inventory query: one lookup per part.
+     */
+    public static void assignBulkInventoryRequest(ProcessContext kcontext) {
+        Set<String> partCodes = new LinkedHashSet<>();
+        for (ProcurementLine line : lines(kcontext)) {
+            if (line.getStatus() == ProcurementLine.Status.PENDING) {
+                partCodes.add(line.getPartCode());
+            }
+        }
+        ArrayNode request = MAPPER.createArrayNode();
+        for (String partCode : partCodes) {
+            request.addObject().put("partCode", partCode);
+        }
+        kcontext.setVariable("wsJsonRequest", request.toString());
+    }
+
+    /**
+     * Exit script of the bulk inventory query. Lines of the same part are served in order from its available
+     * quantity; a line the stock does not cover, or whose part is missing from the answer, falls back.
+     * {@code partsAvailable} tells whether any line is left to assign.
+     */
+    public static void getBulkInventoryAvailable(ProcessContext kcontext) {
+        List<ProcurementLine> lines = lines(kcontext);
+        Map<String, JsonNode> answers = new HashMap<>();
+        for (JsonNode answer : readArray(kcontext)) {
+            if (answer.hasNonNull("partCode")) {
+                answers.put(answer.get("partCode").asText(), answer);
+            }
+        }
+        InventoryAvailabilityCache cache = InventoryAvailabilityCache.shared();
+        Map<String, Integer> remaining = new HashMap<>();
+        boolean anyAvailable = false;
+        for (ProcurementLine line : lines) {
+            if (line.getStatus() != ProcurementLine.Status.PENDING) {
+                continue;
+            }
+            JsonNode answer = answers.get(line.getPartCode());
+            if (answer != null) {
+                cache.putIfAbsent(line.getBranchCode(), line.getPartCode(), answer.toString());
+            }
+            Integer available = remaining.computeIfAbsent(line.getPartCode(),
+                    partCode -> answer != null && answer.path("availableQuantity").canConvertToInt()
+                            ? answer.get("availableQuantity").asInt() : null);
+            int quantity = line.getQuantity() == null ? 0 : line.getQuantity();
+            if (available != null && available >= quantity) {
+                remaining.put(line.getPartCode(), available - quantity);
+                line.setStatus(ProcurementLine.Status.AVAILABLE);
+                anyAvailable = true;
+            } else {
+                line.setStatus(ProcurementLine.Status.FALLBACK);
+            }
+        }
+        kcontext.setVariable("partsAvailable", anyAvailable);
+        update(kcontext, lines);
+    }
+
+    /**
+     * Entry script of the bulk assignment: one request per line in stock.
+     */
+    public static void assignBulkRepairRequest(ProcessContext kcontext) {
+        ArrayNode request = MAPPER.createArrayNode();
+        for (ProcurementLine line : lines(kcontext)) {
+            if (line.getStatus() == ProcurementLine.Status.AVAILABLE) {
+                request.addObject()
+                        .put("partCode", line.getPartCode())
+                        .put("quantity", line.getQuantity())
+                        .put("repairRequestId", (String) kcontext.getVariable("repairRequestId"))
+                        .put("branchCode", line.getBranchCode());
+            }
+        }
+        kcontext.setVariable("wsJsonRequest", request.toString());
+    }
+
+    /**
+     * Exit script of the bulk assignment. A line is assigned when its answer carries a {@code reservationId};
+     * NOK answers, and lines the answer does not cover, fall back.
+     */
+    public static void getBulkAssignmentResponse(ProcessContext kcontext) {
+        List<ProcurementLine> lines = lines(kcontext);
+        List<JsonNode> answers = readArray(kcontext);
+        InventoryAvailabilityCache cache = InventoryAvailabilityCache.shared();
+        int index = 0;
+        for (ProcurementLine line : lines) {
+            if (line.getStatus() != ProcurementLine.Status.AVAILABLE) {
+                continue;
+            }
+            JsonNode answer = index < answers.size() ? answers.get(index) : null;
+            index++;
+            if (answer != null && answer.hasNonNull("reservationId")) {
+                line.setStatus(ProcurementLine.Status.ASSIGNED);
+                line.setReservationId(answer.get("reservationId").asText());
+            } else {
+                line.setStatus(ProcurementLine.Status.FALLBACK);
+            }
+            JsonNode remainingParts = answer == null ? null : answer.get("remainingParts");
+            if (line.getStatus() == ProcurementLine.Status.ASSIGNED && remainingParts != null && remainingParts.canConvertToInt()) {
+                cache.updateAvailableQuantity(line.getBranchCode(), line.getPartCode(), remainingParts.asInt());
+            } else {
+                cache.invalidate(line.getBranchCode(), line.getPartCode());
+            }
+        }
+        update(kcontext, lines);
+    }
+
+    /**
+     * Exit script of the per-line fallback: records the reservation its parts-procurement instance made.
+     */
+    public static void lineProcured(ProcessContext kcontext) {
+        ProcurementLine procured = (ProcurementLine) kcontext.getVariable(LINE);
+        List<ProcurementLine> lines = lines(kcontext);
+        for (ProcurementLine line : lines) {
+            if (line.getLineNumber() == procured.getLineNumber()) {
+                line.setReservationId((String) kcontext.getVariable(LINE_RESERVATION_ID));
+                line.setStatus(ProcurementLine.Status.ASSIGNED);
+            }
+        }
+        kcontext.setVariable(LINE_RESERVATION_ID, null);
+        kcontext.setVariable(LINES, lines);
+    }
+
+    /**
+     * "Complete Lines" script: {@code partsAssigned} once every line is reserved.
+     */
+    public static void completeLines(ProcessContext kcontext) {
+        boolean assigned = true;
+        for (ProcurementLine line : lines(kcontext)) {
+            assigned &= line.getStatus() == ProcurementLine.Status.ASSIGNED;
+        }
+        kcontext.setVariable("partsAssigned", assigned);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<ProcurementLine> lines(ProcessContext kcontext) {
+        List<ProcurementLine> lines = (List<ProcurementLine>) kcontext.getVariable(LINES);
+        return lines == null ? new ArrayList<>() : lines;
+    }
+
+    /**
+     * Sets the lines again so the change is audited, and the lines to fall back for the multi-instance call.
+     */
+    private static void update(ProcessContext kcontext, List<ProcurementLine> lines) {
+        List<ProcurementLine> fallback = new ArrayList<>();
+        for (ProcurementLine line : lines) {
+            if (line.getStatus() == ProcurementLine.Status.FALLBACK) {
+                fallback.add(line);
+            }
+        }
+        kcontext.setVariable(LINES, lines);
+        kcontext.setVariable(FALLBACK_LINES, fallback);
+    }
+
+    private static List<JsonNode> readArray(ProcessContext kcontext) {
+        List<JsonNode> elements = new ArrayList<>();
+        String response = (String) kcontext.getVariable("wsJsonResponse");
+        if (response == null) {
+            return elements;
+        }
+        try {
+            JsonNode array = MAPPER.readTree(response);
+            if (array != null && array.isArray()) {
+                array.forEach(elements::add);
+            } else {
+                logger.warn("Bulk response for {} is not an array", kcontext.getVariable("repairRequestId"));
+            }
+        } catch (IOException e) {
+            logger.warn("Bulk response for {} is not valid JSON", kcontext.getVariable("repairRequestId"));
+        }
+        return elements;
+    }
+
+    private static boolean isSet(Object url) {
+        return url != null && !url.toString().trim().isEmpty();
+    }
+}
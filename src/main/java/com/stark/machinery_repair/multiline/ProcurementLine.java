@@ -0,0 +1,94 @@
+package com.stark.machinery_repair.multiline;
+
+import java.io.Serializable;
+
+/**
+ * One part of a multi-line repair request: what is needed, where, and how far procuring it got.
+ */
+public class ProcurementLine implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public enum Status {
+        /** not looked at yet */
+        PENDING,
+        /** in stock according to the bulk inventory query */
+        AVAILABLE,
+        /** reserved, {@link #getReservationId()} is set */
+        ASSIGNED,
+        /** left to its own parts-procurement instance */
+        FALLBACK
+    }
+
+    private int lineNumber;
+    private String partCode;
+    private Integer quantity;
+    private String branchCode;
+    private String reservationId;
+    private Status status = Status.PENDING;
+
+    public ProcurementLine() {
+    }
+
+    public ProcurementLine(String partCode, Integer quantity, String branchCode) {
+        this.partCode = partCode;
+        this.quantity = quantity;
+        this.branchCode = branchCode;
+    }
+
+    /**
+     * @return the position of the line in its request, from 1, set when the process starts
+     */
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    public void setLineNumber(int lineNumber) {
+        this.lineNumber = lineNumber;
+    }
+
+    public String getPartCode() {
+        return partCode;
+    }
+
+    public void setPartCode(String partCode) {
+        this.partCode = partCode;
+    }
+
+    public Integer getQuantity() {
+        return quantity;
+    }
+
+    public void setQuantity(Integer quantity) {
+        this.quantity = quantity;
+    }
+
+    public String getBranchCode() {
+        return branchCode;
+    }
+
+    public void setBranchCode(String branchCode) {
+        this.branchCode = branchCode;
+    }
+
+    public String getReservationId() {
+        return reservationId;
+    }
+
+    public void setReservationId(String reservationId) {
+        this.reservationId = reservationId;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+
+    @Override
+    public String toString() {
+        return "ProcurementLine[" + lineNumber + ": " + branchCode + "/" + partCode + " x" + quantity + ", " + status
+                + (reservationId != null ? " " + reservationId : "") + "]";
+    }
+}
@@ -0,0 +1,257 @@
+package com.stark.machinery_repair.purchase;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.LongPredicate;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.stark.machinery_repair.rest.ChainedRestHandler;
+import com.stark.machinery_repair.rest.HttpRestClient;
+import com.stark.machinery_repair.rest.RestChain;
+import com.stark.machinery_repair.rest.RestClient;
+import com.stark.machinery_repair.rest.RestResponse;
+import com.stark.machinery_repair.util.BatchAccumulator;
+import com.stark.machinery_repair.util.SessionTransactions;
+import org.kie.api.runtime.Environment;
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.process.WorkItem;
+import org.kie.api.runtime.process.WorkItemHandler;
+import org.kie.api.runtime.process.WorkItemManager;
+import org.kie.internal.runtime.Closeable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@code Rest} handler that holds "Purchase Order" calls for the same branch and part and sends them as one
+ * order for the summed quantity.
+ * <p>
+ * Consolidation is opt-in: it only runs once {@code machinery-repair.purchase-order.window-ms} is set to a
+ * positive window, as holding an order delays the instances waiting on it by up to that long. An order is then
+ * sent once the window has passed since its first request, or as soon as the held quantity reaches
+ * {@code machinery-repair.purchase-order.max-quantity} (1000 by default). The request body is the one
+ * {@code PurchaseOrderUtil.assignPurchaseOrderRequestToContext} built for the first instance, with the total
+ * quantity. The order goes through the delegate handler like any other call, so it keeps the endpoint limits,
+ * circuit breaker and metrics of the {@link com.stark.machinery_repair.rest.AsyncRestWorkItemHandler}. Every held
+ * work item is completed with the response of that one call, so {@code MaterialReceipt.assignPurchaseOrderReceiverId}
+ * links all of them to the same {@code purchaseOrderReceiverId} and one receipt resumes them together.
+ * <p>
+ * All other {@code Rest} work items go to the delegate handler, and so do purchase orders while consolidation is
+ * off. A request is only held once the transaction that created its work item has committed. Orders still held
+ * when the handler closes are sent right away.
+ */
+public class ConsolidatingPurchaseOrderWorkItemHandler implements ChainedRestHandler, Closeable {
+    private static Logger logger = LoggerFactory.getLogger(ConsolidatingPurchaseOrderWorkItemHandler.class);
+
+    public static final String WINDOW_PROPERTY = "machinery-repair.purchase-order.window-ms";
+    public static final String MAX_QUANTITY_PROPERTY = "machinery-repair.purchase-order.max-quantity";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final KieSession ksession;
+    private final WorkItemHandler delegate;
+    private final RestClient restClient;
+    private final BatchAccumulator<OrderKey, PendingOrder> accumulator;
+    // orders held for consolidation or in flight, until they are completed
+    private final Set<Long> held = ConcurrentHashMap.newKeySet();
+    private volatile Environment environment;
+
+    public ConsolidatingPurchaseOrderWorkItemHandler(KieSession ksession, WorkItemHandler delegate) {
+        this(ksession, delegate, new HttpRestClient(), Long.getLong(WINDOW_PROPERTY, 0L), Integer.getInteger(MAX_QUANTITY_PROPERTY, 1000));
+    }
+
+    public ConsolidatingPurchaseOrderWorkItemHandler(KieSession ksession, WorkItemHandler delegate, RestClient restClient,
+            long windowMillis, int maxQuantity) {
+        this.ksession = ksession;
+        this.delegate = delegate;
+        this.restClient = restClient;
+        this.accumulator = windowMillis <= 0 ? null
+                : new BatchAccumulator<>("purchase-order-consolidation", maxQuantity, windowMillis, 2,
+                        order -> Math.max(order.quantity, 1), this::sendOrder);
+        addHolder(held::contains);
+    }
+
+    @Override
+    public void executeWorkItem(WorkItem workItem, WorkItemManager manager) {
+        ObjectNode request = accumulator == null ? null : purchaseOrderRequest(workItem);
+        if (request == null) {
+            delegate.executeWorkItem(workItem, manager);
+            return;
+        }
+        if (!held.add(workItem.getId())) {
+            logger.debug("Purchase order work item {} is already held", workItem.getId());
+            return;
+        }
+        OrderKey key = new OrderKey((String) workItem.getParameter("Url"), request.get("branchCode").asText(),
+                request.get("partCode").asText());
+        PendingOrder order = new PendingOrder(workItem, request);
+        SessionTransactions.afterCompletion(environment(), () -> accumulator.add(key, order), () -> held.remove(workItem.getId()));
+    }
+
+    @Override
+    public void abortWorkItem(WorkItem workItem, WorkItemManager manager) {
+        ObjectNode request = accumulator == null ? null : purchaseOrderRequest(workItem);
+        if (request != null && held.remove(workItem.getId())) {
+            accumulator.remove(new OrderKey((String) workItem.getParameter("Url"), request.get("branchCode").asText(),
+                    request.get("partCode").asText()), new PendingOrder(workItem, null));
+            return;
+        }
+        delegate.abortWorkItem(workItem, manager);
+    }
+
+    @Override
+    public void call(WorkItem workItem, Consumer<Map<String, Object>> onResults) {
+        RestChain.call(delegate, restClient, workItem, onResults);
+    }
+
+    @Override
+    public void addHolder(LongPredicate holder) {
+        RestChain.addHolder(delegate, holder);
+    }
+
+    public int getHeldOrders() {
+        return accumulator == null ? 0 : accumulator.pendingCount();
+    }
+
+    /**
+     * "Purchase Order" is the only {@code POST} in the process whose body names a part, quantity and branch
+     * without a {@code repairRequestId}; "Assign parts to Repair Request" always carries one.
+     */
+    static ObjectNode purchaseOrderRequest(WorkItem workItem) {
+        if (!"POST".equalsIgnoreCase((String) workItem.getParameter("Method"))) {
+            return null;
+        }
+        Object content = workItem.getParameter("ContentData");
+        if (content == null) {
+            return null;
+        }
+        try {
+            JsonNode request = MAPPER.readTree(content.toString());
+            if (request == null || !request.isObject() || request.has("repairRequestId") || !request.hasNonNull("partCode")
+                    || !request.hasNonNull("branchCode") || !request.path("quantity").canConvertToInt()) {
+                return null;
+            }
+            return (ObjectNode) request;
+        } catch (IOException e) {
+            logger.warn("Request of work item {} is not valid JSON, not consolidating it", workItem.getId());
+            return null;
+        }
+    }
+
+    private void sendOrder(OrderKey key, List<PendingOrder> orders) {
+        ObjectNode order = orders.get(0).request.deepCopy();
+        int quantity = 0;
+        for (PendingOrder pending : orders) {
+            quantity += pending.quantity;
+        }
+        order.put("quantity", quantity);
+        logger.debug("Ordering {} x {} for branch {} on behalf of {} work items", quantity, key.partCode, key.branchCode, orders.size());
+
+        String content;
+        try {
+            content = MAPPER.writeValueAsString(order);
+        } catch (IOException e) {
+            logger.error("Could not write the consolidated purchase order for {}", key, e);
+            completeAll(orders, RestResponse.failureResults(e.getMessage()));
+            return;
+        }
+        call(RestChain.copy(orders.get(0).workItem, Collections.singletonMap("ContentData", content)),
+                results -> completeAll(orders, results));
+    }
+
+    private void completeAll(List<PendingOrder> orders, Map<String, Object> results) {
+        for (PendingOrder pending : orders) {
+            complete(pending.workItemId, results);
+            held.remove(pending.workItemId);
+        }
+    }
+
+    private Environment environment() {
+        if (environment == null) {
+            environment = ksession.getEnvironment();
+        }
+        return environment;
+    }
+
+    private void complete(long workItemId, Map<String, Object> results) {
+        try {
+            ksession.getWorkItemManager().completeWorkItem(workItemId, new HashMap<>(results));
+        } catch (RuntimeException e) {
+            // the instance may have been aborted while the order was in flight
+            logger.warn("Could not complete purchase order work item {}", workItemId, e);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (accumulator != null) {
+            accumulator.close();
+        }
+        if (delegate instanceof Closeable) {
+            ((Closeable) delegate).close();
+        }
+    }
+
+    private static final class OrderKey {
+        private final String url;
+        private final String branchCode;
+        private final String partCode;
+
+        private OrderKey(String url, String branchCode, String partCode) {
+            this.url = url;
+            this.branchCode = branchCode;
+            this.partCode = partCode;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof OrderKey)) {
+                return false;
+            }
+            OrderKey key = (OrderKey) other;
+            return Objects.equals(url, key.url) && Objects.equals(branchCode, key.branchCode) && Objects.equals(partCode, key.partCode);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(url, branchCode, partCode);
+        }
+
+        @Override
+        public String toString() {
+            return branchCode + "/" + partCode + " at " + url;
+        }
+    }
+
+    private static final class PendingOrder {
+        private final WorkItem workItem;
+        private final long workItemId;
+        private final ObjectNode request;
+        private final int quantity;
+
+        private PendingOrder(WorkItem workItem, ObjectNode request) {
+            this.workItem = workItem;
+            this.workItemId = workItem.getId();
+            this.request = request;
+            this.quantity = request == null ? 0 : request.get("quantity").asInt();
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof PendingOrder && ((PendingOrder) other).workItemId == workItemId;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(workItemId);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.stark.machinery_repair.receipt;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Objects;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.kie.api.runtime.process.ProcessContext;
+
+/**
+ * A delivery of materials, identified either by the {@code purchaseOrderReceiverId} the "Purchase Order" call
+ * returned or by the branch and part it was delivered for. It is the payload of the correlated
+ * {@code receivedMaterials} signal.
+ */
+public final class MaterialReceipt implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public static final String PURCHASE_ORDER_RECEIVER_ID = "purchaseOrderReceiverId";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final String purchaseOrderReceiverId;
+    private final String branchCode;
+    private final String partCode;
+
+    private MaterialReceipt(String purchaseOrderReceiverId, String branchCode, String partCode) {
+        this.purchaseOrderReceiverId = purchaseOrderReceiverId;
+        this.branchCode = branchCode;
+        this.partCode = partCode;
+    }
+
+    public static MaterialReceipt forPurchaseOrder(String purchaseOrderReceiverId) {
+        return new MaterialReceipt(Objects.requireNonNull(purchaseOrderReceiverId, "purchaseOrderReceiverId"), null, null);
+    }
+
+    public static MaterialReceipt forPart(String branchCode, String partCode) {
+        return new MaterialReceipt(null, Objects.requireNonNull(branchCode, "branchCode"),
+                Objects.requireNonNull(partCode, "partCode"));
+    }
+
+    /**
+     * Entry point for the "Purchase Order" exit script: keeps the receiver id of the order so the receipt can
+     * be correlated with this instance.
+     */
+    public static void assignPurchaseOrderReceiverId(ProcessContext kcontext) {
+        kcontext.setVariable(PURCHASE_ORDER_RECEIVER_ID, purchaseOrderReceiverIdOf((String) kcontext.getVariable("wsJsonResponse")));
+    }
+
+    static String purchaseOrderReceiverIdOf(String response) {
+        if (response == null) {
+            return null;
+        }
+        try {
+            JsonNode id = MAPPER.readTree(response).get(PURCHASE_ORDER_RECEIVER_ID);
+            return id == null || id.isNull() ? null : id.asText();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public String getPurchaseOrderReceiverId() {
+        return purchaseOrderReceiverId;
+    }
+
+    public String getBranchCode() {
+        return branchCode;
+    }
+
+    public String getPartCode() {
+        return partCode;
+    }
+
+    String correlationKey() {
+        return purchaseOrderReceiverId != null
+                ? ReceivedMaterialsIndex.purchaseOrderKey(purchaseOrderReceiverId)
+                : ReceivedMaterialsIndex.partKey(branchCode, partCode);
+    }
+
+    @Override
+    public String toString() {
+        return purchaseOrderReceiverId != null
+                ? "MaterialReceipt[purchaseOrderReceiverId=" + purchaseOrderReceiverId + "]"
+                : "MaterialReceipt[branchCode=" + branchCode + ", partCode=" + partCode + "]";
+    }
+}
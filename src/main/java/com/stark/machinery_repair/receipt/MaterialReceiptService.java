@@ -0,0 +1,99 @@
+package com.stark.machinery_repair.receipt;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.LongFunction;
+
+import javax.persistence.EntityManagerFactory;
+
+import com.stark.machinery_repair.runtime.ShardedRuntimeManager;
+import org.kie.api.KieServices;
+import org.kie.api.command.Command;
+import org.kie.api.command.KieCommands;
+import org.kie.api.runtime.EnvironmentName;
+import org.kie.api.runtime.KieSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Delivers {@code receivedMaterials} only to the instances a receipt is for, instead of broadcasting it to
+ * every instance waiting at "Received Materials".
+ * <p>
+ * Matching instances are looked up in the {@link ReceivedMaterialsIndex} and signalled by process instance id.
+ * All instances matched by one call that live in the same session are signalled in a single batch command,
+ * which runs in one transaction.
+ */
+public class MaterialReceiptService {
+    private static Logger logger = LoggerFactory.getLogger(MaterialReceiptService.class);
+
+    public static final String RECEIVED_MATERIALS_SIGNAL = "receivedMaterials";
+
+    private final ReceivedMaterialsIndex index;
+    private final LongFunction<KieSession> sessions;
+    private final KieCommands commands = KieServices.Factory.get().getCommands();
+
+    public MaterialReceiptService(KieSession ksession) {
+        this(ReceivedMaterialsIndex.shared(), processInstanceId -> ksession, entityManagerFactory(ksession));
+    }
+
+    public MaterialReceiptService(ShardedRuntimeManager sharded) {
+        this(ReceivedMaterialsIndex.shared(), sharded::getKieSession,
+                entityManagerFactory(sharded.getRuntimeEngine(0).getKieSession()));
+    }
+
+    /**
+     * @param sessions the session that owns a process instance
+     * @param emf used once to rebuild the index if this JVM has not done so yet
+     */
+    public MaterialReceiptService(ReceivedMaterialsIndex index, LongFunction<KieSession> sessions, EntityManagerFactory emf) {
+        this.index = index;
+        this.sessions = sessions;
+        index.rebuild(emf);
+    }
+
+    private static EntityManagerFactory entityManagerFactory(KieSession ksession) {
+        return (EntityManagerFactory) ksession.getEnvironment().get(EnvironmentName.ENTITY_MANAGER_FACTORY);
+    }
+
+    /**
+     * @return the process instances that were signalled
+     */
+    public Set<Long> receive(MaterialReceipt receipt) {
+        return receiveAll(Collections.singletonList(receipt));
+    }
+
+    /**
+     * Signals every instance matched by any of the receipts once, even when several receipts match it.
+     *
+     * @return the process instances that were signalled
+     */
+    public Set<Long> receiveAll(Collection<MaterialReceipt> receipts) {
+        Map<Long, MaterialReceipt> matches = new LinkedHashMap<>();
+        for (MaterialReceipt receipt : receipts) {
+            for (Long processInstanceId : index.find(receipt)) {
+                matches.putIfAbsent(processInstanceId, receipt);
+            }
+        }
+        if (matches.isEmpty()) {
+            logger.debug("No instance is waiting for {}", receipts);
+            return Collections.emptySet();
+        }
+
+        Map<KieSession, List<Command<?>>> batches = new IdentityHashMap<>();
+        for (Map.Entry<Long, MaterialReceipt> match : matches.entrySet()) {
+            batches.computeIfAbsent(sessions.apply(match.getKey()), ksession -> new ArrayList<>())
+                    .add(commands.newSignalEvent(match.getKey(), RECEIVED_MATERIALS_SIGNAL, match.getValue()));
+        }
+        for (Map.Entry<KieSession, List<Command<?>>> batch : batches.entrySet()) {
+            batch.getKey().execute(commands.newBatchExecution(batch.getValue()));
+        }
+        logger.debug("Signalled {} instances for {} receipts", matches.size(), receipts.size());
+        return matches.keySet();
+    }
+}
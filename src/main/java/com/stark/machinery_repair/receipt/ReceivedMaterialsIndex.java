@@ -0,0 +1,137 @@
+package com.stark.machinery_repair.receipt;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Index of the process instances waiting at "Received Materials", by {@code purchaseOrderReceiverId} and by
+ * (branchCode, partCode), so a receipt finds the instances it is for without visiting every waiting instance.
+ * <p>
+ * {@link ReceivedMaterialsListener} adds an instance once the transaction in which it reached the catch event
+ * commits, and removes it once the one in which it left it or ended commits. The index itself is held in
+ * memory; the engine's process instance table and the variable log are the persistent copy it is rebuilt from
+ * after a restart, see {@link #rebuild(EntityManagerFactory)}.
+ */
+public class ReceivedMaterialsIndex {
+    private static Logger logger = LoggerFactory.getLogger(ReceivedMaterialsIndex.class);
+
+    public static final String RECEIVED_MATERIALS_NODE = "Received Materials";
+
+    private static final List<String> VARIABLES = Arrays.asList(MaterialReceipt.PURCHASE_ORDER_RECEIVER_ID,
+            "branchCode", "partCode");
+
+    private static final ReceivedMaterialsIndex SHARED = new ReceivedMaterialsIndex();
+
+    private final Map<String, Set<Long>> waitingByKey = new ConcurrentHashMap<>();
+    private final Map<Long, List<String>> keysByProcessInstance = new ConcurrentHashMap<>();
+    private final AtomicBoolean rebuilt = new AtomicBoolean();
+
+    /**
+     * The index shared by the listeners and receipt services of every deployment in this JVM.
+     */
+    public static ReceivedMaterialsIndex shared() {
+        return SHARED;
+    }
+
+    static String purchaseOrderKey(String purchaseOrderReceiverId) {
+        return "po|" + purchaseOrderReceiverId;
+    }
+
+    static String partKey(String branchCode, String partCode) {
+        return "part|" + branchCode + "|" + partCode;
+    }
+
+    public void register(long processInstanceId, String purchaseOrderReceiverId, String branchCode, String partCode) {
+        List<String> keys = new ArrayList<>(2);
+        if (purchaseOrderReceiverId != null) {
+            keys.add(purchaseOrderKey(purchaseOrderReceiverId));
+        }
+        if (branchCode != null && partCode != null) {
+            keys.add(partKey(branchCode, partCode));
+        }
+        unregister(processInstanceId);
+        keysByProcessInstance.put(processInstanceId, keys);
+        for (String key : keys) {
+            waitingByKey.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(processInstanceId);
+        }
+    }
+
+    public void unregister(long processInstanceId) {
+        List<String> keys = keysByProcessInstance.remove(processInstanceId);
+        if (keys == null) {
+            return;
+        }
+        for (String key : keys) {
+            waitingByKey.computeIfPresent(key, (k, waiting) -> {
+                waiting.remove(processInstanceId);
+                return waiting.isEmpty() ? null : waiting;
+            });
+        }
+    }
+
+    /**
+     * The instances waiting for the given receipt, a snapshot.
+     */
+    public Set<Long> find(MaterialReceipt receipt) {
+        Set<Long> waiting = waitingByKey.get(receipt.correlationKey());
+        return waiting == null ? Collections.emptySet() : new LinkedHashSet<>(waiting);
+    }
+
+    public int getWaiting() {
+        return keysByProcessInstance.size();
+    }
+
+    /**
+     * Rebuilds the index unless it has already been rebuilt, in a single query: the instances the engine has
+     * persisted as waiting for {@code receivedMaterials}, with their last {@code purchaseOrderReceiverId},
+     * {@code branchCode} and {@code partCode} from the variable log.
+     */
+    public void rebuild(EntityManagerFactory emf) {
+        if (!rebuilt.compareAndSet(false, true)) {
+            return;
+        }
+        Map<Long, Map<String, String>> values = new LinkedHashMap<>();
+        EntityManager em = emf.createEntityManager();
+        try {
+            List<?> rows = em.createQuery("select log.processInstanceId, log.variableId, log.value "
+                    + "from VariableInstanceLog log, ProcessInstanceInfo info join info.eventTypes eventType "
+                    + "where eventType = :signal and log.processInstanceId = info.processInstanceId "
+                    + "and log.variableId in (:variables) order by log.id")
+                    .setParameter("signal", MaterialReceiptService.RECEIVED_MATERIALS_SIGNAL)
+                    .setParameter("variables", VARIABLES)
+                    .getResultList();
+            for (Object row : rows) {
+                Object[] columns = (Object[]) row;
+                // ordered by log id, so the last value of a variable wins
+                values.computeIfAbsent((Long) columns[0], id -> new HashMap<>()).put((String) columns[1], (String) columns[2]);
+            }
+        } finally {
+            em.close();
+        }
+        int restored = 0;
+        for (Map.Entry<Long, Map<String, String>> instance : values.entrySet()) {
+            if (keysByProcessInstance.containsKey(instance.getKey())) {
+                continue;
+            }
+            register(instance.getKey(), instance.getValue().get(MaterialReceipt.PURCHASE_ORDER_RECEIVER_ID),
+                    instance.getValue().get("branchCode"), instance.getValue().get("partCode"));
+            restored++;
+        }
+        logger.info("Rebuilt received materials index with {} waiting instances", restored);
+    }
+}
@@ -0,0 +1,63 @@
+package com.stark.machinery_repair.receipt;
+
+import com.stark.machinery_repair.util.SessionTransactions;
+import org.kie.api.event.process.DefaultProcessEventListener;
+import org.kie.api.event.process.ProcessCompletedEvent;
+import org.kie.api.event.process.ProcessEvent;
+import org.kie.api.event.process.ProcessNodeLeftEvent;
+import org.kie.api.event.process.ProcessNodeTriggeredEvent;
+import org.kie.api.runtime.process.WorkflowProcessInstance;
+
+/**
+ * Keeps {@link ReceivedMaterialsIndex} in step with the instances waiting at "Received Materials".
+ * <p>
+ * Changes are applied once the session's transaction commits, so a start or signal that rolls back leaves the
+ * index as it was.
+ */
+public class ReceivedMaterialsListener extends DefaultProcessEventListener {
+
+    private final ReceivedMaterialsIndex index;
+
+    public ReceivedMaterialsListener() {
+        this(ReceivedMaterialsIndex.shared());
+    }
+
+    public ReceivedMaterialsListener(ReceivedMaterialsIndex index) {
+        this.index = index;
+    }
+
+    @Override
+    public void afterNodeTriggered(ProcessNodeTriggeredEvent event) {
+        if (!ReceivedMaterialsIndex.RECEIVED_MATERIALS_NODE.equals(event.getNodeInstance().getNodeName())
+                || !(event.getProcessInstance() instanceof WorkflowProcessInstance)) {
+            return;
+        }
+        WorkflowProcessInstance processInstance = (WorkflowProcessInstance) event.getProcessInstance();
+        long processInstanceId = processInstance.getId();
+        String purchaseOrderReceiverId = (String) processInstance.getVariable(MaterialReceipt.PURCHASE_ORDER_RECEIVER_ID);
+        String branchCode = (String) processInstance.getVariable("branchCode");
+        String partCode = (String) processInstance.getVariable("partCode");
+        afterCommit(event, () -> index.register(processInstanceId, purchaseOrderReceiverId, branchCode, partCode));
+    }
+
+    @Override
+    public void beforeNodeLeft(ProcessNodeLeftEvent event) {
+        if (ReceivedMaterialsIndex.RECEIVED_MATERIALS_NODE.equals(event.getNodeInstance().getNodeName())) {
+            unregister(event);
+        }
+    }
+
+    @Override
+    public void afterProcessCompleted(ProcessCompletedEvent event) {
+        unregister(event);
+    }
+
+    private void unregister(ProcessEvent event) {
+        long processInstanceId = event.getProcessInstance().getId();
+        afterCommit(event, () -> index.unregister(processInstanceId));
+    }
+
+    private static void afterCommit(ProcessEvent event, Runnable action) {
+        SessionTransactions.afterCommit(event.getKieRuntime().getEnvironment(), action);
+    }
+}
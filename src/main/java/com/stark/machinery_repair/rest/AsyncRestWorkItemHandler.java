@@ -0,0 +1,433 @@
+package com.stark.machinery_repair.rest;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongPredicate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import com.stark.machinery_repair.metrics.EndpointMetrics;
+import com.stark.machinery_repair.metrics.ProcessMetrics;
+import com.stark.machinery_repair.util.DaemonThreadFactory;
+import com.stark.machinery_repair.util.SessionTransactions;
+import org.kie.api.runtime.Environment;
+import org.kie.api.runtime.EnvironmentName;
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.process.ProcessInstance;
+import org.kie.api.runtime.process.WorkItem;
+import org.kie.api.runtime.process.WorkItemManager;
+import org.kie.internal.runtime.Closeable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Drop-in replacement for the jBPM {@code RESTWorkItemHandler} that never blocks the session thread.
+ * <p>
+ * {@link #executeWorkItem} only queues the call and returns, so the engine commits and releases the
+ * SINGLETON session right away. The call is queued once that transaction commits, so its answer never arrives
+ * before the work item exists for other threads. The HTTP call runs on a dedicated I/O pool and the work item
+ * is completed later through the session's {@link WorkItemManager}, with the same {@code Result}, {@code Status}
+ * and {@code StatusMsg} outputs the stock handler produces. Calls that fail or time out complete without a
+ * {@code Result}, which sends the process down its "Fail (Default)" path.
+ * <p>
+ * Each endpoint (URL without query string) has its own concurrency limit, timeouts and queue timeout, see
+ * {@link EndpointSettings}. Calls over the limit wait in a per-endpoint queue without holding a thread. Latency and
+ * errors of every endpoint are recorded in {@link ProcessMetrics}.
+ * <p>
+ * Each endpoint also has a {@link CircuitBreaker}. While it is open, calls to the endpoint are either parked in
+ * memory and sent once trial calls get through again, or failed right away so the process takes its
+ * "Fail (Default)" path, see {@link CircuitBreakerSettings.OpenMode}. Either way no thread or transaction waits
+ * on a dead service.
+ * <p>
+ * Queued, in-flight and parked calls only live in memory. After a restart {@link #recoverPendingCalls} executes
+ * the active {@code Rest} work items of the session's deployment again through the registered handler chain;
+ * the handler the deployment descriptor creates does so {@code machinery-repair.rest.recovery-delay-ms}
+ * (5000 by default, negative turns it off) after it is built, once per deployment. Work items this handler or a
+ * {@link ChainedRestHandler} in front of it still holds are skipped. A call that was on the wire when the server
+ * stopped is sent a second time. The active instances are found through {@code ProcessInstanceLog}, so recovery
+ * relies on the process log being written synchronously, as {@code AsyncAuditLogger} keeps it.
+ */
+public class AsyncRestWorkItemHandler implements ChainedRestHandler, Closeable {
+    private static Logger logger = LoggerFactory.getLogger(AsyncRestWorkItemHandler.class);
+
+    public static final String IO_THREADS_PROPERTY = "machinery-repair.rest.io-threads";
+    public static final String RECOVERY_DELAY_PROPERTY = "machinery-repair.rest.recovery-delay-ms";
+
+    private static final Set<String> RECOVERED_DEPLOYMENTS = ConcurrentHashMap.newKeySet();
+
+    private final KieSession ksession;
+    private final RestClient restClient;
+    private final Function<String, EndpointSettings> settings;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService scheduler;
+    private final ProcessMetrics metrics;
+
+    private final Map<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+    private final Map<Long, Call> calls = new ConcurrentHashMap<>();
+    private final List<LongPredicate> holders = new CopyOnWriteArrayList<>();
+    private volatile Environment environment;
+
+    public AsyncRestWorkItemHandler(KieSession ksession) {
+        this(ksession, new HttpRestClient(), EndpointSettings::fromSystemProperties, Integer.getInteger(IO_THREADS_PROPERTY, 32));
+        scheduleRecovery(Long.getLong(RECOVERY_DELAY_PROPERTY, 5000L));
+    }
+
+    public AsyncRestWorkItemHandler(KieSession ksession, RestClient restClient, Function<String, EndpointSettings> settings,
+            int ioThreads) {
+        this(ksession, restClient, settings, ioThreads, ProcessMetrics.shared());
+    }
+
+    public AsyncRestWorkItemHandler(KieSession ksession, RestClient restClient, Function<String, EndpointSettings> settings,
+            int ioThreads, ProcessMetrics metrics) {
+        this.ksession = ksession;
+        this.restClient = restClient;
+        this.settings = settings;
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(ioThreads, ioThreads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), new DaemonThreadFactory("async-rest"));
+        pool.allowCoreThreadTimeOut(true);
+        this.executor = pool;
+        this.scheduler = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("async-rest-circuit"));
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void executeWorkItem(WorkItem workItem, WorkItemManager manager) {
+        Endpoint endpoint = endpointOf(workItem);
+        RestRequest request = RestRequest.from(workItem, endpoint.settings.getConnectTimeout(), endpoint.settings.getReadTimeout());
+        Call call = new Call(workItem.getId(), request, endpoint, null);
+        calls.put(call.workItemId, call);
+        SessionTransactions.afterCompletion(environment(), () -> endpoint.submit(call), () -> calls.remove(call.workItemId, call));
+    }
+
+    /**
+     * Queues the call right away; the work items it is made for are held, and aborted, by the caller.
+     */
+    @Override
+    public void call(WorkItem workItem, Consumer<Map<String, Object>> onResults) {
+        Endpoint endpoint = endpointOf(workItem);
+        RestRequest request = RestRequest.from(workItem, endpoint.settings.getConnectTimeout(), endpoint.settings.getReadTimeout());
+        endpoint.submit(new Call(workItem.getId(), request, endpoint, onResults));
+    }
+
+    private Endpoint endpointOf(WorkItem workItem) {
+        return endpoints.computeIfAbsent(EndpointSettings.endpointOf((String) workItem.getParameter("Url")),
+                key -> new Endpoint(key, settings.apply(key)));
+    }
+
+    @Override
+    public void abortWorkItem(WorkItem workItem, WorkItemManager manager) {
+        Call call = calls.remove(workItem.getId());
+        if (call != null) {
+            // a call already on the wire still runs, its answer is dropped
+            call.aborted = true;
+        }
+    }
+
+    @Override
+    public void addHolder(LongPredicate holder) {
+        holders.add(holder);
+    }
+
+    public int getInFlight() {
+        return calls.size();
+    }
+
+    /**
+     * @return calls held back by an open circuit, over all endpoints
+     */
+    public int getParked() {
+        int parked = 0;
+        for (Endpoint endpoint : endpoints.values()) {
+            parked += endpoint.parkedCount.get();
+        }
+        return parked;
+    }
+
+    /**
+     * Executes the active {@code Rest} work items of the session's deployment again, skipping those this handler
+     * already has a call for and those a handler in front of it holds.
+     *
+     * @return the number of work items executed again
+     */
+    public int recoverPendingCalls() {
+        Environment environment = environment();
+        Object deploymentId = environment.get(EnvironmentName.DEPLOYMENT_ID);
+        EntityManagerFactory emf = (EntityManagerFactory) environment.get(EnvironmentName.ENTITY_MANAGER_FACTORY);
+        if (deploymentId == null || emf == null) {
+            return 0;
+        }
+        List<Long> workItemIds;
+        EntityManager em = emf.createEntityManager();
+        try {
+            workItemIds = em.createQuery("select w.workItemId from WorkItemInfo w, ProcessInstanceLog p"
+                    + " where w.processInstanceId = p.processInstanceId and w.name = 'Rest'"
+                    + " and p.externalId = :deploymentId and p.status = :active order by w.workItemId", Long.class)
+                    .setParameter("deploymentId", deploymentId.toString())
+                    .setParameter("active", ProcessInstance.STATE_ACTIVE)
+                    .getResultList();
+        } finally {
+            em.close();
+        }
+        int recovered = 0;
+        for (Long workItemId : workItemIds) {
+            if (isHeld(workItemId)) {
+                continue;
+            }
+            try {
+                ((org.drools.core.process.instance.WorkItemManager) ksession.getWorkItemManager()).retryWorkItem(workItemId, null);
+                recovered++;
+            } catch (RuntimeException e) {
+                // the instance may have moved on since the query
+                logger.warn("Could not execute REST work item {} again", workItemId, e);
+            }
+        }
+        if (recovered > 0) {
+            logger.info("Executed {} pending REST work items of {} again", recovered, deploymentId);
+        }
+        return recovered;
+    }
+
+    private boolean isHeld(long workItemId) {
+        if (calls.containsKey(workItemId)) {
+            return true;
+        }
+        for (LongPredicate holder : holders) {
+            if (holder.test(workItemId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void scheduleRecovery(long delayMillis) {
+        if (delayMillis < 0) {
+            return;
+        }
+        scheduler.schedule(() -> {
+            Object deploymentId = environment().get(EnvironmentName.DEPLOYMENT_ID);
+            if (deploymentId != null && RECOVERED_DEPLOYMENTS.add(deploymentId.toString())) {
+                try {
+                    recoverPendingCalls();
+                } catch (RuntimeException e) {
+                    logger.error("Recovering the pending REST work items of {} failed", deploymentId, e);
+                }
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private Environment environment() {
+        if (environment == null) {
+            environment = ksession.getEnvironment();
+        }
+        return environment;
+    }
+
+    private void complete(Call call, Map<String, Object> results) {
+        if (call.onResults != null) {
+            try {
+                call.onResults.accept(results);
+            } catch (RuntimeException e) {
+                logger.warn("Handling the answer to {} failed", call.request, e);
+            }
+            return;
+        }
+        if (calls.remove(call.workItemId) == null) {
+            return;
+        }
+        try {
+            ksession.getWorkItemManager().completeWorkItem(call.workItemId, results);
+        } catch (RuntimeException e) {
+            // the process instance may have been aborted or completed otherwise in the meantime
+            logger.warn("Could not complete REST work item {} for {}", call.workItemId, call.request, e);
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        scheduler.shutdownNow();
+        calls.clear();
+    }
+
+    private final class Endpoint {
+        private final String key;
+        private final EndpointSettings settings;
+        private final Semaphore permits;
+        private final EndpointMetrics metrics;
+        private final Queue<Call> waiting = new ConcurrentLinkedQueue<>();
+        private final CircuitBreaker breaker;
+        private final Queue<Call> parked = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger parkedCount = new AtomicInteger();
+        private final AtomicBoolean wakeScheduled = new AtomicBoolean();
+
+        private Endpoint(String key, EndpointSettings settings) {
+            this.key = key;
+            this.settings = settings;
+            this.permits = new Semaphore(settings.getMaxConcurrency());
+            this.metrics = AsyncRestWorkItemHandler.this.metrics.endpoint(key);
+            this.breaker = new CircuitBreaker(key, settings.getCircuitBreaker());
+        }
+
+        private void submit(Call call) {
+            waiting.add(call);
+            drain();
+        }
+
+        private void drain() {
+            while (!waiting.isEmpty() && permits.tryAcquire()) {
+                Call next = waiting.poll();
+                if (next == null) {
+                    permits.release();
+                    continue;
+                }
+                try {
+                    executor.execute(() -> {
+                        try {
+                            next.run();
+                        } finally {
+                            permits.release();
+                            drain();
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    permits.release();
+                    metrics.recordRejected();
+                    complete(next, RestResponse.failureResults("REST executor rejected call to " + key));
+                }
+            }
+        }
+
+        /**
+         * Holds back a call the open circuit did not let through.
+         */
+        private void shortCircuit(Call call) {
+            metrics.recordShortCircuited();
+            CircuitBreakerSettings circuit = breaker.getSettings();
+            if (circuit.getOpenMode() == CircuitBreakerSettings.OpenMode.PARK
+                    && parkedCount.incrementAndGet() <= circuit.getMaxParked()) {
+                parked.add(call);
+                // the circuit may have changed while the call was parked
+                circuitChanged(breaker.getState());
+                return;
+            }
+            if (circuit.getOpenMode() == CircuitBreakerSettings.OpenMode.PARK) {
+                parkedCount.decrementAndGet();
+            }
+            complete(call, RestResponse.failureResults("Circuit of " + key + " is open"));
+        }
+
+        private void circuitChanged(CircuitBreaker.State state) {
+            if (state == CircuitBreaker.State.OPEN) {
+                scheduleWake();
+            } else if (state == CircuitBreaker.State.CLOSED && !parked.isEmpty()) {
+                resume(Integer.MAX_VALUE);
+            }
+        }
+
+        /**
+         * Resumes as many parked calls as the half-open circuit lets through once it stops being open.
+         */
+        private void scheduleWake() {
+            if (parked.isEmpty() || !wakeScheduled.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                scheduler.schedule(() -> {
+                    wakeScheduled.set(false);
+                    resume(breaker.getSettings().getHalfOpenCalls());
+                }, breaker.getRemainingOpenMillis(), TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                wakeScheduled.set(false);
+            }
+        }
+
+        private void resume(int max) {
+            int resumed = 0;
+            Call call;
+            while (resumed < max && (call = parked.poll()) != null) {
+                parkedCount.decrementAndGet();
+                if (call.aborted) {
+                    continue;
+                }
+                call.queuedAt = System.currentTimeMillis();
+                waiting.add(call);
+                resumed++;
+            }
+            if (resumed > 0) {
+                logger.debug("Resumed {} parked calls to {}", resumed, key);
+                drain();
+            }
+        }
+    }
+
+    private final class Call implements Runnable {
+        private final long workItemId;
+        private final RestRequest request;
+        private final Endpoint endpoint;
+        // set for calls made through call(), which are answered to the caller instead of completing a work item
+        private final Consumer<Map<String, Object>> onResults;
+        private volatile long queuedAt = System.currentTimeMillis();
+        private volatile boolean aborted;
+
+        private Call(long workItemId, RestRequest request, Endpoint endpoint, Consumer<Map<String, Object>> onResults) {
+            this.workItemId = workItemId;
+            this.request = request;
+            this.endpoint = endpoint;
+            this.onResults = onResults;
+        }
+
+        @Override
+        public void run() {
+            if (aborted) {
+                return;
+            }
+            long queued = System.currentTimeMillis() - queuedAt;
+            if (queued > endpoint.settings.getQueueTimeout()) {
+                logger.warn("{} waited {} ms for a free connection to {}, giving up", request, queued, endpoint.key);
+                endpoint.metrics.recordRejected();
+                complete(this, RestResponse.failureResults("Timed out waiting for " + endpoint.key));
+                return;
+            }
+            if (!endpoint.breaker.tryAcquire()) {
+                endpoint.shortCircuit(this);
+                return;
+            }
+            Map<String, Object> results;
+            boolean failure;
+            long start = System.nanoTime();
+            try {
+                RestResponse response = restClient.execute(request);
+                endpoint.metrics.recordCall(System.nanoTime() - start, response.isSuccessful());
+                failure = response.getStatus() >= 500;
+                results = response.toResults();
+            } catch (Exception e) {
+                endpoint.metrics.recordCall(System.nanoTime() - start, false);
+                logger.warn("{} failed: {}", request, e.toString());
+                failure = true;
+                results = RestResponse.failureResults(e.toString());
+            }
+            endpoint.circuitChanged(endpoint.breaker.record(failure, (System.nanoTime() - start) / 1_000_000));
+            if (!aborted) {
+                complete(this, results);
+            }
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.stark.machinery_repair.rest;
+
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.LongPredicate;
+
+import org.kie.api.runtime.process.WorkItem;
+import org.kie.api.runtime.process.WorkItemHandler;
+
+/**
+ * A link of the {@code Rest} handler chain the deployment descriptor builds, from the batching handlers down to
+ * the {@link AsyncRestWorkItemHandler} at its end.
+ */
+public interface ChainedRestHandler extends WorkItemHandler {
+
+    /**
+     * Sends the call the work item describes through the {@link AsyncRestWorkItemHandler} at the end of the chain,
+     * under its endpoint limits, circuit breaker and metrics, and hands the {@code Result}, {@code Status} and
+     * {@code StatusMsg} outputs to {@code onResults} instead of completing the work item. Handlers use it for calls
+     * made on behalf of several work items, outside of any transaction.
+     */
+    void call(WorkItem workItem, Consumer<Map<String, Object>> onResults);
+
+    /**
+     * Registers a check for the work items a handler further up the chain holds on to, so that
+     * {@link AsyncRestWorkItemHandler#recoverPendingCalls()} does not execute them a second time. Handlers in the
+     * middle of the chain pass it on to their delegate.
+     */
+    void addHolder(LongPredicate holder);
+}
@@ -0,0 +1,130 @@
+package com.stark.machinery_repair.rest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Circuit breaker of one endpoint over a sliding window of its most recent calls.
+ * <p>
+ * The circuit opens when the share of failed calls (I/O errors and 5xx answers) or of slow calls in the window
+ * reaches its threshold. After {@code open-ms} it lets {@code half-open-calls} trial calls through; it closes
+ * again when all of them succeed and opens again as soon as one fails or is slow. Client errors such as 404 are
+ * answers of a healthy service and count as successes.
+ */
+final class CircuitBreaker {
+    private static Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String endpoint;
+    private final CircuitBreakerSettings settings;
+    private final boolean[] failed;
+    private final boolean[] slow;
+    private int next;
+    private int size;
+    private int failures;
+    private int slowCalls;
+
+    private State state = State.CLOSED;
+    private long openedAt;
+    private int trials;
+    private int trialSuccesses;
+
+    CircuitBreaker(String endpoint, CircuitBreakerSettings settings) {
+        this.endpoint = endpoint;
+        this.settings = settings;
+        this.failed = new boolean[Math.max(settings.getWindowSize(), 1)];
+        this.slow = new boolean[failed.length];
+    }
+
+    CircuitBreakerSettings getSettings() {
+        return settings;
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return whether a call may go out now, a trial call if the circuit is half open
+     */
+    synchronized boolean tryAcquire() {
+        if (!settings.isEnabled() || state == State.CLOSED) {
+            return true;
+        }
+        if (state == State.OPEN) {
+            if (System.currentTimeMillis() - openedAt < settings.getOpenMillis()) {
+                return false;
+            }
+            logger.info("Circuit of {} is half open, letting {} trial calls through", endpoint, settings.getHalfOpenCalls());
+            state = State.HALF_OPEN;
+            trials = 0;
+            trialSuccesses = 0;
+        }
+        if (trials < settings.getHalfOpenCalls()) {
+            trials++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return how long the circuit stays open before it lets trial calls through, 0 unless it is open
+     */
+    synchronized long getRemainingOpenMillis() {
+        return state == State.OPEN ? Math.max(openedAt + settings.getOpenMillis() - System.currentTimeMillis(), 0) : 0;
+    }
+
+    /**
+     * @return the state after the outcome was taken into account
+     */
+    synchronized State record(boolean failure, long millis) {
+        if (!settings.isEnabled()) {
+            return state;
+        }
+        boolean slowCall = millis >= settings.getSlowCallMillis();
+        if (state == State.HALF_OPEN) {
+            if (failure || slowCall) {
+                open("trial call " + (failure ? "failed" : "took " + millis + " ms"));
+            } else if (++trialSuccesses >= settings.getHalfOpenCalls()) {
+                logger.info("Circuit of {} closed", endpoint);
+                state = State.CLOSED;
+                size = 0;
+                failures = 0;
+                slowCalls = 0;
+            }
+            return state;
+        }
+        if (state == State.OPEN) {
+            // a call that went out before the circuit opened
+            return state;
+        }
+        if (size == failed.length) {
+            failures -= failed[next] ? 1 : 0;
+            slowCalls -= slow[next] ? 1 : 0;
+        } else {
+            size++;
+        }
+        failed[next] = failure;
+        slow[next] = slowCall;
+        failures += failure ? 1 : 0;
+        slowCalls += slowCall ? 1 : 0;
+        next = (next + 1) % failed.length;
+        if (size >= settings.getMinimumCalls()) {
+            if (failures * 100 >= settings.getFailureRatePercent() * size) {
+                open(failures + " of the last " + size + " calls failed");
+            } else if (slowCalls * 100 >= settings.getSlowCallRatePercent() * size) {
+                open(slowCalls + " of the last " + size + " calls took " + settings.getSlowCallMillis() + " ms or more");
+            }
+        }
+        return state;
+    }
+
+    private void open(String reason) {
+        logger.warn("Circuit of {} opened for {} ms: {}", endpoint, settings.getOpenMillis(), reason);
+        state = State.OPEN;
+        openedAt = System.currentTimeMillis();
+    }
+}
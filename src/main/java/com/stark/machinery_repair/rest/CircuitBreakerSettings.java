@@ -0,0 +1,118 @@
+package com.stark.machinery_repair.rest;
+
+/**
+ * Per-endpoint circuit breaker settings for {@link AsyncRestWorkItemHandler}.
+ * <p>
+ * Like {@link EndpointSettings}, each value is read from {@code machinery-repair.rest.circuit.<setting>.<endpoint>}
+ * and falls back to {@code machinery-repair.rest.circuit.<setting>}. A window size of 0 turns the breaker off.
+ */
+public final class CircuitBreakerSettings {
+
+    public static final String PROPERTY_PREFIX = EndpointSettings.PROPERTY_PREFIX + "circuit.";
+
+    /**
+     * What happens to calls while the circuit is open.
+     */
+    public enum OpenMode {
+        /** held in memory and sent once the endpoint answers again */
+        PARK,
+        /** completed right away without a {@code Result}, so the process takes its "Fail (Default)" path */
+        FAIL_FAST
+    }
+
+    public static final CircuitBreakerSettings DISABLED = new CircuitBreakerSettings(0, 0, 100, Long.MAX_VALUE, 100, 0, 0,
+            OpenMode.FAIL_FAST, 0);
+
+    private final int windowSize;
+    private final int minimumCalls;
+    private final int failureRatePercent;
+    private final long slowCallMillis;
+    private final int slowCallRatePercent;
+    private final long openMillis;
+    private final int halfOpenCalls;
+    private final OpenMode openMode;
+    private final int maxParked;
+
+    /**
+     * @param windowSize number of most recent calls the rates are computed over
+     * @param minimumCalls calls the window must hold before the circuit can open
+     * @param failureRatePercent share of failed calls in the window that opens the circuit
+     * @param slowCallMillis calls that take at least this long count as slow
+     * @param slowCallRatePercent share of slow calls in the window that opens the circuit
+     * @param openMillis how long the circuit stays open before trial calls are let through
+     * @param halfOpenCalls trial calls that must all succeed to close the circuit again
+     * @param maxParked calls parked per endpoint beyond which further calls fail fast
+     */
+    public CircuitBreakerSettings(int windowSize, int minimumCalls, int failureRatePercent, long slowCallMillis,
+            int slowCallRatePercent, long openMillis, int halfOpenCalls, OpenMode openMode, int maxParked) {
+        this.windowSize = windowSize;
+        this.minimumCalls = minimumCalls;
+        this.failureRatePercent = failureRatePercent;
+        this.slowCallMillis = slowCallMillis;
+        this.slowCallRatePercent = slowCallRatePercent;
+        this.openMillis = openMillis;
+        this.halfOpenCalls = halfOpenCalls;
+        this.openMode = openMode;
+        this.maxParked = maxParked;
+    }
+
+    public static CircuitBreakerSettings fromSystemProperties(String endpoint) {
+        String mode = System.getProperty(PROPERTY_PREFIX + "open-mode." + endpoint,
+                System.getProperty(PROPERTY_PREFIX + "open-mode", OpenMode.PARK.name()));
+        return new CircuitBreakerSettings(
+                (int) property("window-size", endpoint, 20),
+                (int) property("minimum-calls", endpoint, 10),
+                (int) property("failure-rate-percent", endpoint, 50),
+                property("slow-call-ms", endpoint, 10000),
+                (int) property("slow-call-rate-percent", endpoint, 80),
+                property("open-ms", endpoint, 30000),
+                (int) property("half-open-calls", endpoint, 3),
+                OpenMode.valueOf(mode.trim().toUpperCase()),
+                (int) property("max-parked", endpoint, 10000));
+    }
+
+    private static long property(String setting, String endpoint, long defaultValue) {
+        Long global = Long.getLong(PROPERTY_PREFIX + setting, defaultValue);
+        return Long.getLong(PROPERTY_PREFIX + setting + "." + endpoint, global);
+    }
+
+    public boolean isEnabled() {
+        return windowSize > 0;
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    public int getMinimumCalls() {
+        return minimumCalls;
+    }
+
+    public int getFailureRatePercent() {
+        return failureRatePercent;
+    }
+
+    public long getSlowCallMillis() {
+        return slowCallMillis;
+    }
+
+    public int getSlowCallRatePercent() {
+        return slowCallRatePercent;
+    }
+
+    public long getOpenMillis() {
+        return openMillis;
+    }
+
+    public int getHalfOpenCalls() {
+        return halfOpenCalls;
+    }
+
+    public OpenMode getOpenMode() {
+        return openMode;
+    }
+
+    public int getMaxParked() {
+        return maxParked;
+    }
+}
@@ -0,0 +1,90 @@
+package com.stark.machinery_repair.rest;
+
+import java.net.URI;
+
+/**
+ * Per-endpoint limits for {@link AsyncRestWorkItemHandler}.
+ * <p>
+ * Each value is read from {@code machinery-repair.rest.<setting>.<endpoint>} and falls back to
+ * {@code machinery-repair.rest.<setting>}, where the endpoint is the request URL without its query string,
+ * e.g. {@code -Dmachinery-repair.rest.max-concurrency.http://parts-storage:8080/inventory=8}. The circuit breaker
+ * settings are read the same way, see {@link CircuitBreakerSettings}.
+ */
+public final class EndpointSettings {
+
+    public static final String PROPERTY_PREFIX = "machinery-repair.rest.";
+
+    private final int maxConcurrency;
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final long queueTimeout;
+    private final CircuitBreakerSettings circuitBreaker;
+
+    /**
+     * Settings without a circuit breaker.
+     */
+    public EndpointSettings(int maxConcurrency, int connectTimeout, int readTimeout, long queueTimeout) {
+        this(maxConcurrency, connectTimeout, readTimeout, queueTimeout, CircuitBreakerSettings.DISABLED);
+    }
+
+    public EndpointSettings(int maxConcurrency, int connectTimeout, int readTimeout, long queueTimeout,
+            CircuitBreakerSettings circuitBreaker) {
+        this.maxConcurrency = maxConcurrency;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.queueTimeout = queueTimeout;
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    public static EndpointSettings fromSystemProperties(String endpoint) {
+        return new EndpointSettings(
+                (int) property("max-concurrency", endpoint, 16),
+                (int) property("connect-timeout-ms", endpoint, 5000),
+                (int) property("read-timeout-ms", endpoint, 30000),
+                property("queue-timeout-ms", endpoint, 60000),
+                CircuitBreakerSettings.fromSystemProperties(endpoint));
+    }
+
+    /**
+     * The key endpoints are limited and configured by: the URL without query string or fragment.
+     */
+    public static String endpointOf(String url) {
+        if (url == null) {
+            return "";
+        }
+        try {
+            URI uri = URI.create(url);
+            if (uri.getScheme() == null || uri.getRawAuthority() == null) {
+                return url;
+            }
+            return uri.getScheme() + "://" + uri.getRawAuthority() + (uri.getRawPath() == null ? "" : uri.getRawPath());
+        } catch (IllegalArgumentException e) {
+            return url;
+        }
+    }
+
+    private static long property(String setting, String endpoint, long defaultValue) {
+        Long global = Long.getLong(PROPERTY_PREFIX + setting, defaultValue);
+        return Long.getLong(PROPERTY_PREFIX + setting + "." + endpoint, global);
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    public long getQueueTimeout() {
+        return queueTimeout;
+    }
+
+    public CircuitBreakerSettings getCircuitBreaker() {
+        return circuitBreaker;
+    }
+}
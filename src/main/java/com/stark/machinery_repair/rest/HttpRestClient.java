@@ -0,0 +1,58 @@
+package com.stark.machinery_repair.rest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * {@link RestClient} on top of {@link HttpURLConnection}, so it runs on any JDK the KIE Server supports
+ * without extra client libraries.
+ */
+public class HttpRestClient implements RestClient {
+
+    @Override
+    public RestResponse execute(RestRequest request) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(request.getUrl()).openConnection();
+        try {
+            connection.setRequestMethod(request.getMethod());
+            connection.setConnectTimeout(request.getConnectTimeout());
+            connection.setReadTimeout(request.getReadTimeout());
+            connection.setRequestProperty("Accept", "application/json");
+            if (request.getContentType() != null) {
+                connection.setRequestProperty("Content-Type", request.getContentType());
+            }
+            if (request.hasBody()) {
+                byte[] payload = request.getBody().getBytes(StandardCharsets.UTF_8);
+                connection.setDoOutput(true);
+                connection.setFixedLengthStreamingMode(payload.length);
+                try (OutputStream out = connection.getOutputStream()) {
+                    out.write(payload);
+                }
+            }
+            int status = connection.getResponseCode();
+            InputStream in = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+            return new RestResponse(status, connection.getResponseMessage(), read(in));
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static String read(InputStream in) throws IOException {
+        if (in == null) {
+            return null;
+        }
+        try (InputStream stream = in) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            byte[] chunk = new byte[4096];
+            int read;
+            while ((read = stream.read(chunk)) != -1) {
+                buffer.write(chunk, 0, read);
+            }
+            return new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
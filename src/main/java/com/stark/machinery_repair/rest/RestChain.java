@@ -0,0 +1,71 @@
+package com.stark.machinery_repair.rest;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.LongPredicate;
+
+import org.drools.core.process.instance.impl.WorkItemImpl;
+import org.kie.api.runtime.process.WorkItem;
+import org.kie.api.runtime.process.WorkItemHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Helpers for the handlers in front of the {@link AsyncRestWorkItemHandler}, see {@link ChainedRestHandler}.
+ */
+public final class RestChain {
+    private static Logger logger = LoggerFactory.getLogger(RestChain.class);
+
+    private RestChain() {
+    }
+
+    /**
+     * Passes the call on to the next handler of the chain. Without a chain behind it, as when the next handler is
+     * the stock {@code RESTWorkItemHandler}, the call is made right away on the calling thread with
+     * {@code fallback}.
+     */
+    public static void call(WorkItemHandler next, RestClient fallback, WorkItem workItem, Consumer<Map<String, Object>> onResults) {
+        if (next instanceof ChainedRestHandler) {
+            ((ChainedRestHandler) next).call(workItem, onResults);
+            return;
+        }
+        RestRequest request = RestRequest.from(workItem);
+        Map<String, Object> results;
+        try {
+            results = fallback.execute(request).toResults();
+        } catch (Exception e) {
+            logger.warn("{} failed: {}", request, e.toString());
+            results = RestResponse.failureResults(e.toString());
+        }
+        onResults.accept(results);
+    }
+
+    public static void addHolder(WorkItemHandler next, LongPredicate holder) {
+        if (next instanceof ChainedRestHandler) {
+            ((ChainedRestHandler) next).addHolder(holder);
+        }
+    }
+
+    /**
+     * Copy of the work item with some of its parameters replaced. The copy keeps the id, so a handler completing it
+     * completes the original.
+     */
+    public static WorkItem copy(WorkItem workItem, Map<String, Object> parameters) {
+        WorkItemImpl copy = new WorkItemImpl();
+        copy.setId(workItem.getId());
+        copy.setName(workItem.getName());
+        copy.setState(workItem.getState());
+        copy.setProcessInstanceId(workItem.getProcessInstanceId());
+        if (workItem instanceof org.drools.core.process.instance.WorkItem) {
+            org.drools.core.process.instance.WorkItem original = (org.drools.core.process.instance.WorkItem) workItem;
+            copy.setDeploymentId(original.getDeploymentId());
+            copy.setNodeId(original.getNodeId());
+            copy.setNodeInstanceId(original.getNodeInstanceId());
+        }
+        Map<String, Object> copied = new HashMap<>(workItem.getParameters());
+        copied.putAll(parameters);
+        copy.setParameters(copied);
+        return copy;
+    }
+}
@@ -0,0 +1,12 @@
+package com.stark.machinery_repair.rest;
+
+import java.io.IOException;
+
+/**
+ * Minimal blocking HTTP client used by the procurement work item handlers.
+ */
+public interface RestClient {
+
+    RestResponse execute(RestRequest request) throws IOException;
+
+}
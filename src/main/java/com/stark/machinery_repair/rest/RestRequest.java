@@ -0,0 +1,93 @@
+package com.stark.machinery_repair.rest;
+
+import org.kie.api.runtime.process.WorkItem;
+
+/**
+ * Immutable view of the parameters the {@code Rest} work item carries.
+ */
+public final class RestRequest {
+
+    public static final int DEFAULT_CONNECT_TIMEOUT = 60000;
+    public static final int DEFAULT_READ_TIMEOUT = 60000;
+
+    private final String url;
+    private final String method;
+    private final String contentType;
+    private final String body;
+    private final int connectTimeout;
+    private final int readTimeout;
+
+    public RestRequest(String url, String method, String contentType, String body, int connectTimeout, int readTimeout) {
+        this.url = url;
+        this.method = method == null ? "GET" : method.toUpperCase();
+        this.contentType = contentType;
+        this.body = body;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    public static RestRequest from(WorkItem workItem) {
+        return from(workItem, DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT);
+    }
+
+    /**
+     * Builds the request for a work item; timeouts given as work item parameters win over the defaults.
+     */
+    public static RestRequest from(WorkItem workItem, int defaultConnectTimeout, int defaultReadTimeout) {
+        Object body = workItem.getParameter("ContentData");
+        if (body == null) {
+            body = workItem.getParameter("Content");
+        }
+        return new RestRequest((String) workItem.getParameter("Url"),
+                (String) workItem.getParameter("Method"),
+                (String) workItem.getParameter("ContentType"),
+                body == null ? null : body.toString(),
+                intParameter(workItem, "ConnectTimeout", defaultConnectTimeout),
+                intParameter(workItem, "ReadTimeout", defaultReadTimeout));
+    }
+
+    public static RestRequest post(String url, String json) {
+        return new RestRequest(url, "POST", "application/json", json, DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT);
+    }
+
+    private static int intParameter(WorkItem workItem, String name, int defaultValue) {
+        Object value = workItem.getParameter(name);
+        if (value == null || value.toString().trim().isEmpty()) {
+            return defaultValue;
+        }
+        return Integer.parseInt(value.toString().trim());
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    public boolean hasBody() {
+        return body != null && ("POST".equals(method) || "PUT".equals(method) || "PATCH".equals(method));
+    }
+
+    @Override
+    public String toString() {
+        return method + " " + url;
+    }
+}
@@ -0,0 +1,62 @@
+package com.stark.machinery_repair.rest;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Status and body of a completed HTTP call.
+ */
+public final class RestResponse {
+
+    private final int status;
+    private final String statusMessage;
+    private final String body;
+
+    public RestResponse(int status, String statusMessage, String body) {
+        this.status = status;
+        this.statusMessage = statusMessage;
+        this.body = body;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public String getStatusMessage() {
+        return statusMessage;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    public boolean isSuccessful() {
+        return status >= 200 && status < 300;
+    }
+
+    /**
+     * Work item results in the same shape the jBPM {@code RESTWorkItemHandler} produces, so the
+     * {@code Result} data output mapping in the process keeps working unchanged. Like the stock handler,
+     * error responses leave {@code Result} out.
+     */
+    public Map<String, Object> toResults() {
+        Map<String, Object> results = new HashMap<>();
+        if (isSuccessful()) {
+            results.put("Result", body);
+        }
+        results.put("Status", status);
+        results.put("StatusMsg", statusMessage);
+        return results;
+    }
+
+    /**
+     * Results for a call that never produced a response. {@code Result} is left out so the
+     * process takes the "Fail (Default)" path, as it does for any unparseable response.
+     */
+    public static Map<String, Object> failureResults(String message) {
+        Map<String, Object> results = new HashMap<>();
+        results.put("Status", -1);
+        results.put("StatusMsg", message);
+        return results;
+    }
+}
@@ -0,0 +1,36 @@
+package com.stark.machinery_repair.retry;
+
+import org.kie.api.event.process.DefaultProcessEventListener;
+import org.kie.api.event.process.ProcessCompletedEvent;
+import org.kie.api.event.process.ProcessNodeLeftEvent;
+
+/**
+ * Frees the {@link RetryPolicy} waiting slot of an instance once its "Retry Backoff" timer fires, or when the
+ * instance ends while still waiting, e.g. because it was aborted.
+ */
+public class RetryBackoffListener extends DefaultProcessEventListener {
+
+    public static final String RETRY_BACKOFF_NODE = "Retry Backoff";
+
+    private final RetryPolicy policy;
+
+    public RetryBackoffListener() {
+        this(RetryPolicy.shared());
+    }
+
+    public RetryBackoffListener(RetryPolicy policy) {
+        this.policy = policy;
+    }
+
+    @Override
+    public void beforeNodeLeft(ProcessNodeLeftEvent event) {
+        if (RETRY_BACKOFF_NODE.equals(event.getNodeInstance().getNodeName())) {
+            policy.release(event.getProcessInstance().getId());
+        }
+    }
+
+    @Override
+    public void afterProcessCompleted(ProcessCompletedEvent event) {
+        policy.release(event.getProcessInstance().getId());
+    }
+}
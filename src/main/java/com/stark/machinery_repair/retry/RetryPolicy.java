@@ -0,0 +1,126 @@
+package com.stark.machinery_repair.retry;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.stark.machinery_repair.util.SessionTransactions;
+import org.kie.api.runtime.KieRuntime;
+import org.kie.api.runtime.process.ProcessContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Schedules the "Restart" loop that follows a NOK parts assignment, so instances back off instead of hammering
+ * the inventory and assignment services.
+ * <p>
+ * The "Schedule Retry" script calls {@link #scheduleRetry(ProcessContext)}, which sets {@code retryDelay} for the
+ * "Retry Backoff" timer: exponential backoff from {@code initial-delay-ms}, capped at {@code max-delay-ms}, with
+ * equal jitter (a random point in the upper half of the backoff). An instance that has used its
+ * {@code max-attempts} retries, or that would push the number of instances waiting in "Retry Backoff" over
+ * {@code max-waiting}, gets {@code retryScheduled = false} and escalates to "Fix Procurement Details" with a fresh
+ * budget. All settings are read from {@code machinery-repair.retry.*} system properties.
+ * <p>
+ * The waiting slots are released by {@link RetryBackoffListener}, or right away if the transaction that took one
+ * rolls back and the timer never gets scheduled. They are held in memory only, so after a restart timers that are
+ * still pending no longer count against the cap.
+ */
+public class RetryPolicy {
+    private static Logger logger = LoggerFactory.getLogger(RetryPolicy.class);
+
+    public static final String INITIAL_DELAY_PROPERTY = "machinery-repair.retry.initial-delay-ms";
+    public static final String MAX_DELAY_PROPERTY = "machinery-repair.retry.max-delay-ms";
+    public static final String MAX_ATTEMPTS_PROPERTY = "machinery-repair.retry.max-attempts";
+    public static final String MAX_WAITING_PROPERTY = "machinery-repair.retry.max-waiting";
+
+    public static final String RETRY_COUNT = "retryCount";
+    public static final String RETRY_DELAY = "retryDelay";
+    public static final String RETRY_SCHEDULED = "retryScheduled";
+
+    private static final RetryPolicy SHARED = new RetryPolicy(
+            Long.getLong(INITIAL_DELAY_PROPERTY, 1000L),
+            Long.getLong(MAX_DELAY_PROPERTY, 60000L),
+            Integer.getInteger(MAX_ATTEMPTS_PROPERTY, 5),
+            Integer.getInteger(MAX_WAITING_PROPERTY, 500));
+
+    private final long initialDelay;
+    private final long maxDelay;
+    private final int maxAttempts;
+    private final int maxWaiting;
+
+    private final Set<Long> waiting = new HashSet<>();
+
+    public RetryPolicy(long initialDelay, long maxDelay, int maxAttempts, int maxWaiting) {
+        this.initialDelay = initialDelay;
+        this.maxDelay = maxDelay;
+        this.maxAttempts = maxAttempts;
+        this.maxWaiting = maxWaiting;
+    }
+
+    public static RetryPolicy shared() {
+        return SHARED;
+    }
+
+    /**
+     * Entry point for the "Schedule Retry" script task.
+     */
+    public static void scheduleRetry(ProcessContext kcontext) {
+        SHARED.schedule(kcontext);
+    }
+
+    public boolean schedule(ProcessContext kcontext) {
+        long processInstanceId = kcontext.getProcessInstance().getId();
+        Integer retryCount = (Integer) kcontext.getVariable(RETRY_COUNT);
+        int attempt = retryCount == null ? 0 : retryCount;
+
+        boolean scheduled = attempt < maxAttempts && tryAcquire(processInstanceId, kcontext);
+        if (scheduled) {
+            long delay = delayOf(attempt);
+            kcontext.setVariable(RETRY_COUNT, attempt + 1);
+            kcontext.setVariable(RETRY_DELAY, delay + "ms");
+            logger.debug("Process instance {} retries parts assignment in {} ms (attempt {})", processInstanceId, delay, attempt + 1);
+        } else {
+            // whoever fixes the procurement details starts over with a full budget
+            kcontext.setVariable(RETRY_COUNT, 0);
+            logger.info("Process instance {} escalates after {} retries, {} instances waiting", processInstanceId, attempt, getWaiting());
+        }
+        kcontext.setVariable(RETRY_SCHEDULED, scheduled);
+        return scheduled;
+    }
+
+    /**
+     * Backoff before retry number {@code attempt + 1}, somewhere in {@code [backoff / 2, backoff]}.
+     */
+    long delayOf(int attempt) {
+        long backoff = Math.min(maxDelay, initialDelay << Math.min(attempt, 30));
+        long half = backoff / 2;
+        return half + ThreadLocalRandom.current().nextLong(backoff - half + 1);
+    }
+
+    private boolean tryAcquire(long processInstanceId, ProcessContext kcontext) {
+        synchronized (waiting) {
+            if (waiting.contains(processInstanceId)) {
+                return true;
+            }
+            if (waiting.size() >= maxWaiting) {
+                return false;
+            }
+            waiting.add(processInstanceId);
+        }
+        KieRuntime runtime = kcontext.getKieRuntime();
+        SessionTransactions.afterRollback(runtime == null ? null : runtime.getEnvironment(), () -> release(processInstanceId));
+        return true;
+    }
+
+    public void release(long processInstanceId) {
+        synchronized (waiting) {
+            waiting.remove(processInstanceId);
+        }
+    }
+
+    public int getWaiting() {
+        synchronized (waiting) {
+            return waiting.size();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.stark.machinery_repair.runtime;
+
+import java.util.Map;
+
+/**
+ * Picks the shard of {@link ShardedRuntimeManager} a process instance lives on from one of its start
+ * variables.
+ * <p>
+ * Routing by {@code branchCode} keeps all instances of a branch on one session, routing by
+ * {@code repairRequestId} spreads them evenly. The variable is set with
+ * {@code -Dmachinery-repair.runtime.shard-by=<variable>} and defaults to {@code branchCode}. Instances
+ * without the variable go to shard 0.
+ */
+public final class ShardRouter {
+
+    public static final String SHARD_BY_PROPERTY = "machinery-repair.runtime.shard-by";
+    public static final String BRANCH_CODE = "branchCode";
+    public static final String REPAIR_REQUEST_ID = "repairRequestId";
+
+    private final String variable;
+
+    public ShardRouter(String variable) {
+        this.variable = variable;
+    }
+
+    public static ShardRouter fromSystemProperties() {
+        return new ShardRouter(System.getProperty(SHARD_BY_PROPERTY, BRANCH_CODE));
+    }
+
+    public String getVariable() {
+        return variable;
+    }
+
+    public int shardOf(Map<String, Object> parameters, int shardCount) {
+        return shardOf(parameters == null ? null : parameters.get(variable), shardCount);
+    }
+
+    /**
+     * Hashes the string form of the value, so a value read back from the audit log lands on the same shard
+     * as the typed value the instance was started with.
+     */
+    public int shardOf(Object value, int shardCount) {
+        if (value == null || shardCount <= 1) {
+            return 0;
+        }
+        return Math.floorMod(value.toString().hashCode(), shardCount);
+    }
+
+    @Override
+    public String toString() {
+        return "ShardRouter[" + variable + "]";
+    }
+}
@@ -0,0 +1,216 @@
+package com.stark.machinery_repair.runtime;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntFunction;
+
+import org.kie.api.event.process.DefaultProcessEventListener;
+import org.kie.api.event.process.ProcessCompletedEvent;
+import org.kie.api.event.process.ProcessStartedEvent;
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.manager.RuntimeEngine;
+import org.kie.api.runtime.manager.RuntimeEnvironment;
+import org.kie.api.runtime.manager.RuntimeManager;
+import org.kie.api.runtime.manager.RuntimeManagerFactory;
+import org.kie.api.runtime.manager.audit.ProcessInstanceLog;
+import org.kie.api.runtime.manager.audit.VariableInstanceLog;
+import org.kie.api.runtime.process.ProcessInstance;
+import org.kie.api.task.TaskService;
+import org.kie.api.task.model.Task;
+import org.kie.internal.runtime.manager.context.EmptyContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the deployment on N independent SINGLETON runtime managers instead of one, so process instances of
+ * different shards never wait for each other's session lock or session row.
+ * <p>
+ * New instances are placed by the {@link ShardRouter}. Everything that later touches an instance, such as
+ * work item completion, signals or task operations, has to go through this class so it reaches the session
+ * that owns the instance. The owning shard of active instances is kept in memory; after a restart it is
+ * worked out again from the routing variable recorded in the audit log, which all shards share. With more
+ * than one shard, instances therefore have to be started with the routing variable, and an instance whose
+ * variable is missing from the audit log is an error rather than a guess.
+ * <p>
+ * Work item handlers and listeners are registered per shard by the {@link RuntimeEnvironment} of that shard,
+ * exactly as for a single SINGLETON manager. Signals sent without a process instance id go to every shard.
+ * <p>
+ * A KIE Server deployment keeps the single SINGLETON manager configured in {@code kie-deployment-descriptor.xml};
+ * this class is meant for applications that embed the kjar and create their runtime managers themselves.
+ */
+public class ShardedRuntimeManager implements AutoCloseable {
+    private static Logger logger = LoggerFactory.getLogger(ShardedRuntimeManager.class);
+
+    public static final String SHARDS_PROPERTY = "machinery-repair.runtime.shards";
+
+    private final List<RuntimeManager> managers;
+    private final List<RuntimeEngine> engines;
+    private final ShardRouter router;
+    private final Map<Long, Integer> shardByProcessInstance = new ConcurrentHashMap<>();
+
+    /**
+     * @param identifier prefix of the runtime manager identifiers, shard {@code i} is {@code <identifier>-<i>}
+     * @param environments builds the environment of each shard; shards must not share one environment
+     */
+    public ShardedRuntimeManager(String identifier, IntFunction<RuntimeEnvironment> environments) {
+        this(identifier, Integer.getInteger(SHARDS_PROPERTY, 4), environments, ShardRouter.fromSystemProperties());
+    }
+
+    public ShardedRuntimeManager(String identifier, int shardCount, IntFunction<RuntimeEnvironment> environments,
+            ShardRouter router) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("shardCount must be positive: " + shardCount);
+        }
+        this.router = router;
+        List<RuntimeManager> managers = new ArrayList<>(shardCount);
+        List<RuntimeEngine> engines = new ArrayList<>(shardCount);
+        for (int shard = 0; shard < shardCount; shard++) {
+            RuntimeManager manager = RuntimeManagerFactory.Factory.get()
+                    .newSingletonRuntimeManager(environments.apply(shard), identifier + "-" + shard);
+            RuntimeEngine engine = manager.getRuntimeEngine(EmptyContext.get());
+            engine.getKieSession().addEventListener(new ShardTracker(shard));
+            managers.add(manager);
+            engines.add(engine);
+        }
+        this.managers = Collections.unmodifiableList(managers);
+        this.engines = Collections.unmodifiableList(engines);
+        logger.info("Started {} runtime shards for {} routed by {}", shardCount, identifier, router);
+    }
+
+    public int getShardCount() {
+        return managers.size();
+    }
+
+    public RuntimeManager getRuntimeManager(int shard) {
+        return managers.get(shard);
+    }
+
+    public RuntimeEngine getRuntimeEngine(int shard) {
+        return engines.get(shard);
+    }
+
+    public KieSession getKieSession(long processInstanceId) {
+        return engines.get(shardOf(processInstanceId)).getKieSession();
+    }
+
+    public ProcessInstance startProcess(String processId, Map<String, Object> parameters) {
+        if (managers.size() > 1 && (parameters == null || parameters.get(router.getVariable()) == null)) {
+            throw new IllegalArgumentException("Process " + processId + " cannot be started without "
+                    + router.getVariable() + ", its shard could not be resolved after a restart");
+        }
+        int shard = router.shardOf(parameters, managers.size());
+        return engines.get(shard).getKieSession().startProcess(processId, parameters);
+    }
+
+    public void abortProcessInstance(long processInstanceId) {
+        getKieSession(processInstanceId).abortProcessInstance(processInstanceId);
+    }
+
+    public void completeWorkItem(long processInstanceId, long workItemId, Map<String, Object> results) {
+        getKieSession(processInstanceId).getWorkItemManager().completeWorkItem(workItemId, results);
+    }
+
+    public void abortWorkItem(long processInstanceId, long workItemId) {
+        getKieSession(processInstanceId).getWorkItemManager().abortWorkItem(workItemId);
+    }
+
+    public void signalEvent(String type, Object event, long processInstanceId) {
+        getKieSession(processInstanceId).signalEvent(type, event, processInstanceId);
+    }
+
+    /**
+     * Broadcasts the signal to all instances on all shards.
+     */
+    public void signalEvent(String type, Object event) {
+        for (RuntimeManager manager : managers) {
+            manager.signalEvent(type, event);
+        }
+    }
+
+    /**
+     * The task service of the shard that owns the task's process instance. Tasks live in the shared database,
+     * but completing one through another shard's task service would continue the process on the wrong session.
+     */
+    public TaskService getTaskService(long taskId) {
+        Task task = engines.get(0).getTaskService().getTaskById(taskId);
+        if (task == null) {
+            throw new IllegalArgumentException("Task " + taskId + " does not exist");
+        }
+        return engines.get(shardOf(task.getTaskData().getProcessInstanceId())).getTaskService();
+    }
+
+    public int shardOf(long processInstanceId) {
+        Integer shard = shardByProcessInstance.get(processInstanceId);
+        if (shard != null) {
+            return shard;
+        }
+        shard = resolveFromAudit(processInstanceId);
+        if (isActive(processInstanceId)) {
+            shardByProcessInstance.put(processInstanceId, shard);
+        }
+        return shard;
+    }
+
+    private int resolveFromAudit(long processInstanceId) {
+        if (managers.size() == 1) {
+            return 0;
+        }
+        RuntimeEngine engine = engines.get(0);
+        List<? extends VariableInstanceLog> values = engine.getAuditService()
+                .findVariableInstances(processInstanceId, router.getVariable());
+        if (values.isEmpty()) {
+            if (engine.getAuditService().findProcessInstance(processInstanceId) == null) {
+                throw new IllegalArgumentException("Process instance " + processInstanceId + " does not exist");
+            }
+            throw new IllegalStateException("Process instance " + processInstanceId + " has no "
+                    + router.getVariable() + " in the audit log, its shard cannot be resolved");
+        }
+        // the value the instance was started with decides, later changes do not move it
+        String value = values.get(0).getValue();
+        int shard = router.shardOf(value, managers.size());
+        logger.debug("Process instance {} resolved to shard {} from {}={}", processInstanceId, shard, router.getVariable(), value);
+        return shard;
+    }
+
+    private boolean isActive(long processInstanceId) {
+        ProcessInstanceLog log = engines.get(0).getAuditService().findProcessInstance(processInstanceId);
+        return log != null && log.getStatus() == ProcessInstance.STATE_ACTIVE;
+    }
+
+    @Override
+    public void close() {
+        for (RuntimeManager manager : managers) {
+            try {
+                manager.close();
+            } catch (RuntimeException e) {
+                logger.warn("Closing runtime shard {} failed", manager.getIdentifier(), e);
+            }
+        }
+        shardByProcessInstance.clear();
+    }
+
+    /**
+     * Records the owner of instances as they start and forgets them once they end. Both events run under the
+     * shard's session lock, so an instance completed from another thread cannot be recorded after it ended.
+     */
+    private final class ShardTracker extends DefaultProcessEventListener {
+        private final int shard;
+
+        private ShardTracker(int shard) {
+            this.shard = shard;
+        }
+
+        @Override
+        public void beforeProcessStarted(ProcessStartedEvent event) {
+            shardByProcessInstance.put(event.getProcessInstance().getId(), shard);
+        }
+
+        @Override
+        public void afterProcessCompleted(ProcessCompletedEvent event) {
+            shardByProcessInstance.remove(event.getProcessInstance().getId());
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.stark.machinery_repair.start;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.LongFunction;
+
+import com.stark.machinery_repair.runtime.ShardedRuntimeManager;
+import com.stark.machinery_repair.util.SessionTransactions;
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.manager.audit.AuditService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Starts {@code parts-procurement_v2_0} at most once per {@link ProcurementKey}: a start for a repair request, part
+ * and branch that already has a running instance returns that instance's id instead of creating another one.
+ * <p>
+ * Running instances are looked up in the {@link InFlightProcurementIndex}, so a new request costs a map lookup.
+ * Concurrent starts of the same key wait until the transaction of the first one has completed, which may be the
+ * caller's own JTA transaction, and get its id once it committed or try again if it rolled back. So a key is only
+ * looked up once its previous start has committed. A hit is checked against the session before it is returned,
+ * because the index also holds instances whose start transaction was rolled back.
+ * Starts without all three variables cannot be matched and always create an instance.
+ * <p>
+ * KIE Server's own start endpoint does not go through this class; it is meant for applications that start
+ * instances through the API, as {@link ShardedRuntimeManager} is.
+ */
+public class IdempotentProcurementStarter {
+    private static Logger logger = LoggerFactory.getLogger(IdempotentProcurementStarter.class);
+
+    private final InFlightProcurementIndex index;
+    private final Function<Map<String, Object>, Long> starter;
+    private final LongFunction<KieSession> sessions;
+    private final Map<ProcurementKey, Start> starting = new ConcurrentHashMap<>();
+
+    public IdempotentProcurementStarter(KieSession ksession, AuditService auditService) {
+        this(InFlightProcurementIndex.shared(),
+                parameters -> ksession.startProcess(InFlightProcurementIndex.PROCESS_ID, parameters).getId(),
+                processInstanceId -> ksession, auditService);
+    }
+
+    public IdempotentProcurementStarter(ShardedRuntimeManager sharded) {
+        this(InFlightProcurementIndex.shared(),
+                parameters -> sharded.startProcess(InFlightProcurementIndex.PROCESS_ID, parameters).getId(),
+                sharded::getKieSession, sharded.getRuntimeEngine(0).getAuditService());
+    }
+
+    /**
+     * @param starter starts a new instance and returns its id
+     * @param sessions the session that owns a process instance
+     * @param auditService used once to rebuild the index if this JVM has not done so yet
+     */
+    public IdempotentProcurementStarter(InFlightProcurementIndex index, Function<Map<String, Object>, Long> starter,
+            LongFunction<KieSession> sessions, AuditService auditService) {
+        this.index = index;
+        this.starter = starter;
+        this.sessions = sessions;
+        index.rebuild(auditService);
+    }
+
+    /**
+     * @return the id of the instance working on these parameters, new or already running
+     */
+    public long start(Map<String, Object> parameters) {
+        ProcurementKey key = ProcurementKey.of(parameters);
+        if (key == null) {
+            return starter.apply(parameters);
+        }
+        while (true) {
+            Start mine = new Start();
+            Start other = starting.putIfAbsent(key, mine);
+            if (other == null) {
+                return start(key, parameters, mine);
+            }
+            if (other.owner == Thread.currentThread()) {
+                // started earlier in the same, still open transaction
+                return other.processInstanceId;
+            }
+            Long processInstanceId = other.await();
+            if (processInstanceId != null) {
+                return processInstanceId;
+            }
+            logger.debug("Start of {} was rolled back, trying again", key);
+        }
+    }
+
+    /**
+     * Keeps {@code mine} in {@link #starting} until the transaction that started the instance has completed.
+     */
+    private long start(ProcurementKey key, Map<String, Object> parameters, Start mine) {
+        long processInstanceId;
+        try {
+            Long running = findRunning(key);
+            if (running != null) {
+                logger.debug("{} is already handled by process instance {}", key, running);
+                mine.complete(key, running);
+                return running;
+            }
+            processInstanceId = starter.apply(parameters);
+        } catch (RuntimeException e) {
+            starting.remove(key, mine);
+            mine.result.completeExceptionally(e);
+            throw e;
+        }
+        mine.processInstanceId = processInstanceId;
+        SessionTransactions.afterCompletion(sessions.apply(processInstanceId).getEnvironment(),
+                () -> mine.complete(key, processInstanceId), () -> mine.complete(key, null));
+        return processInstanceId;
+    }
+
+    private Long findRunning(ProcurementKey key) {
+        Long processInstanceId = index.find(key);
+        if (processInstanceId == null) {
+            return null;
+        }
+        if (sessions.apply(processInstanceId).getProcessInstance(processInstanceId, true) != null) {
+            return processInstanceId;
+        }
+        logger.debug("Process instance {} of {} is gone, dropping it from the index", processInstanceId, key);
+        index.unregister(processInstanceId);
+        return null;
+    }
+
+    private final class Start {
+        private final Thread owner = Thread.currentThread();
+        private final CompletableFuture<Long> result = new CompletableFuture<>();
+        private volatile long processInstanceId;
+
+        private void complete(ProcurementKey key, Long processInstanceId) {
+            starting.remove(key, this);
+            result.complete(processInstanceId);
+        }
+
+        /**
+         * @return the id of the instance, {@code null} if its start was rolled back
+         */
+        private Long await() {
+            try {
+                return result.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+    }
+}
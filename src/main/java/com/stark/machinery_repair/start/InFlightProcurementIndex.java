@@ -0,0 +1,110 @@
+package com.stark.machinery_repair.start;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.kie.api.runtime.manager.audit.AuditService;
+import org.kie.api.runtime.manager.audit.VariableInstanceLog;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Index of the running parts-procurement instances by the {@link ProcurementKey} they were started with, so a
+ * repeated start can be answered with the instance that is already working on it.
+ * <p>
+ * {@link InFlightProcurementListener} adds an instance when it starts and removes it when it ends. An instance
+ * keeps the key it was started with even if "Fix Procurement Details" later changes its part or branch. The
+ * index itself is held in memory; the audit log is the persistent copy it is rebuilt from after a restart, see
+ * {@link #rebuild(AuditService)}.
+ */
+public class InFlightProcurementIndex {
+    private static Logger logger = LoggerFactory.getLogger(InFlightProcurementIndex.class);
+
+    public static final String PROCESS_ID = "machinery-repair.parts-procurement_v2_0";
+
+    private static final InFlightProcurementIndex SHARED = new InFlightProcurementIndex();
+
+    private final Map<ProcurementKey, Long> byKey = new ConcurrentHashMap<>();
+    private final Map<Long, ProcurementKey> keysByProcessInstance = new ConcurrentHashMap<>();
+    private final AtomicBoolean rebuilt = new AtomicBoolean();
+
+    /**
+     * The index shared by the listeners and starters of every deployment in this JVM.
+     */
+    public static InFlightProcurementIndex shared() {
+        return SHARED;
+    }
+
+    /**
+     * @return the instance now registered for the key, which is the given one unless another instance was
+     *         registered for it first
+     */
+    public long register(long processInstanceId, ProcurementKey key) {
+        Long existing = byKey.putIfAbsent(key, processInstanceId);
+        if (existing != null) {
+            return existing;
+        }
+        keysByProcessInstance.put(processInstanceId, key);
+        return processInstanceId;
+    }
+
+    public void unregister(long processInstanceId) {
+        ProcurementKey key = keysByProcessInstance.remove(processInstanceId);
+        if (key != null) {
+            byKey.remove(key, processInstanceId);
+        }
+    }
+
+    /**
+     * @return the running instance started with the given key, or {@code null}
+     */
+    public Long find(ProcurementKey key) {
+        return byKey.get(key);
+    }
+
+    public int getInFlight() {
+        return keysByProcessInstance.size();
+    }
+
+    /**
+     * Rebuilds the index from the audit log unless it has already been rebuilt. The key of an instance is made of
+     * the first value each of its three variables was logged with, which takes one query per variable.
+     */
+    public void rebuild(AuditService auditService) {
+        if (!rebuilt.compareAndSet(false, true)) {
+            return;
+        }
+        Map<Long, VariableInstanceLog> repairRequestIds = firstValues(auditService, ProcurementKey.REPAIR_REQUEST_ID);
+        Map<Long, VariableInstanceLog> partCodes = firstValues(auditService, ProcurementKey.PART_CODE);
+        Map<Long, VariableInstanceLog> branchCodes = firstValues(auditService, ProcurementKey.BRANCH_CODE);
+        int restored = 0;
+        for (Map.Entry<Long, VariableInstanceLog> repairRequestId : repairRequestIds.entrySet()) {
+            VariableInstanceLog partCode = partCodes.get(repairRequestId.getKey());
+            VariableInstanceLog branchCode = branchCodes.get(repairRequestId.getKey());
+            if (partCode == null || branchCode == null || keysByProcessInstance.containsKey(repairRequestId.getKey())) {
+                continue;
+            }
+            ProcurementKey key = new ProcurementKey(repairRequestId.getValue().getValue(), partCode.getValue(), branchCode.getValue());
+            if (register(repairRequestId.getKey(), key) == repairRequestId.getKey()) {
+                restored++;
+            }
+        }
+        logger.info("Rebuilt in-flight procurement index with {} of {} active instances", restored, repairRequestIds.size());
+    }
+
+    private static Map<Long, VariableInstanceLog> firstValues(AuditService auditService, String variable) {
+        Map<Long, VariableInstanceLog> first = new HashMap<>();
+        for (VariableInstanceLog log : auditService.findVariableInstancesByName(variable, true)) {
+            if (!PROCESS_ID.equals(log.getProcessId()) || log.getValue() == null) {
+                continue;
+            }
+            VariableInstanceLog earlier = first.get(log.getProcessInstanceId());
+            if (earlier == null || log.getDate() != null && earlier.getDate() != null && log.getDate().before(earlier.getDate())) {
+                first.put(log.getProcessInstanceId(), log);
+            }
+        }
+        return first;
+    }
+}
@@ -0,0 +1,44 @@
+package com.stark.machinery_repair.start;
+
+import org.kie.api.event.process.DefaultProcessEventListener;
+import org.kie.api.event.process.ProcessCompletedEvent;
+import org.kie.api.event.process.ProcessStartedEvent;
+import org.kie.api.runtime.process.WorkflowProcessInstance;
+
+/**
+ * Keeps {@link InFlightProcurementIndex} in step with the running parts-procurement instances, however they
+ * were started.
+ */
+public class InFlightProcurementListener extends DefaultProcessEventListener {
+
+    private final InFlightProcurementIndex index;
+
+    public InFlightProcurementListener() {
+        this(InFlightProcurementIndex.shared());
+    }
+
+    public InFlightProcurementListener(InFlightProcurementIndex index) {
+        this.index = index;
+    }
+
+    @Override
+    public void beforeProcessStarted(ProcessStartedEvent event) {
+        // registered before the first node runs, an instance that completes right away is removed again
+        if (!InFlightProcurementIndex.PROCESS_ID.equals(event.getProcessInstance().getProcessId())
+                || !(event.getProcessInstance() instanceof WorkflowProcessInstance)) {
+            return;
+        }
+        WorkflowProcessInstance processInstance = (WorkflowProcessInstance) event.getProcessInstance();
+        Object repairRequestId = processInstance.getVariable(ProcurementKey.REPAIR_REQUEST_ID);
+        Object partCode = processInstance.getVariable(ProcurementKey.PART_CODE);
+        Object branchCode = processInstance.getVariable(ProcurementKey.BRANCH_CODE);
+        if (repairRequestId != null && partCode != null && branchCode != null) {
+            index.register(processInstance.getId(), new ProcurementKey(repairRequestId.toString(), partCode.toString(), branchCode.toString()));
+        }
+    }
+
+    @Override
+    public void afterProcessCompleted(ProcessCompletedEvent event) {
+        index.unregister(event.getProcessInstance().getId());
+    }
+}
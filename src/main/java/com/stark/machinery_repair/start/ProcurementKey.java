@@ -0,0 +1,70 @@
+package com.stark.machinery_repair.start;
+
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * What makes two parts-procurement starts the same request: the repair request, the part and the branch it
+ * was started with.
+ */
+public final class ProcurementKey {
+
+    public static final String REPAIR_REQUEST_ID = "repairRequestId";
+    public static final String PART_CODE = "partCode";
+    public static final String BRANCH_CODE = "branchCode";
+
+    private final String repairRequestId;
+    private final String partCode;
+    private final String branchCode;
+
+    public ProcurementKey(String repairRequestId, String partCode, String branchCode) {
+        this.repairRequestId = repairRequestId;
+        this.partCode = partCode;
+        this.branchCode = branchCode;
+    }
+
+    /**
+     * @return the key of the given start parameters, or {@code null} if one of the three is missing
+     */
+    public static ProcurementKey of(Map<String, Object> parameters) {
+        Object repairRequestId = parameters.get(REPAIR_REQUEST_ID);
+        Object partCode = parameters.get(PART_CODE);
+        Object branchCode = parameters.get(BRANCH_CODE);
+        if (repairRequestId == null || partCode == null || branchCode == null) {
+            return null;
+        }
+        return new ProcurementKey(repairRequestId.toString(), partCode.toString(), branchCode.toString());
+    }
+
+    public String getRepairRequestId() {
+        return repairRequestId;
+    }
+
+    public String getPartCode() {
+        return partCode;
+    }
+
+    public String getBranchCode() {
+        return branchCode;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof ProcurementKey)) {
+            return false;
+        }
+        ProcurementKey key = (ProcurementKey) other;
+        return Objects.equals(repairRequestId, key.repairRequestId) && Objects.equals(partCode, key.partCode)
+                && Objects.equals(branchCode, key.branchCode);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(repairRequestId, partCode, branchCode);
+    }
+
+    @Override
+    public String toString() {
+        return repairRequestId + "/" + branchCode + "/" + partCode;
+    }
+}
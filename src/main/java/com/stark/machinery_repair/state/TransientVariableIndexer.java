@@ -0,0 +1,36 @@
+package com.stark.machinery_repair.state;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.kie.api.runtime.manager.audit.VariableInstanceLog;
+import org.kie.internal.process.ProcessVariableIndexer;
+
+/**
+ * Keeps the {@link TransientVariables} out of the JPA audit log. Every other variable is left to the default
+ * indexer.
+ * <p>
+ * jBPM finds indexers with {@link java.util.ServiceLoader}, once per JVM and through the class loader of the
+ * jBPM audit classes, so this one only applies where
+ * {@code META-INF/services/org.kie.internal.process.ProcessVariableIndexer} of this project is visible to that
+ * class loader, as in the tests or in an application that has the kjar on its class path. A KIE Server loads
+ * the kjar in a class loader of its own, which the audit classes do not see: there the variables are still
+ * audited by the built in logger, unless the jar is also put on the server's class path. They are cleared from
+ * the instance state by {@link TransientVariablesListener} either way, and
+ * {@link com.stark.machinery_repair.audit.AsyncAuditLogger} leaves them out of the audit log itself.
+ */
+public class TransientVariableIndexer implements ProcessVariableIndexer {
+
+    @Override
+    public boolean accept(Object variable) {
+        return true;
+    }
+
+    /**
+     * @return no log entries for a transient variable, {@code null} to hand every other variable on
+     */
+    @Override
+    public List<VariableInstanceLog> index(String name, Object variable) {
+        return TransientVariables.isTransient(name) ? Collections.emptyList() : null;
+    }
+}
@@ -0,0 +1,44 @@
+package com.stark.machinery_repair.state;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Process variables that only carry a REST payload from a node's entry script to its work item, or from the
+ * work item back to its exit script. Their content is kept in typed variables such as {@code partsAvailable},
+ * {@code reservationId} or {@code purchaseOrderReceiverId} by then, so the raw JSON needs neither to be
+ * stored with the process instance nor to be audited. See {@link TransientVariableIndexer} for where the audit
+ * log can be kept free of them.
+ * <p>
+ * The names are read from {@code machinery-repair.state.transient-variables}, a comma separated list that
+ * defaults to {@code wsJsonRequest,wsJsonResponse}. An empty value turns the feature off.
+ */
+public final class TransientVariables {
+
+    public static final String TRANSIENT_VARIABLES_PROPERTY = "machinery-repair.state.transient-variables";
+
+    private static final Set<String> NAMES = parse(System.getProperty(TRANSIENT_VARIABLES_PROPERTY, "wsJsonRequest,wsJsonResponse"));
+
+    private TransientVariables() {
+    }
+
+    public static Set<String> names() {
+        return NAMES;
+    }
+
+    public static boolean isTransient(String variable) {
+        return NAMES.contains(variable);
+    }
+
+    static Set<String> parse(String names) {
+        Set<String> parsed = new LinkedHashSet<>();
+        for (String name : Arrays.asList(names.split(","))) {
+            if (!name.trim().isEmpty()) {
+                parsed.add(name.trim());
+            }
+        }
+        return Collections.unmodifiableSet(parsed);
+    }
+}
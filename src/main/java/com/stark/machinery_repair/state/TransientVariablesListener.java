@@ -0,0 +1,31 @@
+package com.stark.machinery_repair.state;
+
+import org.kie.api.event.process.DefaultProcessEventListener;
+import org.kie.api.event.process.ProcessNodeLeftEvent;
+import org.kie.api.runtime.process.ProcessInstance;
+import org.kie.api.runtime.process.WorkflowProcessInstance;
+
+/**
+ * Clears the {@link TransientVariables} after a node has been left, so the payloads are not written into the
+ * process instance blob at the next wait state, for instance the days spent at "Received Materials".
+ * <p>
+ * A node is reported as left only once the process has moved on to its next wait state on this thread. By
+ * then the exit script and the {@code beforeNodeLeft} listeners have read the response, and any "Rest" node
+ * reached on the way has copied its request into its work item, so neither payload is needed any more.
+ */
+public class TransientVariablesListener extends DefaultProcessEventListener {
+
+    @Override
+    public void afterNodeLeft(ProcessNodeLeftEvent event) {
+        if (!(event.getProcessInstance() instanceof WorkflowProcessInstance)
+                || event.getProcessInstance().getState() != ProcessInstance.STATE_ACTIVE) {
+            return;
+        }
+        WorkflowProcessInstance processInstance = (WorkflowProcessInstance) event.getProcessInstance();
+        for (String variable : TransientVariables.names()) {
+            if (processInstance.getVariable(variable) != null) {
+                processInstance.setVariable(variable, null);
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.stark.machinery_repair.task;
+
+import java.util.Map;
+
+import org.kie.api.task.model.Status;
+import org.kie.api.task.model.Task;
+import org.kie.api.task.model.TaskData;
+
+/**
+ * An open "Fix Procurement Details" task as held by {@link FixProcurementTaskIndex}: its id, its process
+ * instance, the {@code partCode}, {@code branchCode} and {@code quantity} inputs, and its status and owner.
+ */
+public final class FixProcurementTask {
+
+    public static final String PART_CODE = "partCode";
+    public static final String BRANCH_CODE = "branchCode";
+    public static final String QUANTITY = "quantity";
+
+    private final long taskId;
+    private final long processInstanceId;
+    private final String partCode;
+    private final String branchCode;
+    private final Integer quantity;
+    private final Status status;
+    private final String actualOwner;
+
+    public FixProcurementTask(long taskId, long processInstanceId, String partCode, String branchCode, Integer quantity,
+            Status status, String actualOwner) {
+        this.taskId = taskId;
+        this.processInstanceId = processInstanceId;
+        this.partCode = partCode;
+        this.branchCode = branchCode;
+        this.quantity = quantity;
+        this.status = status;
+        this.actualOwner = actualOwner;
+    }
+
+    static FixProcurementTask of(Task task, Map<String, Object> inputs) {
+        TaskData data = task.getTaskData();
+        Object quantity = inputs.get(QUANTITY);
+        return new FixProcurementTask(task.getId(), data.getProcessInstanceId(),
+                stringOf(inputs.get(PART_CODE)), stringOf(inputs.get(BRANCH_CODE)),
+                quantity instanceof Number ? ((Number) quantity).intValue() : null,
+                data.getStatus(), data.getActualOwner() == null ? null : data.getActualOwner().getId());
+    }
+
+    private static String stringOf(Object value) {
+        return value == null ? null : value.toString();
+    }
+
+    FixProcurementTask withStatus(Status status, String actualOwner) {
+        return new FixProcurementTask(taskId, processInstanceId, partCode, branchCode, quantity, status, actualOwner);
+    }
+
+    /**
+     * @return whether the task has the given inputs, a {@code null} argument matching any value
+     */
+    boolean matches(String partCode, String branchCode, Integer quantity) {
+        return (partCode == null || partCode.equals(this.partCode))
+                && (branchCode == null || branchCode.equals(this.branchCode))
+                && (quantity == null || quantity.equals(this.quantity));
+    }
+
+    public long getTaskId() {
+        return taskId;
+    }
+
+    public long getProcessInstanceId() {
+        return processInstanceId;
+    }
+
+    public String getPartCode() {
+        return partCode;
+    }
+
+    public String getBranchCode() {
+        return branchCode;
+    }
+
+    public Integer getQuantity() {
+        return quantity;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public String getActualOwner() {
+        return actualOwner;
+    }
+
+    @Override
+    public String toString() {
+        return "FixProcurementTask[" + taskId + ", " + partCode + "@" + branchCode + " x" + quantity + ", " + status + "]";
+    }
+}
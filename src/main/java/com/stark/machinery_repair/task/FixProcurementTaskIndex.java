@@ -0,0 +1,185 @@
+package com.stark.machinery_repair.task;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongFunction;
+
+import org.kie.api.runtime.manager.audit.AuditService;
+import org.kie.api.runtime.manager.audit.ProcessInstanceLog;
+import org.kie.api.task.TaskService;
+import org.kie.api.task.model.Status;
+import org.kie.api.task.model.Task;
+import org.kie.api.task.model.TaskSummary;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Index of the open "Fix Procurement Details" tasks by their {@code partCode} and {@code branchCode} inputs, so
+ * the backlog an outage leaves behind can be paged through and worked off without a query per process instance.
+ * <p>
+ * {@link FixProcurementTaskListener} adds a task when it is created, follows its status and owner, and removes it
+ * once it is completed, exited, failed or skipped. Tasks are kept in task id order, which is the order pages are
+ * returned in. The index itself is held in memory; the task tables are the persistent copy it is rebuilt from after
+ * a restart, see {@link #rebuild(AuditService, LongFunction)}.
+ */
+public class FixProcurementTaskIndex {
+    private static Logger logger = LoggerFactory.getLogger(FixProcurementTaskIndex.class);
+
+    public static final String PROCESS_ID = "machinery-repair.parts-procurement_v2_0";
+    public static final String TASK_NAME = "Fix Procurement Details";
+
+    static final List<Status> OPEN_STATUSES = Collections.unmodifiableList(Arrays.asList(
+            Status.Created, Status.Ready, Status.Reserved, Status.InProgress, Status.Suspended));
+
+    private static final FixProcurementTaskIndex SHARED = new FixProcurementTaskIndex();
+
+    private final ConcurrentSkipListMap<Long, FixProcurementTask> tasks = new ConcurrentSkipListMap<>();
+    private final Map<String, NavigableSet<Long>> byPartCode = new ConcurrentHashMap<>();
+    private final Map<String, NavigableSet<Long>> byBranchCode = new ConcurrentHashMap<>();
+    private final AtomicBoolean rebuilt = new AtomicBoolean();
+
+    /**
+     * The index shared by the listeners and task services of every deployment in this JVM.
+     */
+    public static FixProcurementTaskIndex shared() {
+        return SHARED;
+    }
+
+    static boolean isFixProcurementTask(Task task) {
+        return task != null && TASK_NAME.equals(task.getName()) && task.getTaskData() != null
+                && PROCESS_ID.equals(task.getTaskData().getProcessId());
+    }
+
+    public void register(FixProcurementTask task) {
+        unregister(task.getTaskId());
+        tasks.put(task.getTaskId(), task);
+        add(byPartCode, task.getPartCode(), task.getTaskId());
+        add(byBranchCode, task.getBranchCode(), task.getTaskId());
+    }
+
+    /**
+     * Records a new status and owner of an indexed task; tasks that are not indexed are ignored.
+     */
+    public void update(long taskId, Status status, String actualOwner) {
+        tasks.computeIfPresent(taskId, (id, task) -> task.withStatus(status, actualOwner));
+    }
+
+    public void unregister(long taskId) {
+        FixProcurementTask task = tasks.remove(taskId);
+        if (task != null) {
+            remove(byPartCode, task.getPartCode(), taskId);
+            remove(byBranchCode, task.getBranchCode(), taskId);
+        }
+    }
+
+    private static void add(Map<String, NavigableSet<Long>> index, String value, long taskId) {
+        if (value != null) {
+            index.computeIfAbsent(value, v -> new ConcurrentSkipListSet<>()).add(taskId);
+        }
+    }
+
+    private static void remove(Map<String, NavigableSet<Long>> index, String value, long taskId) {
+        if (value == null) {
+            return;
+        }
+        index.computeIfPresent(value, (v, taskIds) -> {
+            taskIds.remove(taskId);
+            return taskIds.isEmpty() ? null : taskIds;
+        });
+    }
+
+    public FixProcurementTask get(long taskId) {
+        return tasks.get(taskId);
+    }
+
+    public int getOpen() {
+        return tasks.size();
+    }
+
+    /**
+     * One page of the open tasks with the given inputs, a {@code null} argument matching any value.
+     */
+    public List<FixProcurementTask> find(String partCode, String branchCode, Integer quantity, int offset, int maxResults) {
+        return scan(partCode, branchCode, quantity, -1, offset, maxResults);
+    }
+
+    /**
+     * @return the number of open tasks with the given inputs, a {@code null} argument matching any value
+     */
+    public int count(String partCode, String branchCode, Integer quantity) {
+        return scan(partCode, branchCode, quantity, -1, 0, Integer.MAX_VALUE).size();
+    }
+
+    /**
+     * Walks the smallest of the matching input sets in task id order, starting after {@code afterTaskId}.
+     */
+    List<FixProcurementTask> scan(String partCode, String branchCode, Integer quantity, long afterTaskId, int offset,
+            int maxResults) {
+        NavigableSet<Long> candidates = tasks.keySet();
+        if (partCode != null) {
+            candidates = smaller(candidates, byPartCode.get(partCode));
+        }
+        if (branchCode != null) {
+            candidates = smaller(candidates, byBranchCode.get(branchCode));
+        }
+        List<FixProcurementTask> page = new ArrayList<>(Math.min(maxResults, 1000));
+        int skipped = 0;
+        for (Long taskId : candidates.tailSet(afterTaskId, false)) {
+            FixProcurementTask task = tasks.get(taskId);
+            if (task == null || !task.matches(partCode, branchCode, quantity)) {
+                continue;
+            }
+            if (skipped < offset) {
+                skipped++;
+                continue;
+            }
+            if (page.size() >= maxResults) {
+                break;
+            }
+            page.add(task);
+        }
+        return page;
+    }
+
+    private static NavigableSet<Long> smaller(NavigableSet<Long> candidates, NavigableSet<Long> other) {
+        if (other == null) {
+            return Collections.emptyNavigableSet();
+        }
+        return other.size() < candidates.size() ? other : candidates;
+    }
+
+    /**
+     * Rebuilds the index unless it has already been rebuilt, from the open tasks of the active parts-procurement
+     * instances. This takes one task query per active instance and one content query per open task.
+     *
+     * @param taskServices the task service of the session that owns a process instance
+     */
+    public void rebuild(AuditService auditService, LongFunction<TaskService> taskServices) {
+        if (!rebuilt.compareAndSet(false, true)) {
+            return;
+        }
+        List<? extends ProcessInstanceLog> active = auditService.findActiveProcessInstances(PROCESS_ID);
+        int restored = 0;
+        for (ProcessInstanceLog processInstance : active) {
+            TaskService taskService = taskServices.apply(processInstance.getProcessInstanceId());
+            for (TaskSummary summary : taskService.getTasksByStatusByProcessInstanceId(processInstance.getProcessInstanceId(),
+                    OPEN_STATUSES, "en-UK")) {
+                if (!TASK_NAME.equals(summary.getName()) || tasks.containsKey(summary.getId())) {
+                    continue;
+                }
+                Task task = taskService.getTaskById(summary.getId());
+                register(FixProcurementTask.of(task, taskService.getTaskContent(summary.getId())));
+                restored++;
+            }
+        }
+        logger.info("Rebuilt fix procurement task index with {} open tasks of {} active instances", restored, active.size());
+    }
+}
@@ -0,0 +1,114 @@
+package com.stark.machinery_repair.task;
+
+import java.util.Map;
+
+import org.jbpm.services.task.events.DefaultTaskEventListener;
+import org.kie.api.task.TaskEvent;
+import org.kie.api.task.model.Task;
+
+/**
+ * Keeps {@link FixProcurementTaskIndex} in step with the open "Fix Procurement Details" tasks.
+ */
+public class FixProcurementTaskListener extends DefaultTaskEventListener {
+
+    private final FixProcurementTaskIndex index;
+
+    public FixProcurementTaskListener() {
+        this(FixProcurementTaskIndex.shared());
+    }
+
+    public FixProcurementTaskListener(FixProcurementTaskIndex index) {
+        this.index = index;
+    }
+
+    @Override
+    public void afterTaskAddedEvent(TaskEvent event) {
+        Task task = event.getTask();
+        if (!FixProcurementTaskIndex.isFixProcurementTask(task)) {
+            return;
+        }
+        Map<String, Object> inputs = task.getTaskData().getTaskInputVariables();
+        if (inputs == null) {
+            inputs = event.getTaskContext().loadTaskVariables(task).getTaskData().getTaskInputVariables();
+        }
+        index.register(FixProcurementTask.of(task, inputs));
+    }
+
+    @Override
+    public void afterTaskActivatedEvent(TaskEvent event) {
+        update(event.getTask());
+    }
+
+    @Override
+    public void afterTaskClaimedEvent(TaskEvent event) {
+        update(event.getTask());
+    }
+
+    @Override
+    public void afterTaskStartedEvent(TaskEvent event) {
+        update(event.getTask());
+    }
+
+    @Override
+    public void afterTaskStoppedEvent(TaskEvent event) {
+        update(event.getTask());
+    }
+
+    @Override
+    public void afterTaskReleasedEvent(TaskEvent event) {
+        update(event.getTask());
+    }
+
+    @Override
+    public void afterTaskSuspendedEvent(TaskEvent event) {
+        update(event.getTask());
+    }
+
+    @Override
+    public void afterTaskResumedEvent(TaskEvent event) {
+        update(event.getTask());
+    }
+
+    @Override
+    public void afterTaskForwardedEvent(TaskEvent event) {
+        update(event.getTask());
+    }
+
+    @Override
+    public void afterTaskDelegatedEvent(TaskEvent event) {
+        update(event.getTask());
+    }
+
+    @Override
+    public void afterTaskNominatedEvent(TaskEvent event) {
+        update(event.getTask());
+    }
+
+    @Override
+    public void afterTaskCompletedEvent(TaskEvent event) {
+        index.unregister(event.getTask().getId());
+    }
+
+    @Override
+    public void afterTaskExitedEvent(TaskEvent event) {
+        index.unregister(event.getTask().getId());
+    }
+
+    @Override
+    public void afterTaskFailedEvent(TaskEvent event) {
+        index.unregister(event.getTask().getId());
+    }
+
+    @Override
+    public void afterTaskSkippedEvent(TaskEvent event) {
+        index.unregister(event.getTask().getId());
+    }
+
+    private void update(Task task) {
+        if (task == null || task.getTaskData() == null) {
+            return;
+        }
+        index.update(task.getId(), task.getTaskData().getStatus(),
+                task.getTaskData().getActualOwner() == null ? null : task.getTaskData().getActualOwner().getId());
+    }
+}
@@ -0,0 +1,201 @@
+package com.stark.machinery_repair.task;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.LongFunction;
+
+import com.stark.machinery_repair.runtime.ShardedRuntimeManager;
+import org.jbpm.services.task.commands.ClaimTaskCommand;
+import org.jbpm.services.task.commands.CompleteTaskCommand;
+import org.jbpm.services.task.commands.CompositeCommand;
+import org.jbpm.services.task.commands.StartTaskCommand;
+import org.jbpm.services.task.commands.TaskCommand;
+import org.kie.api.runtime.manager.audit.AuditService;
+import org.kie.api.task.TaskService;
+import org.kie.api.task.model.Status;
+import org.kie.api.task.model.Task;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bulk access to the "Fix Procurement Details" tasks: paged queries by their {@code partCode}, {@code branchCode}
+ * and {@code quantity} inputs, and claiming and completing many tasks with the same outputs.
+ * <p>
+ * Queries are answered from the {@link FixProcurementTaskIndex} without touching the database. Completion runs the
+ * claim, start and complete of up to {@code machinery-repair.tasks.batch-size} tasks (100 by default) as one
+ * composite command, which is one transaction of the task service including the process instances it continues.
+ * When a batch fails, its tasks are tried again one at a time so one task taken by someone else does not hold up
+ * the rest.
+ */
+public class FixProcurementTaskService {
+    private static Logger logger = LoggerFactory.getLogger(FixProcurementTaskService.class);
+
+    public static final String BATCH_SIZE_PROPERTY = "machinery-repair.tasks.batch-size";
+
+    private final FixProcurementTaskIndex index;
+    private final LongFunction<TaskService> taskServices;
+    private final int batchSize;
+
+    public FixProcurementTaskService(TaskService taskService, AuditService auditService) {
+        this(FixProcurementTaskIndex.shared(), processInstanceId -> taskService, auditService,
+                Integer.getInteger(BATCH_SIZE_PROPERTY, 100));
+    }
+
+    public FixProcurementTaskService(ShardedRuntimeManager sharded) {
+        this(FixProcurementTaskIndex.shared(),
+                processInstanceId -> sharded.getRuntimeEngine(sharded.shardOf(processInstanceId)).getTaskService(),
+                sharded.getRuntimeEngine(0).getAuditService(), Integer.getInteger(BATCH_SIZE_PROPERTY, 100));
+    }
+
+    /**
+     * @param taskServices the task service of the session that owns a process instance
+     * @param auditService used once to rebuild the index if this JVM has not done so yet
+     */
+    public FixProcurementTaskService(FixProcurementTaskIndex index, LongFunction<TaskService> taskServices,
+            AuditService auditService, int batchSize) {
+        this.index = index;
+        this.taskServices = taskServices;
+        this.batchSize = Math.max(batchSize, 1);
+        index.rebuild(auditService, taskServices);
+    }
+
+    /**
+     * One page of the open tasks with the given inputs in task id order, a {@code null} argument matching any value.
+     */
+    public List<FixProcurementTask> find(String partCode, String branchCode, Integer quantity, int offset, int maxResults) {
+        return index.find(partCode, branchCode, quantity, offset, maxResults);
+    }
+
+    public int count(String partCode, String branchCode, Integer quantity) {
+        return index.count(partCode, branchCode, quantity);
+    }
+
+    /**
+     * Claims and completes every open task with the given inputs that the user can take, see
+     * {@link #completeAll(Collection, String, Map)}.
+     */
+    public Set<Long> completeMatching(String partCode, String branchCode, Integer quantity, String userId,
+            Map<String, Object> outputs) {
+        List<Long> taskIds = new ArrayList<>();
+        for (FixProcurementTask task : index.find(partCode, branchCode, quantity, 0, Integer.MAX_VALUE)) {
+            taskIds.add(task.getTaskId());
+        }
+        return completeAll(taskIds, userId, outputs);
+    }
+
+    /**
+     * Completes the given tasks as the user with the same outputs, claiming and starting them first as needed.
+     * Tasks that are no longer open, or that are reserved by or in progress with someone else, are left alone.
+     *
+     * @return the tasks that were completed
+     */
+    public Set<Long> completeAll(Collection<Long> taskIds, String userId, Map<String, Object> outputs) {
+        Map<TaskService, List<FixProcurementTask>> batches = new IdentityHashMap<>();
+        for (Long taskId : taskIds) {
+            FixProcurementTask task = index.get(taskId);
+            if (task == null || !isAvailable(task, userId)) {
+                logger.debug("Task {} is not open for {}, skipping it", task == null ? taskId : task, userId);
+                continue;
+            }
+            batches.computeIfAbsent(taskServices.apply(task.getProcessInstanceId()), taskService -> new ArrayList<>()).add(task);
+        }
+        Set<Long> completed = new LinkedHashSet<>();
+        for (Map.Entry<TaskService, List<FixProcurementTask>> tasks : batches.entrySet()) {
+            for (int from = 0; from < tasks.getValue().size(); from += batchSize) {
+                List<FixProcurementTask> batch = tasks.getValue().subList(from, Math.min(from + batchSize, tasks.getValue().size()));
+                complete(tasks.getKey(), batch, userId, outputs, completed);
+            }
+        }
+        logger.debug("Completed {} of {} tasks as {}", completed.size(), taskIds.size(), userId);
+        return completed;
+    }
+
+    private static boolean isAvailable(FixProcurementTask task, String userId) {
+        switch (task.getStatus()) {
+            case Ready:
+                return true;
+            case Reserved:
+            case InProgress:
+                return userId.equals(task.getActualOwner());
+            default:
+                return false;
+        }
+    }
+
+    private void complete(TaskService taskService, List<FixProcurementTask> batch, String userId,
+            Map<String, Object> outputs, Set<Long> completed) {
+        try {
+            taskService.execute(commandOf(batch, userId, outputs));
+            for (FixProcurementTask task : batch) {
+                completed.add(task.getTaskId());
+            }
+            return;
+        } catch (RuntimeException e) {
+            if (batch.size() == 1) {
+                logger.warn("Could not complete {} as {}: {}", batch.get(0), userId, e.toString());
+                refresh(taskService, batch.get(0));
+                return;
+            }
+            logger.warn("Batch of {} tasks failed, completing them one at a time: {}", batch.size(), e.toString());
+        }
+        // the batch was rolled back, but the index already forgot the tasks completed in it
+        for (FixProcurementTask task : batch) {
+            refresh(taskService, task);
+        }
+        for (FixProcurementTask task : batch) {
+            FixProcurementTask current = index.get(task.getTaskId());
+            if (current != null && isAvailable(current, userId)) {
+                complete(taskService, Collections.singletonList(current), userId, outputs, completed);
+            }
+        }
+    }
+
+    /**
+     * Claims and starts come first, so a task that is no longer available fails the batch before any process
+     * instance has been continued.
+     */
+    private static CompositeCommand<Void> commandOf(List<FixProcurementTask> batch, String userId, Map<String, Object> outputs) {
+        List<TaskCommand<?>> commands = new ArrayList<>();
+        for (FixProcurementTask task : batch) {
+            if (task.getStatus() == Status.Ready) {
+                commands.add(new ClaimTaskCommand(task.getTaskId(), userId));
+            }
+            if (task.getStatus() != Status.InProgress) {
+                commands.add(new StartTaskCommand(task.getTaskId(), userId));
+            }
+        }
+        for (int i = 0; i < batch.size() - 1; i++) {
+            commands.add(new CompleteTaskCommand(batch.get(i).getTaskId(), userId, new HashMap<>(outputs)));
+        }
+        CompleteTaskCommand last = new CompleteTaskCommand(batch.get(batch.size() - 1).getTaskId(), userId, new HashMap<>(outputs));
+        return new CompositeCommand<>(last, commands.toArray(new TaskCommand<?>[0]));
+    }
+
+    /**
+     * Puts the task back into the index as the database has it now.
+     */
+    private void refresh(TaskService taskService, FixProcurementTask task) {
+        try {
+            Task current = taskService.getTaskById(task.getTaskId());
+            if (current == null || !FixProcurementTaskIndex.OPEN_STATUSES.contains(current.getTaskData().getStatus())) {
+                index.unregister(task.getTaskId());
+                return;
+            }
+            String actualOwner = current.getTaskData().getActualOwner() == null ? null : current.getTaskData().getActualOwner().getId();
+            if (index.get(task.getTaskId()) == null) {
+                index.register(task.withStatus(current.getTaskData().getStatus(), actualOwner));
+            } else {
+                index.update(task.getTaskId(), current.getTaskData().getStatus(), actualOwner);
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Could not reload task {}", task.getTaskId(), e);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.stark.machinery_repair.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.ToIntFunction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects items per key and hands each key's batch to a flusher once it reaches {@code maxBatchSize}
+ * items or {@code maxWaitMillis} has passed since the first item arrived, whichever comes first.
+ * Flushes always run on the accumulator's own threads, never on the caller's.
+ * <p>
+ * With a weigher, {@code maxBatchSize} caps the summed weight of a batch instead of its item count.
+ */
+public class BatchAccumulator<K, T> implements AutoCloseable {
+    private static Logger logger = LoggerFactory.getLogger(BatchAccumulator.class);
+
+    private final int maxBatchSize;
+    private final long maxWaitMillis;
+    private final ToIntFunction<? super T> weigher;
+    private final BiConsumer<K, List<T>> flusher;
+    private final ScheduledExecutorService scheduler;
+
+    private final Map<K, List<T>> pending = new HashMap<>();
+    private final Map<K, Integer> weights = new HashMap<>();
+
+    public BatchAccumulator(String name, int maxBatchSize, long maxWaitMillis, int flushThreads, BiConsumer<K, List<T>> flusher) {
+        this(name, maxBatchSize, maxWaitMillis, flushThreads, item -> 1, flusher);
+    }
+
+    public BatchAccumulator(String name, int maxBatchSize, long maxWaitMillis, int flushThreads, ToIntFunction<? super T> weigher,
+            BiConsumer<K, List<T>> flusher) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be positive: " + maxBatchSize);
+        }
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitMillis = maxWaitMillis;
+        this.weigher = weigher;
+        this.flusher = flusher;
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(flushThreads, new DaemonThreadFactory(name));
+        executor.setRemoveOnCancelPolicy(true);
+        // close() flushes everything itself, pending window timers must not delay shutdown
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        this.scheduler = executor;
+    }
+
+    public void add(K key, T item) {
+        List<T> ready = null;
+        synchronized (pending) {
+            List<T> batch = pending.get(key);
+            boolean opened = batch == null;
+            if (opened) {
+                batch = new ArrayList<>();
+                pending.put(key, batch);
+            }
+            batch.add(item);
+            if (weights.merge(key, weigher.applyAsInt(item), Integer::sum) >= maxBatchSize) {
+                pending.remove(key);
+                weights.remove(key);
+                ready = batch;
+            } else if (opened) {
+                final List<T> scheduled = batch;
+                scheduler.schedule(() -> flushIfCurrent(key, scheduled), maxWaitMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (ready != null) {
+            submit(key, ready);
+        }
+    }
+
+    /**
+     * Drops a not yet flushed item, e.g. when its work item is aborted.
+     *
+     * @return {@code true} if the item was still pending
+     */
+    public boolean remove(K key, T item) {
+        synchronized (pending) {
+            List<T> batch = pending.get(key);
+            int index = batch == null ? -1 : batch.indexOf(item);
+            if (index < 0) {
+                return false;
+            }
+            weights.merge(key, -weigher.applyAsInt(batch.remove(index)), Integer::sum);
+            if (batch.isEmpty()) {
+                pending.remove(key);
+                weights.remove(key);
+            }
+            return true;
+        }
+    }
+
+    public int pendingCount() {
+        synchronized (pending) {
+            int count = 0;
+            for (List<T> batch : pending.values()) {
+                count += batch.size();
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Flushes every pending batch right away, without waiting for the window to close.
+     */
+    public void flushAll() {
+        Map<K, List<T>> ready;
+        synchronized (pending) {
+            ready = new HashMap<>(pending);
+            pending.clear();
+            weights.clear();
+        }
+        for (Map.Entry<K, List<T>> entry : ready.entrySet()) {
+            submit(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void flushIfCurrent(K key, List<T> batch) {
+        synchronized (pending) {
+            if (pending.get(key) != batch) {
+                // already flushed because it filled up
+                return;
+            }
+            pending.remove(key);
+            weights.remove(key);
+        }
+        flush(key, batch);
+    }
+
+    private void submit(K key, List<T> batch) {
+        try {
+            scheduler.execute(() -> flush(key, batch));
+        } catch (RejectedExecutionException e) {
+            // shutting down, do not lose the batch
+            flush(key, batch);
+        }
+    }
+
+    private void flush(K key, List<T> batch) {
+        try {
+            flusher.accept(key, batch);
+        } catch (RuntimeException e) {
+            logger.error("Flushing batch of {} items for {} failed", batch.size(), key, e);
+        }
+    }
+
+    @Override
+    public void close() {
+        flushAll();
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(maxWaitMillis + 30000, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
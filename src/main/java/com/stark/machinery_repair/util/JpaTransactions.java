@@ -0,0 +1,90 @@
+package com.stark.machinery_repair.util;
+
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.transaction.Status;
+import javax.transaction.UserTransaction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs work on background threads in a transaction of its own: a JTA transaction when a {@link UserTransaction}
+ * can be looked up, as on the server and in the tests, a resource local one otherwise.
+ */
+public final class JpaTransactions {
+    private static Logger logger = LoggerFactory.getLogger(JpaTransactions.class);
+
+    private static final String[] USER_TRANSACTION_NAMES = {
+            System.getProperty("jbpm.ut.jndi.lookup", "java:comp/UserTransaction"), "java:jboss/UserTransaction" };
+
+    /**
+     * Work done with the entity manager of the transaction.
+     */
+    public interface Work<T> {
+        T execute(EntityManager em) throws Exception;
+    }
+
+    private JpaTransactions() {
+    }
+
+    /**
+     * Commits when the work returns and rolls back when it throws.
+     */
+    public static <T> T execute(EntityManagerFactory emf, Work<T> work) throws Exception {
+        UserTransaction ut = findUserTransaction();
+        return ut != null ? executeJta(emf, ut, work) : executeResourceLocal(emf, work);
+    }
+
+    private static <T> T executeJta(EntityManagerFactory emf, UserTransaction ut, Work<T> work) throws Exception {
+        ut.begin();
+        EntityManager em = null;
+        try {
+            em = emf.createEntityManager();
+            em.joinTransaction();
+            T result = work.execute(em);
+            em.flush();
+            ut.commit();
+            return result;
+        } catch (Exception | Error e) {
+            if (ut.getStatus() != Status.STATUS_NO_TRANSACTION) {
+                ut.rollback();
+            }
+            throw e;
+        } finally {
+            if (em != null) {
+                em.close();
+            }
+        }
+    }
+
+    private static <T> T executeResourceLocal(EntityManagerFactory emf, Work<T> work) throws Exception {
+        EntityManager em = emf.createEntityManager();
+        EntityTransaction tx = em.getTransaction();
+        try {
+            tx.begin();
+            T result = work.execute(em);
+            tx.commit();
+            return result;
+        } finally {
+            if (tx.isActive()) {
+                tx.rollback();
+            }
+            em.close();
+        }
+    }
+
+    private static UserTransaction findUserTransaction() {
+        for (String name : USER_TRANSACTION_NAMES) {
+            try {
+                return (UserTransaction) new InitialContext().lookup(name);
+            } catch (NamingException | RuntimeException e) {
+                logger.trace("No user transaction at {}", name);
+            }
+        }
+        return null;
+    }
+}
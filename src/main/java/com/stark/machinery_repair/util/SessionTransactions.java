@@ -0,0 +1,73 @@
+package com.stark.machinery_repair.util;
+
+import org.drools.persistence.api.TransactionManager;
+import org.drools.persistence.api.TransactionSynchronization;
+import org.kie.api.runtime.Environment;
+import org.kie.api.runtime.EnvironmentName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Ties side effects to the outcome of the session's current transaction.
+ * <p>
+ * A work item only exists for other threads once the transaction that created it commits; until then
+ * {@code completeWorkItem} from another thread does not find it and is silently ignored. Handlers that complete
+ * work items from their own threads therefore hand the work on in {@link #afterCommit}, and in-memory state taken
+ * inside the transaction is given back in {@link #afterRollback}.
+ * <p>
+ * Without a transaction, as for a session without persistence, commit actions run right away and rollback
+ * actions never run.
+ */
+public final class SessionTransactions {
+    private static Logger logger = LoggerFactory.getLogger(SessionTransactions.class);
+
+    private SessionTransactions() {
+    }
+
+    public static void afterCommit(Environment environment, Runnable committed) {
+        afterCompletion(environment, committed, null);
+    }
+
+    public static void afterRollback(Environment environment, Runnable rolledBack) {
+        afterCompletion(environment, null, rolledBack);
+    }
+
+    /**
+     * @param committed run once the transaction committed, may be {@code null}
+     * @param rolledBack run once the transaction rolled back, may be {@code null}
+     */
+    public static void afterCompletion(Environment environment, Runnable committed, Runnable rolledBack) {
+        Object txm = environment == null ? null : environment.get(EnvironmentName.TRANSACTION_MANAGER);
+        if (!(txm instanceof TransactionManager) || ((TransactionManager) txm).getStatus() == TransactionManager.STATUS_NO_TRANSACTION) {
+            run(committed);
+            return;
+        }
+        try {
+            ((TransactionManager) txm).registerTransactionSynchronization(new TransactionSynchronization() {
+                @Override
+                public void beforeCompletion() {
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    run(status == TransactionManager.STATUS_COMMITTED ? committed : rolledBack);
+                }
+            });
+        } catch (RuntimeException e) {
+            // a transaction already marked for rollback takes no more synchronizations
+            logger.warn("Could not register transaction synchronization, treating the transaction as rolled back", e);
+            run(rolledBack);
+        }
+    }
+
+    private static void run(Runnable action) {
+        if (action == null) {
+            return;
+        }
+        try {
+            action.run();
+        } catch (RuntimeException e) {
+            logger.error("Transaction completion action failed", e);
+        }
+    }
+}
@@ -9,10 +9,12 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import com.stark.machinery_repair.retry.RetryPolicy;
 import org.jbpm.test.JbpmJUnitBaseTestCase;
 import org.junit.Test;
 import org.kie.api.runtime.KieSession;
 import org.kie.api.runtime.manager.RuntimeEngine;
+import org.kie.api.runtime.manager.audit.NodeInstanceLog;
 import org.kie.api.runtime.process.ProcessInstance;
 import org.kie.api.runtime.process.WorkItem;
 import org.slf4j.Logger;
@@ -91,7 +93,7 @@ public class PartsProcurementProcessTest extends JbpmJUnitBaseTestCase {
     }
 
     @Test
-    public void testNoAssignPartsToRepairRequest() {
+    public void testNoAssignPartsToRepairRequest() throws InterruptedException {
         logger.debug("START testNoAssignPartsToRepairRequest");
         createRuntimeManager("com/stark/machinery_repair/parts-procurement.bpmn");
         RuntimeEngine runtimeEngine = getRuntimeEngine();
@@ -145,10 +147,51 @@ public class PartsProcurementProcessTest extends JbpmJUnitBaseTestCase {
         workItemResult.put("Result", "{\"responseCode\": \"NOK\", \"Message\": \"No parts available\"}");
         ksession.getWorkItemManager().completeWorkItem(workItem.getId(), workItemResult);
 
-        // Looped back to restart link.
+        // Backs off before looping back to restart link.
+        assertNodeActive(processInstanceId, ksession, "Retry Backoff");
+        assertEquals(1, getVariableValue("retryCount", processInstanceId, ksession));
+        waitForNodeLeft(processInstanceId, "Retry Backoff");
         completeHappyPath(processInstanceId, "A", 1, ksession, testHandler);
     }
 
+    @Test
+    public void testNoAssignPartsRetryBudgetExhausted() {
+        logger.debug("START testNoAssignPartsRetryBudgetExhausted");
+        createRuntimeManager("com/stark/machinery_repair/parts-procurement.bpmn");
+        RuntimeEngine runtimeEngine = getRuntimeEngine();
+        KieSession ksession = runtimeEngine.getKieSession();
+        TestWorkItemHandler testHandler = new TestWorkItemHandler();
+        ksession.getWorkItemManager().registerWorkItemHandler("Rest", testHandler);
+
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("repairRequestId", "RR-1");
+        parameters.put("branchCode", "BC-1");
+        parameters.put("partCode", "A");
+        parameters.put("quantity", 1);
+        parameters.put("getInventoryUrl", "inventoryUrl");
+        parameters.put("assignPartsUrl", "assignPartsUrl");
+        parameters.put("createPurchaseOrderUrl", "");
+        parameters.put("retryCount", Integer.getInteger(RetryPolicy.MAX_ATTEMPTS_PROPERTY, 5));
+
+        ProcessInstance processInstance = ksession.startProcess(PROCESS_ID, parameters);
+        Long processInstanceId = processInstance.getId();
+
+        Map<String, Object> workItemResult = new HashMap<>();
+        workItemResult.put("Result", "{\"partCode\":\"A\", \"availableQuantity\":20}");
+        ksession.getWorkItemManager().completeWorkItem(testHandler.getWorkItem().getId(), workItemResult);
+        workItemResult.put("Result", "{\"responseCode\": \"NOK\", \"Message\": \"No parts available\"}");
+        ksession.getWorkItemManager().completeWorkItem(testHandler.getWorkItem().getId(), workItemResult);
+
+        // No retries left, escalated with a fresh budget for after the fix.
+        assertNodeActive(processInstanceId, ksession, "Fix Procurement Details");
+        assertEquals(false, getVariableValue("retryScheduled", processInstanceId, ksession));
+        assertEquals(0, getVariableValue("retryCount", processInstanceId, ksession));
+
+        ksession.abortProcessInstance(processInstanceId);
+        disposeRuntimeManager();
+        logger.debug("END testNoAssignPartsRetryBudgetExhausted");
+    }
+
     @Test
     public void testFailAssignPartsToRepairRequest() {
         logger.debug("START testFailAssignPartsToRepairRequest");
@@ -280,6 +323,7 @@ public class PartsProcurementProcessTest extends JbpmJUnitBaseTestCase {
         workItemResult.put("Result", wsResult);
         ksession.getWorkItemManager().completeWorkItem(workItem.getId(), workItemResult);
         assertNodeActive(processInstanceId, ksession, "Received Materials");
+        assertEquals("ABC-123", getVariableValue("purchaseOrderReceiverId", processInstanceId, ksession));
 
         ksession.signalEvent("receivedMaterials", null);
         completeHappyPath(processInstanceId, "A", 1, ksession, testHandler);
@@ -425,6 +469,19 @@ public class PartsProcurementProcessTest extends JbpmJUnitBaseTestCase {
         logger.debug("END testNoBranchCodeFail");
     }
 
+    private void waitForNodeLeft(Long processInstanceId, String nodeName) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (true) {
+            for (NodeInstanceLog log : getLogService().findNodeInstances(processInstanceId)) {
+                if (nodeName.equals(log.getNodeName()) && log.getType() == NodeInstanceLog.TYPE_EXIT) {
+                    return;
+                }
+            }
+            assertTrue("Timed out waiting for " + nodeName, System.currentTimeMillis() < deadline);
+            Thread.sleep(50);
+        }
+    }
+
     private void completeHappyPath(Long processInstanceId, String partCode, Integer quantity, KieSession ksession, TestWorkItemHandler testHandler) {
         assertNodeActive(processInstanceId, ksession, "Request Inventory Availability");
         WorkItem workItem = testHandler.getWorkItem();
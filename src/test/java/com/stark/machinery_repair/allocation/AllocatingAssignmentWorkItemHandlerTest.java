@@ -0,0 +1,210 @@
+package com.stark.machinery_repair.allocation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.stark.machinery_repair.rest.RestClient;
+import com.stark.machinery_repair.rest.RestRequest;
+import com.stark.machinery_repair.rest.RestResponse;
+import org.jbpm.test.JbpmJUnitBaseTestCase;
+import org.junit.Test;
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.process.ProcessInstance;
+import org.kie.api.runtime.process.WorkItem;
+import org.kie.api.runtime.process.WorkItemHandler;
+import org.kie.api.runtime.process.WorkItemManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class AllocatingAssignmentWorkItemHandlerTest extends JbpmJUnitBaseTestCase {
+    private static Logger logger = LoggerFactory.getLogger(AllocatingAssignmentWorkItemHandlerTest.class);
+
+    private static final String PROCESS_ID = "machinery-repair.parts-procurement_v2_0";
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    public AllocatingAssignmentWorkItemHandlerTest() {
+        super(true, true);
+    }
+
+    @Test
+    public void testBatchIsAllocatedAcrossBranches() throws Exception {
+        logger.debug("START testBatchIsAllocatedAcrossBranches");
+        createRuntimeManager("com/stark/machinery_repair/parts-procurement.bpmn");
+        KieSession ksession = getRuntimeEngine().getKieSession();
+        StubStorageClient storage = new StubStorageClient(200, "["
+                + "{\"partCode\":\"A\",\"branchCode\":\"BC-1\",\"availableQuantity\":3},"
+                + "{\"partCode\":\"A\",\"branchCode\":\"BC-2\",\"availableQuantity\":2},"
+                + "{\"partCode\":\"B\",\"branchCode\":\"BC-1\",\"availableQuantity\":1}]");
+        InventoryHandler delegate = new InventoryHandler();
+        AllocatingAssignmentWorkItemHandler handler = new AllocatingAssignmentWorkItemHandler(ksession, delegate, storage,
+                new PartsAllocator(2000), "stockUrl", 4, 10000);
+        ksession.getWorkItemManager().registerWorkItemHandler("Rest", handler);
+
+        // first come, first served would give RR-1 the local stock and leave nothing that fits RR-2
+        long first = startProcess(ksession, "RR-1", "A", 2);
+        long second = startProcess(ksession, "RR-2", "A", 3);
+        long scarce = startProcess(ksession, "RR-3", "B", 2);
+        assertEquals(3, handler.getPendingAssignments());
+        assertTrue(storage.requests.isEmpty());
+        long unknown = startProcess(ksession, "RR-4", "C", 1);
+
+        await(() -> handler.getAllocated() + handler.getUnserved() + handler.getDelegated() == 4);
+        await(() -> delegate.others.size() == 3);
+        assertEquals(1, storage.requests.size());
+        assertEquals("stockUrl", storage.requests.get(0).getUrl());
+        assertEquals("[{\"partCode\":\"A\"},{\"partCode\":\"B\"},{\"partCode\":\"C\"}]", storage.requests.get(0).getBody());
+        Map<String, WorkItem> assignments = new HashMap<>();
+        for (WorkItem workItem : delegate.others) {
+            assertEquals("assignPartsUrl", workItem.getParameter("Url"));
+            JsonNode body = MAPPER.readTree(workItem.getParameter("ContentData").toString());
+            assignments.put(body.get("repairRequestId").asText(), workItem);
+        }
+        JsonNode remoteAssignment = MAPPER.readTree(assignments.get("RR-1").getParameter("ContentData").toString());
+        assertEquals("BC-2", remoteAssignment.get("sourceBranchCode").asText());
+        assertEquals("BC-1", remoteAssignment.get("branchCode").asText());
+        assertFalse(MAPPER.readTree(assignments.get("RR-2").getParameter("ContentData").toString()).has("sourceBranchCode"));
+        assertEquals(2, handler.getAllocated());
+        assertEquals(1, handler.getRemoteAllocated());
+
+        // the delegate completes the rewritten assignments as the original work items
+        Map<String, Object> reservation = new RestResponse(200, "OK", "{\"reservationId\":\"R-1\",\"remainingParts\":0}").toResults();
+        ksession.getWorkItemManager().completeWorkItem(assignments.get("RR-1").getId(), reservation);
+        ksession.getWorkItemManager().completeWorkItem(assignments.get("RR-2").getId(), reservation);
+        awaitCompleted(first, second);
+
+        // nothing holds two of B, so RR-3 is turned down without calling the assignment endpoint
+        assertEquals(1, handler.getUnserved());
+        await(() -> Boolean.FALSE.equals(getVariableValue("partsAssigned", scarce, ksession)));
+        // C is unknown to the stock service and takes the usual path
+        assertEquals(1, handler.getDelegated());
+        assertTrue(assignments.get("RR-4").getParameter("ContentData").toString().contains("RR-4"));
+
+        abortProcessInstances(ksession, scarce, unknown);
+        handler.close();
+        disposeRuntimeManager();
+        logger.debug("END testBatchIsAllocatedAcrossBranches");
+    }
+
+    @Test
+    public void testFailedStockQueryFallsBackToDelegate() throws Exception {
+        logger.debug("START testFailedStockQueryFallsBackToDelegate");
+        createRuntimeManager("com/stark/machinery_repair/parts-procurement.bpmn");
+        KieSession ksession = getRuntimeEngine().getKieSession();
+        StubStorageClient storage = new StubStorageClient(503, null);
+        InventoryHandler delegate = new InventoryHandler();
+        AllocatingAssignmentWorkItemHandler handler = new AllocatingAssignmentWorkItemHandler(ksession, delegate, storage,
+                new PartsAllocator(2000), "stockUrl", 10, 200);
+        ksession.getWorkItemManager().registerWorkItemHandler("Rest", handler);
+
+        long processInstanceId = startProcess(ksession, "RR-1", "A", 1);
+        await(() -> delegate.others.size() == 1);
+        assertEquals(1, storage.requests.size());
+        assertEquals(1, handler.getDelegated());
+        assertEquals(0, handler.getAllocated());
+        assertNodeActive(processInstanceId, ksession, "Assign parts to Repair Request");
+
+        abortProcessInstances(ksession, processInstanceId);
+        handler.close();
+        disposeRuntimeManager();
+        logger.debug("END testFailedStockQueryFallsBackToDelegate");
+    }
+
+    @Test
+    public void testWithoutStockUrlEverythingIsDelegated() throws Exception {
+        logger.debug("START testWithoutStockUrlEverythingIsDelegated");
+        createRuntimeManager("com/stark/machinery_repair/parts-procurement.bpmn");
+        KieSession ksession = getRuntimeEngine().getKieSession();
+        StubStorageClient storage = new StubStorageClient(200, "[]");
+        InventoryHandler delegate = new InventoryHandler();
+        AllocatingAssignmentWorkItemHandler handler = new AllocatingAssignmentWorkItemHandler(ksession, delegate, storage,
+                new PartsAllocator(2000), null, 10, 200);
+        ksession.getWorkItemManager().registerWorkItemHandler("Rest", handler);
+
+        long processInstanceId = startProcess(ksession, "RR-1", "A", 1);
+        assertEquals(1, delegate.others.size());
+        assertEquals(0, handler.getPendingAssignments());
+        assertTrue(storage.requests.isEmpty());
+
+        abortProcessInstances(ksession, processInstanceId);
+        handler.close();
+        disposeRuntimeManager();
+        logger.debug("END testWithoutStockUrlEverythingIsDelegated");
+    }
+
+    private long startProcess(KieSession ksession, String repairRequestId, String partCode, int quantity) {
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("repairRequestId", repairRequestId);
+        parameters.put("branchCode", "BC-1");
+        parameters.put("partCode", partCode);
+        parameters.put("quantity", quantity);
+        parameters.put("getInventoryUrl", "inventoryUrl");
+        parameters.put("assignPartsUrl", "assignPartsUrl");
+        parameters.put("createPurchaseOrderUrl", "createPurchaseOrderUrl");
+        return ksession.startProcess(PROCESS_ID, parameters).getId();
+    }
+
+    private void awaitCompleted(long... processInstanceIds) throws InterruptedException {
+        for (long processInstanceId : processInstanceIds) {
+            await(() -> getLogService().findProcessInstance(processInstanceId).getStatus() == ProcessInstance.STATE_COMPLETED);
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+
+    private void abortProcessInstances(KieSession ksession, long... processInstanceIds) {
+        // pending SLA and retry timers otherwise hold up disposing the runtime manager
+        for (long processInstanceId : processInstanceIds) {
+            ksession.abortProcessInstance(processInstanceId);
+        }
+    }
+
+    private static class StubStorageClient implements RestClient {
+        private final List<RestRequest> requests = new CopyOnWriteArrayList<>();
+        private final int stockStatus;
+        private final String stock;
+
+        private StubStorageClient(int stockStatus, String stock) {
+            this.stockStatus = stockStatus;
+            this.stock = stock;
+        }
+
+        @Override
+        public RestResponse execute(RestRequest request) {
+            requests.add(request);
+            return new RestResponse(stockStatus, stockStatus == 200 ? "OK" : "Service Unavailable", stock);
+        }
+    }
+
+    private static class InventoryHandler implements WorkItemHandler {
+        private final List<WorkItem> others = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void executeWorkItem(WorkItem workItem, WorkItemManager manager) {
+            if ("GET".equals(workItem.getParameter("Method"))) {
+                manager.completeWorkItem(workItem.getId(),
+                        new RestResponse(200, "OK", "{\"availableQuantity\":10}").toResults());
+            } else {
+                others.add(workItem);
+            }
+        }
+
+        @Override
+        public void abortWorkItem(WorkItem workItem, WorkItemManager manager) {
+        }
+    }
+}
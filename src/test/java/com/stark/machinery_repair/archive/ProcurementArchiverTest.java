@@ -0,0 +1,172 @@
+package com.stark.machinery_repair.archive;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jbpm.test.JbpmJUnitBaseTestCase;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.manager.RuntimeEngine;
+import org.kie.api.runtime.manager.audit.AuditService;
+import org.kie.api.runtime.process.ProcessInstance;
+import org.kie.api.task.TaskService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class ProcurementArchiverTest extends JbpmJUnitBaseTestCase {
+    private static Logger logger = LoggerFactory.getLogger(ProcurementArchiverTest.class);
+
+    private static final String PROCESS_ID = "machinery-repair.parts-procurement_v2_0";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    public ProcurementArchiverTest() {
+        super(true, true);
+    }
+
+    @Test
+    public void testEndedInstancesAreArchivedAndPurged() throws Exception {
+        logger.debug("START testEndedInstancesAreArchivedAndPurged");
+        createRuntimeManager("com/stark/machinery_repair/parts-procurement.bpmn");
+        RuntimeEngine runtimeEngine = getRuntimeEngine();
+        KieSession ksession = runtimeEngine.getKieSession();
+        TestWorkItemHandler testHandler = new TestWorkItemHandler();
+        ksession.getWorkItemManager().registerWorkItemHandler("Rest", testHandler);
+        AuditService auditService = runtimeEngine.getAuditService();
+
+        long first = startProcess(ksession, "RR-1");
+        completeHappyPath(ksession, testHandler);
+        long fixed = startProcess(ksession, "RR-2");
+        complete(ksession, testHandler, "{\"Fail\":\"NOK\"}");
+        completeFixTask(runtimeEngine.getTaskService(), fixed);
+        completeHappyPath(ksession, testHandler);
+        long aborted = startProcess(ksession, "RR-3");
+        ksession.abortProcessInstance(aborted);
+        long running = startProcess(ksession, "RR-4");
+        assertProcessInstanceCompleted(first);
+        assertProcessInstanceCompleted(fixed);
+
+        Path directory = folder.getRoot().toPath().resolve("archive");
+        ProcurementArchiver archiver = new ProcurementArchiver(getEmf(), directory, 0, 2, 100);
+        assertEquals(3, archiver.archive(new Date(System.currentTimeMillis() + 1000)));
+        assertEquals(3, archiver.getArchivedInstances());
+        assertEquals(2, archiver.getArchiveFiles());
+        assertEquals(0, archiver.getFailedChunks());
+
+        // only the running instance is left in the audit tables
+        assertEquals(1, auditService.findProcessInstances(PROCESS_ID).size());
+        assertEquals(running, (long) auditService.findProcessInstances(PROCESS_ID).get(0).getProcessInstanceId());
+        assertTrue(auditService.findNodeInstances(first).isEmpty());
+        assertTrue(auditService.findVariableInstances(fixed).isEmpty());
+        assertFalse(auditService.findNodeInstances(running).isEmpty());
+        assertEquals(0, archiver.archive(new Date(System.currentTimeMillis() + 1000)));
+
+        ProcurementArchive archive = archiver.getArchive();
+        ArchivedProcurement archived = archive.find(fixed);
+        assertNotNull(archived);
+        assertEquals((long) ProcessInstance.STATE_COMPLETED, archived.getProcessInstance().get("status"));
+        assertEquals(PROCESS_ID, archived.getProcessInstance().get("processId"));
+        assertTrue(archived.getProcessInstance().get("end") instanceof Date);
+        assertFalse(archived.getRows(ArchivedLog.NODE_INSTANCES).isEmpty());
+        assertTrue(archived.getRows(ArchivedLog.NODE_INSTANCES).stream()
+                .anyMatch(row -> "Fix Procurement Details".equals(row.get("nodeName"))));
+        assertFalse(archived.getRows(ArchivedLog.VARIABLES).isEmpty());
+        assertEquals(1, archived.getRows(ArchivedLog.TASKS).size());
+        assertEquals("Completed", archived.getRows(ArchivedLog.TASKS).get(0).get("status"));
+        assertFalse(archived.getRows(ArchivedLog.TASK_EVENTS).isEmpty());
+        for (Map<String, Object> row : archived.getRows(ArchivedLog.VARIABLES)) {
+            assertEquals(fixed, row.get("processInstanceId"));
+        }
+        assertEquals((long) ProcessInstance.STATE_ABORTED, archive.find(aborted).getProcessInstance().get("status"));
+        assertNull(archive.find(running));
+
+        assertEquals(Collections.singleton(fixed), archive.findByVariable("repairRequestId", "RR-2"));
+        List<Map<String, Object>> ended = archive.findEnded(new Date(0), new Date(System.currentTimeMillis() + 1000));
+        assertEquals(3, ended.size());
+        assertEquals(first, ended.get(0).get("processInstanceId"));
+
+        ksession.abortProcessInstance(running);
+        archiver.close();
+        disposeRuntimeManager();
+        logger.debug("END testEndedInstancesAreArchivedAndPurged");
+    }
+
+    @Test
+    public void testInterruptedChunksAreSettled() throws Exception {
+        logger.debug("START testInterruptedChunksAreSettled");
+        createRuntimeManager("com/stark/machinery_repair/parts-procurement.bpmn");
+        KieSession ksession = getRuntimeEngine().getKieSession();
+        TestWorkItemHandler testHandler = new TestWorkItemHandler();
+        ksession.getWorkItemManager().registerWorkItemHandler("Rest", testHandler);
+        long running = startProcess(ksession, "RR-1");
+
+        Path directory = folder.getRoot().toPath().resolve("archive");
+        Files.createDirectories(directory);
+        // a chunk that was rolled back, its instance is still in the audit tables
+        Path rolledBack = directory.resolve(ArchiveFile.nameOf(running, running) + ".tmp");
+        ArchiveFile.write(rolledBack, Collections.emptyList());
+        // a chunk that committed before its file got its final name
+        Path committed = directory.resolve(ArchiveFile.nameOf(running + 1000, running + 1000) + ".tmp");
+        ArchiveFile.write(committed, Collections.emptyList());
+
+        ProcurementArchiver archiver = new ProcurementArchiver(getEmf(), directory, 0, 100, 100);
+        assertEquals(0, archiver.archive(new Date(System.currentTimeMillis() + 1000)));
+        assertFalse(Files.exists(rolledBack));
+        assertFalse(Files.exists(committed));
+        assertFalse(Files.exists(directory.resolve(ArchiveFile.nameOf(running, running))));
+        assertTrue(Files.exists(directory.resolve(ArchiveFile.nameOf(running + 1000, running + 1000))));
+
+        ksession.abortProcessInstance(running);
+        archiver.close();
+        disposeRuntimeManager();
+        logger.debug("END testInterruptedChunksAreSettled");
+    }
+
+    private static long startProcess(KieSession ksession, String repairRequestId) {
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("repairRequestId", repairRequestId);
+        parameters.put("branchCode", "BC-1");
+        parameters.put("partCode", "A");
+        parameters.put("quantity", 1);
+        parameters.put("getInventoryUrl", "inventoryUrl");
+        parameters.put("assignPartsUrl", "assignPartsUrl");
+        parameters.put("createPurchaseOrderUrl", "createPurchaseOrderUrl");
+        return ksession.startProcess(PROCESS_ID, parameters).getId();
+    }
+
+    private static void completeHappyPath(KieSession ksession, TestWorkItemHandler testHandler) {
+        complete(ksession, testHandler, "{\"partCode\":\"A\", \"availableQuantity\":20}");
+        complete(ksession, testHandler, "{\"reservationId\": \"abc-ABC-123\", \"remainingParts\": 0}");
+    }
+
+    private static void complete(KieSession ksession, TestWorkItemHandler testHandler, String result) {
+        Map<String, Object> workItemResult = new HashMap<>();
+        workItemResult.put("Result", result);
+        ksession.getWorkItemManager().completeWorkItem(testHandler.getWorkItem().getId(), workItemResult);
+    }
+
+    private static void completeFixTask(TaskService taskService, long processInstanceId) {
+        long taskId = taskService.getTasksByProcessInstanceId(processInstanceId).get(0);
+        taskService.claim(taskId, "Administrator");
+        taskService.start(taskId, "Administrator");
+        Map<String, Object> results = new HashMap<>();
+        results.put("partCode", "A");
+        results.put("branchCode", "BC-1");
+        results.put("quantity", 1);
+        taskService.complete(taskId, "Administrator", results);
+    }
+}
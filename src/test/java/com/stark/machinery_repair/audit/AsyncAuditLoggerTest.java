@@ -0,0 +1,85 @@
+package com.stark.machinery_repair.audit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jbpm.process.audit.JPAWorkingMemoryDbLogger;
+import org.jbpm.process.audit.NodeInstanceLog;
+import org.jbpm.test.JbpmJUnitBaseTestCase;
+import org.junit.Test;
+import org.kie.api.event.process.ProcessEventListener;
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.manager.audit.ProcessInstanceLog;
+import org.kie.api.runtime.process.WorkItem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class AsyncAuditLoggerTest extends JbpmJUnitBaseTestCase {
+    private static Logger logger = LoggerFactory.getLogger(AsyncAuditLoggerTest.class);
+
+    private static final String PROCESS_ID = "machinery-repair.parts-procurement_v2_0";
+
+    public AsyncAuditLoggerTest() {
+        super(true, true);
+    }
+
+    @Test
+    public void testAuditIsWrittenAfterTheProcessRan() throws Exception {
+        logger.debug("START testAuditIsWrittenAfterTheProcessRan");
+        createRuntimeManager("com/stark/machinery_repair/parts-procurement.bpmn");
+        KieSession ksession = getRuntimeEngine().getKieSession();
+        TestWorkItemHandler testHandler = new TestWorkItemHandler();
+        ksession.getWorkItemManager().registerWorkItemHandler("Rest", testHandler);
+        for (ProcessEventListener listener : ksession.getProcessEventListeners()) {
+            if (listener instanceof JPAWorkingMemoryDbLogger) {
+                ksession.removeEventListener(listener);
+            }
+        }
+        AsyncAuditWriter writer = new AsyncAuditWriter(new JpaAuditSink(getEmf()),
+                Files.createTempDirectory("audit").resolve("audit.spill"), 1000, 100, 50);
+        ksession.addEventListener(new AsyncAuditLogger(writer, ksession.getEnvironment()));
+
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("repairRequestId", "RR-1");
+        parameters.put("branchCode", "BC-1");
+        parameters.put("partCode", "A");
+        parameters.put("quantity", 1);
+        parameters.put("getInventoryUrl", "inventoryUrl");
+        parameters.put("assignPartsUrl", "assignPartsUrl");
+        parameters.put("createPurchaseOrderUrl", "");
+        long processInstanceId = ksession.startProcess(PROCESS_ID, parameters).getId();
+
+        Map<String, Object> workItemResult = new HashMap<>();
+        workItemResult.put("Result", "{\"partCode\":\"A\", \"availableQuantity\":20}");
+        WorkItem inventory = testHandler.getWorkItem();
+        ksession.getWorkItemManager().completeWorkItem(inventory.getId(), workItemResult);
+        workItemResult.put("Result", "{\"reservationId\": \"abc-ABC-123\", \"remainingParts\": 0}");
+        ksession.getWorkItemManager().completeWorkItem(testHandler.getWorkItem().getId(), workItemResult);
+        // process and variable logs are written with the transaction, restarts rebuild state from them
+        assertProcessInstanceCompleted(processInstanceId);
+        ProcessInstanceLog processLog = getLogService().findProcessInstance(processInstanceId);
+        assertNotNull(processLog.getEnd());
+        assertTrue(processLog.getDuration() >= 0);
+        assertFalse(getLogService().findVariableInstances(processInstanceId, "partCode").isEmpty());
+
+        assertTrue(writer.awaitWritten(10000));
+
+        List<? extends org.kie.api.runtime.manager.audit.NodeInstanceLog> nodeLogs = getLogService().findNodeInstances(processInstanceId);
+        assertFalse(nodeLogs.isEmpty());
+        assertTrue(nodeLogs.stream().anyMatch(log -> log.getType() == NodeInstanceLog.TYPE_ENTER
+                && Long.valueOf(inventory.getId()).equals(log.getWorkItemId())));
+        assertEquals(0, writer.getSpilled());
+        logger.info("{} audit records written in {} batches", writer.getWritten(), writer.getBatches());
+
+        writer.close();
+        disposeRuntimeManager();
+        logger.debug("END testAuditIsWrittenAfterTheProcessRan");
+    }
+}
@@ -0,0 +1,162 @@
+package com.stark.machinery_repair.audit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AsyncAuditWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRecordsAreWrittenInBatches() throws Exception {
+        RecordingSink sink = new RecordingSink();
+        try (AsyncAuditWriter writer = new AsyncAuditWriter(sink, spillFile(), 1000, 50, 20)) {
+            for (int i = 0; i < 200; i++) {
+                writer.write(i);
+            }
+            assertTrue(writer.awaitWritten(5000));
+            assertEquals(range(0, 200), sink.records());
+            assertEquals(0, writer.getSpilled());
+            assertTrue(writer.getBatches() >= 4);
+            assertTrue(sink.largestBatch() <= 50);
+        }
+        assertFalse(Files.exists(spillFile()));
+    }
+
+    @Test
+    public void testOutageSpillsAndReplaysInOrder() throws Exception {
+        RecordingSink sink = new RecordingSink();
+        sink.down = true;
+        try (AsyncAuditWriter writer = new AsyncAuditWriter(sink, spillFile(), 10, 5, 10)) {
+            for (int i = 0; i < 100; i++) {
+                writer.write(i);
+            }
+            assertTrue(writer.isSpilling());
+            assertTrue(writer.getSpilled() >= 85);
+            assertTrue(Files.size(spillFile()) > 0);
+            assertTrue(writer.getQueueHighWatermark() <= 10);
+
+            sink.down = false;
+            assertTrue(writer.awaitWritten(10000));
+            assertEquals(range(0, 100), sink.records());
+            assertFalse(writer.isSpilling());
+            assertTrue(writer.getFailedBatches() > 0);
+        }
+    }
+
+    @Test
+    public void testConcurrentProducersKeepTheirOrder() throws Exception {
+        RecordingSink sink = new RecordingSink();
+        sink.slow = true;
+        try (AsyncAuditWriter writer = new AsyncAuditWriter(sink, spillFile(), 8, 4, 5)) {
+            List<Thread> producers = new ArrayList<>();
+            for (int p = 0; p < 4; p++) {
+                String producer = "P" + p;
+                Thread thread = new Thread(() -> {
+                    for (int i = 0; i < 500; i++) {
+                        writer.write(producer + ":" + i);
+                    }
+                });
+                producers.add(thread);
+                thread.start();
+            }
+            for (Thread thread : producers) {
+                thread.join();
+            }
+            sink.slow = false;
+            assertTrue(writer.awaitWritten(30000));
+            assertTrue(writer.getSpilled() > 0);
+        }
+        List<Object> records = sink.records();
+        assertEquals(2000, records.size());
+        Map<String, Integer> last = new HashMap<>();
+        for (Object record : records) {
+            String[] parts = record.toString().split(":");
+            int sequence = Integer.parseInt(parts[1]);
+            assertEquals("Record " + record + " out of order", last.getOrDefault(parts[0], -1) + 1, sequence);
+            last.put(parts[0], sequence);
+        }
+    }
+
+    @Test
+    public void testUnwrittenRecordsSurviveRestart() throws Exception {
+        RecordingSink sink = new RecordingSink();
+        sink.down = true;
+        AsyncAuditWriter writer = new AsyncAuditWriter(sink, spillFile(), 10, 5, 10);
+        for (int i = 0; i < 30; i++) {
+            writer.write(i);
+        }
+        writer.close();
+        assertTrue(sink.records().isEmpty());
+
+        // a crash in the middle of a later append
+        try (FileChannel channel = FileChannel.open(spillFile(), StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(new byte[] { 0, 0, 0, 100, 1, 2, 3 }));
+        }
+
+        sink.down = false;
+        try (AsyncAuditWriter restarted = new AsyncAuditWriter(sink, spillFile(), 10, 5, 10)) {
+            restarted.write(30);
+            assertTrue(restarted.awaitWritten(10000));
+        }
+        assertEquals(range(0, 31), sink.records());
+        assertFalse(Files.exists(spillFile()));
+    }
+
+    private Path spillFile() {
+        return folder.getRoot().toPath().resolve("audit.spill");
+    }
+
+    private static List<Object> range(int from, int to) {
+        List<Object> values = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            values.add(i);
+        }
+        return values;
+    }
+
+    private static class RecordingSink implements AuditSink {
+        private final List<Object> records = Collections.synchronizedList(new ArrayList<>());
+        private volatile int largestBatch;
+        volatile boolean down;
+        volatile boolean slow;
+
+        @Override
+        public void write(List<Object> batch) throws Exception {
+            if (down) {
+                throw new IOException("database down");
+            }
+            if (slow) {
+                Thread.sleep(1);
+            }
+            largestBatch = Math.max(largestBatch, batch.size());
+            records.addAll(batch);
+        }
+
+        List<Object> records() {
+            return new ArrayList<>(records);
+        }
+
+        int largestBatch() {
+            return largestBatch;
+        }
+    }
+}
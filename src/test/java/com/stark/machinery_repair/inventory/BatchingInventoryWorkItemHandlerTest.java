@@ -0,0 +1,321 @@
+package com.stark.machinery_repair.inventory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.stark.machinery_repair.rest.RestClient;
+import com.stark.machinery_repair.rest.RestRequest;
+import com.stark.machinery_repair.rest.RestResponse;
+import org.jbpm.test.JbpmJUnitBaseTestCase;
+import org.junit.Test;
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.process.ProcessInstance;
+import org.kie.api.runtime.process.WorkItem;
+import org.kie.api.runtime.process.WorkItemHandler;
+import org.kie.api.runtime.process.WorkItemManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class BatchingInventoryWorkItemHandlerTest extends JbpmJUnitBaseTestCase {
+    private static Logger logger = LoggerFactory.getLogger(BatchingInventoryWorkItemHandlerTest.class);
+
+    private static final String PROCESS_ID = "machinery-repair.parts-procurement_v2_0";
+
+    public BatchingInventoryWorkItemHandlerTest() {
+        super(true, true);
+    }
+
+    @Test
+    public void testInventoryLookupsAreBatched() throws Exception {
+        logger.debug("START testInventoryLookupsAreBatched");
+        createRuntimeManager("com/stark/machinery_repair/parts-procurement.bpmn");
+        KieSession ksession = getRuntimeEngine().getKieSession();
+        RecordingHandler assignHandler = new RecordingHandler();
+        StubInventoryClient inventory = new StubInventoryClient(
+                "[{\"partCode\":\"A\",\"availableQuantity\":20},{\"partCode\":\"B\",\"availableQuantity\":0}]");
+        BatchingInventoryWorkItemHandler handler = new BatchingInventoryWorkItemHandler(ksession, assignHandler, inventory,
+                new InventoryAvailabilityCache(0, 0), "batchInventoryUrl", 3, 10000);
+        ksession.getWorkItemManager().registerWorkItemHandler("Rest", handler);
+
+        long first = startProcess(ksession, "RR-1", "A");
+        long second = startProcess(ksession, "RR-2", "A");
+        assertEquals(0, inventory.requests.size());
+        long third = startProcess(ksession, "RR-3", "B");
+
+        assignHandler.await(3);
+        assertEquals(1, inventory.requests.size());
+        RestRequest request = inventory.requests.get(0);
+        assertEquals("batchInventoryUrl", request.getUrl());
+        assertEquals("POST", request.getMethod());
+        assertEquals("[{\"partCode\":\"A\"},{\"partCode\":\"B\"}]", request.getBody());
+
+        assertNodeActive(first, ksession, "Assign parts to Repair Request");
+        assertNodeActive(second, ksession, "Assign parts to Repair Request");
+        assertNodeActive(third, ksession, "Purchase Order");
+        assertEquals("{\"partCode\":\"A\",\"availableQuantity\":20}", getVariableValue("wsJsonResponse", first, ksession));
+        assertEquals(true, getVariableValue("partsAvailable", second, ksession));
+        assertEquals(false, getVariableValue("partsAvailable", third, ksession));
+
+        abortProcessInstances(ksession, first, second, third);
+        handler.close();
+        disposeRuntimeManager();
+        logger.debug("END testInventoryLookupsAreBatched");
+    }
+
+    @Test
+    public void testWithoutBatchUrlEverythingIsDelegated() throws Exception {
+        logger.debug("START testWithoutBatchUrlEverythingIsDelegated");
+        createRuntimeManager("com/stark/machinery_repair/parts-procurement.bpmn");
+        KieSession ksession = getRuntimeEngine().getKieSession();
+        RecordingHandler delegate = new RecordingHandler();
+        StubInventoryClient inventory = new StubInventoryClient("[]");
+        BatchingInventoryWorkItemHandler handler = new BatchingInventoryWorkItemHandler(ksession, delegate, inventory,
+                new InventoryAvailabilityCache(0, 0), null, 3, 10000);
+        ksession.getWorkItemManager().registerWorkItemHandler("Rest", handler);
+
+        long processInstanceId = startProcess(ksession, "RR-1", "A");
+
+        delegate.await(1);
+        assertEquals(0, inventory.requests.size());
+        assertEquals("inventoryUrl", delegate.workItems.get(0).getParameter("Url"));
+        assertEquals("{\"partCode\":\"A\"}", delegate.workItems.get(0).getParameter("ContentData"));
+        assertProcessInstanceActive(processInstanceId);
+
+        abortProcessInstances(ksession, processInstanceId);
+        handler.close();
+        disposeRuntimeManager();
+        logger.debug("END testWithoutBatchUrlEverythingIsDelegated");
+    }
+
+    @Test
+    public void testUnansweredLookupsAreDelegated() throws Exception {
+        logger.debug("START testUnansweredLookupsAreDelegated");
+        createRuntimeManager("com/stark/machinery_repair/parts-procurement.bpmn");
+        KieSession ksession = getRuntimeEngine().getKieSession();
+        InventoryAnsweringHandler delegate = new InventoryAnsweringHandler("{\"partCode\":\"B\",\"availableQuantity\":5}");
+        StubInventoryClient inventory = new StubInventoryClient("[{\"partCode\":\"A\",\"availableQuantity\":20}]");
+        BatchingInventoryWorkItemHandler handler = new BatchingInventoryWorkItemHandler(ksession, delegate, inventory,
+                new InventoryAvailabilityCache(0, 0), "batchInventoryUrl", 2, 10000);
+        ksession.getWorkItemManager().registerWorkItemHandler("Rest", handler);
+
+        long first = startProcess(ksession, "RR-1", "A");
+        long second = startProcess(ksession, "RR-2", "B");
+
+        delegate.await(2);
+        assertEquals(1, inventory.requests.size());
+        assertEquals(1, delegate.inventoryLookups);
+        assertNodeActive(first, ksession, "Assign parts to Repair Request");
+        assertNodeActive(second, ksession, "Assign parts to Repair Request");
+        assertEquals("{\"partCode\":\"B\",\"availableQuantity\":5}", getVariableValue("wsJsonResponse", second, ksession));
+
+        abortProcessInstances(ksession, first, second);
+        handler.close();
+        disposeRuntimeManager();
+        logger.debug("END testUnansweredLookupsAreDelegated");
+    }
+
+    @Test
+    public void testFailedBatchIsDelegated() throws Exception {
+        logger.debug("START testFailedBatchIsDelegated");
+        createRuntimeManager("com/stark/machinery_repair/parts-procurement.bpmn");
+        KieSession ksession = getRuntimeEngine().getKieSession();
+        InventoryAnsweringHandler delegate = new InventoryAnsweringHandler("{\"partCode\":\"A\",\"availableQuantity\":5}");
+        StubInventoryClient inventory = new StubInventoryClient(503, null);
+        BatchingInventoryWorkItemHandler handler = new BatchingInventoryWorkItemHandler(ksession, delegate, inventory,
+                new InventoryAvailabilityCache(0, 0), "batchInventoryUrl", 2, 10000);
+        ksession.getWorkItemManager().registerWorkItemHandler("Rest", handler);
+
+        long first = startProcess(ksession, "RR-1", "A");
+        long second = startProcess(ksession, "RR-2", "A");
+
+        delegate.await(2);
+        assertEquals(1, inventory.requests.size());
+        assertEquals(2, delegate.inventoryLookups);
+        assertNodeActive(first, ksession, "Assign parts to Repair Request");
+        assertNodeActive(second, ksession, "Assign parts to Repair Request");
+
+        abortProcessInstances(ksession, first, second);
+        handler.close();
+        disposeRuntimeManager();
+        logger.debug("END testFailedBatchIsDelegated");
+    }
+
+    @Test
+    public void testAnswerThatIsNoArrayFailsTheBatch() throws Exception {
+        logger.debug("START testAnswerThatIsNoArrayFailsTheBatch");
+        createRuntimeManager("com/stark/machinery_repair/parts-procurement.bpmn");
+        KieSession ksession = getRuntimeEngine().getKieSession();
+        InventoryAnsweringHandler delegate = new InventoryAnsweringHandler("{\"partCode\":\"A\",\"availableQuantity\":5}");
+        StubInventoryClient inventory = new StubInventoryClient("{\"error\":\"try again later\"}");
+        BatchingInventoryWorkItemHandler handler = new BatchingInventoryWorkItemHandler(ksession, delegate, inventory,
+                new InventoryAvailabilityCache(0, 0), "batchInventoryUrl", 2, 10000);
+        ksession.getWorkItemManager().registerWorkItemHandler("Rest", handler);
+
+        long first = startProcess(ksession, "RR-1", "A");
+        long second = startProcess(ksession, "RR-2", "B");
+
+        delegate.await(2);
+        assertEquals(1, inventory.requests.size());
+        assertEquals(2, delegate.inventoryLookups);
+        assertNodeActive(first, ksession, "Assign parts to Repair Request");
+        assertNodeActive(second, ksession, "Assign parts to Repair Request");
+
+        abortProcessInstances(ksession, first, second);
+        handler.close();
+        disposeRuntimeManager();
+        logger.debug("END testAnswerThatIsNoArrayFailsTheBatch");
+    }
+
+    @Test
+    public void testCachedAvailabilityFollowsAssignments() throws Exception {
+        logger.debug("START testCachedAvailabilityFollowsAssignments");
+        createRuntimeManager("com/stark/machinery_repair/parts-procurement.bpmn");
+        KieSession ksession = getRuntimeEngine().getKieSession();
+        InventoryAvailabilityCache cache = new InventoryAvailabilityCache(60000, 100);
+        ksession.addEventListener(new InventoryCacheInvalidationListener(cache));
+        InventoryAnsweringHandler delegate = new InventoryAnsweringHandler("{\"partCode\":\"A\",\"availableQuantity\":1}");
+        BatchingInventoryWorkItemHandler handler = new BatchingInventoryWorkItemHandler(ksession, delegate, new StubInventoryClient("[]"),
+                cache, null, 3, 10000);
+        ksession.getWorkItemManager().registerWorkItemHandler("Rest", handler);
+
+        long first = startProcess(ksession, "RR-1", "A");
+        long second = startProcess(ksession, "RR-2", "A");
+        assertEquals(1, delegate.inventoryLookups);
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertNodeActive(first, ksession, "Assign parts to Repair Request");
+        assertNodeActive(second, ksession, "Assign parts to Repair Request");
+
+        // the first assignment takes the last part, the cached entry follows
+        Map<String, Object> workItemResult = new HashMap<>();
+        workItemResult.put("Result", "{\"reservationId\": \"abc-ABC-123\", \"remainingParts\": 0}");
+        ksession.getWorkItemManager().completeWorkItem(delegate.workItems.get(0).getId(), workItemResult);
+        assertProcessInstanceCompleted(first);
+        assertEquals(1, cache.getUpdates());
+
+        long third = startProcess(ksession, "RR-3", "A");
+        assertEquals(1, delegate.inventoryLookups);
+        assertNodeActive(third, ksession, "Purchase Order");
+
+        // the NOK assignment drops the entry, so the restart after the backoff asks the inventory service again
+        workItemResult.clear();
+        workItemResult.put("Result", "{\"responseCode\": \"NOK\", \"Message\": \"No parts available\"}");
+        ksession.getWorkItemManager().completeWorkItem(delegate.workItems.get(1).getId(), workItemResult);
+        assertEquals(1, cache.getInvalidations());
+        assertNodeActive(second, ksession, "Retry Backoff");
+        long deadline = System.currentTimeMillis() + 10000;
+        while (delegate.inventoryLookups < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(2, delegate.inventoryLookups);
+
+        abortProcessInstances(ksession, second, third);
+        handler.close();
+        disposeRuntimeManager();
+        logger.debug("END testCachedAvailabilityFollowsAssignments");
+    }
+
+    private long startProcess(KieSession ksession, String repairRequestId, String partCode) {
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("repairRequestId", repairRequestId);
+        parameters.put("branchCode", "BC-1");
+        parameters.put("partCode", partCode);
+        parameters.put("quantity", 1);
+        parameters.put("getInventoryUrl", "inventoryUrl");
+        parameters.put("assignPartsUrl", "assignPartsUrl");
+        parameters.put("createPurchaseOrderUrl", "createPurchaseOrderUrl");
+
+        ProcessInstance processInstance = ksession.startProcess(PROCESS_ID, parameters);
+        return processInstance.getId();
+    }
+
+    private void abortProcessInstances(KieSession ksession, long... processInstanceIds) {
+        // pending SLA timers otherwise hold up disposing the runtime manager
+        for (long processInstanceId : processInstanceIds) {
+            ksession.abortProcessInstance(processInstanceId);
+        }
+    }
+
+    private static class StubInventoryClient implements RestClient {
+        private final List<RestRequest> requests = new ArrayList<>();
+        private final int status;
+        private final String response;
+
+        StubInventoryClient(String response) {
+            this(200, response);
+        }
+
+        StubInventoryClient(int status, String response) {
+            this.status = status;
+            this.response = response;
+        }
+
+        @Override
+        public synchronized RestResponse execute(RestRequest request) {
+            requests.add(request);
+            return new RestResponse(status, status == 200 ? "OK" : "Service Unavailable", response);
+        }
+    }
+
+    private static class InventoryAnsweringHandler implements WorkItemHandler {
+        private final List<WorkItem> workItems = new ArrayList<>();
+        private final String inventoryResponse;
+        private volatile int inventoryLookups;
+
+        InventoryAnsweringHandler(String inventoryResponse) {
+            this.inventoryResponse = inventoryResponse;
+        }
+
+        @Override
+        public void executeWorkItem(WorkItem workItem, WorkItemManager manager) {
+            if ("GET".equals(workItem.getParameter("Method"))) {
+                inventoryLookups++;
+                manager.completeWorkItem(workItem.getId(), new RestResponse(200, "OK", inventoryResponse).toResults());
+            } else {
+                synchronized (this) {
+                    workItems.add(workItem);
+                    notifyAll();
+                }
+            }
+        }
+
+        @Override
+        public void abortWorkItem(WorkItem workItem, WorkItemManager manager) {
+        }
+
+        synchronized void await(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 10000;
+            while (workItems.size() < count && System.currentTimeMillis() < deadline) {
+                wait(100);
+            }
+            assertTrue("Expected " + count + " work items but got " + workItems.size(), workItems.size() >= count);
+        }
+    }
+
+    private static class RecordingHandler implements WorkItemHandler {
+        private final List<WorkItem> workItems = new ArrayList<>();
+
+        @Override
+        public synchronized void executeWorkItem(WorkItem workItem, WorkItemManager manager) {
+            workItems.add(workItem);
+            notifyAll();
+        }
+
+        @Override
+        public void abortWorkItem(WorkItem workItem, WorkItemManager manager) {
+        }
+
+        synchronized void await(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 10000;
+            while (workItems.size() < count && System.currentTimeMillis() < deadline) {
+                wait(100);
+            }
+            assertTrue("Expected " + count + " work items but got " + workItems.size(), workItems.size() >= count);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.stark.machinery_repair.inventory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class InventoryAvailabilityCacheTest {
+
+    private static final String AVAILABLE = "{\"partCode\":\"A\",\"availableQuantity\":20}";
+
+    private final AtomicLong now = new AtomicLong(1000);
+
+    @Test
+    public void testEntriesExpireAfterTtl() {
+        InventoryAvailabilityCache cache = new InventoryAvailabilityCache(100, 10, now::get);
+        cache.putIfAbsent("BC-1", "A", AVAILABLE);
+        assertEquals(AVAILABLE, cache.get("BC-1", "A"));
+        assertNull(cache.get("BC-2", "A"));
+
+        now.addAndGet(100);
+        assertNull(cache.get("BC-1", "A"));
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testLiveEntryIsNotReplaced() {
+        InventoryAvailabilityCache cache = new InventoryAvailabilityCache(100, 10, now::get);
+        cache.putIfAbsent("BC-1", "A", AVAILABLE);
+        now.addAndGet(50);
+        cache.putIfAbsent("BC-1", "A", "{\"partCode\":\"A\",\"availableQuantity\":7}");
+        assertEquals(AVAILABLE, cache.get("BC-1", "A"));
+
+        now.addAndGet(50);
+        assertNull(cache.get("BC-1", "A"));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntryIsEvicted() {
+        InventoryAvailabilityCache cache = new InventoryAvailabilityCache(1000, 2, now::get);
+        cache.putIfAbsent("BC-1", "A", AVAILABLE);
+        cache.putIfAbsent("BC-1", "B", AVAILABLE);
+        cache.get("BC-1", "A");
+        cache.putIfAbsent("BC-1", "C", AVAILABLE);
+
+        assertEquals(2, cache.getSize());
+        assertEquals(1, cache.getEvictions());
+        assertNull(cache.get("BC-1", "B"));
+        assertEquals(AVAILABLE, cache.get("BC-1", "A"));
+    }
+
+    @Test
+    public void testFailuresAreNotCached() {
+        InventoryAvailabilityCache cache = new InventoryAvailabilityCache(1000, 10, now::get);
+        cache.putIfAbsent("BC-1", "A", "{\"Fail\":\"NOK\"}");
+        cache.putIfAbsent("BC-1", "B", null);
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testAssignmentUpdatesQuantity() {
+        InventoryAvailabilityCache cache = new InventoryAvailabilityCache(1000, 10, now::get);
+        cache.putIfAbsent("BC-1", "A", AVAILABLE);
+        cache.updateAvailableQuantity("BC-1", "A", 3);
+        assertEquals("{\"partCode\":\"A\",\"availableQuantity\":3}", cache.get("BC-1", "A"));
+
+        cache.invalidate("BC-1", "A");
+        assertNull(cache.get("BC-1", "A"));
+        assertEquals(1, cache.getUpdates());
+        assertEquals(1, cache.getInvalidations());
+    }
+
+    @Test
+    public void testZeroTtlDisablesCache() {
+        InventoryAvailabilityCache cache = new InventoryAvailabilityCache(0, 10, now::get);
+        cache.putIfAbsent("BC-1", "A", AVAILABLE);
+        assertNull(cache.get("BC-1", "A"));
+        assertEquals(0, cache.getMisses());
+    }
+}
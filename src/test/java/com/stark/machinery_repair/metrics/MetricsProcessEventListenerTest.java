@@ -0,0 +1,164 @@
+package com.stark.machinery_repair.metrics;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.stark.machinery_repair.rest.AsyncRestWorkItemHandler;
+import com.stark.machinery_repair.rest.EndpointSettings;
+import com.stark.machinery_repair.rest.RestClient;
+import com.stark.machinery_repair.rest.RestResponse;
+import org.jbpm.test.JbpmJUnitBaseTestCase;
+import org.junit.Test;
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.manager.RuntimeEngine;
+import org.kie.api.runtime.process.WorkItem;
+import org.kie.api.task.TaskLifeCycleEventListener;
+import org.kie.api.task.TaskService;
+import org.kie.internal.task.api.EventService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class MetricsProcessEventListenerTest extends JbpmJUnitBaseTestCase {
+    private static Logger logger = LoggerFactory.getLogger(MetricsProcessEventListenerTest.class);
+
+    private static final String PROCESS_ID = "machinery-repair.parts-procurement_v2_0";
+
+    public MetricsProcessEventListenerTest() {
+        super(true, true);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testNodesLoopsAndTaskQueueAreRecorded() throws Exception {
+        logger.debug("START testNodesLoopsAndTaskQueueAreRecorded");
+        createRuntimeManager("com/stark/machinery_repair/parts-procurement.bpmn");
+        RuntimeEngine runtimeEngine = getRuntimeEngine();
+        KieSession ksession = runtimeEngine.getKieSession();
+        ProcessMetrics metrics = new ProcessMetrics(ProcessMetrics.NODES);
+        ksession.addEventListener(new MetricsProcessEventListener(metrics));
+        TaskService taskService = runtimeEngine.getTaskService();
+        ((EventService<TaskLifeCycleEventListener>) taskService).registerTaskEventListener(new MetricsTaskEventListener(metrics));
+        TestWorkItemHandler testHandler = new TestWorkItemHandler();
+        ksession.getWorkItemManager().registerWorkItemHandler("Rest", testHandler);
+
+        long processInstanceId = startProcess(ksession, "inventoryUrl");
+        NodeMetrics inventory = metrics.node("Request Inventory Availability");
+        assertEquals(1, inventory.getEntered());
+        assertEquals(1, inventory.getActive());
+
+        Thread.sleep(20);
+        complete(ksession, testHandler.getWorkItem(), "{\"Fail\":\"NOK\"}");
+        assertNodeActive(processInstanceId, ksession, "Fix Procurement Details");
+        assertEquals(0, inventory.getActive());
+        assertEquals(1, inventory.getDwellCount());
+        assertTrue(inventory.getDwellMaxMillis() >= 20);
+        assertEquals(1, metrics.node("Fix Procurement Details").getActive());
+
+        // the task waits in the group queue until it is claimed, starting it afterwards does not count again
+        List<Long> tasks = taskService.getTasksByProcessInstanceId(processInstanceId);
+        taskService.claim(tasks.get(0), "Administrator");
+        taskService.start(tasks.get(0), "Administrator");
+        Map<String, Object> taskResults = new HashMap<>();
+        taskResults.put("quantity", 1);
+        taskResults.put("partCode", "A");
+        taskResults.put("branchCode", "BC-1");
+        taskService.complete(tasks.get(0), "Administrator", taskResults);
+        assertEquals(1, metrics.getTaskQueueAgeCount());
+        assertEquals(1, metrics.getFixLoops());
+        assertEquals(0, metrics.node("Fix Procurement Details").getActive());
+        assertEquals(2, inventory.getEntered());
+
+        complete(ksession, testHandler.getWorkItem(), "{\"partCode\":\"A\", \"availableQuantity\":20}");
+        complete(ksession, testHandler.getWorkItem(), "{\"reservationId\": \"abc-ABC-123\", \"remainingParts\": 0}");
+        assertProcessInstanceCompleted(processInstanceId);
+        assertEquals(1, metrics.node("Assign parts to Repair Request").getDwellCount());
+        assertArrayEquals(new long[] { 0, 1, 0, 0, 0, 0, 0, 0, 0, 0, 0 }, metrics.getLoopIterations());
+        assertEquals(0, metrics.getRetryLoops());
+        assertNull(metrics.node("Parts Available?"));
+
+        disposeRuntimeManager();
+        logger.debug("END testNodesLoopsAndTaskQueueAreRecorded");
+    }
+
+    @Test
+    public void testAbortFreesActiveNodesWithoutTimingThem() {
+        logger.debug("START testAbortFreesActiveNodesWithoutTimingThem");
+        createRuntimeManager("com/stark/machinery_repair/parts-procurement.bpmn");
+        KieSession ksession = getRuntimeEngine().getKieSession();
+        ProcessMetrics metrics = new ProcessMetrics(ProcessMetrics.NODES);
+        ksession.addEventListener(new MetricsProcessEventListener(metrics));
+        ksession.getWorkItemManager().registerWorkItemHandler("Rest", new TestWorkItemHandler());
+
+        long processInstanceId = startProcess(ksession, "inventoryUrl");
+        NodeMetrics inventory = metrics.node("Request Inventory Availability");
+        assertEquals(1, inventory.getActive());
+
+        ksession.abortProcessInstance(processInstanceId);
+        assertEquals(0, inventory.getActive());
+        assertEquals(0, inventory.getDwellCount());
+        assertArrayEquals(new long[] { 1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0 }, metrics.getLoopIterations());
+
+        disposeRuntimeManager();
+        logger.debug("END testAbortFreesActiveNodesWithoutTimingThem");
+    }
+
+    @Test
+    public void testRestCallsAreRecordedPerEndpoint() throws Exception {
+        logger.debug("START testRestCallsAreRecordedPerEndpoint");
+        createRuntimeManager("com/stark/machinery_repair/parts-procurement.bpmn");
+        KieSession ksession = getRuntimeEngine().getKieSession();
+        ProcessMetrics metrics = new ProcessMetrics(ProcessMetrics.NODES);
+        ksession.addEventListener(new MetricsProcessEventListener(metrics));
+        RestClient services = request -> request.getUrl().startsWith("http://inventory/")
+                ? new RestResponse(200, "OK", "{\"partCode\":\"A\", \"availableQuantity\":20}")
+                : new RestResponse(503, "Service Unavailable", "");
+        AsyncRestWorkItemHandler handler = new AsyncRestWorkItemHandler(ksession, services,
+                endpoint -> new EndpointSettings(4, 1000, 1000, 10000), 2, metrics);
+        ksession.getWorkItemManager().registerWorkItemHandler("Rest", handler);
+
+        long processInstanceId = startProcess(ksession, "http://inventory/parts?branch=BC-1");
+        long deadline = System.currentTimeMillis() + 10000;
+        while (metrics.node("Fix Procurement Details").getActive() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertNodeActive(processInstanceId, ksession, "Fix Procurement Details");
+
+        EndpointMetrics inventory = metrics.endpoint("http://inventory/parts");
+        assertEquals(1, inventory.getCalls());
+        assertEquals(0, inventory.getErrors());
+        assertTrue(inventory.getLatency50thPercentileMillis() > 0);
+        EndpointMetrics assignment = metrics.endpoint("assignPartsUrl");
+        assertEquals(1, assignment.getCalls());
+        assertEquals(1, assignment.getErrors());
+        assertEquals(0, assignment.getRejected());
+
+        ksession.abortProcessInstance(processInstanceId);
+        handler.close();
+        disposeRuntimeManager();
+        logger.debug("END testRestCallsAreRecordedPerEndpoint");
+    }
+
+    private static long startProcess(KieSession ksession, String inventoryUrl) {
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("repairRequestId", "RR-1");
+        parameters.put("branchCode", "BC-1");
+        parameters.put("partCode", "A");
+        parameters.put("quantity", 1);
+        parameters.put("getInventoryUrl", inventoryUrl);
+        parameters.put("assignPartsUrl", "assignPartsUrl");
+        parameters.put("createPurchaseOrderUrl", "createPurchaseOrderUrl");
+        return ksession.startProcess(PROCESS_ID, parameters).getId();
+    }
+
+    private static void complete(KieSession ksession, WorkItem workItem, String result) {
+        Map<String, Object> workItemResult = new HashMap<>();
+        workItemResult.put("Result", result);
+        ksession.getWorkItemManager().completeWorkItem(workItem.getId(), workItemResult);
+    }
+}
@@ -0,0 +1,158 @@
+package com.stark.machinery_repair.multiline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jbpm.test.JbpmJUnitBaseTestCase;
+import org.junit.Test;
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.manager.audit.VariableInstanceLog;
+import org.kie.api.runtime.process.ProcessInstance;
+import org.kie.api.runtime.process.WorkItem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class MultiLineProcurementTest extends JbpmJUnitBaseTestCase {
+    private static Logger logger = LoggerFactory.getLogger(MultiLineProcurementTest.class);
+
+    private static final String PROCESS_ID = "machinery-repair.parts-procurement-multiline_v1_0";
+
+    public MultiLineProcurementTest() {
+        super(true, true);
+    }
+
+    @Test
+    public void testBulkCallsAssignLinesInStock() {
+        logger.debug("START testBulkCallsAssignLinesInStock");
+        KieSession ksession = createSession();
+        TestWorkItemHandler testHandler = new TestWorkItemHandler();
+        ksession.getWorkItemManager().registerWorkItemHandler("Rest", testHandler);
+
+        ProcessInstance processInstance = ksession.startProcess(PROCESS_ID, parameters(true,
+                new ProcurementLine("A", 2, null), new ProcurementLine("B", 1, "BC-2")));
+
+        WorkItem inventory = testHandler.getWorkItem();
+        assertEquals("inventoryBatchUrl", inventory.getParameter("Url"));
+        assertEquals("[{\"partCode\":\"A\"},{\"partCode\":\"B\"}]", inventory.getParameter("ContentData"));
+        complete(ksession, inventory, "[{\"partCode\":\"B\",\"availableQuantity\":1},{\"partCode\":\"A\",\"availableQuantity\":5}]");
+
+        WorkItem assignment = testHandler.getWorkItem();
+        assertEquals("assignPartsBatchUrl", assignment.getParameter("Url"));
+        assertEquals("[{\"partCode\":\"A\",\"quantity\":2,\"repairRequestId\":\"RR-1\",\"branchCode\":\"BC-1\"},"
+                + "{\"partCode\":\"B\",\"quantity\":1,\"repairRequestId\":\"RR-1\",\"branchCode\":\"BC-2\"}]",
+                assignment.getParameter("ContentData"));
+        complete(ksession, assignment, "[{\"reservationId\":\"R-1\",\"remainingParts\":3},{\"reservationId\":\"R-2\",\"remainingParts\":0}]");
+
+        assertProcessInstanceCompleted(processInstance.getId());
+        assertEquals("true", lastValue(processInstance.getId(), "partsAssigned"));
+        assertEquals("[ProcurementLine[1: BC-1/A x2, ASSIGNED R-1], ProcurementLine[2: BC-2/B x1, ASSIGNED R-2]]",
+                lastValue(processInstance.getId(), "lines"));
+
+        disposeRuntimeManager();
+        logger.debug("END testBulkCallsAssignLinesInStock");
+    }
+
+    @Test
+    public void testUnsettledLinesFallBackInParallel() {
+        logger.debug("START testUnsettledLinesFallBackInParallel");
+        KieSession ksession = createSession();
+        TestWorkItemHandler testHandler = new TestWorkItemHandler();
+        ksession.getWorkItemManager().registerWorkItemHandler("Rest", testHandler);
+
+        ProcessInstance processInstance = ksession.startProcess(PROCESS_ID, parameters(true,
+                new ProcurementLine("A", 2, null), new ProcurementLine("B", 1, null), new ProcurementLine("A", 4, null)));
+
+        // the second line of part A does not fit in what is left after the first
+        complete(ksession, testHandler.getWorkItem(), "[{\"partCode\":\"A\",\"availableQuantity\":5},{\"partCode\":\"B\",\"availableQuantity\":1}]");
+        WorkItem assignment = testHandler.getWorkItem();
+        assertTrue(((String) assignment.getParameter("ContentData")).contains("\"quantity\":1"));
+        complete(ksession, assignment, "[{\"reservationId\":\"R-1\",\"remainingParts\":3},{\"responseCode\":\"NOK\",\"Message\":\"No parts available\"}]");
+
+        List<WorkItem> inventories = testHandler.getWorkItems();
+        assertEquals(2, inventories.size());
+        List<WorkItem> assignments = new ArrayList<>();
+        for (WorkItem inventory : inventories) {
+            assertEquals("inventoryUrl", inventory.getParameter("Url"));
+            complete(ksession, inventory, "{\"partCode\":\"X\", \"availableQuantity\":10}");
+            assignments.add(testHandler.getWorkItem());
+        }
+        String requests = assignments.get(0).getParameter("ContentData") + " " + assignments.get(1).getParameter("ContentData");
+        assertTrue(requests, requests.contains("{\"partCode\":\"B\",\"quantity\":1,\"repairRequestId\":\"RR-1\",\"branchCode\":\"BC-1\"}"));
+        assertTrue(requests, requests.contains("{\"partCode\":\"A\",\"quantity\":4,\"repairRequestId\":\"RR-1\",\"branchCode\":\"BC-1\"}"));
+        assertProcessInstanceActive(processInstance.getId(), ksession);
+        int reservation = 2;
+        for (WorkItem lineAssignment : assignments) {
+            complete(ksession, lineAssignment, "{\"reservationId\":\"R-" + reservation++ + "\",\"remainingParts\":0}");
+        }
+
+        assertProcessInstanceCompleted(processInstance.getId());
+        assertEquals("true", lastValue(processInstance.getId(), "partsAssigned"));
+        String lines = lastValue(processInstance.getId(), "lines");
+        assertTrue(lines, lines.startsWith("[ProcurementLine[1: BC-1/A x2, ASSIGNED R-1], "));
+        assertTrue(lines, lines.contains("ProcurementLine[2: BC-1/B x1, ASSIGNED R-"));
+        assertTrue(lines, lines.contains("ProcurementLine[3: BC-1/A x4, ASSIGNED R-"));
+
+        disposeRuntimeManager();
+        logger.debug("END testUnsettledLinesFallBackInParallel");
+    }
+
+    @Test
+    public void testWithoutBulkUrlsEveryLineFallsBack() {
+        logger.debug("START testWithoutBulkUrlsEveryLineFallsBack");
+        KieSession ksession = createSession();
+        TestWorkItemHandler testHandler = new TestWorkItemHandler();
+        ksession.getWorkItemManager().registerWorkItemHandler("Rest", testHandler);
+
+        ProcessInstance processInstance = ksession.startProcess(PROCESS_ID, parameters(false,
+                new ProcurementLine("A", 1, null), new ProcurementLine("B", 1, null)));
+
+        List<WorkItem> inventories = testHandler.getWorkItems();
+        assertEquals(2, inventories.size());
+        for (WorkItem inventory : inventories) {
+            assertEquals("GET", inventory.getParameter("Method"));
+        }
+
+        ksession.abortProcessInstance(processInstance.getId());
+        assertProcessInstanceAborted(processInstance.getId());
+        disposeRuntimeManager();
+        logger.debug("END testWithoutBulkUrlsEveryLineFallsBack");
+    }
+
+    private KieSession createSession() {
+        createRuntimeManager("com/stark/machinery_repair/parts-procurement-multiline.bpmn",
+                "com/stark/machinery_repair/parts-procurement.bpmn");
+        return getRuntimeEngine().getKieSession();
+    }
+
+    private static Map<String, Object> parameters(boolean bulk, ProcurementLine... lines) {
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("repairRequestId", "RR-1");
+        parameters.put("branchCode", "BC-1");
+        parameters.put("lines", new ArrayList<>(Arrays.asList(lines)));
+        parameters.put("getInventoryUrl", "inventoryUrl");
+        parameters.put("assignPartsUrl", "assignPartsUrl");
+        parameters.put("createPurchaseOrderUrl", "createPurchaseOrderUrl");
+        if (bulk) {
+            parameters.put("inventoryBatchUrl", "inventoryBatchUrl");
+            parameters.put("assignPartsBatchUrl", "assignPartsBatchUrl");
+        }
+        return parameters;
+    }
+
+    private static void complete(KieSession ksession, WorkItem workItem, String result) {
+        Map<String, Object> workItemResult = new HashMap<>();
+        workItemResult.put("Result", result);
+        ksession.getWorkItemManager().completeWorkItem(workItem.getId(), workItemResult);
+    }
+
+    private String lastValue(long processInstanceId, String variable) {
+        List<? extends VariableInstanceLog> logs = getLogService().findVariableInstances(processInstanceId, variable);
+        return logs.isEmpty() ? null : logs.get(logs.size() - 1).getValue();
+    }
+}
@@ -0,0 +1,35 @@
+package com.stark.machinery_repair.perf;
+
+import java.util.Properties;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.jbpm.test.JbpmJUnitBaseTestCase;
+import org.kie.api.task.UserGroupCallback;
+
+/**
+ * Reuses the data source and persistence unit set up for the process tests. H2 locks whole tables on
+ * writes by default, which would serialize concurrent sessions in the database instead of the engine, so the
+ * benchmarks switch it to row-level locking. Without persistence only the user group callback is set up.
+ */
+class JbpmSupport extends JbpmJUnitBaseTestCase {
+
+    JbpmSupport(boolean persistence) {
+        super(persistence, persistence);
+    }
+
+    @Override
+    protected Properties getDataSourceProperties() {
+        Properties properties = super.getDataSourceProperties();
+        properties.setProperty("url", properties.getProperty("url") + ";MVCC=TRUE;LOCK_TIMEOUT=10000");
+        return properties;
+    }
+
+    EntityManagerFactory entityManagerFactory() {
+        return getEmf();
+    }
+
+    UserGroupCallback userGroupCallback() {
+        return userGroupCallback;
+    }
+}
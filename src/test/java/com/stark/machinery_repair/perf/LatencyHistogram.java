@@ -0,0 +1,71 @@
+package com.stark.machinery_repair.perf;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histogram in constant memory for runs of any length. The buckets grow by 5% from 0.1 ms to about
+ * 20 minutes, so a percentile is off by at most that much.
+ */
+final class LatencyHistogram {
+
+    private static final double MIN_MICROS = 100;
+    private static final double GROWTH = 1.05;
+    private static final int BUCKETS = 336;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    void record(long micros) {
+        int bucket = micros <= MIN_MICROS ? 0 : 1 + (int) (Math.log(micros / MIN_MICROS) / Math.log(GROWTH));
+        counts.incrementAndGet(Math.min(bucket, BUCKETS - 1));
+    }
+
+    Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+        }
+        return new Snapshot(copy);
+    }
+
+    static final class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(new long[BUCKETS]);
+
+        private final long[] counts;
+        final long count;
+
+        private Snapshot(long[] counts) {
+            this.counts = counts;
+            long total = 0;
+            for (long count : counts) {
+                total += count;
+            }
+            this.count = total;
+        }
+
+        /**
+         * @return what was recorded after {@code earlier} was taken
+         */
+        Snapshot since(Snapshot earlier) {
+            long[] difference = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                difference[i] = counts[i] - earlier.counts[i];
+            }
+            return new Snapshot(difference);
+        }
+
+        /**
+         * @return the upper bound in milliseconds of the bucket holding the given percentile, 0 when empty
+         */
+        double percentile(double percentile) {
+            long rank = (long) Math.ceil(count * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0) {
+                    return MIN_MICROS * Math.pow(GROWTH, i) / 1000;
+                }
+            }
+            return 0;
+        }
+    }
+}
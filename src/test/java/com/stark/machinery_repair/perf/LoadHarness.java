@@ -0,0 +1,516 @@
+package com.stark.machinery_repair.perf;
+
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.stark.machinery_repair.allocation.AllocatingAssignmentWorkItemHandler;
+import com.stark.machinery_repair.inventory.BatchingInventoryWorkItemHandler;
+import com.stark.machinery_repair.inventory.InventoryCacheInvalidationListener;
+import com.stark.machinery_repair.metrics.MetricsProcessEventListener;
+import com.stark.machinery_repair.metrics.MetricsTaskEventListener;
+import com.stark.machinery_repair.purchase.ConsolidatingPurchaseOrderWorkItemHandler;
+import com.stark.machinery_repair.receipt.MaterialReceipt;
+import com.stark.machinery_repair.receipt.MaterialReceiptService;
+import com.stark.machinery_repair.receipt.ReceivedMaterialsListener;
+import com.stark.machinery_repair.rest.AsyncRestWorkItemHandler;
+import com.stark.machinery_repair.retry.RetryBackoffListener;
+import com.stark.machinery_repair.retry.RetryPolicy;
+import com.stark.machinery_repair.state.TransientVariablesListener;
+import com.stark.machinery_repair.util.DaemonThreadFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.kie.api.event.process.DefaultProcessEventListener;
+import org.kie.api.event.process.ProcessCompletedEvent;
+import org.kie.api.event.process.ProcessNodeLeftEvent;
+import org.kie.api.event.process.ProcessNodeTriggeredEvent;
+import org.kie.api.event.process.ProcessStartedEvent;
+import org.kie.api.io.ResourceType;
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.manager.RuntimeEngine;
+import org.kie.api.runtime.manager.RuntimeEnvironmentBuilder;
+import org.kie.api.runtime.manager.RuntimeManager;
+import org.kie.api.runtime.manager.RuntimeManagerFactory;
+import org.kie.api.runtime.manager.audit.AuditService;
+import org.kie.api.runtime.manager.audit.NodeInstanceLog;
+import org.kie.api.runtime.process.NodeInstance;
+import org.kie.api.runtime.process.ProcessInstance;
+import org.kie.api.task.TaskLifeCycleEventListener;
+import org.kie.api.task.TaskService;
+import org.kie.api.task.model.Status;
+import org.kie.internal.io.ResourceFactory;
+import org.kie.internal.runtime.manager.context.EmptyContext;
+import org.kie.internal.task.api.EventService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sustained load on the parts-procurement process as it is deployed: one SINGLETON session with JPA
+ * persistence, the {@code Rest} handler and listeners of the deployment descriptor, calling the
+ * {@link StubServices} over HTTP.
+ * <p>
+ * Instances are started at {@code load.rate} per second for {@code load.duration-s} seconds, with at most
+ * {@code load.concurrency} active at once; once that many are active, starts wait and the rate drops.
+ * Purchase orders are received {@code load.materials-delay-ms} after they were placed, and every "Fix
+ * Procurement Details" task is completed by {@code Administrator} {@code load.fix-delay-ms} after it was
+ * created, with the details it was given. With {@code load.batch-inventory=true} the inventory lookups go
+ * through the batch endpoint. Purchase orders are only consolidated when
+ * {@code machinery-repair.purchase-order.window-ms} is set.
+ * <p>
+ * Every {@code load.report-interval-s} seconds it prints, and appends to {@code load.csv}, the start and
+ * completion rates, the latency percentiles of every node and of whole instances, database transactions,
+ * inserts and updates per second, and heap and GC figures. The database is a file-based H2 under
+ * {@code target/load} unless {@code load.db-url} says otherwise, so its tables do not count against the heap.
+ * After {@code load.drain-s} seconds for the last instances to end, it totals the run and lists the nodes that
+ * instances still active are waiting in. Run with
+ * {@code mvn -Pload test -Dload.args="-Dload.rate=50 -Dload.duration-s=3600 -Dstub.assign.nok-ratio=0.2"}.
+ */
+public class LoadHarness {
+    private static Logger logger = LoggerFactory.getLogger(LoadHarness.class);
+
+    private static final String PROCESS_ID = "machinery-repair.parts-procurement_v2_0";
+    private static final String FIX_TASK = "Fix Procurement Details";
+    private static final String FIX_USER = "Administrator";
+    private static final String WHOLE_INSTANCE = "(instance)";
+    private static final int DELIVERY_ATTEMPTS = 10;
+
+    private final double rate = Double.parseDouble(System.getProperty("load.rate", "20"));
+    private final int concurrency = Integer.getInteger("load.concurrency", 2000);
+    private final long duration = TimeUnit.SECONDS.toNanos(Long.getLong("load.duration-s", 300L));
+    private final long drain = TimeUnit.SECONDS.toNanos(Long.getLong("load.drain-s", 120L));
+    private final long reportInterval = Long.getLong("load.report-interval-s", 10L);
+    private final int starters = Integer.getInteger("load.starters", 8);
+    private final int parts = Integer.getInteger("load.parts", 200);
+    private final int branches = Integer.getInteger("load.branches", 20);
+    private final long materialsDelay = Long.getLong("load.materials-delay-ms", 2000L);
+    private final long fixDelay = Long.getLong("load.fix-delay-ms", 1000L);
+    private final boolean batchInventory = Boolean.getBoolean("load.batch-inventory");
+    private final String dbUrl = System.getProperty("load.db-url", "jdbc:h2:file:./target/load/jbpm;MVCC=TRUE;LOCK_TIMEOUT=10000");
+    private final Path csvFile = Paths.get(System.getProperty("load.csv", "target/load-report.csv"));
+
+    private final StubServices stubs = StubServices.fromSystemProperties();
+    private final Semaphore slots = new Semaphore(concurrency);
+    private final AtomicLong sequence = new AtomicLong();
+    private final LongAdder started = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder aborted = new LongAdder();
+    private final LongAdder failedStarts = new LongAdder();
+    private final LongAdder fixed = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final Map<String, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+    private final Map<Long, Map<Long, Long>> nodesEntered = new ConcurrentHashMap<>();
+    private final Map<Long, Long> instancesStarted = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(
+            Integer.getInteger("load.workers", 4), new DaemonThreadFactory("load-harness"));
+
+    private JbpmSupport jbpm;
+    private RuntimeManager manager;
+    private KieSession ksession;
+    private TaskService taskService;
+    private AuditService auditService;
+    private AsyncRestWorkItemHandler restHandler;
+    private BatchingInventoryWorkItemHandler handler;
+    private MaterialReceiptService receipts;
+    private Statistics statistics;
+    private PrintWriter csv;
+    private long startedAt;
+    private volatile boolean starting = true;
+
+    public static void main(String[] args) throws Exception {
+        LoadHarness harness = new LoadHarness();
+        try {
+            harness.setUp();
+            harness.run();
+        } finally {
+            harness.tearDown();
+        }
+        // the engine's timer threads would keep the JVM alive
+        System.exit(0);
+    }
+
+    @SuppressWarnings("unchecked")
+    void setUp() throws Exception {
+        stubs.start();
+        if (batchInventory) {
+            System.setProperty(BatchingInventoryWorkItemHandler.BATCH_URL_PROPERTY, stubs.inventoryBatchUrl());
+        }
+        jbpm = new JbpmSupport(true) {
+            @Override
+            protected Properties getDataSourceProperties() {
+                Properties properties = super.getDataSourceProperties();
+                properties.setProperty("url", dbUrl);
+                return properties;
+            }
+        };
+        jbpm.setUp();
+        RuntimeEnvironmentBuilder builder = RuntimeEnvironmentBuilder.Factory.get().newDefaultBuilder()
+                .entityManagerFactory(jbpm.entityManagerFactory())
+                .userGroupCallback(jbpm.userGroupCallback())
+                .addAsset(ResourceFactory.newClassPathResource("com/stark/machinery_repair/parts-procurement.bpmn"), ResourceType.BPMN2);
+        manager = RuntimeManagerFactory.Factory.get().newSingletonRuntimeManager(builder.get(), "load-harness");
+        RuntimeEngine engine = manager.getRuntimeEngine(EmptyContext.get());
+        ksession = engine.getKieSession();
+        taskService = engine.getTaskService();
+        auditService = engine.getAuditService();
+
+        // the handler and listeners of kie-deployment-descriptor.xml
+        restHandler = new AsyncRestWorkItemHandler(ksession);
+        handler = new BatchingInventoryWorkItemHandler(ksession, new AllocatingAssignmentWorkItemHandler(ksession,
+                new ConsolidatingPurchaseOrderWorkItemHandler(ksession, restHandler)));
+        ksession.getWorkItemManager().registerWorkItemHandler("Rest", handler);
+        ksession.addEventListener(new InventoryCacheInvalidationListener());
+        ksession.addEventListener(new RetryBackoffListener());
+        ksession.addEventListener(new ReceivedMaterialsListener());
+        ksession.addEventListener(new TransientVariablesListener());
+        ksession.addEventListener(new MetricsProcessEventListener());
+        ((EventService<TaskLifeCycleEventListener>) taskService).registerTaskEventListener(new MetricsTaskEventListener());
+        ksession.addEventListener(new Recorder());
+
+        receipts = new MaterialReceiptService(ksession);
+        stubs.onPurchaseOrder(receiverId -> deliver(receiverId, 1));
+        statistics = jbpm.entityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+        statistics.setStatisticsEnabled(true);
+
+        Files.createDirectories(csvFile.toAbsolutePath().getParent());
+        csv = new PrintWriter(Files.newBufferedWriter(csvFile, StandardCharsets.UTF_8));
+        csv.println("elapsed_s,series,count,per_s,p50_ms,p90_ms,p99_ms,p999_ms");
+    }
+
+    void run() throws InterruptedException {
+        System.out.printf(Locale.ROOT, "Starting %.1f instances/s for %d s, at most %d active, report in %s%n",
+                rate, TimeUnit.NANOSECONDS.toSeconds(duration), concurrency, csvFile.toAbsolutePath());
+        startedAt = System.nanoTime();
+        Report report = new Report();
+        scheduler.scheduleAtFixedRate(report::interval, reportInterval, reportInterval, TimeUnit.SECONDS);
+
+        ExecutorService starterPool = Executors.newFixedThreadPool(starters, new DaemonThreadFactory("load-starter"));
+        for (int i = 0; i < starters; i++) {
+            starterPool.execute(this::startInstances);
+        }
+        starterPool.shutdown();
+        starterPool.awaitTermination(duration + TimeUnit.MINUTES.toNanos(1), TimeUnit.NANOSECONDS);
+        starting = false;
+        starterPool.shutdownNow();
+
+        long drainUntil = System.nanoTime() + drain;
+        while (active() > 0 && System.nanoTime() < drainUntil) {
+            Thread.sleep(200);
+        }
+        scheduler.shutdownNow();
+        report.interval();
+        report.total();
+        nodesEntered.keySet().stream().limit(20).forEach(this::printStuck);
+    }
+
+    private void printStuck(long processInstanceId) {
+        Map<String, String> activeNodes = new LinkedHashMap<>();
+        for (NodeInstanceLog log : auditService.findNodeInstances(processInstanceId)) {
+            if (log.getType() == 0) { // entered, 1 is left
+                activeNodes.put(log.getNodeInstanceId(), log.getNodeName());
+            } else {
+                activeNodes.remove(log.getNodeInstanceId());
+            }
+        }
+        System.out.printf("  still active: %d at %s%n", processInstanceId, activeNodes.values());
+    }
+
+    void tearDown() throws Exception {
+        scheduler.shutdownNow();
+        if (manager != null) {
+            handler.close();
+            manager.close();
+        }
+        if (jbpm != null) {
+            jbpm.tearDown();
+        }
+        stubs.close();
+        if (csv != null) {
+            csv.close();
+        }
+    }
+
+    private void startInstances() {
+        long until = startedAt + duration;
+        while (starting) {
+            long n = sequence.incrementAndGet();
+            long due = startedAt + (long) (n * TimeUnit.SECONDS.toNanos(1) / rate);
+            if (due >= until) {
+                return;
+            }
+            try {
+                TimeUnit.NANOSECONDS.sleep(due - System.nanoTime());
+                slots.acquire();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                ksession.startProcess(PROCESS_ID, parameters(n));
+                started.increment();
+            } catch (RuntimeException e) {
+                slots.release();
+                failedStarts.increment();
+                logger.warn("Could not start instance {}", n, e);
+            }
+        }
+    }
+
+    private Map<String, Object> parameters(long n) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("repairRequestId", "RR-" + n);
+        parameters.put("branchCode", "BC-" + random.nextInt(branches));
+        parameters.put("partCode", "P-" + random.nextInt(parts));
+        parameters.put("quantity", 1 + random.nextInt(5));
+        parameters.put("getInventoryUrl", stubs.inventoryUrl());
+        parameters.put("assignPartsUrl", stubs.assignUrl());
+        parameters.put("createPurchaseOrderUrl", stubs.purchaseOrderUrl());
+        return parameters;
+    }
+
+    private long active() {
+        return started.sum() - completed.sum() - aborted.sum();
+    }
+
+    /**
+     * The purchase order is placed before its instance reaches "Received Materials", so a receipt that
+     * matches nothing yet is tried again.
+     */
+    private void deliver(String receiverId, int attempt) {
+        if (scheduler.isShutdown()) {
+            return;
+        }
+        scheduler.schedule(() -> {
+            try {
+                if (!receipts.receive(MaterialReceipt.forPurchaseOrder(receiverId)).isEmpty()) {
+                    received.increment();
+                } else if (attempt < DELIVERY_ATTEMPTS) {
+                    deliver(receiverId, attempt + 1);
+                } else {
+                    logger.warn("No instance waited for purchase order {}", receiverId);
+                }
+            } catch (RuntimeException e) {
+                logger.warn("Could not receive materials for {}", receiverId, e);
+            }
+        }, materialsDelay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The task is created in the transaction that triggered the node, so it is looked for again until that
+     * transaction is visible.
+     */
+    private void fix(long processInstanceId, int attempt) {
+        if (scheduler.isShutdown()) {
+            return;
+        }
+        scheduler.schedule(() -> {
+            boolean done = false;
+            try {
+                List<Long> tasks = taskService.getTasksByProcessInstanceId(processInstanceId);
+                for (Long taskId : tasks) {
+                    if (taskService.getTaskById(taskId).getTaskData().getStatus() != Status.Ready) {
+                        continue;
+                    }
+                    Map<String, Object> details = taskService.getTaskContent(taskId);
+                    Map<String, Object> results = new HashMap<>();
+                    results.put("partCode", details.get("partCode"));
+                    results.put("quantity", details.get("quantity"));
+                    results.put("branchCode", details.get("branchCode"));
+                    taskService.claim(taskId, FIX_USER);
+                    taskService.start(taskId, FIX_USER);
+                    taskService.complete(taskId, FIX_USER, results);
+                    fixed.increment();
+                    done = true;
+                }
+            } catch (RuntimeException e) {
+                logger.warn("Could not complete the {} task of instance {}", FIX_TASK, processInstanceId, e);
+            }
+            if (!done && attempt < DELIVERY_ATTEMPTS && nodesEntered.containsKey(processInstanceId)) {
+                fix(processInstanceId, attempt + 1);
+            }
+        }, fixDelay, TimeUnit.MILLISECONDS);
+    }
+
+    private LatencyHistogram latency(String name) {
+        return latencies.computeIfAbsent(name, key -> new LatencyHistogram());
+    }
+
+    /**
+     * Times every node from being triggered to leaving, and every instance from start to end. A wait state
+     * such as a {@code Rest} node therefore includes the call it waits for.
+     */
+    private final class Recorder extends DefaultProcessEventListener {
+
+        @Override
+        public void beforeProcessStarted(ProcessStartedEvent event) {
+            instancesStarted.put(event.getProcessInstance().getId(), System.nanoTime());
+        }
+
+        @Override
+        public void beforeNodeTriggered(ProcessNodeTriggeredEvent event) {
+            nodesEntered.computeIfAbsent(event.getProcessInstance().getId(), id -> new ConcurrentHashMap<>())
+                    .put(event.getNodeInstance().getId(), System.nanoTime());
+        }
+
+        @Override
+        public void afterNodeTriggered(ProcessNodeTriggeredEvent event) {
+            if (FIX_TASK.equals(event.getNodeInstance().getNodeName())) {
+                fix(event.getProcessInstance().getId(), 1);
+            }
+        }
+
+        @Override
+        public void beforeNodeLeft(ProcessNodeLeftEvent event) {
+            Map<Long, Long> entered = nodesEntered.get(event.getProcessInstance().getId());
+            Long since = entered == null ? null : entered.remove(event.getNodeInstance().getId());
+            if (since != null) {
+                latency(nodeName(event.getNodeInstance())).record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - since));
+            }
+        }
+
+        private String nodeName(NodeInstance nodeInstance) {
+            String name = nodeInstance.getNodeName();
+            return name == null || name.isEmpty() ? "(node " + nodeInstance.getNodeId() + ")" : name;
+        }
+
+        @Override
+        public void afterProcessCompleted(ProcessCompletedEvent event) {
+            long processInstanceId = event.getProcessInstance().getId();
+            nodesEntered.remove(processInstanceId);
+            Long since = instancesStarted.remove(processInstanceId);
+            if (since != null) {
+                latency(WHOLE_INSTANCE).record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - since));
+            }
+            if (event.getProcessInstance().getState() == ProcessInstance.STATE_COMPLETED) {
+                completed.increment();
+            } else {
+                aborted.increment();
+            }
+            slots.release();
+        }
+    }
+
+    /**
+     * Figures over the last interval, and per node over the whole run at the end.
+     */
+    private final class Report {
+        private final Map<String, LatencyHistogram.Snapshot> previousLatencies = new HashMap<>();
+        private final Map<String, Long> previousCounts = new HashMap<>();
+        private long previousAt = startedAt;
+
+        synchronized void interval() {
+            try {
+                print();
+            } catch (RuntimeException e) {
+                logger.warn("Could not report", e);
+            }
+        }
+
+        private void print() {
+            long now = System.nanoTime();
+            double seconds = (now - previousAt) / 1e9;
+            if (seconds < 1) {
+                return;
+            }
+            long elapsed = TimeUnit.NANOSECONDS.toSeconds(now - startedAt);
+            previousAt = now;
+
+            MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+            long gcCount = 0;
+            long gcTime = 0;
+            for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+                gcCount += Math.max(0, collector.getCollectionCount());
+                gcTime += Math.max(0, collector.getCollectionTime());
+            }
+
+            Map<String, Long> counts = new TreeMap<>();
+            counts.put("started", started.sum());
+            counts.put("completed", completed.sum());
+            counts.put("aborted", aborted.sum());
+            counts.put("failed-starts", failedStarts.sum());
+            counts.put("fix-tasks", fixed.sum());
+            counts.put("materials-received", received.sum());
+            counts.put("db.transactions", statistics.getSuccessfulTransactionCount());
+            counts.put("db.inserts", statistics.getEntityInsertCount());
+            counts.put("db.updates", statistics.getEntityUpdateCount());
+            counts.put("db.statements", statistics.getPrepareStatementCount());
+            counts.put("gc.count", gcCount);
+            counts.put("gc.ms", gcTime);
+            for (StubServices.Service service : new StubServices.Service[] { stubs.inventory, stubs.assign, stubs.purchaseOrder }) {
+                counts.put("stub." + service.name + ".calls", service.calls.sum());
+                counts.put("stub." + service.name + ".errors", service.errors.sum());
+            }
+            counts.put("stub.assign.noks", stubs.assign.noks.sum());
+
+            StringBuilder out = new StringBuilder();
+            out.append(String.format(Locale.ROOT, "%n[%5d s] active %d, REST in flight %d, retries waiting %d, heap %d of %d MB%n",
+                    elapsed, active(), restHandler.getInFlight(), RetryPolicy.shared().getWaiting(),
+                    heap.getUsed() >> 20, heap.getCommitted() >> 20));
+            for (Map.Entry<String, Long> count : counts.entrySet()) {
+                Long previous = previousCounts.put(count.getKey(), count.getValue());
+                long delta = count.getValue() - (previous == null ? 0 : previous);
+                out.append(String.format(Locale.ROOT, "  %-28s %10d %10.1f/s%n", count.getKey(), count.getValue(), delta / seconds));
+                csv.printf(Locale.ROOT, "%d,%s,%d,%.2f,,,,%n", elapsed, count.getKey(), count.getValue(), delta / seconds);
+            }
+            csv.printf(Locale.ROOT, "%d,heap.used_mb,%d,,,,,%n", elapsed, heap.getUsed() >> 20);
+            csv.printf(Locale.ROOT, "%d,heap.committed_mb,%d,,,,,%n", elapsed, heap.getCommitted() >> 20);
+            csv.printf(Locale.ROOT, "%d,active,%d,,,,,%n", elapsed, active());
+
+            out.append(header());
+            for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(latencies).entrySet()) {
+                LatencyHistogram.Snapshot snapshot = entry.getValue().snapshot();
+                LatencyHistogram.Snapshot previous = previousLatencies.put(entry.getKey(), snapshot);
+                LatencyHistogram.Snapshot recent = snapshot.since(previous == null ? LatencyHistogram.Snapshot.EMPTY : previous);
+                out.append(row(entry.getKey(), recent, seconds));
+                csv.printf(Locale.ROOT, "%d,\"node:%s\",%d,%.2f,%.2f,%.2f,%.2f,%.2f%n", elapsed, entry.getKey(), recent.count,
+                        recent.count / seconds, recent.percentile(50), recent.percentile(90), recent.percentile(99),
+                        recent.percentile(99.9));
+            }
+            csv.flush();
+            System.out.print(out);
+        }
+
+        synchronized void total() {
+            double seconds = (System.nanoTime() - startedAt) / 1e9;
+            StringBuilder out = new StringBuilder(String.format(Locale.ROOT,
+                    "%nWhole run, %.0f s: %d started, %d completed, %d aborted, %d still active%n",
+                    seconds, started.sum(), completed.sum(), aborted.sum(), active()));
+            out.append(header());
+            for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(latencies).entrySet()) {
+                out.append(row(entry.getKey(), entry.getValue().snapshot(), seconds));
+            }
+            System.out.print(out);
+        }
+
+        private String header() {
+            return String.format(Locale.ROOT, "  %-36s %8s %8s %9s %9s %9s %9s%n", "node", "count", "per s",
+                    "p50 ms", "p90 ms", "p99 ms", "p99.9 ms");
+        }
+
+        private String row(String name, LatencyHistogram.Snapshot snapshot, double seconds) {
+            return String.format(Locale.ROOT, "  %-36s %8d %8.1f %9.1f %9.1f %9.1f %9.1f%n", name, snapshot.count,
+                    snapshot.count / seconds, snapshot.percentile(50), snapshot.percentile(90), snapshot.percentile(99),
+                    snapshot.percentile(99.9));
+        }
+    }
+}
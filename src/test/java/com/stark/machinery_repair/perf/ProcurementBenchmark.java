@@ -0,0 +1,336 @@
+package com.stark.machinery_repair.perf;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.stark.machinery_repair.rest.RestResponse;
+import com.stark.machinery_repair.retry.RetryBackoffListener;
+import com.stark.machinery_repair.retry.RetryPolicy;
+import org.jbpm.process.audit.JPAWorkingMemoryDbLogger;
+import org.kie.api.event.process.DefaultProcessEventListener;
+import org.kie.api.event.process.ProcessCompletedEvent;
+import org.kie.api.event.process.ProcessEventListener;
+import org.kie.api.io.ResourceType;
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.manager.RuntimeEnvironmentBuilder;
+import org.kie.api.runtime.manager.RuntimeManager;
+import org.kie.api.runtime.manager.RuntimeManagerFactory;
+import org.kie.api.runtime.process.WorkItem;
+import org.kie.api.runtime.process.WorkItemHandler;
+import org.kie.api.runtime.process.WorkItemManager;
+import org.kie.api.runtime.process.WorkflowProcessInstance;
+import org.kie.internal.io.ResourceFactory;
+import org.kie.internal.runtime.manager.context.EmptyContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Latency of the parts-procurement hot path on one SINGLETON session, in memory and with JPA persistence.
+ * <ul>
+ * <li>{@code startInstance}: start up to the inventory lookup.</li>
+ * <li>{@code *RoundTrip}: completing the work item of one {@code Rest} node, with its exit script, up to the next
+ * wait state.</li>
+ * <li>{@code gatewayEvaluation}: the "Parts Available?" gateway on its own, {@code noGateway} is its baseline.</li>
+ * <li>{@code happyPath}, {@code nokRetryPath}, {@code purchaseOrderPath}: complete instances. The retry path
+ * includes its backoff timer, shortened to 10 ms.</li>
+ * </ul>
+ * The REST calls are answered inline by a stub. The round trips prepare and abort an instance around every
+ * call, so the in-memory numbers carry some timer overhead. The script bodies alone are measured by
+ * {@link ScriptBenchmark}. Run with {@code mvn -Pbenchmark test -Djmh.args=ProcurementBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = "-D" + RetryPolicy.INITIAL_DELAY_PROPERTY + "=10")
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class ProcurementBenchmark {
+
+    private static final String PROCESS_ID = "machinery-repair.parts-procurement_v2_0";
+    private static final String GATEWAY_PROCESS_ID = "machinery-repair.benchmark.parts-available-gateway";
+    private static final String NO_GATEWAY_PROCESS_ID = "machinery-repair.benchmark.no-gateway";
+
+    // the Url of each Rest node tells the stub how to answer
+    static final String PARK = "park";
+    static final String STOCK = "stock";
+    static final String NO_STOCK = "no-stock";
+    static final String NO_STOCK_ONCE = "no-stock-once";
+    static final String ASSIGN = "assign";
+    static final String ASSIGN_NOK_ONCE = "assign-nok-once";
+    static final String PURCHASE_ORDER = "purchase-order";
+
+    @Param({"memory", "jpa"})
+    public String persistence;
+
+    private final AtomicLong repairRequests = new AtomicLong();
+    private final Map<Long, CountDownLatch> completions = new ConcurrentHashMap<>();
+    private JbpmSupport jbpm;
+    private RuntimeManager manager;
+    private KieSession ksession;
+    private StubRestHandler handler;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        boolean jpa = "jpa".equals(persistence);
+        jbpm = new JbpmSupport(jpa);
+        jbpm.setUp();
+        RuntimeEnvironmentBuilder builder = jpa
+                ? RuntimeEnvironmentBuilder.Factory.get().newDefaultBuilder().entityManagerFactory(jbpm.entityManagerFactory())
+                : RuntimeEnvironmentBuilder.Factory.get().newDefaultInMemoryBuilder();
+        builder.userGroupCallback(jbpm.userGroupCallback())
+                .addAsset(ResourceFactory.newClassPathResource("com/stark/machinery_repair/parts-procurement.bpmn"), ResourceType.BPMN2)
+                .addAsset(ResourceFactory.newClassPathResource("com/stark/machinery_repair/perf/parts-available-gateway.bpmn"), ResourceType.BPMN2)
+                .addAsset(ResourceFactory.newClassPathResource("com/stark/machinery_repair/perf/no-gateway.bpmn"), ResourceType.BPMN2);
+        manager = RuntimeManagerFactory.Factory.get().newSingletonRuntimeManager(builder.get(), "procurement-benchmark-" + persistence);
+        ksession = manager.getRuntimeEngine(EmptyContext.get()).getKieSession();
+        if (!jpa) {
+            // the default listeners include the JPA audit logger, which has no database here
+            for (ProcessEventListener listener : ksession.getProcessEventListeners()) {
+                if (listener instanceof JPAWorkingMemoryDbLogger) {
+                    ksession.removeEventListener(listener);
+                }
+            }
+        }
+        handler = new StubRestHandler();
+        ksession.getWorkItemManager().registerWorkItemHandler("Rest", handler);
+        ksession.addEventListener(new RetryBackoffListener());
+        ksession.addEventListener(new DefaultProcessEventListener() {
+            @Override
+            public void afterProcessCompleted(ProcessCompletedEvent event) {
+                // only the paths that are awaited, the others would fill the map
+                WorkflowProcessInstance processInstance = (WorkflowProcessInstance) event.getProcessInstance();
+                if (processInstance.getVariable(RetryPolicy.RETRY_COUNT) != null
+                        || processInstance.getVariable("purchaseOrderReceiverId") != null) {
+                    completion(processInstance.getId()).countDown();
+                }
+            }
+        });
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        manager.close();
+        jbpm.tearDown();
+    }
+
+    @TearDown(Level.Iteration)
+    public void forgetCalls() {
+        handler.answeredOnce.clear();
+        completions.clear();
+    }
+
+    @Benchmark
+    public long startInstance(Started started) {
+        started.processInstanceId = start(PARK, PARK, PARK);
+        return started.processInstanceId;
+    }
+
+    @Benchmark
+    public void inventoryRoundTrip(ParkedAtInventory parked) {
+        parked.complete(handler.answer(STOCK, parked.processInstanceId));
+    }
+
+    @Benchmark
+    public void assignmentRoundTrip(ParkedAtAssignment parked) {
+        parked.complete(handler.answer(ASSIGN, parked.processInstanceId));
+    }
+
+    @Benchmark
+    public void purchaseOrderRoundTrip(ParkedAtPurchaseOrder parked) {
+        parked.complete(handler.answer(PURCHASE_ORDER, parked.processInstanceId));
+    }
+
+    @Benchmark
+    public long gatewayEvaluation() {
+        return ksession.startProcess(GATEWAY_PROCESS_ID, gatewayParameters()).getId();
+    }
+
+    @Benchmark
+    public long noGateway() {
+        return ksession.startProcess(NO_GATEWAY_PROCESS_ID, gatewayParameters()).getId();
+    }
+
+    @Benchmark
+    public long happyPath() {
+        return start(STOCK, ASSIGN, PARK);
+    }
+
+    @Benchmark
+    public long nokRetryPath() throws InterruptedException {
+        long processInstanceId = start(STOCK, ASSIGN_NOK_ONCE, PARK);
+        awaitCompletion(processInstanceId);
+        return processInstanceId;
+    }
+
+    @Benchmark
+    public long purchaseOrderPath() throws InterruptedException {
+        long processInstanceId = start(NO_STOCK_ONCE, ASSIGN, PURCHASE_ORDER);
+        ksession.signalEvent("receivedMaterials", null, processInstanceId);
+        awaitCompletion(processInstanceId);
+        return processInstanceId;
+    }
+
+    long start(String inventoryUrl, String assignUrl, String purchaseOrderUrl) {
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("repairRequestId", "RR-" + repairRequests.incrementAndGet());
+        parameters.put("branchCode", "BC-1");
+        parameters.put("partCode", "A");
+        parameters.put("quantity", 1);
+        parameters.put("getInventoryUrl", inventoryUrl);
+        parameters.put("assignPartsUrl", assignUrl);
+        parameters.put("createPurchaseOrderUrl", purchaseOrderUrl);
+        return ksession.startProcess(PROCESS_ID, parameters).getId();
+    }
+
+    void abortIfActive(long processInstanceId) {
+        if (ksession.getProcessInstance(processInstanceId) != null) {
+            ksession.abortProcessInstance(processInstanceId);
+        }
+    }
+
+    private static Map<String, Object> gatewayParameters() {
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("partsAvailable", Boolean.TRUE);
+        return parameters;
+    }
+
+    private CountDownLatch completion(long processInstanceId) {
+        return completions.computeIfAbsent(processInstanceId, id -> new CountDownLatch(1));
+    }
+
+    private void awaitCompletion(long processInstanceId) throws InterruptedException {
+        if (!completion(processInstanceId).await(30, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("Process instance " + processInstanceId + " did not complete");
+        }
+        completions.remove(processInstanceId);
+    }
+
+    @State(Scope.Thread)
+    public static class Started {
+        long processInstanceId;
+
+        @TearDown(Level.Invocation)
+        public void abort(ProcurementBenchmark benchmark) {
+            benchmark.abortIfActive(processInstanceId);
+        }
+    }
+
+    /**
+     * An instance waiting on the work item of one {@code Rest} node, started again for every invocation.
+     */
+    public abstract static class Parked {
+        ProcurementBenchmark benchmark;
+        long processInstanceId;
+        WorkItem workItem;
+
+        abstract long start(ProcurementBenchmark benchmark);
+
+        @Setup(Level.Invocation)
+        public void park(ProcurementBenchmark benchmark) {
+            this.benchmark = benchmark;
+            processInstanceId = start(benchmark);
+            workItem = benchmark.handler.parked.remove(processInstanceId);
+        }
+
+        void complete(RestResponse response) {
+            benchmark.ksession.getWorkItemManager().completeWorkItem(workItem.getId(), response.toResults());
+        }
+
+        @TearDown(Level.Invocation)
+        public void abort() {
+            benchmark.abortIfActive(processInstanceId);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ParkedAtInventory extends Parked {
+
+        @Override
+        long start(ProcurementBenchmark benchmark) {
+            return benchmark.start(PARK, PARK, PARK);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ParkedAtAssignment extends Parked {
+
+        @Override
+        long start(ProcurementBenchmark benchmark) {
+            return benchmark.start(STOCK, PARK, PARK);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ParkedAtPurchaseOrder extends Parked {
+
+        @Override
+        long start(ProcurementBenchmark benchmark) {
+            return benchmark.start(NO_STOCK, PARK, PARK);
+        }
+    }
+
+    /**
+     * Answers every {@code Rest} work item inline according to its Url, or keeps it for the benchmark to
+     * complete when the Url is {@link #PARK}.
+     */
+    static class StubRestHandler implements WorkItemHandler {
+        final Map<Long, WorkItem> parked = new ConcurrentHashMap<>();
+        final Set<String> answeredOnce = ConcurrentHashMap.newKeySet();
+
+        @Override
+        public void executeWorkItem(WorkItem workItem, WorkItemManager manager) {
+            String url = (String) workItem.getParameter("Url");
+            if (PARK.equals(url)) {
+                parked.put(workItem.getProcessInstanceId(), workItem);
+                return;
+            }
+            manager.completeWorkItem(workItem.getId(), answer(url, workItem.getProcessInstanceId()).toResults());
+        }
+
+        RestResponse answer(String url, long processInstanceId) {
+            boolean first = url.endsWith("-once") && answeredOnce.add(url + processInstanceId);
+            switch (url) {
+                case STOCK:
+                    return ok("{\"partCode\":\"A\", \"availableQuantity\":20}");
+                case NO_STOCK:
+                    return ok("{\"partCode\":\"A\", \"availableQuantity\":0}");
+                case NO_STOCK_ONCE:
+                    return ok("{\"partCode\":\"A\", \"availableQuantity\":" + (first ? 0 : 20) + "}");
+                case ASSIGN:
+                    return ok("{\"reservationId\": \"abc-ABC-123\", \"remainingParts\": 0}");
+                case ASSIGN_NOK_ONCE:
+                    return ok(first ? "{\"responseCode\": \"NOK\", \"Message\": \"No parts available\"}"
+                            : "{\"reservationId\": \"abc-ABC-123\", \"remainingParts\": 0}");
+                case PURCHASE_ORDER:
+                    return ok("{\"partCode\":\"A\", \"quantity\":0, \"purchaseOrderReceiverId\":\"PO-" + processInstanceId + "\"}");
+                default:
+                    throw new IllegalArgumentException("No stub answer for " + url);
+            }
+        }
+
+        private static RestResponse ok(String body) {
+            return new RestResponse(200, "OK", body);
+        }
+
+        @Override
+        public void abortWorkItem(WorkItem workItem, WorkItemManager manager) {
+            parked.remove(workItem.getProcessInstanceId());
+        }
+    }
+}
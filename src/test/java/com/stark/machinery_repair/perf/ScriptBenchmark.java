@@ -0,0 +1,110 @@
+package com.stark.machinery_repair.perf;
+
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.stark.machinery_repair.receipt.MaterialReceipt;
+import com.stark.parts_storage.PartsStorageUtil;
+import com.stark.purchase_order.PurchaseOrderUtil;
+import org.kie.api.runtime.process.ProcessContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of the entry and exit scripts of the {@code Rest} nodes, called on a map backed {@link ProcessContext}.
+ * The scripts only touch process variables, so persistence does not change these numbers; how they add up in a
+ * running instance shows in the round trips of {@link ProcurementBenchmark}. {@code contextAccess} is the cost
+ * of one read and one write through the context itself. Run with
+ * {@code mvn -Pbenchmark test -Djmh.args=ScriptBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ScriptBenchmark {
+
+    private static final String INVENTORY_RESPONSE = "{\"partCode\":\"A\", \"availableQuantity\":20}";
+    private static final String ASSIGNMENT_RESPONSE = "{\"reservationId\": \"abc-ABC-123\", \"remainingParts\": 0}";
+    private static final String PURCHASE_ORDER_RESPONSE = "{\"partCode\":\"A\", \"quantity\":0, \"purchaseOrderReceiverId\":\"ABC-123\"}";
+
+    private final Map<String, Object> variables = new HashMap<>();
+    private final ProcessContext kcontext = context(variables);
+
+    public ScriptBenchmark() {
+        variables.put("repairRequestId", "RR-1");
+        variables.put("branchCode", "BC-1");
+        variables.put("partCode", "A");
+        variables.put("quantity", 1);
+    }
+
+    @Benchmark
+    public Object contextAccess() {
+        kcontext.setVariable("wsJsonRequest", kcontext.getVariable("partCode"));
+        return variables.get("wsJsonRequest");
+    }
+
+    @Benchmark
+    public Object assignJsonQueryRequest() {
+        PartsStorageUtil.assignJsonQueryRequest(kcontext);
+        return variables.get("wsJsonRequest");
+    }
+
+    @Benchmark
+    public Object getInventoryAvailable() {
+        variables.put("wsJsonResponse", INVENTORY_RESPONSE);
+        PartsStorageUtil.getInventoryAvailable(kcontext);
+        return variables.get("partsAvailable");
+    }
+
+    @Benchmark
+    public Object jsonQueryRequestForRepairRequest() {
+        PartsStorageUtil.jsonQueryRequestForRepairRequest(kcontext);
+        return variables.get("wsJsonRequest");
+    }
+
+    @Benchmark
+    public Object getRepairAssignmentResponse() {
+        variables.put("wsJsonResponse", ASSIGNMENT_RESPONSE);
+        PartsStorageUtil.getRepairAssignmentResponse(kcontext);
+        return variables.get("partsAssigned");
+    }
+
+    @Benchmark
+    public Object assignPurchaseOrderRequestToContext() {
+        PurchaseOrderUtil.assignPurchaseOrderRequestToContext(kcontext);
+        return variables.get("wsJsonRequest");
+    }
+
+    @Benchmark
+    public Object assignPurchaseOrderReceiverId() {
+        variables.put("wsJsonResponse", PURCHASE_ORDER_RESPONSE);
+        MaterialReceipt.assignPurchaseOrderReceiverId(kcontext);
+        return variables.get("purchaseOrderReceiverId");
+    }
+
+    private static ProcessContext context(Map<String, Object> variables) {
+        return (ProcessContext) Proxy.newProxyInstance(ScriptBenchmark.class.getClassLoader(),
+                new Class<?>[] { ProcessContext.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getVariable":
+                            return variables.get(args[0]);
+                        case "setVariable":
+                            variables.put((String) args[0], args[1]);
+                            return null;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
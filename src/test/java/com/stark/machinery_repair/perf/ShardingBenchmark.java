@@ -0,0 +1,144 @@
+package com.stark.machinery_repair.perf;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.stark.machinery_repair.rest.RestResponse;
+import com.stark.machinery_repair.runtime.ShardRouter;
+import com.stark.machinery_repair.runtime.ShardedRuntimeManager;
+import org.kie.api.KieBase;
+import org.kie.api.io.ResourceType;
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.manager.RuntimeEnvironment;
+import org.kie.api.runtime.manager.RuntimeEnvironmentBuilder;
+import org.kie.api.runtime.manager.RuntimeManager;
+import org.kie.api.runtime.manager.RuntimeManagerFactory;
+import org.kie.api.runtime.process.WorkItem;
+import org.kie.api.runtime.process.WorkItemHandler;
+import org.kie.api.runtime.process.WorkItemManager;
+import org.kie.internal.io.ResourceFactory;
+import org.kie.internal.runtime.manager.context.EmptyContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of complete parts-procurement instances (inventory lookup, assignment, end) with JPA persistence,
+ * started from 8 threads, on the existing single SINGLETON session ({@code shards=0}) and on
+ * {@link ShardedRuntimeManager} with a growing number of shards.
+ * <p>
+ * The REST calls are answered inline, so the numbers show engine and session contention only. Run with
+ * {@code mvn -Pbenchmark test -Djmh.args=ShardingBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(8)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+public class ShardingBenchmark {
+
+    private static final String PROCESS_ID = "machinery-repair.parts-procurement_v2_0";
+
+    @Param({"0", "1", "2", "4", "8"})
+    public int shards;
+
+    private final AtomicLong repairRequests = new AtomicLong();
+    private JbpmSupport jbpm;
+    private KieBase kieBase;
+    private RuntimeManager singleton;
+    private KieSession singletonSession;
+    private ShardedRuntimeManager sharded;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        jbpm = new JbpmSupport(true);
+        jbpm.setUp();
+        kieBase = environment(null).getKieBase();
+        if (shards == 0) {
+            singleton = RuntimeManagerFactory.Factory.get().newSingletonRuntimeManager(environment(kieBase), "sharding-benchmark");
+            singletonSession = singleton.getRuntimeEngine(EmptyContext.get()).getKieSession();
+            singletonSession.getWorkItemManager().registerWorkItemHandler("Rest", new AnsweringHandler());
+        } else {
+            sharded = new ShardedRuntimeManager("sharding-benchmark", shards, shard -> environment(kieBase),
+                    new ShardRouter(ShardRouter.BRANCH_CODE));
+            for (int shard = 0; shard < shards; shard++) {
+                sharded.getRuntimeEngine(shard).getKieSession().getWorkItemManager()
+                        .registerWorkItemHandler("Rest", new AnsweringHandler());
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        if (singleton != null) {
+            singleton.close();
+        }
+        if (sharded != null) {
+            sharded.close();
+        }
+        jbpm.tearDown();
+    }
+
+    @Benchmark
+    public long procureParts() {
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("repairRequestId", "RR-" + repairRequests.incrementAndGet());
+        parameters.put("branchCode", "BC-" + ThreadLocalRandom.current().nextInt(64));
+        parameters.put("partCode", "A");
+        parameters.put("quantity", 1);
+        parameters.put("getInventoryUrl", "inventoryUrl");
+        parameters.put("assignPartsUrl", "assignPartsUrl");
+        parameters.put("createPurchaseOrderUrl", "");
+        if (singletonSession != null) {
+            return singletonSession.startProcess(PROCESS_ID, parameters).getId();
+        }
+        return sharded.startProcess(PROCESS_ID, parameters).getId();
+    }
+
+    private RuntimeEnvironment environment(KieBase kieBase) {
+        RuntimeEnvironmentBuilder builder = RuntimeEnvironmentBuilder.Factory.get().newDefaultBuilder()
+                .entityManagerFactory(jbpm.entityManagerFactory())
+                .userGroupCallback(jbpm.userGroupCallback());
+        if (kieBase == null) {
+            builder.addAsset(ResourceFactory.newClassPathResource("com/stark/machinery_repair/parts-procurement.bpmn"), ResourceType.BPMN2);
+        } else {
+            builder.knowledgeBase(kieBase);
+        }
+        return builder.get();
+    }
+
+    /**
+     * Answers the inventory lookup with stock and the assignment with a reservation, so every instance runs to
+     * its end inside {@code startProcess}.
+     */
+    private static class AnsweringHandler implements WorkItemHandler {
+
+        @Override
+        public void executeWorkItem(WorkItem workItem, WorkItemManager manager) {
+            String response = "GET".equals(workItem.getParameter("Method"))
+                    ? "{\"partCode\":\"A\", \"availableQuantity\":20}"
+                    : "{\"reservationId\": \"abc-ABC-123\", \"remainingParts\": 0}";
+            manager.completeWorkItem(workItem.getId(), new RestResponse(200, "OK", response).toResults());
+        }
+
+        @Override
+        public void abortWorkItem(WorkItem workItem, WorkItemManager manager) {
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package com.stark.machinery_repair.perf;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.stark.machinery_repair.util.DaemonThreadFactory;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local stand-ins for the inventory, assignment and purchase-order services, each on its own port so the
+ * per-endpoint limits of the {@code Rest} handler apply as they do against the real services.
+ * <p>
+ * Every call is answered after a delay drawn from the service's {@link Latency} and fails with a 500 at the
+ * service's error rate. Otherwise inventory reports no stock at its no-stock ratio, assignment answers NOK at
+ * its NOK ratio, and every purchase order gets a new receiver id that is handed to the purchase order
+ * listener. Batched inventory lookups are answered under {@code /inventory/batch}.
+ * <p>
+ * Settings are read from {@code stub.<service>.latency}, {@code stub.<service>.error-rate},
+ * {@code stub.inventory.no-stock-ratio} and {@code stub.assign.nok-ratio}, with {@code <service>} one of
+ * {@code inventory}, {@code assign} and {@code purchase-order}. Latencies are given as {@code fixed:<ms>},
+ * {@code uniform:<min ms>:<max ms>}, {@code exponential:<mean ms>} or {@code lognormal:<median ms>:<p99 ms>}.
+ */
+class StubServices implements AutoCloseable {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final String NOK = "{\"responseCode\": \"NOK\", \"Message\": \"No parts available\"}";
+
+    final Service inventory;
+    final Service assign;
+    final Service purchaseOrder;
+    private final double noStockRatio;
+    private final double nokRatio;
+    private final ExecutorService executor;
+    private final AtomicLong purchaseOrders = new AtomicLong();
+    private volatile Consumer<String> purchaseOrderListener = receiverId -> { };
+
+    StubServices(Service inventory, Service assign, Service purchaseOrder, double noStockRatio, double nokRatio, int threads) {
+        this.inventory = inventory;
+        this.assign = assign;
+        this.purchaseOrder = purchaseOrder;
+        this.noStockRatio = noStockRatio;
+        this.nokRatio = nokRatio;
+        // the latency is slept on these threads, so they bound how many calls the stubs serve at once
+        this.executor = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("stub-services"));
+    }
+
+    static StubServices fromSystemProperties() {
+        return new StubServices(Service.fromSystemProperties("inventory"), Service.fromSystemProperties("assign"),
+                Service.fromSystemProperties("purchase-order"), ratio("stub.inventory.no-stock-ratio", 0.1),
+                ratio("stub.assign.nok-ratio", 0.05), Integer.getInteger("stub.threads", 512));
+    }
+
+    void start() throws IOException {
+        inventory.start(executor, "/inventory", this::inventory);
+        inventory.server.createContext("/inventory/batch", exchange -> inventory.answer(exchange, this::inventoryBatch));
+        assign.start(executor, "/assign", this::assign);
+        purchaseOrder.start(executor, "/purchase-order", this::purchaseOrder);
+    }
+
+    String inventoryUrl() {
+        return inventory.url("/inventory");
+    }
+
+    String inventoryBatchUrl() {
+        return inventory.url("/inventory/batch");
+    }
+
+    String assignUrl() {
+        return assign.url("/assign");
+    }
+
+    String purchaseOrderUrl() {
+        return purchaseOrder.url("/purchase-order");
+    }
+
+    /**
+     * Called with the receiver id of every purchase order placed, from a stub thread before the answer is sent.
+     */
+    void onPurchaseOrder(Consumer<String> listener) {
+        this.purchaseOrderListener = listener;
+    }
+
+    @Override
+    public void close() {
+        inventory.stop();
+        assign.stop();
+        purchaseOrder.stop();
+        executor.shutdownNow();
+    }
+
+    private String inventory(JsonNode request) {
+        return MAPPER.createObjectNode().put("partCode", request.path("partCode").asText())
+                .put("availableQuantity", stock()).toString();
+    }
+
+    private String inventoryBatch(JsonNode request) {
+        ArrayNode answer = MAPPER.createArrayNode();
+        for (JsonNode lookup : request) {
+            answer.addObject().put("partCode", lookup.path("partCode").asText()).put("availableQuantity", stock());
+        }
+        return answer.toString();
+    }
+
+    private int stock() {
+        return ThreadLocalRandom.current().nextDouble() < noStockRatio ? 0 : 1000;
+    }
+
+    private String assign(JsonNode request) {
+        if (ThreadLocalRandom.current().nextDouble() < nokRatio) {
+            assign.noks.increment();
+            return NOK;
+        }
+        return MAPPER.createObjectNode().put("reservationId", UUID.randomUUID().toString())
+                .put("remainingParts", 0).toString();
+    }
+
+    private String purchaseOrder(JsonNode request) {
+        String receiverId = "PO-" + purchaseOrders.incrementAndGet();
+        ObjectNode answer = MAPPER.createObjectNode();
+        answer.put("partCode", request.path("partCode").asText());
+        answer.put("quantity", request.path("quantity").asInt());
+        answer.put("purchaseOrderReceiverId", receiverId);
+        purchaseOrderListener.accept(receiverId);
+        return answer.toString();
+    }
+
+    private static double ratio(String property, double defaultValue) {
+        return Double.parseDouble(System.getProperty(property, Double.toString(defaultValue)));
+    }
+
+    interface Answer {
+        String answer(JsonNode request) throws IOException;
+    }
+
+    /**
+     * One stub service with its own server, latency and error rate.
+     */
+    static final class Service {
+        final String name;
+        final LongAdder calls = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder noks = new LongAdder();
+        private final Latency latency;
+        private final double errorRate;
+        private HttpServer server;
+
+        Service(String name, Latency latency, double errorRate) {
+            this.name = name;
+            this.latency = latency;
+            this.errorRate = errorRate;
+        }
+
+        static Service fromSystemProperties(String name) {
+            return new Service(name, Latency.parse(System.getProperty("stub." + name + ".latency", "lognormal:20:200")),
+                    ratio("stub." + name + ".error-rate", 0.01));
+        }
+
+        private void start(ExecutorService executor, String path, Answer answer) throws IOException {
+            server = HttpServer.create(new InetSocketAddress("localhost", 0), 1024);
+            server.setExecutor(executor);
+            server.createContext(path, exchange -> answer(exchange, answer));
+            server.start();
+        }
+
+        private String url(String path) {
+            return "http://localhost:" + server.getAddress().getPort() + path;
+        }
+
+        private void stop() {
+            if (server != null) {
+                server.stop(0);
+            }
+        }
+
+        private void answer(HttpExchange exchange, Answer answer) throws IOException {
+            calls.increment();
+            try (InputStream in = exchange.getRequestBody()) {
+                JsonNode request = MAPPER.readTree(in);
+                Thread.sleep(latency.next());
+                if (ThreadLocalRandom.current().nextDouble() < errorRate) {
+                    errors.increment();
+                    send(exchange, 500, "{\"error\":\"stubbed failure\"}");
+                } else {
+                    send(exchange, 200, answer.answer(request == null ? MAPPER.createObjectNode() : request));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                send(exchange, 503, "{\"error\":\"shutting down\"}");
+            } catch (IOException | RuntimeException e) {
+                errors.increment();
+                send(exchange, 400, "{\"error\":\"" + e.getClass().getSimpleName() + "\"}");
+            } finally {
+                exchange.close();
+            }
+        }
+
+        private static void send(HttpExchange exchange, int status, String body) throws IOException {
+            byte[] payload = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(status, payload.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(payload);
+            }
+        }
+    }
+
+    /**
+     * Response delay in milliseconds.
+     */
+    abstract static class Latency {
+
+        abstract long next();
+
+        static Latency parse(String spec) {
+            String[] parts = spec.split(":");
+            try {
+                switch (parts[0]) {
+                    case "fixed":
+                        long fixed = Long.parseLong(parts[1]);
+                        return of(random -> fixed);
+                    case "uniform":
+                        long min = Long.parseLong(parts[1]);
+                        long max = Long.parseLong(parts[2]);
+                        return of(random -> min + (long) (random.nextDouble() * (max - min)));
+                    case "exponential":
+                        double mean = Double.parseDouble(parts[1]);
+                        return of(random -> (long) (-mean * Math.log(1 - random.nextDouble())));
+                    case "lognormal":
+                        double median = Double.parseDouble(parts[1]);
+                        // 2.326 standard deviations above the mean of a normal distribution is its 99th percentile
+                        double sigma = Math.log(Double.parseDouble(parts[2]) / median) / 2.326;
+                        return of(random -> (long) (median * Math.exp(sigma * random.nextGaussian())));
+                    default:
+                        break;
+                }
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Invalid latency " + spec, e);
+            }
+            throw new IllegalArgumentException("Unknown latency distribution " + spec);
+        }
+
+        private static Latency of(ToLongFunction<Random> sample) {
+            return new Latency() {
+                @Override
+                long next() {
+                    return Math.max(0, sample.applyAsLong(ThreadLocalRandom.current()));
+                }
+            };
+        }
+    }
+}
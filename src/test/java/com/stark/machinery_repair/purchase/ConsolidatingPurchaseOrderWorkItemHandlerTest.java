@@ -0,0 +1,218 @@
+package com.stark.machinery_repair.purchase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import com.stark.machinery_repair.receipt.MaterialReceipt;
+import com.stark.machinery_repair.receipt.MaterialReceiptService;
+import com.stark.machinery_repair.receipt.ReceivedMaterialsIndex;
+import com.stark.machinery_repair.receipt.ReceivedMaterialsListener;
+import com.stark.machinery_repair.rest.AsyncRestWorkItemHandler;
+import com.stark.machinery_repair.rest.EndpointSettings;
+import com.stark.machinery_repair.rest.RestClient;
+import com.stark.machinery_repair.rest.RestRequest;
+import com.stark.machinery_repair.rest.RestResponse;
+import org.jbpm.test.JbpmJUnitBaseTestCase;
+import org.junit.Test;
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.process.WorkItem;
+import org.kie.api.runtime.process.WorkItemHandler;
+import org.kie.api.runtime.process.WorkItemManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class ConsolidatingPurchaseOrderWorkItemHandlerTest extends JbpmJUnitBaseTestCase {
+    private static Logger logger = LoggerFactory.getLogger(ConsolidatingPurchaseOrderWorkItemHandlerTest.class);
+
+    private static final String PROCESS_ID = "machinery-repair.parts-procurement_v2_0";
+
+    public ConsolidatingPurchaseOrderWorkItemHandlerTest() {
+        super(true, true);
+    }
+
+    @Test
+    public void testOrdersForSamePartAreConsolidated() throws Exception {
+        logger.debug("START testOrdersForSamePartAreConsolidated");
+        createRuntimeManager("com/stark/machinery_repair/parts-procurement.bpmn");
+        KieSession ksession = getRuntimeEngine().getKieSession();
+        ReceivedMaterialsIndex index = new ReceivedMaterialsIndex();
+        ksession.addEventListener(new ReceivedMaterialsListener(index));
+        StubPurchaseOrderClient purchaseOrders = new StubPurchaseOrderClient();
+        InventoryHandler delegate = new InventoryHandler();
+        ConsolidatingPurchaseOrderWorkItemHandler handler = new ConsolidatingPurchaseOrderWorkItemHandler(ksession, delegate,
+                purchaseOrders, 10000, 4);
+        ksession.getWorkItemManager().registerWorkItemHandler("Rest", handler);
+
+        long first = startProcess(ksession, "RR-1", "A", 1);
+        long second = startProcess(ksession, "RR-2", "A", 2);
+        long other = startProcess(ksession, "RR-3", "B", 1);
+        assertEquals(3, handler.getHeldOrders());
+        assertEquals(0, purchaseOrders.requests.size());
+
+        // reaches the quantity threshold of part A
+        long third = startProcess(ksession, "RR-4", "A", 1);
+        awaitReceiverId(ksession, first, second, third);
+        assertEquals(1, purchaseOrders.requests.size());
+        RestRequest request = purchaseOrders.requests.get(0);
+        assertEquals("createPurchaseOrderUrl", request.getUrl());
+        assertEquals("{\"partCode\":\"A\",\"quantity\":4,\"branchCode\":\"BC-1\"}", request.getBody());
+        assertEquals(1, handler.getHeldOrders());
+        assertTrue(delegate.others.isEmpty());
+
+        // one receipt resumes every instance of the order, and the parts are in stock by then
+        delegate.availableQuantity = 10;
+        MaterialReceiptService service = new MaterialReceiptService(index, processInstanceId -> ksession, getEmf());
+        assertEquals(new HashSet<>(Arrays.asList(first, second, third)), service.receive(MaterialReceipt.forPurchaseOrder("PO-1")));
+        assertNodeActive(first, ksession, "Assign parts to Repair Request");
+        assertEquals(3, delegate.others.size());
+        assertNodeActive(other, ksession, "Purchase Order");
+
+        abortProcessInstances(ksession, first, second, third, other);
+        assertEquals(0, handler.getHeldOrders());
+        handler.close();
+        assertEquals(1, purchaseOrders.requests.size());
+        disposeRuntimeManager();
+        logger.debug("END testOrdersForSamePartAreConsolidated");
+    }
+
+    @Test
+    public void testWindowSendsWhatItHolds() throws Exception {
+        logger.debug("START testWindowSendsWhatItHolds");
+        createRuntimeManager("com/stark/machinery_repair/parts-procurement.bpmn");
+        KieSession ksession = getRuntimeEngine().getKieSession();
+        StubPurchaseOrderClient purchaseOrders = new StubPurchaseOrderClient();
+        ConsolidatingPurchaseOrderWorkItemHandler handler = new ConsolidatingPurchaseOrderWorkItemHandler(ksession, new InventoryHandler(),
+                purchaseOrders, 200, 1000);
+        ksession.getWorkItemManager().registerWorkItemHandler("Rest", handler);
+
+        long processInstanceId = startProcess(ksession, "RR-1", "A", 2);
+        awaitReceiverId(ksession, processInstanceId);
+        assertEquals("{\"partCode\":\"A\",\"quantity\":2,\"branchCode\":\"BC-1\"}", purchaseOrders.requests.get(0).getBody());
+        assertNodeActive(processInstanceId, ksession, "Received Materials");
+
+        abortProcessInstances(ksession, processInstanceId);
+        handler.close();
+        disposeRuntimeManager();
+        logger.debug("END testWindowSendsWhatItHolds");
+    }
+
+    @Test
+    public void testOrderGoesThroughTheAsyncStage() throws Exception {
+        logger.debug("START testOrderGoesThroughTheAsyncStage");
+        createRuntimeManager("com/stark/machinery_repair/parts-procurement.bpmn");
+        KieSession ksession = getRuntimeEngine().getKieSession();
+        StubPurchaseOrderClient services = new StubPurchaseOrderClient();
+        StubPurchaseOrderClient direct = new StubPurchaseOrderClient();
+        AsyncRestWorkItemHandler asyncRest = new AsyncRestWorkItemHandler(ksession, services,
+                endpoint -> new EndpointSettings(2, 1000, 1000, 10000), 2);
+        ConsolidatingPurchaseOrderWorkItemHandler handler = new ConsolidatingPurchaseOrderWorkItemHandler(ksession, asyncRest,
+                direct, 10000, 3);
+        ksession.getWorkItemManager().registerWorkItemHandler("Rest", handler);
+
+        long first = startProcess(ksession, "RR-1", "A", 1);
+        long second = startProcess(ksession, "RR-2", "A", 2);
+        awaitReceiverId(ksession, first, second);
+        assertEquals(1, services.requests.size());
+        assertEquals("{\"partCode\":\"A\",\"quantity\":3,\"branchCode\":\"BC-1\"}", services.requests.get(0).getBody());
+        assertTrue(direct.requests.isEmpty());
+        assertEquals(0, asyncRest.getInFlight());
+        assertNodeActive(first, ksession, "Received Materials");
+        assertNodeActive(second, ksession, "Received Materials");
+
+        abortProcessInstances(ksession, first, second);
+        handler.close();
+        disposeRuntimeManager();
+        logger.debug("END testOrderGoesThroughTheAsyncStage");
+    }
+
+    @Test
+    public void testWithoutWindowEverythingIsDelegated() throws Exception {
+        logger.debug("START testWithoutWindowEverythingIsDelegated");
+        createRuntimeManager("com/stark/machinery_repair/parts-procurement.bpmn");
+        KieSession ksession = getRuntimeEngine().getKieSession();
+        StubPurchaseOrderClient purchaseOrders = new StubPurchaseOrderClient();
+        InventoryHandler delegate = new InventoryHandler();
+        ConsolidatingPurchaseOrderWorkItemHandler handler = new ConsolidatingPurchaseOrderWorkItemHandler(ksession, delegate,
+                purchaseOrders, 0, 1000);
+        ksession.getWorkItemManager().registerWorkItemHandler("Rest", handler);
+
+        long processInstanceId = startProcess(ksession, "RR-1", "A", 1);
+        assertEquals(1, delegate.others.size());
+        assertEquals("createPurchaseOrderUrl", delegate.others.get(0).getParameter("Url"));
+        assertEquals(0, purchaseOrders.requests.size());
+
+        abortProcessInstances(ksession, processInstanceId);
+        handler.close();
+        disposeRuntimeManager();
+        logger.debug("END testWithoutWindowEverythingIsDelegated");
+    }
+
+    private long startProcess(KieSession ksession, String repairRequestId, String partCode, int quantity) {
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("repairRequestId", repairRequestId);
+        parameters.put("branchCode", "BC-1");
+        parameters.put("partCode", partCode);
+        parameters.put("quantity", quantity);
+        parameters.put("getInventoryUrl", "inventoryUrl");
+        parameters.put("assignPartsUrl", "assignPartsUrl");
+        parameters.put("createPurchaseOrderUrl", "createPurchaseOrderUrl");
+        return ksession.startProcess(PROCESS_ID, parameters).getId();
+    }
+
+    private void awaitReceiverId(KieSession ksession, long... processInstanceIds) throws InterruptedException {
+        for (long processInstanceId : processInstanceIds) {
+            long deadline = System.currentTimeMillis() + 10000;
+            while (getVariableValue(MaterialReceipt.PURCHASE_ORDER_RECEIVER_ID, processInstanceId, ksession) == null
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertEquals("PO-1", getVariableValue(MaterialReceipt.PURCHASE_ORDER_RECEIVER_ID, processInstanceId, ksession));
+        }
+    }
+
+    private void abortProcessInstances(KieSession ksession, long... processInstanceIds) {
+        // pending SLA timers otherwise hold up disposing the runtime manager
+        for (long processInstanceId : processInstanceIds) {
+            ksession.abortProcessInstance(processInstanceId);
+        }
+    }
+
+    private static class StubPurchaseOrderClient implements RestClient {
+        private final List<RestRequest> requests = new ArrayList<>();
+
+        @Override
+        public synchronized RestResponse execute(RestRequest request) {
+            if ("GET".equals(request.getMethod())) {
+                return new RestResponse(200, "OK", "{\"availableQuantity\":0}");
+            }
+            requests.add(request);
+            return new RestResponse(200, "OK", "{\"partCode\":\"A\",\"quantity\":0,\"purchaseOrderReceiverId\":\"PO-" + requests.size() + "\"}");
+        }
+    }
+
+    private static class InventoryHandler implements WorkItemHandler {
+        private final List<WorkItem> others = new ArrayList<>();
+        private volatile int availableQuantity;
+
+        @Override
+        public void executeWorkItem(WorkItem workItem, WorkItemManager manager) {
+            if ("GET".equals(workItem.getParameter("Method"))) {
+                manager.completeWorkItem(workItem.getId(),
+                        new RestResponse(200, "OK", "{\"availableQuantity\":" + availableQuantity + "}").toResults());
+            } else {
+                others.add(workItem);
+            }
+        }
+
+        @Override
+        public void abortWorkItem(WorkItem workItem, WorkItemManager manager) {
+        }
+    }
+}
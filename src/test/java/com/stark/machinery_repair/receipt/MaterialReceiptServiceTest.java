@@ -0,0 +1,209 @@
+package com.stark.machinery_repair.receipt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.jbpm.test.JbpmJUnitBaseTestCase;
+import org.junit.Test;
+import org.kie.api.event.process.DefaultProcessEventListener;
+import org.kie.api.event.process.ProcessNodeTriggeredEvent;
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.process.WorkItem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class MaterialReceiptServiceTest extends JbpmJUnitBaseTestCase {
+    private static Logger logger = LoggerFactory.getLogger(MaterialReceiptServiceTest.class);
+
+    private static final String PROCESS_ID = "machinery-repair.parts-procurement_v2_0";
+
+    public MaterialReceiptServiceTest() {
+        super(true, true);
+    }
+
+    @Test
+    public void testReceiptWakesOnlyItsPurchaseOrder() {
+        logger.debug("START testReceiptWakesOnlyItsPurchaseOrder");
+        createRuntimeManager("com/stark/machinery_repair/parts-procurement.bpmn");
+        KieSession ksession = getRuntimeEngine().getKieSession();
+        TestWorkItemHandler testHandler = new TestWorkItemHandler();
+        ksession.getWorkItemManager().registerWorkItemHandler("Rest", testHandler);
+        ReceivedMaterialsIndex index = new ReceivedMaterialsIndex();
+        ksession.addEventListener(new ReceivedMaterialsListener(index));
+
+        long first = startWaiting(ksession, testHandler, "RR-1", "BC-1", "A", "PO-1");
+        long second = startWaiting(ksession, testHandler, "RR-2", "BC-1", "A", "PO-2");
+        assertEquals(2, index.getWaiting());
+
+        MaterialReceiptService service = new MaterialReceiptService(index, processInstanceId -> ksession, getEmf());
+        assertEquals(Collections.singleton(first), service.receive(MaterialReceipt.forPurchaseOrder("PO-1")));
+        assertNodeActive(first, ksession, "Request Inventory Availability");
+        assertNodeActive(second, ksession, "Received Materials");
+        assertEquals(1, index.getWaiting());
+
+        assertTrue(service.receive(MaterialReceipt.forPurchaseOrder("PO-3")).isEmpty());
+        assertNodeActive(second, ksession, "Received Materials");
+
+        abortAndDispose(ksession, first, second);
+        logger.debug("END testReceiptWakesOnlyItsPurchaseOrder");
+    }
+
+    @Test
+    public void testBatchOfReceiptsSignalsEachMatchOnce() {
+        logger.debug("START testBatchOfReceiptsSignalsEachMatchOnce");
+        createRuntimeManager("com/stark/machinery_repair/parts-procurement.bpmn");
+        KieSession ksession = getRuntimeEngine().getKieSession();
+        TestWorkItemHandler testHandler = new TestWorkItemHandler();
+        ksession.getWorkItemManager().registerWorkItemHandler("Rest", testHandler);
+        ReceivedMaterialsIndex index = new ReceivedMaterialsIndex();
+        ksession.addEventListener(new ReceivedMaterialsListener(index));
+
+        long first = startWaiting(ksession, testHandler, "RR-1", "BC-1", "A", "PO-1");
+        long second = startWaiting(ksession, testHandler, "RR-2", "BC-1", "A", "PO-2");
+        long other = startWaiting(ksession, testHandler, "RR-3", "BC-2", "A", "PO-3");
+
+        MaterialReceiptService service = new MaterialReceiptService(index, processInstanceId -> ksession, getEmf());
+        assertEquals(new HashSet<>(Arrays.asList(first, second)), service.receiveAll(Arrays.asList(
+                MaterialReceipt.forPurchaseOrder("PO-1"), MaterialReceipt.forPart("BC-1", "A"))));
+        assertEquals(2, testHandler.getWorkItems().size());
+        assertNodeActive(other, ksession, "Received Materials");
+
+        abortAndDispose(ksession, first, second, other);
+        logger.debug("END testBatchOfReceiptsSignalsEachMatchOnce");
+    }
+
+    @Test
+    public void testTargetedSignalWakesOnlyItsInstance() {
+        logger.debug("START testTargetedSignalWakesOnlyItsInstance");
+        createRuntimeManager("com/stark/machinery_repair/parts-procurement.bpmn");
+        KieSession ksession = getRuntimeEngine().getKieSession();
+        TestWorkItemHandler testHandler = new TestWorkItemHandler();
+        ksession.getWorkItemManager().registerWorkItemHandler("Rest", testHandler);
+
+        long first = startWaiting(ksession, testHandler, "RR-1", "BC-1", "A", "PO-1");
+        long second = startWaiting(ksession, testHandler, "RR-2", "BC-1", "A", "PO-2");
+        assertEquals("PO-1", getVariableValue("purchaseOrderReceiverId", first, ksession));
+
+        // what the service sends for each match
+        ksession.signalEvent(MaterialReceiptService.RECEIVED_MATERIALS_SIGNAL, null, first);
+        assertNodeActive(first, ksession, "Request Inventory Availability");
+        assertNodeActive(second, ksession, "Received Materials");
+        assertEquals(1, testHandler.getWorkItems().size());
+
+        // whereas a broadcast wakes every instance still waiting
+        ksession.signalEvent(MaterialReceiptService.RECEIVED_MATERIALS_SIGNAL, null);
+        assertNodeActive(second, ksession, "Request Inventory Availability");
+
+        abortAndDispose(ksession, first, second);
+        logger.debug("END testTargetedSignalWakesOnlyItsInstance");
+    }
+
+    @Test
+    public void testIndexIsRebuiltAfterRestart() {
+        logger.debug("START testIndexIsRebuiltAfterRestart");
+        createRuntimeManager("com/stark/machinery_repair/parts-procurement.bpmn");
+        KieSession ksession = getRuntimeEngine().getKieSession();
+        TestWorkItemHandler testHandler = new TestWorkItemHandler();
+        ksession.getWorkItemManager().registerWorkItemHandler("Rest", testHandler);
+
+        long waiting = startWaiting(ksession, testHandler, "RR-1", "BC-1", "A", "PO-1");
+        long done = startWaiting(ksession, testHandler, "RR-2", "BC-1", "B", "PO-2");
+        ksession.signalEvent(MaterialReceiptService.RECEIVED_MATERIALS_SIGNAL, null, done);
+        testHandler.getWorkItems();
+
+        // an index that saw none of it, as after a restart
+        ReceivedMaterialsIndex index = new ReceivedMaterialsIndex();
+        MaterialReceiptService service = new MaterialReceiptService(index, processInstanceId -> ksession, getEmf());
+        assertEquals(1, index.getWaiting());
+        assertTrue(service.receive(MaterialReceipt.forPurchaseOrder("PO-2")).isEmpty());
+        assertEquals(Collections.singleton(waiting), service.receive(MaterialReceipt.forPart("BC-1", "A")));
+        assertNodeActive(waiting, ksession, "Request Inventory Availability");
+
+        abortAndDispose(ksession, waiting, done);
+        logger.debug("END testIndexIsRebuiltAfterRestart");
+    }
+
+    @Test
+    public void testRolledBackWaitLeavesNoEntry() {
+        logger.debug("START testRolledBackWaitLeavesNoEntry");
+        createRuntimeManager("com/stark/machinery_repair/parts-procurement.bpmn");
+        KieSession ksession = getRuntimeEngine().getKieSession();
+        TestWorkItemHandler testHandler = new TestWorkItemHandler();
+        ksession.getWorkItemManager().registerWorkItemHandler("Rest", testHandler);
+        ReceivedMaterialsIndex index = new ReceivedMaterialsIndex();
+        ksession.addEventListener(new ReceivedMaterialsListener(index));
+        // fails the transaction after the index listener saw the instance reach "Received Materials"
+        ksession.addEventListener(new DefaultProcessEventListener() {
+            @Override
+            public void afterNodeTriggered(ProcessNodeTriggeredEvent event) {
+                if (ReceivedMaterialsIndex.RECEIVED_MATERIALS_NODE.equals(event.getNodeInstance().getNodeName())) {
+                    throw new IllegalStateException("rolled back");
+                }
+            }
+        });
+
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("repairRequestId", "RR-1");
+        parameters.put("branchCode", "BC-1");
+        parameters.put("partCode", "A");
+        parameters.put("quantity", 1);
+        parameters.put("getInventoryUrl", "inventoryUrl");
+        parameters.put("assignPartsUrl", "assignPartsUrl");
+        parameters.put("createPurchaseOrderUrl", "createPurchaseOrderUrl");
+        long processInstanceId = ksession.startProcess(PROCESS_ID, parameters).getId();
+        Map<String, Object> workItemResult = new HashMap<>();
+        workItemResult.put("Result", "{\"partCode\":\"A\", \"availableQuantity\":0}");
+        ksession.getWorkItemManager().completeWorkItem(testHandler.getWorkItem().getId(), workItemResult);
+        workItemResult.put("Result", "{\"partCode\":\"A\", \"quantity\":0, \"purchaseOrderReceiverId\":\"PO-1\"}");
+        try {
+            ksession.getWorkItemManager().completeWorkItem(testHandler.getWorkItem().getId(), workItemResult);
+            fail("the listener should have failed the transaction");
+        } catch (RuntimeException e) {
+            // expected
+        }
+
+        assertEquals(0, index.getWaiting());
+        assertNodeActive(processInstanceId, ksession, "Purchase Order");
+
+        abortAndDispose(ksession, processInstanceId);
+        logger.debug("END testRolledBackWaitLeavesNoEntry");
+    }
+
+    private long startWaiting(KieSession ksession, TestWorkItemHandler testHandler, String repairRequestId,
+            String branchCode, String partCode, String purchaseOrderReceiverId) {
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("repairRequestId", repairRequestId);
+        parameters.put("branchCode", branchCode);
+        parameters.put("partCode", partCode);
+        parameters.put("quantity", 1);
+        parameters.put("getInventoryUrl", "inventoryUrl");
+        parameters.put("assignPartsUrl", "assignPartsUrl");
+        parameters.put("createPurchaseOrderUrl", "createPurchaseOrderUrl");
+        long processInstanceId = ksession.startProcess(PROCESS_ID, parameters).getId();
+
+        Map<String, Object> workItemResult = new HashMap<>();
+        workItemResult.put("Result", "{\"partCode\":\"" + partCode + "\", \"availableQuantity\":0}");
+        ksession.getWorkItemManager().completeWorkItem(testHandler.getWorkItem().getId(), workItemResult);
+        WorkItem purchaseOrder = testHandler.getWorkItem();
+        assertEquals("createPurchaseOrderUrl", purchaseOrder.getParameter("Url"));
+        workItemResult.put("Result", "{\"partCode\":\"" + partCode + "\", \"quantity\":0, \"purchaseOrderReceiverId\":\""
+                + purchaseOrderReceiverId + "\"}");
+        ksession.getWorkItemManager().completeWorkItem(purchaseOrder.getId(), workItemResult);
+        assertNodeActive(processInstanceId, ksession, "Received Materials");
+        return processInstanceId;
+    }
+
+    private void abortAndDispose(KieSession ksession, long... processInstanceIds) {
+        for (long processInstanceId : processInstanceIds) {
+            ksession.abortProcessInstance(processInstanceId);
+        }
+        disposeRuntimeManager();
+    }
+}
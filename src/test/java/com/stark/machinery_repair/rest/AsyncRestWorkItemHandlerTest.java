@@ -0,0 +1,343 @@
+package com.stark.machinery_repair.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import javax.naming.InitialContext;
+import javax.transaction.UserTransaction;
+
+import com.stark.machinery_repair.inventory.BatchingInventoryWorkItemHandler;
+import com.stark.machinery_repair.inventory.InventoryAvailabilityCache;
+import org.jbpm.test.JbpmJUnitBaseTestCase;
+import org.junit.Test;
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.process.ProcessInstance;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class AsyncRestWorkItemHandlerTest extends JbpmJUnitBaseTestCase {
+    private static Logger logger = LoggerFactory.getLogger(AsyncRestWorkItemHandlerTest.class);
+
+    private static final String PROCESS_ID = "machinery-repair.parts-procurement_v2_0";
+    private static final String INVENTORY_URL = "http://parts-storage:8080/inventory";
+    private static final String ASSIGN_PARTS_URL = "http://parts-storage:8080/assignments";
+
+    public AsyncRestWorkItemHandlerTest() {
+        super(true, true);
+    }
+
+    @Test
+    public void testSessionIsNotHeldDuringCall() throws Exception {
+        logger.debug("START testSessionIsNotHeldDuringCall");
+        createRuntimeManager("com/stark/machinery_repair/parts-procurement.bpmn");
+        KieSession ksession = getRuntimeEngine().getKieSession();
+        StubServices services = new StubServices();
+        AsyncRestWorkItemHandler handler = new AsyncRestWorkItemHandler(ksession, services,
+                endpoint -> new EndpointSettings(4, 1000, 1000, 10000), 4);
+        ksession.getWorkItemManager().registerWorkItemHandler("Rest", handler);
+
+        CountDownLatch inventoryLatch = new CountDownLatch(1);
+        services.inventoryLatch = inventoryLatch;
+        long first = startProcess(ksession, "RR-1");
+        long second = startProcess(ksession, "RR-2");
+
+        // both lookups are on the wire while the session keeps serving other commands
+        waitFor(() -> services.inventoryCalls.get() == 2);
+        assertNodeActive(first, ksession, "Request Inventory Availability");
+        assertNodeActive(second, ksession, "Request Inventory Availability");
+        assertEquals(2, handler.getInFlight());
+
+        inventoryLatch.countDown();
+        waitFor(() -> ksession.getProcessInstance(first) == null && ksession.getProcessInstance(second) == null);
+        assertProcessInstanceCompleted(first);
+        assertProcessInstanceCompleted(second);
+        assertEquals(0, handler.getInFlight());
+
+        handler.close();
+        disposeRuntimeManager();
+        logger.debug("END testSessionIsNotHeldDuringCall");
+    }
+
+    @Test
+    public void testConcurrencyIsLimitedPerEndpoint() throws Exception {
+        logger.debug("START testConcurrencyIsLimitedPerEndpoint");
+        createRuntimeManager("com/stark/machinery_repair/parts-procurement.bpmn");
+        KieSession ksession = getRuntimeEngine().getKieSession();
+        StubServices services = new StubServices();
+        services.delayMillis = 50;
+        AsyncRestWorkItemHandler handler = new AsyncRestWorkItemHandler(ksession, services,
+                endpoint -> new EndpointSettings(1, 1000, 1000, 10000), 8);
+        ksession.getWorkItemManager().registerWorkItemHandler("Rest", handler);
+
+        long[] processInstanceIds = new long[4];
+        for (int i = 0; i < processInstanceIds.length; i++) {
+            processInstanceIds[i] = startProcess(ksession, "RR-" + i);
+        }
+        for (long processInstanceId : processInstanceIds) {
+            waitFor(() -> ksession.getProcessInstance(processInstanceId) == null);
+            assertProcessInstanceCompleted(processInstanceId);
+        }
+        assertEquals(4, services.inventoryCalls.get());
+        assertEquals(1, services.maxConcurrentInventoryCalls.get());
+
+        handler.close();
+        disposeRuntimeManager();
+        logger.debug("END testConcurrencyIsLimitedPerEndpoint");
+    }
+
+    @Test
+    public void testFailedCallTakesFailPath() throws Exception {
+        logger.debug("START testFailedCallTakesFailPath");
+        createRuntimeManager("com/stark/machinery_repair/parts-procurement.bpmn");
+        KieSession ksession = getRuntimeEngine().getKieSession();
+        StubServices services = new StubServices();
+        services.inventoryFailure = new IOException("Connection refused");
+        AsyncRestWorkItemHandler handler = new AsyncRestWorkItemHandler(ksession, services,
+                endpoint -> new EndpointSettings(4, 1000, 1000, 10000), 4);
+        ksession.getWorkItemManager().registerWorkItemHandler("Rest", handler);
+
+        long processInstanceId = startProcess(ksession, "RR-1");
+        waitFor(() -> !getRuntimeEngine().getTaskService().getTasksByProcessInstanceId(processInstanceId).isEmpty());
+
+        assertNodeActive(processInstanceId, ksession, "Fix Procurement Details");
+        List<Long> tasks = getRuntimeEngine().getTaskService().getTasksByProcessInstanceId(processInstanceId);
+        assertEquals(1, tasks.size());
+
+        ksession.abortProcessInstance(processInstanceId);
+        handler.close();
+        disposeRuntimeManager();
+        logger.debug("END testFailedCallTakesFailPath");
+    }
+
+    @Test
+    public void testOpenCircuitParksAndResumesCalls() throws Exception {
+        logger.debug("START testOpenCircuitParksAndResumesCalls");
+        createRuntimeManager("com/stark/machinery_repair/parts-procurement.bpmn");
+        KieSession ksession = getRuntimeEngine().getKieSession();
+        StubServices services = new StubServices();
+        services.inventoryFailure = new IOException("Connection refused");
+        AsyncRestWorkItemHandler handler = new AsyncRestWorkItemHandler(ksession, services,
+                endpoint -> new EndpointSettings(4, 1000, 1000, 10000, circuit(1000, CircuitBreakerSettings.OpenMode.PARK)), 4);
+        ksession.getWorkItemManager().registerWorkItemHandler("Rest", handler);
+
+        long[] failed = {startProcess(ksession, "RR-1"), startProcess(ksession, "RR-2")};
+        waitFor(() -> services.inventoryCalls.get() == 2 && handler.getInFlight() == 0);
+
+        // the circuit is open, further lookups wait without reaching the service
+        long[] parked = new long[3];
+        for (int i = 0; i < parked.length; i++) {
+            parked[i] = startProcess(ksession, "RR-" + (i + 3));
+        }
+        waitFor(() -> handler.getParked() == 3);
+        assertEquals(2, services.inventoryCalls.get());
+        for (long processInstanceId : parked) {
+            assertNodeActive(processInstanceId, ksession, "Request Inventory Availability");
+        }
+
+        // once a trial call gets through, the parked calls go out in bulk
+        services.inventoryFailure = null;
+        for (long processInstanceId : parked) {
+            waitFor(() -> ksession.getProcessInstance(processInstanceId) == null);
+            assertProcessInstanceCompleted(processInstanceId);
+        }
+        assertEquals(0, handler.getParked());
+        assertEquals(5, services.inventoryCalls.get());
+
+        for (long processInstanceId : failed) {
+            ksession.abortProcessInstance(processInstanceId);
+        }
+        handler.close();
+        disposeRuntimeManager();
+        logger.debug("END testOpenCircuitParksAndResumesCalls");
+    }
+
+    @Test
+    public void testOpenCircuitFailsFast() throws Exception {
+        logger.debug("START testOpenCircuitFailsFast");
+        createRuntimeManager("com/stark/machinery_repair/parts-procurement.bpmn");
+        KieSession ksession = getRuntimeEngine().getKieSession();
+        StubServices services = new StubServices();
+        services.inventoryFailure = new IOException("Connection refused");
+        AsyncRestWorkItemHandler handler = new AsyncRestWorkItemHandler(ksession, services,
+                endpoint -> new EndpointSettings(4, 1000, 1000, 10000, circuit(60000, CircuitBreakerSettings.OpenMode.FAIL_FAST)), 4);
+        ksession.getWorkItemManager().registerWorkItemHandler("Rest", handler);
+
+        long[] failed = {startProcess(ksession, "RR-1"), startProcess(ksession, "RR-2")};
+        waitFor(() -> services.inventoryCalls.get() == 2 && handler.getInFlight() == 0);
+
+        long processInstanceId = startProcess(ksession, "RR-3");
+        waitFor(() -> !getRuntimeEngine().getTaskService().getTasksByProcessInstanceId(processInstanceId).isEmpty());
+        assertNodeActive(processInstanceId, ksession, "Fix Procurement Details");
+        assertEquals(2, services.inventoryCalls.get());
+        assertEquals(0, handler.getParked());
+
+        ksession.abortProcessInstance(processInstanceId);
+        for (long id : failed) {
+            ksession.abortProcessInstance(id);
+        }
+        handler.close();
+        disposeRuntimeManager();
+        logger.debug("END testOpenCircuitFailsFast");
+    }
+
+    @Test
+    public void testCallWaitsForCommit() throws Exception {
+        logger.debug("START testCallWaitsForCommit");
+        createRuntimeManager("com/stark/machinery_repair/parts-procurement.bpmn");
+        KieSession ksession = getRuntimeEngine().getKieSession();
+        StubServices services = new StubServices();
+        AsyncRestWorkItemHandler handler = new AsyncRestWorkItemHandler(ksession, services,
+                endpoint -> new EndpointSettings(4, 1000, 1000, 10000), 4);
+        ksession.getWorkItemManager().registerWorkItemHandler("Rest", handler);
+        UserTransaction ut = (UserTransaction) new InitialContext().lookup("java:comp/UserTransaction");
+
+        // nothing goes out for a work item whose transaction rolls back
+        ut.begin();
+        startProcess(ksession, "RR-1");
+        Thread.sleep(200);
+        assertEquals(0, services.inventoryCalls.get());
+        ut.rollback();
+        Thread.sleep(200);
+        assertEquals(0, services.inventoryCalls.get());
+        assertEquals(0, handler.getInFlight());
+
+        ut.begin();
+        long processInstanceId = startProcess(ksession, "RR-2");
+        Thread.sleep(200);
+        assertEquals(0, services.inventoryCalls.get());
+        ut.commit();
+        waitFor(() -> ksession.getProcessInstance(processInstanceId) == null);
+        assertProcessInstanceCompleted(processInstanceId);
+        assertEquals(1, services.inventoryCalls.get());
+
+        handler.close();
+        disposeRuntimeManager();
+        logger.debug("END testCallWaitsForCommit");
+    }
+
+    @Test
+    public void testPendingCallsAreRecoveredAfterRestart() throws Exception {
+        logger.debug("START testPendingCallsAreRecoveredAfterRestart");
+        createRuntimeManager("com/stark/machinery_repair/parts-procurement.bpmn");
+        KieSession ksession = getRuntimeEngine().getKieSession();
+        // the calls of the handler before the restart never come back
+        ksession.getWorkItemManager().registerWorkItemHandler("Rest", new TestWorkItemHandler());
+        long first = startProcess(ksession, "RR-1");
+        long second = startProcess(ksession, "RR-2");
+        assertNodeActive(first, ksession, "Request Inventory Availability");
+
+        StubServices services = new StubServices();
+        AsyncRestWorkItemHandler handler = new AsyncRestWorkItemHandler(ksession, services,
+                endpoint -> new EndpointSettings(4, 1000, 1000, 10000), 4);
+        ksession.getWorkItemManager().registerWorkItemHandler("Rest", handler);
+        assertEquals(2, handler.recoverPendingCalls());
+        for (long processInstanceId : new long[] {first, second}) {
+            waitFor(() -> ksession.getProcessInstance(processInstanceId) == null);
+            assertProcessInstanceCompleted(processInstanceId);
+        }
+        assertEquals(2, services.inventoryCalls.get());
+        assertEquals(2, services.assignCalls.get());
+        assertEquals(0, handler.recoverPendingCalls());
+
+        handler.close();
+        disposeRuntimeManager();
+        logger.debug("END testPendingCallsAreRecoveredAfterRestart");
+    }
+
+    @Test
+    public void testRecoverySkipsWorkItemsHeldUpTheChain() throws Exception {
+        logger.debug("START testRecoverySkipsWorkItemsHeldUpTheChain");
+        createRuntimeManager("com/stark/machinery_repair/parts-procurement.bpmn");
+        KieSession ksession = getRuntimeEngine().getKieSession();
+        StubServices services = new StubServices();
+        AsyncRestWorkItemHandler handler = new AsyncRestWorkItemHandler(ksession, services,
+                endpoint -> new EndpointSettings(4, 1000, 1000, 10000), 4);
+        // the lookup waits in the batch for far longer than the test runs
+        BatchingInventoryWorkItemHandler batching = new BatchingInventoryWorkItemHandler(ksession, handler, services,
+                new InventoryAvailabilityCache(0, 0), "batchInventoryUrl", 10, 60000);
+        ksession.getWorkItemManager().registerWorkItemHandler("Rest", batching);
+
+        long processInstanceId = startProcess(ksession, "RR-1");
+        assertNodeActive(processInstanceId, ksession, "Request Inventory Availability");
+        assertEquals(0, handler.recoverPendingCalls());
+        assertEquals(0, services.inventoryCalls.get());
+
+        ksession.abortProcessInstance(processInstanceId);
+        batching.close();
+        disposeRuntimeManager();
+        logger.debug("END testRecoverySkipsWorkItemsHeldUpTheChain");
+    }
+
+    private static CircuitBreakerSettings circuit(long openMillis, CircuitBreakerSettings.OpenMode openMode) {
+        // opens after two failed calls and closes after one successful trial call
+        return new CircuitBreakerSettings(4, 2, 50, 10000, 100, openMillis, 1, openMode, 100);
+    }
+
+    private long startProcess(KieSession ksession, String repairRequestId) {
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("repairRequestId", repairRequestId);
+        parameters.put("branchCode", "BC-1");
+        parameters.put("partCode", "A");
+        parameters.put("quantity", 1);
+        parameters.put("getInventoryUrl", INVENTORY_URL);
+        parameters.put("assignPartsUrl", ASSIGN_PARTS_URL);
+        parameters.put("createPurchaseOrderUrl", "");
+
+        ProcessInstance processInstance = ksession.startProcess(PROCESS_ID, parameters);
+        return processInstance.getId();
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.getAsBoolean()) {
+            assertTrue("Timed out waiting for REST calls", System.currentTimeMillis() < deadline);
+            Thread.sleep(20);
+        }
+    }
+
+    private static class StubServices implements RestClient {
+        private final AtomicInteger inventoryCalls = new AtomicInteger();
+        private final AtomicInteger assignCalls = new AtomicInteger();
+        private final AtomicInteger concurrentInventoryCalls = new AtomicInteger();
+        private final AtomicInteger maxConcurrentInventoryCalls = new AtomicInteger();
+        private volatile CountDownLatch inventoryLatch;
+        private volatile IOException inventoryFailure;
+        private volatile long delayMillis;
+
+        @Override
+        public RestResponse execute(RestRequest request) throws IOException {
+            if (ASSIGN_PARTS_URL.equals(request.getUrl())) {
+                assignCalls.incrementAndGet();
+                return new RestResponse(200, "OK", "{\"reservationId\": \"abc-ABC-123\", \"remainingParts\": 0}");
+            }
+            int concurrent = concurrentInventoryCalls.incrementAndGet();
+            maxConcurrentInventoryCalls.accumulateAndGet(concurrent, Math::max);
+            inventoryCalls.incrementAndGet();
+            try {
+                if (inventoryLatch != null) {
+                    inventoryLatch.await(10, TimeUnit.SECONDS);
+                }
+                if (delayMillis > 0) {
+                    Thread.sleep(delayMillis);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                concurrentInventoryCalls.decrementAndGet();
+            }
+            if (inventoryFailure != null) {
+                throw inventoryFailure;
+            }
+            return new RestResponse(200, "OK", "{\"partCode\":\"A\", \"availableQuantity\":20}");
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.stark.machinery_repair.retry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.drools.persistence.api.TransactionManager;
+import org.drools.persistence.api.TransactionSynchronization;
+import org.junit.Test;
+import org.kie.api.KieServices;
+import org.kie.api.runtime.Environment;
+import org.kie.api.runtime.EnvironmentName;
+import org.kie.api.runtime.KieRuntime;
+import org.kie.api.runtime.process.ProcessContext;
+import org.kie.api.runtime.process.ProcessInstance;
+
+public class RetryPolicyTest {
+
+    @Test
+    public void testDelayGrowsExponentiallyWithJitter() {
+        RetryPolicy policy = new RetryPolicy(1000, 60000, 10, 10);
+        for (int i = 0; i < 200; i++) {
+            assertBetween(500, 1000, policy.delayOf(0));
+            assertBetween(2000, 4000, policy.delayOf(2));
+            assertBetween(30000, 60000, policy.delayOf(9));
+            assertBetween(30000, 60000, policy.delayOf(100));
+        }
+    }
+
+    @Test
+    public void testBudgetIsPerInstance() {
+        RetryPolicy policy = new RetryPolicy(1000, 60000, 2, 10);
+        ProcessContext first = context(1);
+        ProcessContext second = context(2);
+
+        assertTrue(policy.schedule(first));
+        policy.release(1);
+        assertTrue(policy.schedule(first));
+        policy.release(1);
+        assertTrue(policy.schedule(second));
+        assertEquals(2, first.getVariable(RetryPolicy.RETRY_COUNT));
+        assertTrue(((String) first.getVariable(RetryPolicy.RETRY_DELAY)).endsWith("ms"));
+
+        assertFalse(policy.schedule(first));
+        assertEquals(false, first.getVariable(RetryPolicy.RETRY_SCHEDULED));
+        assertEquals(0, first.getVariable(RetryPolicy.RETRY_COUNT));
+        assertEquals(1, second.getVariable(RetryPolicy.RETRY_COUNT));
+    }
+
+    @Test
+    public void testWaitingInstancesAreCapped() {
+        RetryPolicy policy = new RetryPolicy(1000, 60000, 5, 2);
+        assertTrue(policy.schedule(context(1)));
+        assertTrue(policy.schedule(context(2)));
+        assertFalse(policy.schedule(context(3)));
+        assertEquals(2, policy.getWaiting());
+
+        policy.release(1);
+        assertTrue(policy.schedule(context(3)));
+        assertEquals(2, policy.getWaiting());
+    }
+
+    @Test
+    public void testSlotIsReleasedOnRollback() {
+        RetryPolicy policy = new RetryPolicy(1000, 60000, 5, 2);
+        List<TransactionSynchronization> synchronizations = new ArrayList<>();
+        Environment environment = KieServices.Factory.get().newEnvironment();
+        environment.set(EnvironmentName.TRANSACTION_MANAGER, Proxy.newProxyInstance(RetryPolicyTest.class.getClassLoader(),
+                new Class<?>[] { TransactionManager.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getStatus":
+                            return TransactionManager.STATUS_ACTIVE;
+                        case "registerTransactionSynchronization":
+                            synchronizations.add((TransactionSynchronization) args[0]);
+                            return null;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                }));
+
+        assertTrue(policy.schedule(context(1, environment)));
+        assertTrue(policy.schedule(context(2, environment)));
+        assertEquals(2, policy.getWaiting());
+        synchronizations.get(0).afterCompletion(TransactionManager.STATUS_ROLLEDBACK);
+        synchronizations.get(1).afterCompletion(TransactionManager.STATUS_COMMITTED);
+        assertEquals(1, policy.getWaiting());
+        assertTrue(policy.schedule(context(3, environment)));
+    }
+
+    private static void assertBetween(long min, long max, long actual) {
+        assertTrue(actual + " not in [" + min + ", " + max + "]", actual >= min && actual <= max);
+    }
+
+    private static ProcessContext context(long processInstanceId) {
+        return context(processInstanceId, null);
+    }
+
+    private static ProcessContext context(long processInstanceId, Environment environment) {
+        Map<String, Object> variables = new HashMap<>();
+        KieRuntime runtime = environment == null ? null
+                : (KieRuntime) Proxy.newProxyInstance(RetryPolicyTest.class.getClassLoader(), new Class<?>[] { KieRuntime.class },
+                        (proxy, method, args) -> {
+                            if ("getEnvironment".equals(method.getName())) {
+                                return environment;
+                            }
+                            throw new UnsupportedOperationException(method.getName());
+                        });
+        ProcessInstance processInstance = (ProcessInstance) Proxy.newProxyInstance(RetryPolicyTest.class.getClassLoader(),
+                new Class<?>[] { ProcessInstance.class }, (proxy, method, args) -> {
+                    if ("getId".equals(method.getName())) {
+                        return processInstanceId;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+        return (ProcessContext) Proxy.newProxyInstance(RetryPolicyTest.class.getClassLoader(),
+                new Class<?>[] { ProcessContext.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getProcessInstance":
+                            return processInstance;
+                        case "getKieRuntime":
+                            return runtime;
+                        case "getVariable":
+                            return variables.get(args[0]);
+                        case "setVariable":
+                            variables.put((String) args[0], args[1]);
+                            return null;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
@@ -0,0 +1,215 @@
+package com.stark.machinery_repair.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jbpm.test.JbpmJUnitBaseTestCase;
+import org.junit.Test;
+import org.kie.api.io.ResourceType;
+import org.kie.api.runtime.manager.RuntimeEnvironment;
+import org.kie.api.runtime.manager.RuntimeEnvironmentBuilder;
+import org.kie.api.runtime.manager.audit.ProcessInstanceLog;
+import org.kie.api.runtime.process.ProcessInstance;
+import org.kie.api.runtime.process.WorkItem;
+import org.kie.api.runtime.process.WorkItemHandler;
+import org.kie.api.runtime.process.WorkItemManager;
+import org.kie.api.task.TaskService;
+import org.kie.internal.io.ResourceFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class ShardedRuntimeManagerTest extends JbpmJUnitBaseTestCase {
+    private static Logger logger = LoggerFactory.getLogger(ShardedRuntimeManagerTest.class);
+
+    private static final String PROCESS_ID = "machinery-repair.parts-procurement_v2_0";
+    private static final ShardRouter ROUTER = new ShardRouter(ShardRouter.BRANCH_CODE);
+
+    public ShardedRuntimeManagerTest() {
+        super(true, true);
+    }
+
+    @Test
+    public void testInstancesStayOnTheirBranchShard() {
+        logger.debug("START testInstancesStayOnTheirBranchShard");
+        ShardedRuntimeManager sharded = new ShardedRuntimeManager("sharded-routing", 2, this::environment, ROUTER);
+        List<RecordingHandler> handlers = registerHandlers(sharded);
+        assertNotEquals(ROUTER.shardOf("BC-1", 2), ROUTER.shardOf("BC-2", 2));
+
+        long first = sharded.startProcess(PROCESS_ID, parameters("RR-1", "BC-1")).getId();
+        long second = sharded.startProcess(PROCESS_ID, parameters("RR-2", "BC-2")).getId();
+        int firstShard = sharded.shardOf(first);
+        int secondShard = sharded.shardOf(second);
+        assertEquals(ROUTER.shardOf("BC-1", 2), firstShard);
+        assertEquals(ROUTER.shardOf("BC-2", 2), secondShard);
+        assertEquals(1, handlers.get(firstShard).workItems.size());
+        assertEquals(1, handlers.get(secondShard).workItems.size());
+
+        completeHappyPath(sharded, first, handlers.get(firstShard));
+        completeHappyPath(sharded, second, handlers.get(secondShard));
+        assertProcessInstanceCompleted(sharded, first);
+        assertProcessInstanceCompleted(sharded, second);
+
+        sharded.close();
+        logger.debug("END testInstancesStayOnTheirBranchShard");
+    }
+
+    @Test
+    public void testTaskCompletionContinuesOnOwningShard() {
+        logger.debug("START testTaskCompletionContinuesOnOwningShard");
+        ShardedRuntimeManager sharded = new ShardedRuntimeManager("sharded-tasks", 2, this::environment, ROUTER);
+        List<RecordingHandler> handlers = registerHandlers(sharded);
+
+        long processInstanceId = sharded.startProcess(PROCESS_ID, parameters("RR-1", "BC-1")).getId();
+        int shard = sharded.shardOf(processInstanceId);
+        RecordingHandler handler = handlers.get(shard);
+
+        // a failed lookup ends up in "Fix Procurement Details"
+        sharded.completeWorkItem(processInstanceId, handler.last().getId(), new HashMap<>());
+        List<Long> tasks = sharded.getRuntimeEngine(shard).getTaskService().getTasksByProcessInstanceId(processInstanceId);
+        assertEquals(1, tasks.size());
+
+        // the fix moves the repair to another branch, the instance still stays where it started
+        TaskService taskService = sharded.getTaskService(tasks.get(0));
+        taskService.claim(tasks.get(0), "Administrator");
+        taskService.start(tasks.get(0), "Administrator");
+        Map<String, Object> fix = new HashMap<>();
+        fix.put("quantity", 1);
+        fix.put("partCode", "A");
+        fix.put("branchCode", "BC-2");
+        taskService.complete(tasks.get(0), "Administrator", fix);
+
+        assertEquals(2, handler.workItems.size());
+        assertEquals(0, handlers.get(1 - shard).workItems.size());
+        assertEquals(shard, sharded.shardOf(processInstanceId));
+
+        sharded.abortProcessInstance(processInstanceId);
+        sharded.close();
+        logger.debug("END testTaskCompletionContinuesOnOwningShard");
+    }
+
+    @Test
+    public void testOwningShardIsResolvedAfterRestart() {
+        logger.debug("START testOwningShardIsResolvedAfterRestart");
+        ShardedRuntimeManager sharded = new ShardedRuntimeManager("sharded-restart", 2, this::environment, ROUTER);
+        List<RecordingHandler> handlers = registerHandlers(sharded);
+        long processInstanceId = sharded.startProcess(PROCESS_ID, parameters("RR-1", "BC-2")).getId();
+        int shard = sharded.shardOf(processInstanceId);
+        long inventoryLookupId = handlers.get(shard).last().getId();
+        sharded.close();
+
+        sharded = new ShardedRuntimeManager("sharded-restart", 2, this::environment, ROUTER);
+        handlers = registerHandlers(sharded);
+        assertEquals(shard, sharded.shardOf(processInstanceId));
+
+        // the inventory call was in flight when the shards went down, its answer still arrives
+        completeHappyPath(sharded, processInstanceId, inventoryLookupId, handlers.get(shard));
+        assertProcessInstanceCompleted(sharded, processInstanceId);
+
+        sharded.close();
+        logger.debug("END testOwningShardIsResolvedAfterRestart");
+    }
+
+    @Test
+    public void testInstancesWithoutRoutingVariableAreRefused() {
+        logger.debug("START testInstancesWithoutRoutingVariableAreRefused");
+        ShardedRuntimeManager sharded = new ShardedRuntimeManager("sharded-unrouted", 2, this::environment, ROUTER);
+        registerHandlers(sharded);
+        Map<String, Object> parameters = parameters("RR-1", "BC-1");
+        parameters.remove("branchCode");
+        try {
+            sharded.startProcess(PROCESS_ID, parameters);
+            fail("an instance without branchCode cannot be found again after a restart");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        // started directly on a shard, the instance has no routing variable in the audit log
+        long processInstanceId = sharded.getRuntimeEngine(1).getKieSession().startProcess(PROCESS_ID, parameters).getId();
+        sharded.close();
+
+        sharded = new ShardedRuntimeManager("sharded-unrouted", 2, this::environment, ROUTER);
+        try {
+            sharded.shardOf(processInstanceId);
+            fail("a missing routing variable must not resolve to shard 0");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        sharded.getRuntimeEngine(1).getKieSession().abortProcessInstance(processInstanceId);
+
+        sharded.close();
+        logger.debug("END testInstancesWithoutRoutingVariableAreRefused");
+    }
+
+    private RuntimeEnvironment environment(int shard) {
+        return RuntimeEnvironmentBuilder.Factory.get().newDefaultBuilder()
+                .entityManagerFactory(getEmf())
+                .userGroupCallback(userGroupCallback)
+                .addAsset(ResourceFactory.newClassPathResource("com/stark/machinery_repair/parts-procurement.bpmn"), ResourceType.BPMN2)
+                .get();
+    }
+
+    private void assertProcessInstanceCompleted(ShardedRuntimeManager sharded, long processInstanceId) {
+        // the audit log is shared by all shards
+        ProcessInstanceLog log = sharded.getRuntimeEngine(0).getAuditService().findProcessInstance(processInstanceId);
+        assertEquals(ProcessInstance.STATE_COMPLETED, log.getStatus().intValue());
+    }
+
+    private List<RecordingHandler> registerHandlers(ShardedRuntimeManager sharded) {
+        List<RecordingHandler> handlers = new ArrayList<>();
+        for (int shard = 0; shard < sharded.getShardCount(); shard++) {
+            RecordingHandler handler = new RecordingHandler();
+            sharded.getRuntimeEngine(shard).getKieSession().getWorkItemManager().registerWorkItemHandler("Rest", handler);
+            handlers.add(handler);
+        }
+        return handlers;
+    }
+
+    private void completeHappyPath(ShardedRuntimeManager sharded, long processInstanceId, RecordingHandler handler) {
+        completeHappyPath(sharded, processInstanceId, handler.last().getId(), handler);
+    }
+
+    private void completeHappyPath(ShardedRuntimeManager sharded, long processInstanceId, long inventoryLookupId,
+            RecordingHandler handler) {
+        Map<String, Object> results = new HashMap<>();
+        results.put("Result", "{\"partCode\":\"A\", \"availableQuantity\":20}");
+        sharded.completeWorkItem(processInstanceId, inventoryLookupId, results);
+        assertEquals("POST", handler.last().getParameter("Method"));
+        results.put("Result", "{\"reservationId\": \"abc-ABC-123\", \"remainingParts\": 0}");
+        sharded.completeWorkItem(processInstanceId, handler.last().getId(), results);
+    }
+
+    private Map<String, Object> parameters(String repairRequestId, String branchCode) {
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("repairRequestId", repairRequestId);
+        parameters.put("branchCode", branchCode);
+        parameters.put("partCode", "A");
+        parameters.put("quantity", 1);
+        parameters.put("getInventoryUrl", "inventoryUrl");
+        parameters.put("assignPartsUrl", "assignPartsUrl");
+        parameters.put("createPurchaseOrderUrl", "");
+        return parameters;
+    }
+
+    private static class RecordingHandler implements WorkItemHandler {
+        private final List<WorkItem> workItems = new ArrayList<>();
+
+        @Override
+        public void executeWorkItem(WorkItem workItem, WorkItemManager manager) {
+            workItems.add(workItem);
+        }
+
+        @Override
+        public void abortWorkItem(WorkItem workItem, WorkItemManager manager) {
+        }
+
+        WorkItem last() {
+            return workItems.get(workItems.size() - 1);
+        }
+    }
+}
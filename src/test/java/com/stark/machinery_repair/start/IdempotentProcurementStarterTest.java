@@ -0,0 +1,187 @@
+package com.stark.machinery_repair.start;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.naming.InitialContext;
+import javax.transaction.UserTransaction;
+
+import org.jbpm.test.JbpmJUnitBaseTestCase;
+import org.junit.Test;
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.process.WorkItem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class IdempotentProcurementStarterTest extends JbpmJUnitBaseTestCase {
+    private static Logger logger = LoggerFactory.getLogger(IdempotentProcurementStarterTest.class);
+
+    public IdempotentProcurementStarterTest() {
+        super(true, true);
+    }
+
+    @Test
+    public void testDuplicateStartReturnsRunningInstance() {
+        logger.debug("START testDuplicateStartReturnsRunningInstance");
+        createRuntimeManager("com/stark/machinery_repair/parts-procurement.bpmn");
+        KieSession ksession = getRuntimeEngine().getKieSession();
+        TestWorkItemHandler testHandler = new TestWorkItemHandler();
+        ksession.getWorkItemManager().registerWorkItemHandler("Rest", testHandler);
+        InFlightProcurementIndex index = new InFlightProcurementIndex();
+        IdempotentProcurementStarter starter = newStarter(ksession, index);
+
+        long first = starter.start(parameters("RR-1", "A"));
+        assertEquals(first, starter.start(parameters("RR-1", "A")));
+        long other = starter.start(parameters("RR-1", "B"));
+        assertNotEquals(first, other);
+        assertEquals(2, index.getInFlight());
+        assertEquals(2, testHandler.getWorkItems().size());
+
+        // once the first instance is done, the same request starts a new one
+        ksession.abortProcessInstance(first);
+        assertNull(index.find(new ProcurementKey("RR-1", "A", "BC-1")));
+        long again = starter.start(parameters("RR-1", "A"));
+        assertNotEquals(first, again);
+        assertEquals(again, (long) index.find(new ProcurementKey("RR-1", "A", "BC-1")));
+
+        ksession.abortProcessInstance(other);
+        ksession.abortProcessInstance(again);
+        assertEquals(0, index.getInFlight());
+        disposeRuntimeManager();
+        logger.debug("END testDuplicateStartReturnsRunningInstance");
+    }
+
+    @Test
+    public void testConcurrentStartsCreateOneInstance() throws Exception {
+        logger.debug("START testConcurrentStartsCreateOneInstance");
+        createRuntimeManager("com/stark/machinery_repair/parts-procurement.bpmn");
+        KieSession ksession = getRuntimeEngine().getKieSession();
+        TestWorkItemHandler testHandler = new TestWorkItemHandler();
+        ksession.getWorkItemManager().registerWorkItemHandler("Rest", testHandler);
+        InFlightProcurementIndex index = new InFlightProcurementIndex();
+        IdempotentProcurementStarter starter = newStarter(ksession, index);
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Callable<Long>> starts = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            starts.add(() -> starter.start(parameters("RR-1", "A")));
+        }
+        Set<Long> processInstanceIds = new HashSet<>();
+        for (Future<Long> start : executor.invokeAll(starts)) {
+            processInstanceIds.add(start.get());
+        }
+        executor.shutdown();
+        assertEquals(1, processInstanceIds.size());
+        assertEquals(1, testHandler.getWorkItems().size());
+
+        ksession.abortProcessInstance(processInstanceIds.iterator().next());
+        disposeRuntimeManager();
+        logger.debug("END testConcurrentStartsCreateOneInstance");
+    }
+
+    @Test
+    public void testConcurrentStartWaitsForCallersTransaction() throws Exception {
+        logger.debug("START testConcurrentStartWaitsForCallersTransaction");
+        createRuntimeManager("com/stark/machinery_repair/parts-procurement.bpmn");
+        KieSession ksession = getRuntimeEngine().getKieSession();
+        TestWorkItemHandler testHandler = new TestWorkItemHandler();
+        ksession.getWorkItemManager().registerWorkItemHandler("Rest", testHandler);
+        IdempotentProcurementStarter starter = newStarter(ksession, new InFlightProcurementIndex());
+        UserTransaction ut = (UserTransaction) new InitialContext().lookup("java:comp/UserTransaction");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        // a start whose transaction rolls back is not handed to the one waiting for it
+        ut.begin();
+        long rolledBack = starter.start(parameters("RR-1", "A"));
+        assertEquals(rolledBack, starter.start(parameters("RR-1", "A")));
+        Future<Long> waiting = executor.submit(() -> starter.start(parameters("RR-1", "A")));
+        Thread.sleep(200);
+        assertFalse(waiting.isDone());
+        ut.rollback();
+        long started = waiting.get(10, TimeUnit.SECONDS);
+        assertNotEquals(rolledBack, started);
+
+        // one that commits is
+        ut.begin();
+        long committed = starter.start(parameters("RR-2", "A"));
+        waiting = executor.submit(() -> starter.start(parameters("RR-2", "A")));
+        Thread.sleep(200);
+        assertFalse(waiting.isDone());
+        ut.commit();
+        assertEquals(committed, (long) waiting.get(10, TimeUnit.SECONDS));
+        executor.shutdown();
+
+        ksession.abortProcessInstance(started);
+        ksession.abortProcessInstance(committed);
+        disposeRuntimeManager();
+        logger.debug("END testConcurrentStartWaitsForCallersTransaction");
+    }
+
+    @Test
+    public void testIndexIsRebuiltFromAuditLog() {
+        logger.debug("START testIndexIsRebuiltFromAuditLog");
+        createRuntimeManager("com/stark/machinery_repair/parts-procurement.bpmn");
+        KieSession ksession = getRuntimeEngine().getKieSession();
+        TestWorkItemHandler testHandler = new TestWorkItemHandler();
+        ksession.getWorkItemManager().registerWorkItemHandler("Rest", testHandler);
+        IdempotentProcurementStarter starter = newStarter(ksession, new InFlightProcurementIndex());
+
+        long running = starter.start(parameters("RR-1", "A"));
+        long completed = starter.start(parameters("RR-2", "A"));
+        List<WorkItem> inventories = testHandler.getWorkItems();
+        complete(ksession, inventories.get(1), "{\"partCode\":\"A\", \"availableQuantity\":20}");
+        complete(ksession, testHandler.getWorkItem(), "{\"reservationId\": \"abc-ABC-123\", \"remainingParts\": 0}");
+        assertProcessInstanceCompleted(completed);
+
+        // a fresh index, as after a restart, finds the running instance only
+        InFlightProcurementIndex rebuilt = new InFlightProcurementIndex();
+        IdempotentProcurementStarter restarted = newStarter(ksession, rebuilt);
+        assertEquals(1, rebuilt.getInFlight());
+        assertEquals(running, restarted.start(parameters("RR-1", "A")));
+        assertNotEquals(completed, restarted.start(parameters("RR-2", "A")));
+
+        ksession.abortProcessInstance(running);
+        ksession.abortProcessInstance(rebuilt.find(new ProcurementKey("RR-2", "A", "BC-1")));
+        disposeRuntimeManager();
+        logger.debug("END testIndexIsRebuiltFromAuditLog");
+    }
+
+    private IdempotentProcurementStarter newStarter(KieSession ksession, InFlightProcurementIndex index) {
+        ksession.addEventListener(new InFlightProcurementListener(index));
+        return new IdempotentProcurementStarter(index,
+                parameters -> ksession.startProcess(InFlightProcurementIndex.PROCESS_ID, parameters).getId(),
+                processInstanceId -> ksession, getLogService());
+    }
+
+    private static Map<String, Object> parameters(String repairRequestId, String partCode) {
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("repairRequestId", repairRequestId);
+        parameters.put("branchCode", "BC-1");
+        parameters.put("partCode", partCode);
+        parameters.put("quantity", 1);
+        parameters.put("getInventoryUrl", "inventoryUrl");
+        parameters.put("assignPartsUrl", "assignPartsUrl");
+        parameters.put("createPurchaseOrderUrl", "createPurchaseOrderUrl");
+        return parameters;
+    }
+
+    private static void complete(KieSession ksession, WorkItem workItem, String result) {
+        Map<String, Object> workItemResult = new HashMap<>();
+        workItemResult.put("Result", result);
+        ksession.getWorkItemManager().completeWorkItem(workItem.getId(), workItemResult);
+    }
+}
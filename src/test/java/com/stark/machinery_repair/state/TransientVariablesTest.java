@@ -0,0 +1,103 @@
+package com.stark.machinery_repair.state;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+
+import org.jbpm.persistence.processinstance.ProcessInstanceInfo;
+import org.jbpm.test.JbpmJUnitBaseTestCase;
+import org.junit.Test;
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.process.WorkItem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class TransientVariablesTest extends JbpmJUnitBaseTestCase {
+    private static Logger logger = LoggerFactory.getLogger(TransientVariablesTest.class);
+
+    private static final String PROCESS_ID = "machinery-repair.parts-procurement_v2_0";
+
+    public TransientVariablesTest() {
+        super(true, true);
+    }
+
+    @Test
+    public void testPayloadsAreNeitherStoredNorAudited() {
+        logger.debug("START testPayloadsAreNeitherStoredNorAudited");
+        createRuntimeManager("com/stark/machinery_repair/parts-procurement.bpmn");
+        KieSession ksession = getRuntimeEngine().getKieSession();
+        TestWorkItemHandler testHandler = new TestWorkItemHandler();
+        ksession.getWorkItemManager().registerWorkItemHandler("Rest", testHandler);
+
+        long plain = startAndOrder(ksession, testHandler);
+        ksession.addEventListener(new TransientVariablesListener());
+        long compact = startAndOrder(ksession, testHandler);
+
+        assertEquals("ABC-123", getVariableValue("purchaseOrderReceiverId", compact, ksession));
+        assertEquals(false, getVariableValue("partsAvailable", compact, ksession));
+        assertNull(getVariableValue("wsJsonRequest", compact, ksession));
+        assertNull(getVariableValue("wsJsonResponse", compact, ksession));
+
+        int plainSize = storedSize(plain);
+        int compactSize = storedSize(compact);
+        logger.info("Instance waiting for materials takes {} bytes, {} without payloads", plainSize, compactSize);
+        assertTrue(plainSize + " vs " + compactSize, compactSize + 4000 < plainSize);
+
+        assertTrue(getLogService().findVariableInstances(compact, "wsJsonResponse").isEmpty());
+        assertTrue(getLogService().findVariableInstances(compact, "wsJsonRequest").isEmpty());
+        assertFalse(getLogService().findVariableInstances(compact, "partsAvailable").isEmpty());
+
+        ksession.abortProcessInstance(plain);
+        ksession.abortProcessInstance(compact);
+        disposeRuntimeManager();
+        logger.debug("END testPayloadsAreNeitherStoredNorAudited");
+    }
+
+    /**
+     * Runs an instance up to "Received Materials" with a large purchase order response.
+     */
+    private long startAndOrder(KieSession ksession, TestWorkItemHandler testHandler) {
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("repairRequestId", "RR-1");
+        parameters.put("branchCode", "BC-1");
+        parameters.put("partCode", "A");
+        parameters.put("quantity", 1);
+        parameters.put("getInventoryUrl", "inventoryUrl");
+        parameters.put("assignPartsUrl", "assignPartsUrl");
+        parameters.put("createPurchaseOrderUrl", "createPurchaseOrderUrl");
+        long processInstanceId = ksession.startProcess(PROCESS_ID, parameters).getId();
+
+        Map<String, Object> workItemResult = new HashMap<>();
+        workItemResult.put("Result", "{\"partCode\":\"A\", \"availableQuantity\":0}");
+        ksession.getWorkItemManager().completeWorkItem(testHandler.getWorkItem().getId(), workItemResult);
+
+        // the request reached the work item even if the variable is gone
+        WorkItem purchaseOrder = testHandler.getWorkItem();
+        assertNotNull(purchaseOrder.getParameter("ContentData"));
+
+        char[] notes = new char[8000];
+        Arrays.fill(notes, 'x');
+        workItemResult.put("Result", "{\"partCode\":\"A\", \"quantity\":0, \"purchaseOrderReceiverId\":\"ABC-123\", \"notes\":\""
+                + new String(notes) + "\"}");
+        ksession.getWorkItemManager().completeWorkItem(purchaseOrder.getId(), workItemResult);
+        assertNodeActive(processInstanceId, ksession, "Received Materials");
+        return processInstanceId;
+    }
+
+    private int storedSize(long processInstanceId) {
+        EntityManager em = getEmf().createEntityManager();
+        try {
+            return em.find(ProcessInstanceInfo.class, processInstanceId).getProcessInstanceByteArray().length;
+        } finally {
+            em.close();
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.stark.machinery_repair.task;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jbpm.test.JbpmJUnitBaseTestCase;
+import org.junit.Test;
+import org.kie.api.runtime.KieSession;
+import org.kie.api.runtime.manager.RuntimeEngine;
+import org.kie.api.runtime.process.WorkItem;
+import org.kie.api.task.TaskLifeCycleEventListener;
+import org.kie.api.task.TaskService;
+import org.kie.api.task.model.Status;
+import org.kie.internal.task.api.EventService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class FixProcurementTaskServiceTest extends JbpmJUnitBaseTestCase {
+    private static Logger logger = LoggerFactory.getLogger(FixProcurementTaskServiceTest.class);
+
+    private static final String PROCESS_ID = "machinery-repair.parts-procurement_v2_0";
+    private static final String USER_ID = "Administrator";
+
+    public FixProcurementTaskServiceTest() {
+        super(true, true);
+    }
+
+    @Test
+    public void testQueryAndCompleteMatchingTasks() {
+        logger.debug("START testQueryAndCompleteMatchingTasks");
+        createRuntimeManager("com/stark/machinery_repair/parts-procurement.bpmn");
+        RuntimeEngine runtimeEngine = getRuntimeEngine();
+        KieSession ksession = runtimeEngine.getKieSession();
+        TestWorkItemHandler testHandler = new TestWorkItemHandler();
+        ksession.getWorkItemManager().registerWorkItemHandler("Rest", testHandler);
+        FixProcurementTaskIndex index = newIndex(runtimeEngine.getTaskService());
+        FixProcurementTaskService service = new FixProcurementTaskService(index, processInstanceId -> runtimeEngine.getTaskService(),
+                runtimeEngine.getAuditService(), 2);
+
+        List<Long> processInstanceIds = new ArrayList<>();
+        processInstanceIds.add(startFailingProcess(ksession, testHandler, "A", "BC-1", 1));
+        processInstanceIds.add(startFailingProcess(ksession, testHandler, "A", "BC-1", 1));
+        processInstanceIds.add(startFailingProcess(ksession, testHandler, "A", "BC-2", 1));
+        processInstanceIds.add(startFailingProcess(ksession, testHandler, "B", "BC-2", 5));
+        processInstanceIds.add(startFailingProcess(ksession, testHandler, "B", "BC-2", 7));
+
+        assertEquals(5, index.getOpen());
+        assertEquals(3, service.count("A", null, null));
+        assertEquals(2, service.count("A", "BC-1", null));
+        assertEquals(3, service.count(null, "BC-2", null));
+        assertEquals(1, service.count("B", null, 7));
+        List<FixProcurementTask> firstPage = service.find("A", null, null, 0, 2);
+        List<FixProcurementTask> secondPage = service.find("A", null, null, 2, 2);
+        assertEquals(2, firstPage.size());
+        assertEquals(1, secondPage.size());
+        assertEquals("BC-2", secondPage.get(0).getBranchCode());
+
+        // one of them is already being worked on by the same user
+        long started = firstPage.get(1).getTaskId();
+        runtimeEngine.getTaskService().claim(started, USER_ID);
+        runtimeEngine.getTaskService().start(started, USER_ID);
+        assertEquals(Status.InProgress, index.get(started).getStatus());
+
+        Set<Long> completed = service.completeMatching("A", null, null, USER_ID, outputs("C", "BC-1", 10));
+        assertEquals(3, completed.size());
+        assertEquals(0, service.count("A", null, null));
+        assertEquals(2, index.getOpen());
+        for (int i = 0; i < 3; i++) {
+            assertNodeActive(processInstanceIds.get(i), ksession, "Request Inventory Availability");
+        }
+        assertEquals(3, testHandler.getWorkItems().size());
+        for (WorkItem workItem : testHandler.getWorkItems()) {
+            assertEquals("C", workItem.getParameter("partCode"));
+        }
+
+        for (long processInstanceId : processInstanceIds) {
+            ksession.abortProcessInstance(processInstanceId);
+        }
+        disposeRuntimeManager();
+        logger.debug("END testQueryAndCompleteMatchingTasks");
+    }
+
+    @Test
+    public void testStaleTaskDoesNotHoldUpBatch() {
+        logger.debug("START testStaleTaskDoesNotHoldUpBatch");
+        createRuntimeManager("com/stark/machinery_repair/parts-procurement.bpmn");
+        RuntimeEngine runtimeEngine = getRuntimeEngine();
+        KieSession ksession = runtimeEngine.getKieSession();
+        TestWorkItemHandler testHandler = new TestWorkItemHandler();
+        ksession.getWorkItemManager().registerWorkItemHandler("Rest", testHandler);
+        TaskService taskService = runtimeEngine.getTaskService();
+        FixProcurementTaskIndex index = newIndex(taskService);
+        FixProcurementTaskService service = new FixProcurementTaskService(index, processInstanceId -> taskService,
+                runtimeEngine.getAuditService(), 10);
+
+        List<Long> processInstanceIds = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            processInstanceIds.add(startFailingProcess(ksession, testHandler, "A", "BC-1", 1));
+        }
+        List<FixProcurementTask> tasks = service.find(null, null, null, 0, 10);
+        assertEquals(4, tasks.size());
+
+        // completed elsewhere, but the index has not heard of it
+        FixProcurementTask stale = tasks.get(2);
+        taskService.claim(stale.getTaskId(), USER_ID);
+        taskService.start(stale.getTaskId(), USER_ID);
+        taskService.complete(stale.getTaskId(), USER_ID, outputs("A", "BC-1", 1));
+        index.register(stale);
+        testHandler.getWorkItems();
+
+        List<Long> taskIds = new ArrayList<>();
+        for (FixProcurementTask task : tasks) {
+            taskIds.add(task.getTaskId());
+        }
+        Set<Long> completed = service.completeAll(taskIds, USER_ID, outputs("A", "BC-1", 1));
+        assertEquals(3, completed.size());
+        assertEquals(0, index.getOpen());
+        assertNull(index.get(stale.getTaskId()));
+        assertEquals(3, testHandler.getWorkItems().size());
+
+        for (long processInstanceId : processInstanceIds) {
+            ksession.abortProcessInstance(processInstanceId);
+        }
+        disposeRuntimeManager();
+        logger.debug("END testStaleTaskDoesNotHoldUpBatch");
+    }
+
+    @Test
+    public void testIndexIsRebuiltFromTasks() {
+        logger.debug("START testIndexIsRebuiltFromTasks");
+        createRuntimeManager("com/stark/machinery_repair/parts-procurement.bpmn");
+        RuntimeEngine runtimeEngine = getRuntimeEngine();
+        KieSession ksession = runtimeEngine.getKieSession();
+        TestWorkItemHandler testHandler = new TestWorkItemHandler();
+        ksession.getWorkItemManager().registerWorkItemHandler("Rest", testHandler);
+
+        long first = startFailingProcess(ksession, testHandler, "A", "BC-1", 3);
+        long second = startFailingProcess(ksession, testHandler, "B", "BC-1", 4);
+        long running = ksession.startProcess(PROCESS_ID, parameters("A", "BC-1", 1)).getId();
+
+        // a fresh index, as after a restart, finds the two open tasks
+        FixProcurementTaskIndex rebuilt = new FixProcurementTaskIndex();
+        FixProcurementTaskService service = new FixProcurementTaskService(rebuilt,
+                processInstanceId -> runtimeEngine.getTaskService(), runtimeEngine.getAuditService(), 100);
+        assertEquals(2, rebuilt.getOpen());
+        List<FixProcurementTask> tasks = service.find("A", "BC-1", 3, 0, 10);
+        assertEquals(1, tasks.size());
+        assertEquals(first, tasks.get(0).getProcessInstanceId());
+        assertEquals(Status.Ready, tasks.get(0).getStatus());
+
+        ksession.abortProcessInstance(first);
+        ksession.abortProcessInstance(second);
+        ksession.abortProcessInstance(running);
+        disposeRuntimeManager();
+        logger.debug("END testIndexIsRebuiltFromTasks");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static FixProcurementTaskIndex newIndex(TaskService taskService) {
+        FixProcurementTaskIndex index = new FixProcurementTaskIndex();
+        ((EventService<TaskLifeCycleEventListener>) taskService).registerTaskEventListener(new FixProcurementTaskListener(index));
+        return index;
+    }
+
+    /**
+     * Starts an instance whose inventory lookup fails, so it waits in "Fix Procurement Details".
+     */
+    private long startFailingProcess(KieSession ksession, TestWorkItemHandler testHandler, String partCode,
+            String branchCode, int quantity) {
+        long processInstanceId = ksession.startProcess(PROCESS_ID, parameters(partCode, branchCode, quantity)).getId();
+        Map<String, Object> workItemResult = new HashMap<>();
+        workItemResult.put("Result", "{\"Fail\":\"NOK\"}");
+        ksession.getWorkItemManager().completeWorkItem(testHandler.getWorkItem().getId(), workItemResult);
+        assertNodeActive(processInstanceId, ksession, "Fix Procurement Details");
+        return processInstanceId;
+    }
+
+    private static Map<String, Object> parameters(String partCode, String branchCode, int quantity) {
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("repairRequestId", "RR-" + partCode);
+        parameters.put("branchCode", branchCode);
+        parameters.put("partCode", partCode);
+        parameters.put("quantity", quantity);
+        parameters.put("getInventoryUrl", "inventoryUrl");
+        parameters.put("assignPartsUrl", "assignPartsUrl");
+        parameters.put("createPurchaseOrderUrl", "createPurchaseOrderUrl");
+        return parameters;
+    }
+
+    private static Map<String, Object> outputs(String partCode, String branchCode, int quantity) {
+        Map<String, Object> outputs = new HashMap<>();
+        outputs.put("partCode", partCode);
+        outputs.put("branchCode", branchCode);
+        outputs.put("quantity", quantity);
+        return outputs;
+    }
+}